@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.Logger;
+import org.dom4j.DocumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.LocalTime;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * Throughput of each stage of the parse pipeline and of whole directories
+ *
+ * The per job benchmarks go round robin over the jobs of one date directory, so their score is
+ * in jobs/s. The input is the job history directory given by -Doxpecker.bench.dir and the date
+ * directory of -Doxpecker.bench.date (YYYY-MM-DD) under it. Without them a day of
+ * -Doxpecker.bench.jobs synthetic jobs (1000 by default) is generated in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsePipelineBenchmark {
+
+	static Logger LOGGER = Logger.getLogger(ParsePipelineBenchmark.class);
+
+	private String baseDir;
+	private File generatedDir;
+	private List<ZonedDateTime> dates;
+	private File dateDirectory;
+	private FileSystem fs;
+	private JobHistoryDirectoryIndex index;
+	private List<JobHistoryDirectoryIndex.JobFiles> jobs;
+	//the stats files of the jobs, parsed once for the counter benchmarks
+	private List<HadoopJobHistoryFileParser.TaskAttemptFilter> parsedStatsFiles;
+	private int next;
+
+	//about the values a report reads from every job
+	private final JobProjection projection = new JobProjection(
+			Arrays.asList("JOBID", "JOBNAME", "SUBMIT_TIME", "FINISH_TIME", "JOB_STATUS"),
+			Arrays.asList("HDFS_BYTES_READ", "HDFS_BYTES_WRITTEN", "CPU_MILLISECONDS", "SLOTS_MILLIS_MAPS", "SLOTS_MILLIS_REDUCES"),
+			Arrays.asList("mapred.job.queue.name", "user.name"));
+
+	@Setup
+	public void setUp() throws IOException, ParseException {
+		baseDir = System.getProperty("oxpecker.bench.dir");
+		String date = System.getProperty("oxpecker.bench.date");
+		if (baseDir == null || date == null) {
+			date = "2015-06-01";
+			generatedDir = File.createTempFile("oxpecker-bench", "");
+			generatedDir.delete();
+			SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(generatedDir);
+			generator.setJobsPerDay(Integer.getInteger("oxpecker.bench.jobs", 1000));
+			generator.generate(LocalDate.parse(date));
+			baseDir = generatedDir.getAbsolutePath();
+		}
+		ZonedDateTime day = ZonedDateTime.of(LocalDate.parse(date), LocalTime.of(0, 0), ZoneId.systemDefault());
+		dates = Collections.singletonList(day);
+		List<File> dateDirectories = HadoopJobHistoryFileParser.getListOfDirectories(baseDir, dates);
+		if (dateDirectories.isEmpty()) {
+			throw new IllegalStateException(String.format("No directory for %s under %s", date, baseDir));
+		}
+		dateDirectory = dateDirectories.get(0);
+		fs = FileSystem.getLocal(new Configuration());
+		index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+
+		jobs = new ArrayList<JobHistoryDirectoryIndex.JobFiles>();
+		parsedStatsFiles = new ArrayList<HadoopJobHistoryFileParser.TaskAttemptFilter>();
+		for (String jobId : index.getJobIds()) {
+			JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+			if (jobFiles.isComplete()) {
+				jobs.add(jobFiles);
+				parsedStatsFiles.add(parseStatsFile(jobFiles));
+			}
+		}
+		if (jobs.isEmpty()) {
+			throw new IllegalStateException(String.format("No complete job in %s", dateDirectory));
+		}
+		LOGGER.info(String.format("%s jobs in %s", jobs.size(), dateDirectory));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (generatedDir != null) {
+			FileUtils.deleteDirectory(generatedDir);
+		}
+	}
+
+	private int nextJob() {
+		int i = next;
+		next = i + 1 == jobs.size() ? 0 : i + 1;
+		return i;
+	}
+
+	private HadoopJobHistoryFileParser.TaskAttemptFilter parseStatsFile(JobHistoryDirectoryIndex.JobFiles jobFiles) throws IOException {
+		HadoopJobHistoryFileParser.TaskAttemptFilter filter = new HadoopJobHistoryFileParser.TaskAttemptFilter();
+		HadoopJobHistoryFileParser.getHadoopJobFromStatsFile(fs, jobFiles.getStatsFile().getAbsolutePath(), filter);
+		return filter;
+	}
+
+	@Benchmark
+	public List<File> listDirectories() {
+		return HadoopJobHistoryFileParser.getListOfDirectories(baseDir, dates);
+	}
+
+	@Benchmark
+	public Collection<String> jobIdsFromDirectory() {
+		return HadoopJobHistoryFileParser.getJobIdsFromDirectory(dateDirectory);
+	}
+
+	@Benchmark
+	public HadoopJobHistoryFileParser.TaskAttemptFilter statsFile() throws IOException {
+		return parseStatsFile(jobs.get(nextJob()));
+	}
+
+	@Benchmark
+	public HadoopJob confFileDom4j() throws IOException, DocumentException, HadoopJobParseException {
+		HadoopJob hj = new HadoopJob();
+		new HadoopJobConfigFileParser(jobs.get(nextJob()).getConfFile().getAbsolutePath()).addJobConfToHadoopJob(hj);
+		return hj;
+	}
+
+	@Benchmark
+	public HadoopJob confFileStax() throws IOException, DocumentException, HadoopJobParseException {
+		HadoopJob hj = new HadoopJob();
+		HadoopJobHistoryFileParser.populateConfigsFromFile(hj, jobs.get(nextJob()).getConfFile(), null);
+		return hj;
+	}
+
+	@Benchmark
+	public HadoopJob countersFromJobInfo() throws ParseException {
+		HadoopJob hj = new HadoopJob();
+		HadoopJobHistoryFileParser.populateCountersFromJobInfo(parsedStatsFiles.get(nextJob()), hj);
+		return hj;
+	}
+
+	@Benchmark
+	public HadoopJob countersFromJobInfoProjected() throws ParseException {
+		HadoopJob hj = new HadoopJob();
+		HadoopJobHistoryFileParser.populateCountersFromJobInfo(parsedStatsFiles.get(nextJob()), hj, projection);
+		return hj;
+	}
+
+	@Benchmark
+	public HadoopJob job() {
+		return HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, jobs.get(nextJob()), "bench");
+	}
+
+	@Benchmark
+	public HadoopJob jobProjected() {
+		return HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, jobs.get(nextJob()), "bench", projection);
+	}
+
+	@Benchmark
+	public Collection<HadoopJob> directory() throws IOException, URISyntaxException {
+		return HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectory, "bench");
+	}
+
+	/**
+	 * Runs the benchmarks with the gc profiler, other JMH options can be passed as arguments
+	 * @param args
+	 * @throws RunnerException
+	 * @throws CommandLineOptionException
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		List<String> jvmArgs = new ArrayList<String>();
+		for (String property : new String[] {"oxpecker.bench.dir", "oxpecker.bench.date", "oxpecker.bench.jobs"}) {
+			if (System.getProperty(property) != null) {
+				jvmArgs.add(String.format("-D%s=%s", property, System.getProperty(property)));
+			}
+		}
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(ParsePipelineBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]))
+				.build()).run();
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.aggregation;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+/**
+ * Extracts one component of the group key of a job
+ */
+public abstract class Dimension {
+
+	public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+	public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+	private final String name;
+
+	protected Dimension(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the key component of a job
+	 * @param hj
+	 * @return null when the job does not have it
+	 */
+	public abstract Object value(HadoopJob hj);
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Groups by the value of a field such as JOB_QUEUE
+	 * @param field
+	 * @return
+	 */
+	public static Dimension field(final String field) {
+		return new Dimension(field) {
+			@Override
+			public Object value(HadoopJob hj) {
+				return hj.getFields().get(field);
+			}
+		};
+	}
+
+	/**
+	 * Groups by the value of a config property such as mapred.job.queue.name
+	 * @param key
+	 * @return
+	 */
+	public static Dimension config(final String key) {
+		return new Dimension(key) {
+			@Override
+			public Object value(HadoopJob hj) {
+				return hj.getConfigValues().get(key);
+			}
+		};
+	}
+
+	/**
+	 * Groups by a millisecond timestamp field truncated to a multiple of the bucket size,
+	 * in UTC, the key is the start of the bucket in epoch milliseconds
+	 * @param field such as SUBMIT_TIME
+	 * @param bucketMillis
+	 * @return
+	 */
+	public static Dimension timeBucket(final String field, final long bucketMillis) {
+		if (bucketMillis <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid bucket size %s", bucketMillis));
+		}
+		return new Dimension(String.format("%s/%s", field, bucketMillis)) {
+			@Override
+			public Object value(HadoopJob hj) {
+				long millis = Measure.parseLong(hj.getFields().get(field));
+				if (millis == Measure.MISSING) {
+					return null;
+				}
+				long bucket = millis - millis % bucketMillis;
+				return millis < 0 && bucket != millis ? bucket - bucketMillis : bucket;
+			}
+		};
+	}
+
+	public static Dimension hourOf(String field) {
+		return timeBucket(field, HOUR_MILLIS);
+	}
+
+	public static Dimension dayOf(String field) {
+		return timeBucket(field, DAY_MILLIS);
+	}
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.aggregation;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolls up jobs by group as they are parsed, such as the sum of HDFS_BYTES_READ per JOB_QUEUE and hour:
+ *
+ * JobAggregation aggregation = new JobAggregation(Dimension.field("JOB_QUEUE"), Dimension.hourOf("SUBMIT_TIME"));
+ * int bytesRead = aggregation.add(Aggregate.SUM, Measure.counter("HDFS_BYTES_READ"));
+ * HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, path, jobTrackerName, aggregation);
+ *
+ * Only the groups are kept, never the jobs. The values of each dimension are interned in a dictionary
+ * of their own, a group is the tuple of their ids in an open addressing table, and every aggregate is a
+ * long per group in a column of its own, so memory grows with the number of groups and distinct values.
+ * Not thread safe, the parser calls its sink from one thread at a time.
+ */
+public class JobAggregation implements HadoopJobSink {
+
+	private static final int INITIAL_GROUPS = 16;
+
+	private final Dimension[] dimensions;
+	private final List<Map<Object, Integer>> valueIds = new ArrayList<Map<Object, Integer>>();
+	private final List<List<Object>> values = new ArrayList<List<Object>>();
+	private JobFilter filter;
+
+	private final List<Aggregate> aggregates = new ArrayList<Aggregate>();
+	private final List<Measure> measures = new ArrayList<Measure>();
+	//per column, the aggregated value and the number of jobs that had the measure, per group
+	private long[][] columnValues = new long[0][];
+	private long[][] columnCounts = new long[0][];
+
+	//group ids + 1 by hash of their key, 0 for empty slots
+	private int[] table = new int[INITIAL_GROUPS * 2];
+	//the value ids of group g are at [g * dimensions.length, (g + 1) * dimensions.length)
+	private int[] groupKeys;
+	private int[] groupHashes = new int[INITIAL_GROUPS];
+	private int groups;
+	private final int[] probe;
+
+	/**
+	 * @param dimensions the group key, none to aggregate all the jobs in one group
+	 */
+	public JobAggregation(Dimension... dimensions) {
+		this.dimensions = dimensions.clone();
+		for (int i = 0; i < dimensions.length; i++) {
+			valueIds.add(new HashMap<Object, Integer>());
+			values.add(new ArrayList<Object>());
+		}
+		this.groupKeys = new int[INITIAL_GROUPS * dimensions.length];
+		this.probe = new int[dimensions.length];
+	}
+
+	/**
+	 * Only aggregates the jobs accepted by the filter
+	 * @param filter
+	 */
+	public void setFilter(JobFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Adds an aggregate, before the first job
+	 * @param aggregate
+	 * @param measure
+	 * @return the column of the aggregate
+	 */
+	public int add(Aggregate aggregate, Measure measure) {
+		if (groups > 0) {
+			throw new IllegalStateException("Aggregates must be added before the first job");
+		}
+		aggregates.add(aggregate);
+		measures.add(measure);
+		int columns = aggregates.size();
+		columnValues = Arrays.copyOf(columnValues, columns);
+		columnCounts = Arrays.copyOf(columnCounts, columns);
+		columnValues[columns - 1] = new long[groupHashes.length];
+		columnCounts[columns - 1] = new long[groupHashes.length];
+		return columns - 1;
+	}
+
+	/**
+	 * Adds the number of jobs per group
+	 * @return the column of the aggregate
+	 */
+	public int count() {
+		return add(Aggregate.COUNT, Measure.JOBS);
+	}
+
+	public void accept(HadoopJob hadoopJob) {
+		if (filter != null && !filter.accept(hadoopJob)) {
+			return;
+		}
+		int group = groupOf(hadoopJob);
+		for (int c = 0; c < columnValues.length; c++) {
+			long value = measures.get(c).value(hadoopJob);
+			if (value == Measure.MISSING) {
+				continue;
+			}
+			long[] groupValues = columnValues[c];
+			long count = columnCounts[c][group]++;
+			switch (aggregates.get(c)) {
+				case SUM:
+					groupValues[group] += value;
+					break;
+				case COUNT:
+					groupValues[group]++;
+					break;
+				case MIN:
+					groupValues[group] = count == 0 ? value : Math.min(groupValues[group], value);
+					break;
+				case MAX:
+					groupValues[group] = count == 0 ? value : Math.max(groupValues[group], value);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the group of a job, adding it if it is new
+	 */
+	private int groupOf(HadoopJob hj) {
+		for (int d = 0; d < dimensions.length; d++) {
+			probe[d] = valueId(d, dimensions[d].value(hj));
+		}
+		int hash = probeHash();
+		int slot = findSlot(hash);
+		return table[slot] == 0 ? addGroup(slot, hash) : table[slot] - 1;
+	}
+
+	private int probeHash() {
+		int hash = 1;
+		for (int d = 0; d < dimensions.length; d++) {
+			hash = hash * 31 + probe[d];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the slot of the group of the probe key, or the empty slot where it belongs
+	 */
+	private int findSlot(int hash) {
+		int mask = table.length - 1;
+		int width = dimensions.length;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int group = table[slot] - 1;
+			if (group < 0 || (groupHashes[group] == hash && sameKey(group, width))) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean sameKey(int group, int width) {
+		int offset = group * width;
+		for (int d = 0; d < width; d++) {
+			if (groupKeys[offset + d] != probe[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int valueId(int dimension, Object value) {
+		Map<Object, Integer> ids = valueIds.get(dimension);
+		Integer id = ids.get(value);
+		if (id == null) {
+			List<Object> dimensionValues = values.get(dimension);
+			id = dimensionValues.size();
+			//the first instance of a value is the interned one
+			dimensionValues.add(value);
+			ids.put(value, id);
+		}
+		return id;
+	}
+
+	private int addGroup(int slot, int hash) {
+		int group = groups++;
+		if (group == groupHashes.length) {
+			int capacity = groupHashes.length * 2;
+			groupHashes = Arrays.copyOf(groupHashes, capacity);
+			groupKeys = Arrays.copyOf(groupKeys, capacity * dimensions.length);
+			for (int c = 0; c < columnValues.length; c++) {
+				columnValues[c] = Arrays.copyOf(columnValues[c], capacity);
+				columnCounts[c] = Arrays.copyOf(columnCounts[c], capacity);
+			}
+		}
+		groupHashes[group] = hash;
+		System.arraycopy(probe, 0, groupKeys, group * dimensions.length, dimensions.length);
+		table[slot] = group + 1;
+		if (groups * 2 > table.length) {
+			rehash();
+		}
+		return group;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int group = 0; group < groups; group++) {
+			int slot = groupHashes[group] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = group + 1;
+		}
+	}
+
+	public Dimension[] getDimensions() {
+		return dimensions.clone();
+	}
+
+	public int getColumnCount() {
+		return columnValues.length;
+	}
+
+	public Aggregate getAggregate(int column) {
+		return aggregates.get(column);
+	}
+
+	public Measure getMeasure(int column) {
+		return measures.get(column);
+	}
+
+	public int getGroupCount() {
+		return groups;
+	}
+
+	/**
+	 * Returns the value of a dimension of a group
+	 * @param group
+	 * @param dimension
+	 * @return null for the jobs that did not have the dimension
+	 */
+	public Object getKey(int group, int dimension) {
+		checkGroup(group);
+		return values.get(dimension).get(groupKeys[group * dimensions.length + dimension]);
+	}
+
+	/**
+	 * Returns the key of a group, one value per dimension
+	 * @param group
+	 * @return
+	 */
+	public List<Object> getKey(int group) {
+		List<Object> key = new ArrayList<Object>(dimensions.length);
+		for (int d = 0; d < dimensions.length; d++) {
+			key.add(getKey(group, d));
+		}
+		return key;
+	}
+
+	/**
+	 * Returns an aggregate of a group
+	 * @param group
+	 * @param column
+	 * @return 0 when no job of the group had the measure
+	 */
+	public long getValue(int group, int column) {
+		checkGroup(group);
+		return columnValues[column][group];
+	}
+
+	/**
+	 * Returns the number of jobs of a group that had the measure of a column
+	 * @param group
+	 * @param column
+	 * @return
+	 */
+	public long getCount(int group, int column) {
+		checkGroup(group);
+		return columnCounts[column][group];
+	}
+
+	/**
+	 * Returns the group of a key
+	 * @param key one value per dimension
+	 * @return -1 when no job had the key
+	 */
+	public int getGroup(Object... key) {
+		if (key.length != dimensions.length) {
+			throw new IllegalArgumentException(String.format("Expected %s values, got %s", dimensions.length, key.length));
+		}
+		for (int d = 0; d < dimensions.length; d++) {
+			Integer id = valueIds.get(d).get(key[d]);
+			if (id == null) {
+				return -1;
+			}
+			probe[d] = id;
+		}
+		return table[findSlot(probeHash())] - 1;
+	}
+
+	/**
+	 * Returns a copy of the aggregates, by group key, in the order the groups were first seen
+	 * @return
+	 */
+	public Map<List<Object>, long[]> getResults() {
+		Map<List<Object>, long[]> results = new LinkedHashMap<List<Object>, long[]>();
+		for (int group = 0; group < groups; group++) {
+			long[] row = new long[columnValues.length];
+			for (int c = 0; c < row.length; c++) {
+				row[c] = columnValues[c][group];
+			}
+			results.put(getKey(group), row);
+		}
+		return results;
+	}
+
+	private void checkGroup(int group) {
+		if (group < 0 || group >= groups) {
+			throw new IndexOutOfBoundsException(String.format("Group %s of %s", group, groups));
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.aggregation;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+/**
+ * Selects the jobs that are aggregated
+ */
+public abstract class JobFilter {
+
+	public abstract boolean accept(HadoopJob hj);
+
+	/**
+	 * Accepts the jobs whose field has a value, such as JOB_STATUS FAILED
+	 * @param field
+	 * @param value
+	 * @return
+	 */
+	public static JobFilter fieldEquals(final String field, final String value) {
+		return new JobFilter() {
+			@Override
+			public boolean accept(HadoopJob hj) {
+				Object fieldValue = hj.getFields().get(field);
+				return fieldValue != null && fieldValue.toString().equals(value);
+			}
+		};
+	}
+}
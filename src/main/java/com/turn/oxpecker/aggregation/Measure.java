@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.aggregation;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+/**
+ * Extracts the value of a job that is aggregated, without boxing counters
+ */
+public abstract class Measure {
+
+	/**
+	 * Returned by value when the job does not have the measure, such a job is left out of the aggregate
+	 */
+	public static final long MISSING = Long.MIN_VALUE;
+
+	/**
+	 * 1 for every job, counts the jobs of a group
+	 */
+	public static final Measure JOBS = new Measure("jobs") {
+		@Override
+		public long value(HadoopJob hj) {
+			return 1;
+		}
+	};
+
+	private final String name;
+
+	protected Measure(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the value of a job
+	 * @param hj
+	 * @return MISSING when the job does not have it
+	 */
+	public abstract long value(HadoopJob hj);
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Measures a counter such as HDFS_BYTES_READ
+	 * @param counter
+	 * @return
+	 */
+	public static Measure counter(final String counter) {
+		return new Measure(counter) {
+			@Override
+			public long value(HadoopJob hj) {
+				return hj.getCounter(counter, MISSING);
+			}
+		};
+	}
+
+	/**
+	 * Measures a numeric field such as TOTAL_MAPS
+	 * @param field
+	 * @return
+	 */
+	public static Measure field(final String field) {
+		return new Measure(field) {
+			@Override
+			public long value(HadoopJob hj) {
+				return parseLong(hj.getFields().get(field));
+			}
+		};
+	}
+
+	/**
+	 * Measures the difference between two numeric fields, such as SUBMIT_TIME and FINISH_TIME
+	 * @param fromField
+	 * @param toField
+	 * @return
+	 */
+	public static Measure duration(final String fromField, final String toField) {
+		return new Measure(String.format("%s-%s", toField, fromField)) {
+			@Override
+			public long value(HadoopJob hj) {
+				long from = parseLong(hj.getFields().get(fromField));
+				long to = parseLong(hj.getFields().get(toField));
+				return from == MISSING || to == MISSING ? MISSING : to - from;
+			}
+		};
+	}
+
+	/**
+	 * Parses a field that the parser stored as a string, or that was set as a number
+	 * @param value
+	 * @return MISSING when the value is absent or not a number
+	 */
+	static long parseLong(Object value) {
+		if (value == null) {
+			return MISSING;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		String s = value.toString();
+		//parse by hand, Long.parseLong throws for the empty values of killed jobs
+		int length = s.length();
+		if (length == 0 || length > 19) {
+			return MISSING;
+		}
+		int i = 0;
+		boolean negative = s.charAt(0) == '-';
+		if (negative) {
+			if (length == 1) {
+				return MISSING;
+			}
+			i++;
+		}
+		long result = 0;
+		for (; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return MISSING;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return negative ? -result : result;
+	}
+}
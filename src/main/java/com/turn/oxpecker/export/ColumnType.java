@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+/**
+ * The type of an exported field column
+ */
+public enum ColumnType {
+	/** a UTF-8 string */
+	STRING(ParquetFormat.BYTE_ARRAY, ParquetFormat.UTF8),
+	/** a 64 bit integer */
+	LONG(ParquetFormat.INT64, ParquetFormat.NO_CONVERTED_TYPE),
+	/** epoch milliseconds */
+	TIMESTAMP(ParquetFormat.INT64, ParquetFormat.TIMESTAMP_MILLIS);
+
+	final int type;
+	final int convertedType;
+
+	ColumnType(int type, int convertedType) {
+		this.type = type;
+		this.convertedType = convertedType;
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffers the pages of the column chunk of one leaf column until its row group is written
+ */
+final class ColumnWriter {
+
+	static final int PAGE_BYTES = 1 << 20;
+
+	private final String[] path;
+	private final int type;
+	private final int maxRepetitionLevel;
+	private final int maxDefinitionLevel;
+	private final boolean compressed;
+
+	//the page being written
+	private int[] repetitionLevels = new int[64];
+	private int[] definitionLevels = new int[64];
+	private int levels;
+	private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+
+	//the pages of the chunk
+	private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+	private long chunkValues;
+	private long chunkUncompressedBytes;
+
+	/**
+	 * @param path the names from the root of the schema to the column
+	 * @param type INT64 or BYTE_ARRAY
+	 * @param maxRepetitionLevel
+	 * @param maxDefinitionLevel
+	 * @param compressed whether the pages are gzip compressed
+	 */
+	ColumnWriter(String[] path, int type, int maxRepetitionLevel, int maxDefinitionLevel, boolean compressed) {
+		this.path = path;
+		this.type = type;
+		this.maxRepetitionLevel = maxRepetitionLevel;
+		this.maxDefinitionLevel = maxDefinitionLevel;
+		this.compressed = compressed;
+	}
+
+	String[] getPath() {
+		return path;
+	}
+
+	int getType() {
+		return type;
+	}
+
+	/**
+	 * Writes a null, or an empty list or map when the definition level says so
+	 * @param repetitionLevel
+	 * @param definitionLevel below the max definition level
+	 */
+	void writeNull(int repetitionLevel, int definitionLevel) {
+		addLevels(repetitionLevel, definitionLevel);
+	}
+
+	void writeLong(int repetitionLevel, long value) {
+		addLevels(repetitionLevel, maxDefinitionLevel);
+		ParquetFormat.writeLongLittleEndian(values, value);
+	}
+
+	void writeString(int repetitionLevel, String value) {
+		addLevels(repetitionLevel, maxDefinitionLevel);
+		byte[] bytes = value.getBytes(ParquetFormat.UTF8_CHARSET);
+		ParquetFormat.writeIntLittleEndian(values, bytes.length);
+		values.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Ends the values of a row, pages only end between rows
+	 * @throws IOException
+	 */
+	void endRow() throws IOException {
+		if (values.size() + levels >= PAGE_BYTES) {
+			writePage();
+		}
+	}
+
+	/**
+	 * Returns the bytes buffered for the row group
+	 * @return
+	 */
+	long getBufferedBytes() {
+		return chunk.size() + values.size() + 2L * levels;
+	}
+
+	/**
+	 * Writes the chunk and starts the one of the next row group
+	 * @param out
+	 * @param offset the position of the chunk in the file
+	 * @return the metadata of the chunk
+	 * @throws IOException
+	 */
+	Chunk writeChunk(OutputStream out, long offset) throws IOException {
+		if (levels > 0) {
+			writePage();
+		}
+		Chunk written = new Chunk(offset, chunkValues, chunkUncompressedBytes, chunk.size());
+		chunk.writeTo(out);
+		chunk.reset();
+		chunkValues = 0;
+		chunkUncompressedBytes = 0;
+		return written;
+	}
+
+	private void addLevels(int repetitionLevel, int definitionLevel) {
+		if (levels == definitionLevels.length) {
+			repetitionLevels = Arrays.copyOf(repetitionLevels, levels * 2);
+			definitionLevels = Arrays.copyOf(definitionLevels, levels * 2);
+		}
+		repetitionLevels[levels] = repetitionLevel;
+		definitionLevels[levels] = definitionLevel;
+		levels++;
+	}
+
+	private void writePage() throws IOException {
+		ByteArrayOutputStream page = new ByteArrayOutputStream(values.size() + 64);
+		if (maxRepetitionLevel > 0) {
+			ParquetFormat.writeLevels(page, repetitionLevels, levels, maxRepetitionLevel);
+		}
+		if (maxDefinitionLevel > 0) {
+			ParquetFormat.writeLevels(page, definitionLevels, levels, maxDefinitionLevel);
+		}
+		values.writeTo(page);
+		byte[] body = page.toByteArray();
+		byte[] stored = body;
+		if (compressed) {
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+			gzip.write(body);
+			gzip.close();
+			stored = gzipped.toByteArray();
+		}
+
+		ThriftCompactWriter header = new ThriftCompactWriter();
+		header.beginStruct();
+		header.writeI32(1, ParquetFormat.DATA_PAGE);
+		header.writeI32(2, body.length);
+		header.writeI32(3, stored.length);
+		header.beginStruct(5);
+		header.writeI32(1, levels);
+		header.writeI32(2, ParquetFormat.PLAIN);
+		header.writeI32(3, ParquetFormat.RLE);
+		header.writeI32(4, ParquetFormat.RLE);
+		header.endStruct();
+		header.endStruct();
+		byte[] headerBytes = header.toByteArray();
+
+		chunk.write(headerBytes);
+		chunk.write(stored);
+		chunkValues += levels;
+		chunkUncompressedBytes += headerBytes.length + body.length;
+		levels = 0;
+		values.reset();
+	}
+
+	/**
+	 * Where a column chunk was written and its sizes
+	 */
+	static final class Chunk {
+		final long offset;
+		final long values;
+		final long uncompressedBytes;
+		final long compressedBytes;
+
+		Chunk(long offset, long values, long uncompressedBytes, long compressedBytes) {
+			this.offset = offset;
+			this.values = values;
+			this.uncompressedBytes = uncompressedBytes;
+			this.compressedBytes = compressedBytes;
+		}
+	}
+}
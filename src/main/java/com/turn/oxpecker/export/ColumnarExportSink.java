@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.Constant;
+import com.turn.oxpecker.reader.HadoopJobSink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.format.DateTimeFormatter;
+
+/**
+ * Exports jobs as Parquet files that analytics engines scan column by column
+ *
+ * The files are partitioned by the day the jobs were submitted and by jobtracker, as
+ * &lt;export dir&gt;/date=YYYY-MM-DD/jobtracker=&lt;name&gt;/part-NNNNN.parquet, jobs without a
+ * SUBMIT_TIME or JOB_TRACKER go to the unknown partition. The fields, see DEFAULT_FIELDS, and the chosen counters are typed
+ * columns, the config values are a map column.
+ *
+ * A part file is written as a hidden .inprogress file and renamed when it is complete, so that
+ * readers never see half a file. Flushing completes the open files, the next jobs of a partition go
+ * to a new part file, so a checkpointed backfill does not lose or repeat the jobs of a part file.
+ * A partition that has not been written to for a while is completed once more than the maximum
+ * number of partitions are open.
+ */
+public class ColumnarExportSink implements HadoopJobSink, Flushable, Closeable {
+
+	static Logger LOGGER = Logger.getLogger(ColumnarExportSink.class);
+
+	public static final Map<String, ColumnType> DEFAULT_FIELDS;
+	static {
+		Map<String, ColumnType> fields = new LinkedHashMap<String, ColumnType>();
+		fields.put("JOBID", ColumnType.STRING);
+		fields.put("JOBNAME", ColumnType.STRING);
+		fields.put("USER", ColumnType.STRING);
+		fields.put("JOB_QUEUE", ColumnType.STRING);
+		fields.put("JOB_STATUS", ColumnType.STRING);
+		fields.put("JOB_PRIORITY", ColumnType.STRING);
+		fields.put(Constant.JOB_TRACKER, ColumnType.STRING);
+		fields.put("SUBMIT_TIME", ColumnType.TIMESTAMP);
+		fields.put("LAUNCH_TIME", ColumnType.TIMESTAMP);
+		fields.put("FINISH_TIME", ColumnType.TIMESTAMP);
+		fields.put("TOTAL_MAPS", ColumnType.LONG);
+		fields.put("TOTAL_REDUCES", ColumnType.LONG);
+		fields.put("FINISHED_MAPS", ColumnType.LONG);
+		fields.put("FINISHED_REDUCES", ColumnType.LONG);
+		fields.put("FAILED_MAPS", ColumnType.LONG);
+		fields.put("FAILED_REDUCES", ColumnType.LONG);
+		DEFAULT_FIELDS = Collections.unmodifiableMap(fields);
+	}
+
+	public static final List<String> DEFAULT_COUNTERS = Collections.unmodifiableList(Arrays.asList(
+			"HDFS_BYTES_READ", "HDFS_BYTES_WRITTEN", "FILE_BYTES_READ", "FILE_BYTES_WRITTEN",
+			"MAP_INPUT_RECORDS", "MAP_OUTPUT_RECORDS", "REDUCE_INPUT_RECORDS", "REDUCE_OUTPUT_RECORDS",
+			"CPU_MILLISECONDS", "SLOTS_MILLIS_MAPS", "SLOTS_MILLIS_REDUCES"));
+
+	public static final String UNKNOWN_PARTITION = "unknown";
+	public static final String FILE_EXTENSION = ".parquet";
+
+	private static final String IN_PROGRESS_EXTENSION = ".inprogress";
+	private static final Pattern PART_FILE = Pattern.compile("part-(\\d+)\\.parquet");
+	private static final Pattern UNSAFE_PATH_CHARACTERS = Pattern.compile("[^A-Za-z0-9._-]");
+	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+	private final File exportDir;
+	private final List<String> fields = new ArrayList<String>();
+	private final List<ColumnType> fieldTypes = new ArrayList<ColumnType>();
+	private final List<String> counters;
+	private boolean config = true;
+	private boolean compressed = true;
+	private long rowGroupBytes = 64L * 1024 * 1024;
+	private int maxOpenPartitions = 8;
+	private ZoneId zone = ZoneId.systemDefault();
+
+	//open part files by partition directory, least recently written first
+	private final LinkedHashMap<File, PartFile> partFiles = new LinkedHashMap<File, PartFile>(16, 0.75f, true);
+	private final List<File> writtenFiles = new ArrayList<File>();
+	private long jobCount;
+
+	public ColumnarExportSink(File exportDir) {
+		this(exportDir, DEFAULT_FIELDS, DEFAULT_COUNTERS);
+	}
+
+	/**
+	 * @param exportDir
+	 * @param fields the field columns and their types
+	 * @param counters the counter columns
+	 */
+	public ColumnarExportSink(File exportDir, Map<String, ColumnType> fields, List<String> counters) {
+		this.exportDir = exportDir;
+		Set<String> names = new HashSet<String>(Collections.singleton("config"));
+		for (Map.Entry<String, ColumnType> e : fields.entrySet()) {
+			if (!names.add(e.getKey())) {
+				throw new IllegalArgumentException(String.format("Duplicate column %s", e.getKey()));
+			}
+			this.fields.add(e.getKey());
+			this.fieldTypes.add(e.getValue());
+		}
+		for (String counter : counters) {
+			if (!names.add(counter)) {
+				throw new IllegalArgumentException(String.format("Duplicate column %s", counter));
+			}
+		}
+		this.counters = new ArrayList<String>(counters);
+	}
+
+	/**
+	 * Whether the config values are exported, true by default
+	 * @param config
+	 */
+	public void setConfig(boolean config) {
+		this.config = config;
+	}
+
+	/**
+	 * Whether the pages are gzip compressed, true by default
+	 * @param compressed
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Sets how much of a row group is buffered in memory before it is written, 64MB by default
+	 * @param rowGroupBytes
+	 */
+	public void setRowGroupBytes(long rowGroupBytes) {
+		this.rowGroupBytes = rowGroupBytes;
+	}
+
+	/**
+	 * Sets the number of part files written at the same time, 8 by default
+	 * @param maxOpenPartitions
+	 */
+	public void setMaxOpenPartitions(int maxOpenPartitions) {
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
+	/**
+	 * Sets the zone of the date partitions, the default zone by default
+	 * @param zone
+	 */
+	public void setZone(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	public synchronized void accept(HadoopJob hadoopJob) throws IOException {
+		File partition = getPartition(hadoopJob);
+		PartFile partFile = partFiles.get(partition);
+		if (partFile == null) {
+			if (partFiles.size() >= maxOpenPartitions) {
+				Iterator<PartFile> eldest = partFiles.values().iterator();
+				PartFile closing = eldest.next();
+				eldest.remove();
+				closing.close();
+			}
+			partFile = open(partition);
+			partFiles.put(partition, partFile);
+		}
+		partFile.writer.write(hadoopJob);
+		jobCount++;
+	}
+
+	/**
+	 * Returns the partition directory of a job
+	 * @param hj
+	 * @return
+	 */
+	public File getPartition(HadoopJob hj) {
+		Map<String, Object> jobFields = hj.getFields();
+		String date = UNKNOWN_PARTITION;
+		Object submitTime = jobFields.get("SUBMIT_TIME");
+		if (submitTime != null) {
+			try {
+				date = Instant.ofEpochMilli(Long.parseLong(submitTime.toString())).atZone(zone).format(DATE_FORMATTER);
+			} catch (NumberFormatException e) {
+				LOGGER.warn(String.format("Invalid SUBMIT_TIME %s of %s", submitTime, jobFields.get("JOBID")));
+			}
+		}
+		Object jobTracker = jobFields.get(Constant.JOB_TRACKER);
+		String jobTrackerName = jobTracker == null ? UNKNOWN_PARTITION : UNSAFE_PATH_CHARACTERS.matcher(jobTracker.toString()).replaceAll("_");
+		return new File(new File(exportDir, "date=" + date), "jobtracker=" + jobTrackerName);
+	}
+
+	/**
+	 * Completes the open part files
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		IOException failure = null;
+		for (PartFile partFile : partFiles.values()) {
+			try {
+				partFile.close();
+			} catch (IOException e) {
+				LOGGER.error(String.format("Could not complete %s", partFile.file), e);
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		partFiles.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		flush();
+		LOGGER.info(String.format("Exported %s jobs to %s files under %s", jobCount, writtenFiles.size(), exportDir));
+	}
+
+	public synchronized long getJobCount() {
+		return jobCount;
+	}
+
+	/**
+	 * Returns the part files completed so far
+	 * @return
+	 */
+	public synchronized List<File> getWrittenFiles() {
+		return new ArrayList<File>(writtenFiles);
+	}
+
+	private PartFile open(File partition) throws IOException {
+		if (!partition.isDirectory() && !partition.mkdirs()) {
+			throw new IOException(String.format("Could not create %s", partition));
+		}
+		//continue after the part files of earlier exports
+		int part = 0;
+		String[] names = partition.list();
+		for (String name : names == null ? new String[0] : names) {
+			if (name.startsWith(".") && name.endsWith(IN_PROGRESS_EXTENSION)) {
+				name = name.substring(1, name.length() - IN_PROGRESS_EXTENSION.length());
+			}
+			Matcher m = PART_FILE.matcher(name);
+			if (m.matches()) {
+				part = Math.max(part, Integer.parseInt(m.group(1)) + 1);
+			}
+		}
+		File file = new File(partition, String.format("part-%05d%s", part, FILE_EXTENSION));
+		File inProgress = new File(partition, "." + file.getName() + IN_PROGRESS_EXTENSION);
+		return new PartFile(file, inProgress, new ParquetJobWriter(inProgress, fields, fieldTypes, counters, config, compressed, rowGroupBytes));
+	}
+
+	private class PartFile {
+		final File file;
+		final File inProgress;
+		final ParquetJobWriter writer;
+
+		PartFile(File file, File inProgress, ParquetJobWriter writer) {
+			this.file = file;
+			this.inProgress = inProgress;
+			this.writer = writer;
+		}
+
+		void close() throws IOException {
+			writer.close();
+			if (!inProgress.renameTo(file)) {
+				throw new IOException(String.format("Could not rename %s to %s", inProgress, file));
+			}
+			writtenFiles.add(file);
+			LOGGER.info(String.format("Wrote %s jobs to %s", writer.getRowCount(), file));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The parts of the Parquet file format that the exported files use
+ *
+ * A file is MAGIC, the row groups, the file metadata as a Thrift compact struct, the length of
+ * the metadata as a little endian int and MAGIC again. A row group holds one column chunk per leaf
+ * column, a chunk is a sequence of version 1 data pages. A page is a PageHeader struct followed by
+ * the repetition levels and the definition levels, each as a little endian length and RLE runs,
+ * and the PLAIN encoded values that are not null, optionally gzip compressed.
+ */
+final class ParquetFormat {
+
+	static final byte[] MAGIC = {'P', 'A', 'R', '1'};
+	static final int FILE_VERSION = 1;
+	static final String CREATED_BY = "oxpecker";
+
+	//Type
+	static final int INT64 = 2;
+	static final int BYTE_ARRAY = 6;
+
+	//ConvertedType
+	static final int NO_CONVERTED_TYPE = -1;
+	static final int UTF8 = 0;
+	static final int MAP = 1;
+	static final int MAP_KEY_VALUE = 2;
+	static final int TIMESTAMP_MILLIS = 9;
+
+	//FieldRepetitionType
+	static final int REQUIRED = 0;
+	static final int OPTIONAL = 1;
+	static final int REPEATED = 2;
+
+	//Encoding
+	static final int PLAIN = 0;
+	static final int RLE = 3;
+
+	//CompressionCodec
+	static final int UNCOMPRESSED = 0;
+	static final int GZIP = 2;
+
+	//PageType
+	static final int DATA_PAGE = 0;
+
+	static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+	private ParquetFormat() {
+	}
+
+	static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	static void writeLongLittleEndian(ByteArrayOutputStream out, long value) {
+		for (int shift = 0; shift < 64; shift += 8) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	static void writeUnsignedVarInt(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Writes levels with the RLE/bit packing hybrid encoding, as RLE runs only, prefixed with their length
+	 * @param out
+	 * @param levels
+	 * @param count
+	 * @param maxLevel
+	 */
+	static void writeLevels(ByteArrayOutputStream out, int[] levels, int count, int maxLevel) {
+		int bitWidth = 32 - Integer.numberOfLeadingZeros(maxLevel);
+		int byteWidth = (bitWidth + 7) / 8;
+		ByteArrayOutputStream runs = new ByteArrayOutputStream();
+		for (int i = 0; i < count;) {
+			int end = i + 1;
+			while (end < count && levels[end] == levels[i]) {
+				end++;
+			}
+			writeUnsignedVarInt(runs, (long) (end - i) << 1);
+			for (int b = 0; b < byteWidth; b++) {
+				runs.write(levels[i] >>> (8 * b));
+			}
+			i = end;
+		}
+		writeIntLittleEndian(out, runs.size());
+		out.write(runs.toByteArray(), 0, runs.size());
+	}
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes jobs to a Parquet file, see ParquetFormat
+ *
+ * Every field and counter is an optional column, the config values are an optional map of strings
+ * to strings named config, an empty map for a job without config values. The columns of a row group are buffered in memory, a row group is written
+ * once the buffers reach the row group size and when the file is closed.
+ */
+final class ParquetJobWriter implements Closeable {
+
+	private static final long MISSING = Long.MIN_VALUE;
+
+	private final OutputStream out;
+	private final List<String> fields;
+	private final List<ColumnType> fieldTypes;
+	private final List<String> counters;
+	private final boolean config;
+	private final boolean compressed;
+	private final long rowGroupBytes;
+
+	private final List<ColumnWriter> columns = new ArrayList<ColumnWriter>();
+	private ColumnWriter configKeys;
+	private ColumnWriter configValues;
+
+	private final List<ColumnWriter.Chunk[]> rowGroupChunks = new ArrayList<ColumnWriter.Chunk[]>();
+	private final List<Long> rowGroupRows = new ArrayList<Long>();
+	private long position;
+	private long rows;
+	private long bufferedRows;
+
+	/**
+	 * @param file
+	 * @param fields the field columns
+	 * @param fieldTypes the type of each field column
+	 * @param counters the counter columns
+	 * @param config whether the config values are written
+	 * @param compressed whether the pages are gzip compressed
+	 * @param rowGroupBytes the size of the buffers of a row group
+	 * @throws IOException
+	 */
+	ParquetJobWriter(File file, List<String> fields, List<ColumnType> fieldTypes, List<String> counters, boolean config,
+			boolean compressed, long rowGroupBytes) throws IOException {
+		this.fields = fields;
+		this.fieldTypes = fieldTypes;
+		this.counters = counters;
+		this.config = config;
+		this.compressed = compressed;
+		this.rowGroupBytes = rowGroupBytes;
+		for (int i = 0; i < fields.size(); i++) {
+			columns.add(new ColumnWriter(new String[] {fields.get(i)}, fieldTypes.get(i).type, 0, 1, compressed));
+		}
+		for (String counter : counters) {
+			columns.add(new ColumnWriter(new String[] {counter}, ParquetFormat.INT64, 0, 1, compressed));
+		}
+		if (config) {
+			//optional config, repeated key_value, required key and optional value
+			configKeys = new ColumnWriter(new String[] {"config", "key_value", "key"}, ParquetFormat.BYTE_ARRAY, 1, 2, compressed);
+			configValues = new ColumnWriter(new String[] {"config", "key_value", "value"}, ParquetFormat.BYTE_ARRAY, 1, 3, compressed);
+			columns.add(configKeys);
+			columns.add(configValues);
+		}
+		this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		out.write(ParquetFormat.MAGIC);
+		position = ParquetFormat.MAGIC.length;
+	}
+
+	void write(HadoopJob hj) throws IOException {
+		Map<String, Object> jobFields = hj.getFields();
+		for (int i = 0; i < fields.size(); i++) {
+			ColumnWriter column = columns.get(i);
+			Object value = jobFields.get(fields.get(i));
+			if (value == null) {
+				column.writeNull(0, 0);
+			} else if (fieldTypes.get(i) == ColumnType.STRING) {
+				column.writeString(0, value.toString());
+			} else {
+				long l = toLong(value);
+				if (l == MISSING) {
+					column.writeNull(0, 0);
+				} else {
+					column.writeLong(0, l);
+				}
+			}
+		}
+		for (int i = 0; i < counters.size(); i++) {
+			ColumnWriter column = columns.get(fields.size() + i);
+			long value = hj.getCounter(counters.get(i), MISSING);
+			if (value == MISSING) {
+				column.writeNull(0, 0);
+			} else {
+				column.writeLong(0, value);
+			}
+		}
+		if (config) {
+			Map<String, String> jobConfig = hj.getConfigValues();
+			if (jobConfig.isEmpty()) {
+				//defined up to config, an empty map rather than a null one
+				configKeys.writeNull(0, 1);
+				configValues.writeNull(0, 1);
+			} else {
+				int repetitionLevel = 0;
+				for (Map.Entry<String, String> e : jobConfig.entrySet()) {
+					configKeys.writeString(repetitionLevel, e.getKey());
+					if (e.getValue() == null) {
+						configValues.writeNull(repetitionLevel, 2);
+					} else {
+						configValues.writeString(repetitionLevel, e.getValue());
+					}
+					repetitionLevel = 1;
+				}
+			}
+		}
+
+		long buffered = 0;
+		for (ColumnWriter column : columns) {
+			column.endRow();
+			buffered += column.getBufferedBytes();
+		}
+		rows++;
+		bufferedRows++;
+		if (buffered >= rowGroupBytes) {
+			writeRowGroup();
+		}
+	}
+
+	long getRowCount() {
+		return rows;
+	}
+
+	private static long toLong(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		try {
+			return Long.parseLong(value.toString());
+		} catch (NumberFormatException e) {
+			return MISSING;
+		}
+	}
+
+	private void writeRowGroup() throws IOException {
+		if (bufferedRows == 0) {
+			return;
+		}
+		ColumnWriter.Chunk[] chunks = new ColumnWriter.Chunk[columns.size()];
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c] = columns.get(c).writeChunk(out, position);
+			position += chunks[c].compressedBytes;
+		}
+		rowGroupChunks.add(chunks);
+		rowGroupRows.add(bufferedRows);
+		bufferedRows = 0;
+	}
+
+	public void close() throws IOException {
+		try {
+			writeRowGroup();
+			byte[] footer = getFileMetaData();
+			out.write(footer);
+			ByteArrayOutputStream length = new ByteArrayOutputStream(4);
+			ParquetFormat.writeIntLittleEndian(length, footer.length);
+			length.writeTo(out);
+			out.write(ParquetFormat.MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	private byte[] getFileMetaData() {
+		ThriftCompactWriter meta = new ThriftCompactWriter();
+		meta.beginStruct();
+		meta.writeI32(1, ParquetFormat.FILE_VERSION);
+
+		meta.beginList(2, ThriftCompactWriter.STRUCT, 1 + fields.size() + counters.size() + (config ? 4 : 0));
+		meta.beginStruct();
+		meta.writeString(4, "schema");
+		meta.writeI32(5, fields.size() + counters.size() + (config ? 1 : 0));
+		meta.endStruct();
+		for (int i = 0; i < fields.size(); i++) {
+			writeSchemaElement(meta, fields.get(i), fieldTypes.get(i).type, ParquetFormat.OPTIONAL, -1, fieldTypes.get(i).convertedType);
+		}
+		for (String counter : counters) {
+			writeSchemaElement(meta, counter, ParquetFormat.INT64, ParquetFormat.OPTIONAL, -1, ParquetFormat.NO_CONVERTED_TYPE);
+		}
+		if (config) {
+			writeSchemaElement(meta, "config", -1, ParquetFormat.OPTIONAL, 1, ParquetFormat.MAP);
+			writeSchemaElement(meta, "key_value", -1, ParquetFormat.REPEATED, 2, ParquetFormat.MAP_KEY_VALUE);
+			writeSchemaElement(meta, "key", ParquetFormat.BYTE_ARRAY, ParquetFormat.REQUIRED, -1, ParquetFormat.UTF8);
+			writeSchemaElement(meta, "value", ParquetFormat.BYTE_ARRAY, ParquetFormat.OPTIONAL, -1, ParquetFormat.UTF8);
+		}
+
+		meta.writeI64(3, rows);
+
+		meta.beginList(4, ThriftCompactWriter.STRUCT, rowGroupChunks.size());
+		for (int g = 0; g < rowGroupChunks.size(); g++) {
+			ColumnWriter.Chunk[] chunks = rowGroupChunks.get(g);
+			long totalBytes = 0;
+			meta.beginStruct();
+			meta.beginList(1, ThriftCompactWriter.STRUCT, chunks.length);
+			for (int c = 0; c < chunks.length; c++) {
+				ColumnWriter column = columns.get(c);
+				ColumnWriter.Chunk chunk = chunks[c];
+				meta.beginStruct();
+				meta.writeI64(2, chunk.offset);
+				meta.beginStruct(3);
+				meta.writeI32(1, column.getType());
+				meta.beginList(2, ThriftCompactWriter.I32, 2);
+				meta.listI32(ParquetFormat.PLAIN);
+				meta.listI32(ParquetFormat.RLE);
+				meta.beginList(3, ThriftCompactWriter.BINARY, column.getPath().length);
+				for (String name : column.getPath()) {
+					meta.listString(name);
+				}
+				meta.writeI32(4, compressed ? ParquetFormat.GZIP : ParquetFormat.UNCOMPRESSED);
+				meta.writeI64(5, chunk.values);
+				meta.writeI64(6, chunk.uncompressedBytes);
+				meta.writeI64(7, chunk.compressedBytes);
+				meta.writeI64(9, chunk.offset);
+				meta.endStruct();
+				meta.endStruct();
+				totalBytes += chunk.uncompressedBytes;
+			}
+			meta.writeI64(2, totalBytes);
+			meta.writeI64(3, rowGroupRows.get(g));
+			meta.endStruct();
+		}
+
+		meta.writeString(6, ParquetFormat.CREATED_BY);
+		meta.endStruct();
+		return meta.toByteArray();
+	}
+
+	/**
+	 * @param meta
+	 * @param name
+	 * @param type -1 for a group
+	 * @param repetition
+	 * @param children -1 for a leaf
+	 * @param convertedType
+	 */
+	private static void writeSchemaElement(ThriftCompactWriter meta, String name, int type, int repetition, int children, int convertedType) {
+		meta.beginStruct();
+		if (type >= 0) {
+			meta.writeI32(1, type);
+		}
+		meta.writeI32(3, repetition);
+		meta.writeString(4, name);
+		if (children >= 0) {
+			meta.writeI32(5, children);
+		}
+		if (convertedType != ParquetFormat.NO_CONVERTED_TYPE) {
+			meta.writeI32(6, convertedType);
+		}
+		meta.endStruct();
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes structs with the Thrift compact protocol, as much of it as the Parquet metadata needs
+ */
+final class ThriftCompactWriter {
+
+	static final byte I32 = 5;
+	static final byte I64 = 6;
+	static final byte BINARY = 8;
+	static final byte LIST = 9;
+	static final byte STRUCT = 12;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	//the id of the last field written, per struct being written
+	private final List<Integer> lastFieldIds = new ArrayList<Integer>();
+
+	/**
+	 * Starts a struct that is the whole message or an element of a list
+	 */
+	void beginStruct() {
+		lastFieldIds.add(0);
+	}
+
+	void beginStruct(int id) {
+		writeFieldHeader(id, STRUCT);
+		beginStruct();
+	}
+
+	void endStruct() {
+		out.write(0);
+		lastFieldIds.remove(lastFieldIds.size() - 1);
+	}
+
+	void writeI32(int id, int value) {
+		writeFieldHeader(id, I32);
+		ParquetFormat.writeUnsignedVarInt(out, zigzag(value));
+	}
+
+	void writeI64(int id, long value) {
+		writeFieldHeader(id, I64);
+		ParquetFormat.writeUnsignedVarInt(out, (value << 1) ^ (value >> 63));
+	}
+
+	void writeString(int id, String value) {
+		writeFieldHeader(id, BINARY);
+		writeBinary(value);
+	}
+
+	/**
+	 * Starts a list field, the elements are written with listI32, listString or beginStruct
+	 * @param id
+	 * @param elementType
+	 * @param size
+	 */
+	void beginList(int id, byte elementType, int size) {
+		writeFieldHeader(id, LIST);
+		if (size < 15) {
+			out.write(size << 4 | elementType);
+		} else {
+			out.write(0xf0 | elementType);
+			ParquetFormat.writeUnsignedVarInt(out, size);
+		}
+	}
+
+	void listI32(int value) {
+		ParquetFormat.writeUnsignedVarInt(out, zigzag(value));
+	}
+
+	void listString(String value) {
+		writeBinary(value);
+	}
+
+	byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private void writeBinary(String value) {
+		byte[] bytes = value.getBytes(ParquetFormat.UTF8_CHARSET);
+		ParquetFormat.writeUnsignedVarInt(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static long zigzag(int value) {
+		return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+	}
+
+	private void writeFieldHeader(int id, byte type) {
+		int level = lastFieldIds.size() - 1;
+		int delta = id - lastFieldIds.get(level);
+		if (delta > 0 && delta <= 15) {
+			out.write(delta << 4 | type);
+		} else {
+			out.write(type);
+			ParquetFormat.writeUnsignedVarInt(out, zigzag(id));
+		}
+		lastFieldIds.set(level, id);
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import static com.turn.oxpecker.instrumentation.KeyDictionary.KEYS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Config values shared by most jobs of a jobtracker and day, jobs rebased on it only store
+ * the config values that differ from it
+ */
+public final class ConfigBase {
+
+	static final ConfigBase EMPTY = new ConfigBase(new int[0], new String[0]);
+
+	final int[] ids;
+	final String[] values;
+
+	ConfigBase(int[] ids, String[] values) {
+		this.ids = ids;
+		this.values = values;
+	}
+
+	/**
+	 * Builds the base from a sample of jobs, a config key is part of the base when more than
+	 * half of the sample has the same value for it
+	 * @param sample
+	 * @return
+	 */
+	public static ConfigBase detect(Collection<HadoopJob> sample) {
+		Map<Integer, Map<String, int[]>> valueCounts = new HashMap<Integer, Map<String, int[]>>();
+		for (HadoopJob hj : sample) {
+			for (Map.Entry<String, String> e : hj.getConfigValues().entrySet()) {
+				if (e.getValue() == null) {
+					continue;
+				}
+				Integer id = KEYS.getId(e.getKey());
+				Map<String, int[]> counts = valueCounts.get(id);
+				if (counts == null) {
+					counts = new HashMap<String, int[]>(2);
+					valueCounts.put(id, counts);
+				}
+				int[] count = counts.get(e.getValue());
+				if (count == null) {
+					counts.put(e.getValue(), new int[] {1});
+				} else {
+					count[0]++;
+				}
+			}
+		}
+
+		List<Integer> baseIds = new ArrayList<Integer>();
+		Map<Integer, String> baseValues = new HashMap<Integer, String>();
+		for (Map.Entry<Integer, Map<String, int[]>> e : valueCounts.entrySet()) {
+			for (Map.Entry<String, int[]> count : e.getValue().entrySet()) {
+				if (count.getValue()[0] * 2 > sample.size()) {
+					baseIds.add(e.getKey());
+					baseValues.put(e.getKey(), count.getKey());
+				}
+			}
+		}
+
+		int[] ids = new int[baseIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = baseIds.get(i);
+		}
+		Arrays.sort(ids);
+		String[] values = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			values[i] = StringInterner.intern(baseValues.get(ids[i]));
+		}
+		return new ConfigBase(ids, values);
+	}
+
+	/**
+	 * Returns the number of config values in the base
+	 * @return
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	int indexOf(int id) {
+		return Arrays.binarySearch(ids, id);
+	}
+}
@@ -15,7 +15,11 @@
  */
 package com.turn.oxpecker.instrumentation;
 
+import static com.turn.oxpecker.instrumentation.KeyDictionary.KEYS;
+
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Basic POJO that encapsulates all the information of a Hadoop Job that Samburu needs
@@ -29,63 +33,130 @@ import java.util.HashMap;
  * 		FAILED_MAPS, 	FAILED_REDUCES,
  * 		JOB_QUEUE, 		JOB_PRIORITY,
  * 		JOBID, 			JOBNAME
+ *
+ * Names and keys are stored as ids of a dictionary shared by all jobs, counters as primitive
+ * longs and string values are interned, the getters return Map views of that storage.
+ * The views behave like the HashMaps they replace: they take null keys and values, and put,
+ * remove and clear on them, their key sets or entry set iterators change the job.
+ * Config values can be rebased on a ConfigBase shared by the jobs of a jobtracker and day.
  * 
  * @author jzhang, jshum
  *
  */
 public class HadoopJob {
 	
-	private HashMap<String, Object> fields;
-	private HashMap<String, Long> counters;
-	private HashMap<String, String> configValues;
+	private final SparseStore.Values<Object> fields = new SparseStore.Values<Object>();
+	private final SparseStore.Longs counters = new SparseStore.Longs();
+	private KeyedValues<String> configValues = new SparseStore.Values<String>();
+	private TaskAttemptStats taskAttemptStats;
 	
 	public HadoopJob() {
-		this.fields = new HashMap<String, Object>();
-		this.counters = new HashMap<String, Long>();
-		this.configValues = new HashMap<String, String>();
 	}
 	
-	public void setField(HashMap<String, Object> fields) {
-		this.fields = fields;
+	public void setField(Map<String, Object> fields) {
+		this.fields.clear();
+		for (Map.Entry<String, Object> e : fields.entrySet()) {
+			addField(e.getKey(), e.getValue());
+		}
 	}
 	
-	public void setCounters(HashMap<String, Long> counters) {
-		this.counters = counters;
+	public void setCounters(Map<String, Long> counters) {
+		this.counters.clear();
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			this.counters.put(KEYS.getId(e.getKey()), e.getValue());
+		}
 	}
 	
-	public HashMap<String, Object> getFields() {
-		return this.fields;
+	public Map<String, Object> getFields() {
+		return new KeyedValuesMap<Object>(fields);
 	}
 	
-	public HashMap<String, Long> getCounters() {
-		return this.counters;
+	public Map<String, Long> getCounters() {
+		return new KeyedValuesMap<Long>(counters);
+	}
+
+	/**
+	 * Returns the value of a counter without boxing it
+	 * @param name
+	 * @param defaultValue returned when the job does not have the counter or its value is null
+	 * @return
+	 */
+	public long getCounter(String name, long defaultValue) {
+		int id = KEYS.lookup(name);
+		int index = id < 0 ? -1 : counters.indexOf(id);
+		return index < 0 || counters.isNullAt(index) ? defaultValue : counters.longAt(index);
 	}
 	
-	public HashMap<String, String> getConfigValues() {
-		return configValues;
+	public Map<String, String> getConfigValues() {
+		return new KeyedValuesMap<String>(configValues);
 	}
 
-	public void setConfigValues(HashMap<String, String> props) {
-		this.configValues = props;
+	public void setConfigValues(Map<String, String> props) {
+		this.configValues = new SparseStore.Values<String>();
+		for (Map.Entry<String, String> e : props.entrySet()) {
+			addConfigValue(e.getKey(), e.getValue());
+		}
 	}
 	
+	/**
+	 * Returns the distributions of the task attempts of this job, only parsed when the
+	 * projection asks for them
+	 * @return null when the task attempts were not parsed
+	 */
+	public TaskAttemptStats getTaskAttemptStats() {
+		return taskAttemptStats;
+	}
+
+	public void setTaskAttemptStats(TaskAttemptStats taskAttemptStats) {
+		this.taskAttemptStats = taskAttemptStats;
+	}
+
 	public void addField(String name, Object value) {
-		this.fields.put(name, value);
+		this.fields.put(KEYS.getId(name), value);
 	}
 	
 	public void addCounter(String name, long value) {
-		this.counters.put(name, value);
+		this.counters.put(KEYS.getId(name), value);
 	}
 	
 	public void addConfigValue(String name, String value) {
-		this.configValues.put(name, value);
+		this.configValues.put(KEYS.getId(name), value);
+	}
+
+	/**
+	 * Stores the config values of this job as the given base and the values that differ from it,
+	 * getConfigValues() returns the same values as before
+	 * @param base
+	 */
+	public void rebaseConfigValues(ConfigBase base) {
+		SparseStore.Values<String> full;
+		if (configValues instanceof SparseStore.Values) {
+			full = (SparseStore.Values<String>) configValues;
+		} else {
+			full = new SparseStore.Values<String>();
+			Iterator<Map.Entry<String, String>> it = configValues.entryIterator();
+			while (it.hasNext()) {
+				Map.Entry<String, String> e = it.next();
+				full.put(KEYS.getId(e.getKey()), e.getValue());
+			}
+		}
+		configValues = new SharedConfigValues(base, full);
+	}
+
+	/**
+	 * Sorts and trims the storage of this job, the parser calls it once a job is complete
+	 */
+	public void compact() {
+		fields.compact();
+		counters.compact();
+		configValues.compact();
 	}
 
 	public HashMap<String, Object> getAllJobLevelPropertiesHashmap() {
-		HashMap<String, Object> hm = new HashMap();
-		hm.putAll(this.counters);
-		hm.putAll(this.fields);
-		hm.putAll(this.configValues);
+		HashMap<String, Object> hm = new HashMap<String, Object>();
+		hm.putAll(getCounters());
+		hm.putAll(getFields());
+		hm.putAll(getConfigValues());
 		return hm;
 	}
 
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers to measure how many heap bytes parsed jobs retain
+ *
+ * Measurements are the used heap after forcing garbage collections, so they are only meaningful
+ * in a JVM that does nothing else, such as Starter in footprint mode.
+ */
+public class HadoopJobFootprint {
+
+	/**
+	 * Returns the used heap in bytes once repeated garbage collections stop freeing memory
+	 * @return
+	 */
+	public static long usedHeapAfterGc() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			long now = memory.getHeapMemoryUsage().getUsed();
+			if (now >= used) {
+				return now;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	/**
+	 * Copies jobs into one HashMap per fields, counters and config values with private copies
+	 * of every key and value, the way jobs were held before keys and values were shared, to
+	 * have a baseline to measure against
+	 * @param hadoopJobs
+	 * @return
+	 */
+	public static List<Object> copyToHashMaps(Collection<HadoopJob> hadoopJobs) {
+		List<Object> copies = new ArrayList<Object>(hadoopJobs.size());
+		for (HadoopJob hj : hadoopJobs) {
+			HashMap<String, Object> fields = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> e : hj.getFields().entrySet()) {
+				Object value = e.getValue() instanceof String ? new String((String) e.getValue()) : e.getValue();
+				fields.put(new String(e.getKey()), value);
+			}
+			HashMap<String, Long> counters = new HashMap<String, Long>();
+			for (Map.Entry<String, Long> e : hj.getCounters().entrySet()) {
+				counters.put(new String(e.getKey()), new Long(e.getValue()));
+			}
+			HashMap<String, String> configValues = new HashMap<String, String>();
+			for (Map.Entry<String, String> e : hj.getConfigValues().entrySet()) {
+				configValues.put(new String(e.getKey()), e.getValue() == null ? null : new String(e.getValue()));
+			}
+			copies.add(new Object[] {fields, counters, configValues});
+		}
+		return copies;
+	}
+}
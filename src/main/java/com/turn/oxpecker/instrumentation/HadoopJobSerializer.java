@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Writes and reads HadoopJob objects to and from a binary stream
+ *
+ * A job is written as its fields, its counters and its config values, each as an entry count
+ * followed by the entries. Strings are written as a length followed by their UTF-8 bytes so
+ * that config values longer than 64k are supported.
+ */
+public class HadoopJobSerializer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte STRING_VALUE = 1;
+	private static final byte LONG_VALUE = 2;
+	private static final byte INTEGER_VALUE = 3;
+	private static final byte DOUBLE_VALUE = 4;
+	private static final byte BOOLEAN_VALUE = 5;
+
+	public static void write(DataOutput out, HadoopJob hj) throws IOException {
+		Map<String, Object> fields = hj.getFields();
+		out.writeInt(fields.size());
+		for (Map.Entry<String, Object> e : fields.entrySet()) {
+			writeString(out, e.getKey());
+			writeObject(out, e.getValue());
+		}
+
+		Map<String, Long> counters = hj.getCounters();
+		out.writeInt(counters.size());
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			writeString(out, e.getKey());
+			out.writeLong(e.getValue());
+		}
+
+		Map<String, String> configValues = hj.getConfigValues();
+		out.writeInt(configValues.size());
+		for (Map.Entry<String, String> e : configValues.entrySet()) {
+			writeString(out, e.getKey());
+			writeString(out, e.getValue());
+		}
+	}
+
+	public static HadoopJob read(DataInput in) throws IOException {
+		HadoopJob hj = new HadoopJob();
+		int fields = in.readInt();
+		for (int i = 0; i < fields; i++) {
+			hj.addField(readString(in), readObject(in));
+		}
+		int counters = in.readInt();
+		for (int i = 0; i < counters; i++) {
+			hj.addCounter(readString(in), in.readLong());
+		}
+		int configValues = in.readInt();
+		for (int i = 0; i < configValues; i++) {
+			hj.addConfigValue(readString(in), readString(in));
+		}
+		hj.compact();
+		return hj;
+	}
+
+	public static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Fields are strings when they come from the parser, other common types keep their type
+	 * and anything else is written as its toString()
+	 */
+	private static void writeObject(DataOutput out, Object o) throws IOException {
+		if (o == null) {
+			out.writeByte(NULL_VALUE);
+		} else if (o instanceof Long) {
+			out.writeByte(LONG_VALUE);
+			out.writeLong((Long) o);
+		} else if (o instanceof Integer) {
+			out.writeByte(INTEGER_VALUE);
+			out.writeInt((Integer) o);
+		} else if (o instanceof Double) {
+			out.writeByte(DOUBLE_VALUE);
+			out.writeDouble((Double) o);
+		} else if (o instanceof Boolean) {
+			out.writeByte(BOOLEAN_VALUE);
+			out.writeBoolean((Boolean) o);
+		} else {
+			out.writeByte(STRING_VALUE);
+			writeString(out, o.toString());
+		}
+	}
+
+	private static Object readObject(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case NULL_VALUE:
+				return null;
+			case STRING_VALUE:
+				return readString(in);
+			case LONG_VALUE:
+				return in.readLong();
+			case INTEGER_VALUE:
+				return in.readInt();
+			case DOUBLE_VALUE:
+				return in.readDouble();
+			case BOOLEAN_VALUE:
+				return in.readBoolean();
+			default:
+				throw new IOException(String.format("Unknown field type %s", type));
+		}
+	}
+}
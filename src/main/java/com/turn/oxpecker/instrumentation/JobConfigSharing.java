@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Rebases the config values of the jobs of one jobtracker and day on a shared ConfigBase
+ *
+ * share() is meant for jobs that are handed out one at a time: the base is detected from the
+ * first SAMPLE_SIZE jobs, which keep their own config values, and every later job is rebased.
+ * shareAll() rebases every job of a collection that is not handed out yet. Not thread safe.
+ */
+public class JobConfigSharing {
+
+	static final int SAMPLE_SIZE = 16;
+
+	private final List<HadoopJob> sample = new ArrayList<HadoopJob>(SAMPLE_SIZE);
+	private ConfigBase base;
+
+	/**
+	 * Rebases the job once there is a base, or adds it to the sample
+	 * @param hadoopJob
+	 */
+	public void share(HadoopJob hadoopJob) {
+		if (base == null) {
+			sample.add(hadoopJob);
+			if (sample.size() < SAMPLE_SIZE) {
+				return;
+			}
+			base = ConfigBase.detect(sample);
+			sample.clear();
+		}
+		hadoopJob.rebaseConfigValues(base);
+	}
+
+	/**
+	 * Returns the base, or null while the sample is not complete
+	 * @return
+	 */
+	public ConfigBase getBase() {
+		return base;
+	}
+
+	/**
+	 * Detects a base from the first jobs of the collection and rebases all of them
+	 * @param hadoopJobs
+	 */
+	public static void shareAll(Collection<HadoopJob> hadoopJobs) {
+		if (hadoopJobs.size() < 2) {
+			return;
+		}
+		List<HadoopJob> sample = new ArrayList<HadoopJob>(SAMPLE_SIZE);
+		for (HadoopJob hj : hadoopJobs) {
+			if (sample.size() == SAMPLE_SIZE) {
+				break;
+			}
+			sample.add(hj);
+		}
+		ConfigBase base = ConfigBase.detect(sample);
+		for (HadoopJob hj : hadoopJobs) {
+			hj.rebaseConfigValues(base);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a small int id to every field name, counter name and config key so that jobs can
+ * store keys as ids instead of holding their own copies of the key strings
+ *
+ * The dictionary only grows, it is meant for the few thousand distinct keys a jobtracker produces.
+ * The views used to be HashMaps, which take a null key, so null has the id NULL_ID.
+ */
+final class KeyDictionary {
+
+	static final KeyDictionary KEYS = new KeyDictionary();
+	static final int NULL_ID = 0;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] keys = new String[1024];
+	private int size = NULL_ID + 1;
+
+	/**
+	 * Returns the id of key, adding it to the dictionary if needed
+	 * @param key may be null
+	 * @return
+	 */
+	int getId(String key) {
+		if (key == null) {
+			return NULL_ID;
+		}
+		Integer id = ids.get(key);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(key);
+			if (id != null) {
+				return id;
+			}
+			int newId = size;
+			if (newId == keys.length) {
+				keys = Arrays.copyOf(keys, newId * 2);
+			}
+			keys[newId] = key;
+			size = newId + 1;
+			ids.put(key, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * Returns the id of key, or -1 if it is not in the dictionary
+	 * @param key may be null
+	 * @return
+	 */
+	int lookup(Object key) {
+		if (key == null) {
+			return NULL_ID;
+		}
+		Integer id = ids.get(key);
+		return id == null ? -1 : id;
+	}
+
+	String getKey(int id) {
+		return keys[id];
+	}
+
+	int size() {
+		return ids.size();
+	}
+}
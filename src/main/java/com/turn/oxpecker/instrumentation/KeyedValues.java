@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Storage of the values of a job keyed by KeyDictionary ids
+ *
+ * @param <V>
+ */
+interface KeyedValues<V> {
+
+	int size();
+
+	boolean containsId(int id);
+
+	V get(int id);
+
+	void put(int id, V value);
+
+	void remove(int id);
+
+	void clear();
+
+	/**
+	 * Sorts and trims the storage
+	 */
+	void compact();
+
+	/**
+	 * Iterates over the entries in id order, the iterator supports remove
+	 * @return
+	 */
+	Iterator<Map.Entry<String, V>> entryIterator();
+}
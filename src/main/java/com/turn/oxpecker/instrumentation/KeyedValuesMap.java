@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import static com.turn.oxpecker.instrumentation.KeyDictionary.KEYS;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map view of KeyedValues, this is what the HadoopJob getters return
+ *
+ * Like the HashMaps the getters used to return, the view takes null keys and values and its
+ * changes, including removes through its key and entry sets and their iterators, write through
+ * to the storage.
+ *
+ * @param <V>
+ */
+final class KeyedValuesMap<V> extends AbstractMap<String, V> {
+
+	private final KeyedValues<V> values;
+
+	KeyedValuesMap(KeyedValues<V> values) {
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.size();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int id = KEYS.lookup(key);
+		return id >= 0 && values.containsId(id);
+	}
+
+	@Override
+	public V get(Object key) {
+		int id = KEYS.lookup(key);
+		return id < 0 ? null : values.get(id);
+	}
+
+	@Override
+	public V put(String key, V value) {
+		int id = KEYS.getId(key);
+		V old = values.get(id);
+		values.put(id, value);
+		return old;
+	}
+
+	@Override
+	public V remove(Object key) {
+		int id = KEYS.lookup(key);
+		if (id < 0 || !values.containsId(id)) {
+			return null;
+		}
+		V old = values.get(id);
+		values.remove(id);
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		values.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		return new AbstractSet<Map.Entry<String, V>>() {
+			@Override
+			public int size() {
+				return values.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, V>> iterator() {
+				return values.entryIterator();
+			}
+		};
+	}
+}
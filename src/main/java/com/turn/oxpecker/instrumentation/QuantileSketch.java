@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of non negative values in logarithmic buckets
+ *
+ * Values below 8 have a bucket of their own, larger values fall in one of 8 buckets per power of two,
+ * so a quantile is off by at most 1/16 of its value. Only the buckets between the lowest and the
+ * highest one used are allocated, at most 488 ints however many values are added. Sketches with the
+ * same buckets merge exactly, so the sketches of tasks, jobs or days can be combined.
+ * Not thread safe.
+ */
+public class QuantileSketch {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private static final int[] EMPTY = new int[0];
+
+	//counts of the buckets [offset, offset + counts.length)
+	private int[] counts = EMPTY;
+	private int offset;
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	/**
+	 * Adds a value, negative values count as 0
+	 * @param value
+	 */
+	public void add(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		increment(bucketOf(value), 1);
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds the values of another sketch to this one
+	 * @param other
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.count == 0) {
+			return;
+		}
+		for (int i = 0; i < other.counts.length; i++) {
+			if (other.counts[i] > 0) {
+				increment(other.offset + i, other.counts[i]);
+			}
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	private void increment(int bucket, int n) {
+		if (counts.length == 0) {
+			counts = new int[1];
+			offset = bucket;
+		} else if (bucket < offset) {
+			int[] grown = new int[counts.length + offset - bucket];
+			System.arraycopy(counts, 0, grown, offset - bucket, counts.length);
+			counts = grown;
+			offset = bucket;
+		} else if (bucket >= offset + counts.length) {
+			counts = Arrays.copyOf(counts, bucket - offset + 1);
+		}
+		counts[bucket - offset] += n;
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return (SUB_BUCKETS + subBucket) << shift;
+	}
+
+	static long upperBound(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return count == 0 ? 0 : max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns an estimate of a quantile, the middle of the bucket it falls in
+	 * @param quantile between 0 and 1
+	 * @return 0 when the sketch is empty
+	 */
+	public long getQuantile(double quantile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				int bucket = offset + i;
+				long lower = lowerBound(bucket);
+				long estimate = lower + (upperBound(bucket) - lower) / 2;
+				return Math.max(getMin(), Math.min(getMax(), estimate));
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns an estimate of the number of values above a threshold, exact when the threshold
+	 * is the upper bound of a bucket
+	 * @param threshold
+	 * @return
+	 */
+	public long countAbove(long threshold) {
+		if (count == 0 || threshold >= max) {
+			return 0;
+		}
+		if (threshold < min) {
+			return count;
+		}
+		int from = bucketOf(Math.max(0, threshold)) + 1 - offset;
+		long above = 0;
+		for (int i = Math.max(0, from); i < counts.length; i++) {
+			above += counts[i];
+		}
+		return above;
+	}
+
+	/**
+	 * Returns how far the largest value is from the median, 0 when the sketch is empty
+	 * @return max / median
+	 */
+	public double getSkew() {
+		long median = getQuantile(0.5);
+		return count == 0 ? 0 : (double) getMax() / Math.max(1, median);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%s min=%s p50=%s p90=%s p99=%s max=%s", count, getMin(),
+				getQuantile(0.5), getQuantile(0.9), getQuantile(0.99), getMax());
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import static com.turn.oxpecker.instrumentation.KeyDictionary.KEYS;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Config values of a job stored as a ConfigBase shared with other jobs, the values that differ
+ * from it or are not in it, and the ids of the base keys the job does not have
+ */
+final class SharedConfigValues implements KeyedValues<String> {
+
+	private static final int[] NONE_REMOVED = new int[0];
+
+	private ConfigBase base;
+	private final SparseStore.Values<String> delta = new SparseStore.Values<String>();
+	private int[] removed;
+	private int size;
+
+	SharedConfigValues(ConfigBase base, SparseStore<String> full) {
+		this.base = base;
+		int n = full.size();
+		int[] removedIds = new int[base.ids.length];
+		int removedCount = 0;
+		int i = 0;
+		int j = 0;
+		while (i < n || j < base.ids.length) {
+			int fullId = i < n ? full.idAt(i) : Integer.MAX_VALUE;
+			int baseId = j < base.ids.length ? base.ids[j] : Integer.MAX_VALUE;
+			if (fullId == baseId) {
+				String value = full.valueAt(i);
+				if (value == null || !value.equals(base.values[j])) {
+					delta.put(fullId, value);
+				}
+				i++;
+				j++;
+			} else if (fullId < baseId) {
+				delta.put(fullId, full.valueAt(i));
+				i++;
+			} else {
+				removedIds[removedCount++] = baseId;
+				j++;
+			}
+		}
+		delta.compact();
+		this.removed = removedCount == 0 ? NONE_REMOVED : Arrays.copyOf(removedIds, removedCount);
+		this.size = n;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsId(int id) {
+		return delta.containsId(id) || (Arrays.binarySearch(removed, id) < 0 && base.indexOf(id) >= 0);
+	}
+
+	public String get(int id) {
+		int index = delta.indexOf(id);
+		if (index >= 0) {
+			return delta.valueAt(index);
+		}
+		if (Arrays.binarySearch(removed, id) >= 0) {
+			return null;
+		}
+		index = base.indexOf(id);
+		return index < 0 ? null : base.values[index];
+	}
+
+	public void put(int id, String value) {
+		if (!containsId(id)) {
+			size++;
+		}
+		delta.put(id, value);
+		int index = Arrays.binarySearch(removed, id);
+		if (index >= 0) {
+			int[] newRemoved = new int[removed.length - 1];
+			System.arraycopy(removed, 0, newRemoved, 0, index);
+			System.arraycopy(removed, index + 1, newRemoved, index, newRemoved.length - index);
+			removed = newRemoved;
+		}
+	}
+
+	public void remove(int id) {
+		if (!containsId(id)) {
+			return;
+		}
+		size--;
+		delta.remove(id);
+		if (base.indexOf(id) >= 0) {
+			int index = -Arrays.binarySearch(removed, id) - 1;
+			int[] newRemoved = new int[removed.length + 1];
+			System.arraycopy(removed, 0, newRemoved, 0, index);
+			newRemoved[index] = id;
+			System.arraycopy(removed, index, newRemoved, index + 1, removed.length - index);
+			removed = newRemoved;
+		}
+	}
+
+	public void clear() {
+		base = ConfigBase.EMPTY;
+		delta.clear();
+		removed = NONE_REMOVED;
+		size = 0;
+	}
+
+	public void compact() {
+		delta.compact();
+	}
+
+	/**
+	 * Merges the delta and the base in id order, skipping the base values that are removed
+	 * or overridden by the delta. The iterator works on the base and removed ids it started with,
+	 * a remove only shifts the delta entries it has not reached yet.
+	 */
+	public Iterator<Map.Entry<String, String>> entryIterator() {
+		final ConfigBase base = this.base;
+		final int[] removed = this.removed;
+		return new Iterator<Map.Entry<String, String>>() {
+			private int deltaSize = delta.size();
+			private int deltaIndex;
+			private int baseIndex;
+			private int removedIndex;
+			private boolean nextInDelta;
+			private Map.Entry<String, String> next = advance();
+			private Map.Entry<String, String> last;
+			private boolean lastInDelta;
+
+			private Map.Entry<String, String> advance() {
+				while (true) {
+					int deltaId = deltaIndex < deltaSize ? delta.idAt(deltaIndex) : Integer.MAX_VALUE;
+					int baseId = baseIndex < base.ids.length ? base.ids[baseIndex] : Integer.MAX_VALUE;
+					if (deltaId == Integer.MAX_VALUE && baseId == Integer.MAX_VALUE) {
+						return null;
+					}
+					if (deltaId <= baseId) {
+						if (deltaId == baseId) {
+							baseIndex++;
+						}
+						nextInDelta = true;
+						return new SimpleImmutableEntry<String, String>(KEYS.getKey(deltaId), delta.valueAt(deltaIndex++));
+					}
+					String value = base.values[baseIndex++];
+					while (removedIndex < removed.length && removed[removedIndex] < baseId) {
+						removedIndex++;
+					}
+					if (removedIndex < removed.length && removed[removedIndex] == baseId) {
+						continue;
+					}
+					nextInDelta = false;
+					return new SimpleImmutableEntry<String, String>(KEYS.getKey(baseId), value);
+				}
+			}
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Map.Entry<String, String> next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				lastInDelta = nextInDelta;
+				next = advance();
+				return last;
+			}
+
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				SharedConfigValues.this.remove(KEYS.lookup(last.getKey()));
+				if (lastInDelta) {
+					//the delta entries after it moved down by one
+					deltaIndex--;
+					deltaSize--;
+				}
+				last = null;
+			}
+		};
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import static com.turn.oxpecker.instrumentation.KeyDictionary.KEYS;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Values of a job keyed by KeyDictionary ids, kept as an int[] of ids sorted for binary search
+ * and a parallel array of values
+ *
+ * Entries are appended while a job is being built and sorted on the first read, a later put for
+ * the same id replaces the earlier one, a remove shifts the entries after it. Like the HashMaps
+ * it replaces it expects a single writer, but concurrent reads of a finished job are safe.
+ *
+ * @param <V>
+ */
+abstract class SparseStore<V> implements KeyedValues<V> {
+
+	private static final int[] NO_IDS = new int[0];
+
+	int[] ids = NO_IDS;
+	int size;
+	private volatile boolean sorted = true;
+
+	abstract V valueAt(int index);
+
+	abstract void setValueAt(int index, V value);
+
+	/**
+	 * Shifts the values after index, of the first size values, one position down
+	 */
+	abstract void removeValueAt(int index, int size);
+
+	/**
+	 * Resizes the value array to capacity, keeping the first size values
+	 */
+	abstract void resizeValues(int capacity);
+
+	/**
+	 * Replaces the value array with the values at the given positions
+	 */
+	abstract void reorderValues(int[] order);
+
+	public final int size() {
+		ensureSorted();
+		return size;
+	}
+
+	final int idAt(int index) {
+		ensureSorted();
+		return ids[index];
+	}
+
+	final int indexOf(int id) {
+		ensureSorted();
+		return Arrays.binarySearch(ids, 0, size, id);
+	}
+
+	public final boolean containsId(int id) {
+		return indexOf(id) >= 0;
+	}
+
+	public final V get(int id) {
+		int index = indexOf(id);
+		return index < 0 ? null : valueAt(index);
+	}
+
+	public final void put(int id, V value) {
+		if (sorted) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index >= 0) {
+				setValueAt(index, value);
+				return;
+			}
+			if (-index - 1 == size) {
+				append(id, value);
+				return;
+			}
+		}
+		append(id, value);
+		sorted = false;
+	}
+
+	public final void remove(int id) {
+		int index = indexOf(id);
+		if (index >= 0) {
+			removeAt(index);
+		}
+	}
+
+	public final void clear() {
+		ids = NO_IDS;
+		resizeValues(0);
+		size = 0;
+		sorted = true;
+	}
+
+	/**
+	 * Sorts the entries if needed and trims the arrays to their size
+	 */
+	public final synchronized void compact() {
+		if (sorted && size == ids.length) {
+			return;
+		}
+		int[] order = sorted ? identity(size) : sortedOrder(ids, size);
+		int[] newIds = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			newIds[i] = ids[order[i]];
+		}
+		reorderValues(order);
+		ids = newIds;
+		size = order.length;
+		sorted = true;
+	}
+
+	public final Iterator<Map.Entry<String, V>> entryIterator() {
+		return new Iterator<Map.Entry<String, V>>() {
+			private int n = size();
+			private int index;
+			private int last = -1;
+
+			public boolean hasNext() {
+				return index < n;
+			}
+
+			public Map.Entry<String, V> next() {
+				if (index >= n) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<String, V> entry = new SimpleImmutableEntry<String, V>(KEYS.getKey(ids[index]), valueAt(index));
+				last = index;
+				index++;
+				return entry;
+			}
+
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				removeAt(last);
+				index = last;
+				last = -1;
+				n--;
+			}
+		};
+	}
+
+	private void ensureSorted() {
+		if (!sorted) {
+			compact();
+		}
+	}
+
+	private void removeAt(int index) {
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		removeValueAt(index, size);
+		size--;
+	}
+
+	private void append(int id, V value) {
+		if (size == ids.length) {
+			int capacity = Math.max(8, size * 2);
+			ids = Arrays.copyOf(ids, capacity);
+			resizeValues(capacity);
+		}
+		ids[size] = id;
+		size++;
+		setValueAt(size - 1, value);
+	}
+
+	private static int[] identity(int n) {
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * Positions of the entries in id order, only the last position of a repeated id is kept
+	 */
+	static int[] sortedOrder(int[] ids, int size) {
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++) {
+			packed[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(packed);
+		int[] order = new int[size];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int id = (int) (packed[i] >>> 32);
+			int position = (int) packed[i];
+			if (n > 0 && ids[order[n - 1]] == id) {
+				order[n - 1] = position;
+			} else {
+				order[n++] = position;
+			}
+		}
+		return Arrays.copyOf(order, n);
+	}
+
+	/**
+	 * Object values, strings are interned
+	 */
+	static final class Values<V> extends SparseStore<V> {
+
+		private Object[] values = new Object[0];
+
+		@SuppressWarnings("unchecked")
+		V valueAt(int index) {
+			return (V) values[index];
+		}
+
+		void setValueAt(int index, V value) {
+			values[index] = value instanceof String ? StringInterner.intern((String) value) : value;
+		}
+
+		void removeValueAt(int index, int size) {
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			values[size - 1] = null;
+		}
+
+		void resizeValues(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void reorderValues(int[] order) {
+			Object[] newValues = new Object[order.length];
+			for (int i = 0; i < order.length; i++) {
+				newValues[i] = values[order[i]];
+			}
+			values = newValues;
+		}
+	}
+
+	/**
+	 * Primitive long values for counters, the positions of null values are kept in a BitSet
+	 */
+	static final class Longs extends SparseStore<Long> {
+
+		private long[] values = new long[0];
+		private BitSet nulls;
+
+		Long valueAt(int index) {
+			return isNullAt(index) ? null : values[index];
+		}
+
+		long longAt(int index) {
+			return values[index];
+		}
+
+		boolean isNullAt(int index) {
+			return nulls != null && nulls.get(index);
+		}
+
+		void setValueAt(int index, Long value) {
+			if (value == null) {
+				if (nulls == null) {
+					nulls = new BitSet();
+				}
+				nulls.set(index);
+				values[index] = 0;
+			} else {
+				if (nulls != null) {
+					nulls.clear(index);
+				}
+				values[index] = value;
+			}
+		}
+
+		void removeValueAt(int index, int size) {
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			if (nulls != null) {
+				for (int i = nulls.nextSetBit(index); i >= 0; i = nulls.nextSetBit(i + 1)) {
+					nulls.clear(i);
+					if (i > index) {
+						nulls.set(i - 1);
+					}
+				}
+			}
+		}
+
+		void resizeValues(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+			if (nulls != null) {
+				nulls.clear(capacity, Math.max(capacity, nulls.length()));
+			}
+		}
+
+		void reorderValues(int[] order) {
+			long[] newValues = new long[order.length];
+			BitSet newNulls = null;
+			for (int i = 0; i < order.length; i++) {
+				newValues[i] = values[order[i]];
+				if (isNullAt(order[i])) {
+					if (newNulls == null) {
+						newNulls = new BitSet();
+					}
+					newNulls.set(i);
+				}
+			}
+			values = newValues;
+			nulls = newNulls;
+		}
+	}
+}
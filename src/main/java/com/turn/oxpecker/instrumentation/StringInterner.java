@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Weak interner for config and field values, identical values of different jobs end up
+ * sharing one String instance and are released once no job uses them anymore
+ *
+ * The table is split in stripes so that parser threads rarely wait on each other.
+ */
+final class StringInterner {
+
+	private static final int STRIPES = 16;
+
+	@SuppressWarnings("unchecked")
+	private static final WeakHashMap<String, WeakReference<String>>[] tables = new WeakHashMap[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			tables[i] = new WeakHashMap<String, WeakReference<String>>();
+		}
+	}
+
+	private StringInterner() {
+	}
+
+	static String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		WeakHashMap<String, WeakReference<String>> table = tables[(s.hashCode() & 0x7fffffff) % STRIPES];
+		synchronized (table) {
+			WeakReference<String> ref = table.get(s);
+			String interned = ref == null ? null : ref.get();
+			if (interned == null) {
+				table.put(s, new WeakReference<String>(s));
+				interned = s;
+			}
+			return interned;
+		}
+	}
+}
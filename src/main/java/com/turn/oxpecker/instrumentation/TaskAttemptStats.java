@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+/**
+ * Distributions of the task attempts of a job, of constant size whatever the number of tasks
+ *
+ * Durations are in milliseconds and only count successful attempts, failed and killed attempts are
+ * only counted. Stats of several jobs can be merged to compare queues, users or days.
+ */
+public class TaskAttemptStats {
+
+	/**
+	 * Attempts that ran longer than this many times the median are stragglers
+	 */
+	public static final double STRAGGLER_FACTOR = 2;
+
+	private final QuantileSketch mapDuration = new QuantileSketch();
+	private final QuantileSketch reduceDuration = new QuantileSketch();
+	private final QuantileSketch shuffleTime = new QuantileSketch();
+	private final QuantileSketch sortTime = new QuantileSketch();
+	private final QuantileSketch mapInputBytes = new QuantileSketch();
+	private final QuantileSketch reduceInputRecords = new QuantileSketch();
+	private int failedAttempts;
+	private int killedAttempts;
+
+	/**
+	 * Time from the start to the end of successful map attempts
+	 * @return
+	 */
+	public QuantileSketch getMapDuration() {
+		return mapDuration;
+	}
+
+	/**
+	 * Time from the start to the end of successful reduce attempts
+	 * @return
+	 */
+	public QuantileSketch getReduceDuration() {
+		return reduceDuration;
+	}
+
+	/**
+	 * Time from the start of successful reduce attempts to the end of their shuffle
+	 * @return
+	 */
+	public QuantileSketch getShuffleTime() {
+		return shuffleTime;
+	}
+
+	/**
+	 * Time from the end of the shuffle to the end of the sort of successful reduce attempts
+	 * @return
+	 */
+	public QuantileSketch getSortTime() {
+		return sortTime;
+	}
+
+	/**
+	 * HDFS_BYTES_READ of successful map attempts
+	 * @return
+	 */
+	public QuantileSketch getMapInputBytes() {
+		return mapInputBytes;
+	}
+
+	/**
+	 * REDUCE_INPUT_RECORDS of successful reduce attempts
+	 * @return
+	 */
+	public QuantileSketch getReduceInputRecords() {
+		return reduceInputRecords;
+	}
+
+	public int getFailedAttempts() {
+		return failedAttempts;
+	}
+
+	public int getKilledAttempts() {
+		return killedAttempts;
+	}
+
+	public void addFailedAttempt() {
+		failedAttempts++;
+	}
+
+	public void addKilledAttempt() {
+		killedAttempts++;
+	}
+
+	/**
+	 * Returns the number of map attempts that ran longer than STRAGGLER_FACTOR times the median
+	 * @return
+	 */
+	public long getMapStragglers() {
+		return getStragglers(mapDuration);
+	}
+
+	/**
+	 * Returns the number of reduce attempts that ran longer than STRAGGLER_FACTOR times the median
+	 * @return
+	 */
+	public long getReduceStragglers() {
+		return getStragglers(reduceDuration);
+	}
+
+	private static long getStragglers(QuantileSketch durations) {
+		return durations.countAbove((long) (STRAGGLER_FACTOR * durations.getQuantile(0.5)));
+	}
+
+	/**
+	 * Returns the longest map attempt over the median one
+	 * @return
+	 */
+	public double getMapDurationSkew() {
+		return mapDuration.getSkew();
+	}
+
+	/**
+	 * Returns the largest reduce input over the median one, how unevenly the keys are partitioned
+	 * @return
+	 */
+	public double getReduceInputSkew() {
+		return reduceInputRecords.getSkew();
+	}
+
+	/**
+	 * Adds the attempts of another job to these stats
+	 * @param other
+	 */
+	public void merge(TaskAttemptStats other) {
+		mapDuration.merge(other.mapDuration);
+		reduceDuration.merge(other.reduceDuration);
+		shuffleTime.merge(other.shuffleTime);
+		sortTime.merge(other.sortTime);
+		mapInputBytes.merge(other.mapInputBytes);
+		reduceInputRecords.merge(other.reduceInputRecords);
+		failedAttempts += other.failedAttempts;
+		killedAttempts += other.killedAttempts;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("maps [%s] reduces [%s] shuffle [%s] sort [%s] mapInputBytes [%s] reduceInputRecords [%s] failed=%s killed=%s",
+				mapDuration, reduceDuration, shuffleTime, sortTime, mapInputBytes, reduceInputRecords, failedAttempts, killedAttempts);
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * MetricRegistry that keeps the metrics in memory
+ */
+public class DefaultMetricRegistry implements MetricRegistry {
+
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+	public Counter counter(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null) {
+			metric = register(name, new Counter());
+		}
+		return (Counter) metric;
+	}
+
+	public Histogram histogram(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null) {
+			metric = register(name, new Histogram());
+		}
+		return (Histogram) metric;
+	}
+
+	public Timer timer(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null) {
+			metric = register(name, new Timer());
+		}
+		return (Timer) metric;
+	}
+
+	private Metric register(String name, Metric metric) {
+		Metric existing = metrics.putIfAbsent(name, metric);
+		return existing == null ? metric : existing;
+	}
+
+	public Map<String, Metric> getMetrics() {
+		return Collections.unmodifiableMap(new TreeMap<String, Metric>(metrics));
+	}
+}
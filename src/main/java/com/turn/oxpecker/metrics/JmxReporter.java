@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes every metric of a registry as attributes <metric name>.<value name> of a single MBean,
+ * the attributes follow the metrics as they are created
+ */
+public class JmxReporter implements DynamicMBean {
+
+	public static final String OBJECT_NAME = "com.turn.oxpecker:type=Metrics";
+
+	private final MetricRegistry registry;
+
+	public JmxReporter(MetricRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Registers a reporter of the registry with the platform MBean server
+	 * @param registry
+	 * @return
+	 * @throws JMException
+	 */
+	public static ObjectName register(MetricRegistry registry) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(new JmxReporter(registry), name);
+		return name;
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		int dot = attribute.lastIndexOf('.');
+		Metric metric = dot < 0 ? null : registry.getMetrics().get(attribute.substring(0, dot));
+		Number value = metric == null ? null : metric.getValues().get(attribute.substring(dot + 1));
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				//left out of the list like the JMX spec asks
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(String.format("%s is read only", attribute.getName()));
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+		throw new MBeanException(new UnsupportedOperationException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Metric> metric : registry.getMetrics().entrySet()) {
+			for (Map.Entry<String, Number> value : metric.getValue().getValues().entrySet()) {
+				attributes.add(new MBeanAttributeInfo(metric.getKey() + "." + value.getKey(),
+						value.getValue().getClass().getName(), value.getKey(), true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "oxpecker metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+	}
+}
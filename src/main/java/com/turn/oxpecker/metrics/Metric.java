@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.util.Map;
+
+/**
+ * A metric of a MetricRegistry, reporters read its current values by name
+ */
+public interface Metric {
+
+	/**
+	 * Returns the current values of the metric, such as count or p99
+	 * @return
+	 */
+	Map<String, Number> getValues();
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.util.Map;
+
+/**
+ * Named metrics, the getters create a metric the first time its name is used
+ *
+ * Implementations have to be thread safe, an implementation can forward the metrics to another
+ * metrics library.
+ */
+public interface MetricRegistry {
+
+	Counter counter(String name);
+
+	Histogram histogram(String name);
+
+	Timer timer(String name);
+
+	/**
+	 * Returns all metrics by name
+	 * @return
+	 */
+	Map<String, Metric> getMetrics();
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.util.Map;
+
+/**
+ * The registry oxpecker reports its metrics to, and the names of those metrics
+ */
+public class Metrics {
+
+	/**
+	 * Registry used by the parser, can be replaced before parsing starts
+	 */
+	public static MetricRegistry registry = new DefaultMetricRegistry();
+
+	public static final String DIRECTORY_LISTING = "directory.listing";
+	public static final String DIRECTORY_PROBE = "directory.probe";
+	public static final String STATS_PARSE = "stats.parse";
+	public static final String CONF_PARSE = "conf.parse";
+	public static final String JOB_PARSE = "job.parse";
+	public static final String STATS_BYTES_READ = "stats.bytesRead";
+	public static final String CONF_BYTES_READ = "conf.bytesRead";
+	public static final String JOBS_CACHED = "jobs.cached";
+	public static final String JOBS_SKIPPED = "jobs.skipped.";
+	public static final String JOBS_PRUNED = "jobs.pruned";
+	public static final String JOBS_OUT_OF_RANGE = "jobs.outOfRange";
+
+	public static final String SKIPPED_MISSING_FILE = "missingFile";
+	public static final String SKIPPED_STATS_IO = "statsIOException";
+	public static final String SKIPPED_FILE_NOT_FOUND = "fileNotFound";
+	public static final String SKIPPED_DOCUMENT = "documentException";
+	public static final String SKIPPED_PARSE = "parseException";
+	public static final String SKIPPED_HADOOP_JOB_PARSE = "hadoopJobParseException";
+
+	public static Counter counter(String name) {
+		return registry.counter(name);
+	}
+
+	public static Histogram histogram(String name) {
+		return registry.histogram(name);
+	}
+
+	public static Timer timer(String name) {
+		return registry.timer(name);
+	}
+
+	/**
+	 * Counts a job that could not be read
+	 * @param reason one of the SKIPPED_ names
+	 */
+	public static void skipped(String reason) {
+		registry.counter(JOBS_SKIPPED + reason).inc();
+	}
+
+	/**
+	 * Returns one line per metric with all its values
+	 * @return
+	 */
+	public static String summary() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Metric> e : registry.getMetrics().entrySet()) {
+			sb.append(e.getKey()).append(' ').append(e.getValue().getValues()).append('\n');
+		}
+		return sb.toString();
+	}
+}
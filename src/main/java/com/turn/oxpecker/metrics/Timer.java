@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of an operation and the rate at which it happens
+ *
+ * Usage:
+ * long start = System.nanoTime();
+ * ...
+ * timer.update(System.nanoTime() - start);
+ */
+public class Timer implements Metric {
+
+	private final Histogram durations = new Histogram();
+	private final long createdNanos = System.nanoTime();
+
+	/**
+	 * Records a duration in nanoseconds
+	 * @param nanos
+	 */
+	public void update(long nanos) {
+		durations.update(nanos);
+	}
+
+	public void update(long duration, TimeUnit unit) {
+		durations.update(unit.toNanos(duration));
+	}
+
+	public long getCount() {
+		return durations.getCount();
+	}
+
+	/**
+	 * Returns the total time spent in nanoseconds
+	 * @return
+	 */
+	public long getTotalNanos() {
+		return durations.getSum();
+	}
+
+	/**
+	 * Returns the number of events per second since the timer was created
+	 * @return
+	 */
+	public double getMeanRate() {
+		long elapsed = System.nanoTime() - createdNanos;
+		return elapsed <= 0 ? 0 : getCount() * 1e9 / elapsed;
+	}
+
+	public Histogram getDurations() {
+		return durations;
+	}
+
+	/**
+	 * Durations are reported in milliseconds
+	 */
+	public Map<String, Number> getValues() {
+		Map<String, Number> values = new LinkedHashMap<String, Number>();
+		values.put("count", getCount());
+		values.put("meanRate", getMeanRate());
+		values.put("totalMs", durations.getSum() / 1e6);
+		values.put("meanMs", durations.getMean() / 1e6);
+		values.put("p50Ms", durations.getQuantile(0.5) / 1e6);
+		values.put("p90Ms", durations.getQuantile(0.9) / 1e6);
+		values.put("p99Ms", durations.getQuantile(0.99) / 1e6);
+		values.put("maxMs", durations.getMax() / 1e6);
+		return values;
+	}
+}
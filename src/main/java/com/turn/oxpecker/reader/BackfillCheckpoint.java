@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Progress of a backfill over a date range, so that a backfill that died can be restarted
+ * without parsing the finished work again
+ *
+ * The jobs of a directory are processed in jobId order and in batches of batchSize jobs. The
+ * checkpoint file records the directories that are done and, for the directory in progress,
+ * the last jobId of the last finished batch. It is rewritten after every batch, once the sink
+ * has been flushed, so jobs of a batch that did not finish are handed to the sink again on restart.
+ * A directory is only done for the time range it was read for, since the jobs out of the range were
+ * left out, so the checkpoint records the range and cannot be used for another one.
+ */
+public class BackfillCheckpoint {
+
+	static Logger LOGGER = Logger.getLogger(BackfillCheckpoint.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String DONE = "done";
+	private static final String PARTIAL = "partial";
+	private static final String RANGE = "range";
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private final File checkpointFile;
+	private final Set<String> doneDirectories = new HashSet<String>();
+	private final Map<String, String> lastJobIds = new LinkedHashMap<String, String>();
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private JobTimeRange range;
+
+	/**
+	 * Reads the checkpoint file if it exists
+	 * @param checkpointFile
+	 * @throws IOException
+	 */
+	public BackfillCheckpoint(File checkpointFile) throws IOException {
+		this.checkpointFile = checkpointFile;
+		if (checkpointFile.exists()) {
+			read();
+			LOGGER.info(String.format("Resuming from %s, %s directories done", checkpointFile, doneDirectories.size()));
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Ties the checkpoint to the range of the backfill, the range it was written for if it was read from a file
+	 * @param range
+	 * @throws IllegalArgumentException if the checkpoint was written for another range
+	 */
+	public void setRange(JobTimeRange range) {
+		if (this.range != null && (this.range.getStartMillis() != range.getStartMillis() || this.range.getEndMillis() != range.getEndMillis())) {
+			throw new IllegalArgumentException(String.format("%s was written for the range %s, not %s", checkpointFile, this.range, range));
+		}
+		this.range = range;
+	}
+
+	public JobTimeRange getRange() {
+		return range;
+	}
+
+	public boolean isDone(File dateDirectory) {
+		return doneDirectories.contains(dateDirectory.getAbsolutePath());
+	}
+
+	/**
+	 * Returns the last jobId of the finished batches of a directory, or null
+	 * @param dateDirectory
+	 * @return
+	 */
+	public String getLastJobId(File dateDirectory) {
+		return lastJobIds.get(dateDirectory.getAbsolutePath());
+	}
+
+	/**
+	 * Records that all jobs up to lastJobId of a directory were handed to the sink
+	 * @param dateDirectory
+	 * @param lastJobId
+	 * @throws IOException
+	 */
+	public void batchDone(File dateDirectory, String lastJobId) throws IOException {
+		lastJobIds.put(dateDirectory.getAbsolutePath(), lastJobId);
+		write();
+	}
+
+	/**
+	 * Records that all jobs of a directory were handed to the sink
+	 * @param dateDirectory
+	 * @throws IOException
+	 */
+	public void directoryDone(File dateDirectory) throws IOException {
+		lastJobIds.remove(dateDirectory.getAbsolutePath());
+		doneDirectories.add(dateDirectory.getAbsolutePath());
+		write();
+	}
+
+	private void read() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), UTF8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length == 2 && parts[0].equals(DONE)) {
+					doneDirectories.add(parts[1]);
+				} else if (parts.length == 3 && parts[0].equals(PARTIAL)) {
+					lastJobIds.put(parts[1], parts[2]);
+				} else if (parts.length == 3 && parts[0].equals(RANGE)) {
+					range = new JobTimeRange(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+				} else if (line.length() > 0) {
+					throw new IOException(String.format("Malformed line in %s : %s", checkpointFile, line));
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write() throws IOException {
+		File tmpFile = new File(checkpointFile.getAbsolutePath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), UTF8));
+		try {
+			if (range != null) {
+				out.write(String.format("%s\t%s\t%s%n", RANGE, range.getStartMillis(), range.getEndMillis()));
+			}
+			for (String directory : doneDirectories) {
+				out.write(String.format("%s\t%s%n", DONE, directory));
+			}
+			for (Map.Entry<String, String> e : lastJobIds.entrySet()) {
+				out.write(String.format("%s\t%s\t%s%n", PARTIAL, e.getKey(), e.getValue()));
+			}
+		} finally {
+			out.close();
+		}
+		//renaming over the old checkpoint replaces it atomically, a crash never leaves no checkpoint.
+		//Only where rename does not replace files (Windows) the old checkpoint is deleted first.
+		if (!tmpFile.renameTo(checkpointFile) && !(checkpointFile.delete() && tmpFile.renameTo(checkpointFile))) {
+			throw new IOException(String.format("Could not rename %s to %s", tmpFile, checkpointFile));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.text.ParseException;
+
+/**
+ * Extracts counters from the escaped compact string of a statistics file, as written by
+ * Counters.makeEscapedCompactString:
+ *
+ * {(group name)(group display name)[(counter name)(counter display name)(value)]...}...
+ *
+ * Unlike Counters.fromEscapedCompactString no Counters object is built, the names of the
+ * counters are compared in place and only the requested counters are decoded.
+ */
+class CompactCounters {
+
+	private static final char ESCAPE_CHAR = '\\';
+	private static final char GROUP_OPEN = '{';
+	private static final char GROUP_CLOSE = '}';
+	private static final char COUNTER_OPEN = '[';
+	private static final char COUNTER_CLOSE = ']';
+	private static final char UNIT_OPEN = '(';
+	private static final char UNIT_CLOSE = ')';
+
+	private CompactCounters() {
+	}
+
+	/**
+	 * Add the counters of the given names found in the compact string to the job
+	 * @param compactString
+	 * @param names
+	 * @param hj
+	 * @return the number of counters added
+	 * @throws ParseException
+	 */
+	static int addCounters(String compactString, String[] names, HadoopJob hj) throws ParseException {
+		return readCounters(compactString, names, hj, null);
+	}
+
+	/**
+	 * Reads the counters of the given names found in the compact string into values,
+	 * the counters that are not found keep their value
+	 * @param compactString
+	 * @param names
+	 * @param values the value of names[i] goes to values[i]
+	 * @return the number of counters found
+	 * @throws ParseException
+	 */
+	static int getCounters(String compactString, String[] names, long[] values) throws ParseException {
+		return readCounters(compactString, names, null, values);
+	}
+
+	private static int readCounters(String compactString, String[] names, HadoopJob hj, long[] values) throws ParseException {
+		if (compactString == null || names.length == 0) {
+			return 0;
+		}
+		int found = 0;
+		int length = compactString.length();
+		int pos = 0;
+		while (pos < length) {
+			char c = compactString.charAt(pos);
+			if (c == GROUP_OPEN) {
+				//skip the name and the display name of the group
+				pos = skipUnit(compactString, skipUnit(compactString, pos + 1));
+			} else if (c == COUNTER_OPEN) {
+				int nameEnd = skipUnit(compactString, pos + 1);
+				int valueStart = skipUnit(compactString, nameEnd);
+				int valueEnd = skipUnit(compactString, valueStart);
+				if (valueEnd >= length || compactString.charAt(valueEnd) != COUNTER_CLOSE) {
+					throw new ParseException(String.format("Missing %s in %s", COUNTER_CLOSE, compactString), valueEnd);
+				}
+				int index = match(compactString, pos + 2, nameEnd - 1, names);
+				if (index >= 0) {
+					long value = parseValue(compactString, valueStart + 1, valueEnd - 1);
+					if (hj != null) {
+						hj.addCounter(names[index], value);
+					} else {
+						values[index] = value;
+					}
+					found++;
+				}
+				pos = valueEnd + 1;
+			} else if (c == GROUP_CLOSE) {
+				pos++;
+			} else {
+				throw new ParseException(String.format("Unexpected %s in %s", c, compactString), pos);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the position after the unit that opens at the given position
+	 */
+	private static int skipUnit(String s, int pos) throws ParseException {
+		if (pos >= s.length() || s.charAt(pos) != UNIT_OPEN) {
+			throw new ParseException(String.format("Missing %s in %s", UNIT_OPEN, s), pos);
+		}
+		for (int i = pos + 1; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == ESCAPE_CHAR) {
+				i++;
+			} else if (c == UNIT_CLOSE) {
+				return i + 1;
+			}
+		}
+		throw new ParseException(String.format("Missing %s in %s", UNIT_CLOSE, s), s.length());
+	}
+
+	/**
+	 * Returns the index of the name that equals the escaped text between start and end, or -1
+	 */
+	private static int match(String s, int start, int end, String[] names) {
+		if (s.lastIndexOf(ESCAPE_CHAR, end - 1) >= start) {
+			String name = unEscape(s, start, end);
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int length = end - start;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].length() == length && s.regionMatches(start, names[i], 0, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String unEscape(String s, int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == ESCAPE_CHAR && i + 1 < end) {
+				c = s.charAt(++i);
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static long parseValue(String s, int start, int end) throws ParseException {
+		try {
+			return Long.parseLong(s.substring(start, end));
+		} catch (NumberFormatException e) {
+			throw new ParseException(String.format("Bad counter value %s", s.substring(start, end)), start);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import static com.turn.oxpecker.reader.Constant.NAME;
+import static com.turn.oxpecker.reader.Constant.PROPERTY;
+import static com.turn.oxpecker.reader.Constant.VALUE;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Parses job config files with StAX, adding each property to the HadoopJob as it is read
+ * instead of building a DOM of the whole file. When a set of config keys is given, the values
+ * of all other properties are skipped without being materialized.
+ */
+public class HadoopJobConfigStreamParser {
+
+	public static Logger LOGGER = Logger.getLogger(HadoopJobConfigStreamParser.class);
+
+	private static final ThreadLocal<XMLInputFactory> xmlInputFactory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			return factory;
+		}
+	};
+
+	private final Set<String> configKeys;
+
+	/**
+	 * Creates a parser that keeps every property
+	 */
+	public HadoopJobConfigStreamParser() {
+		this(null);
+	}
+
+	/**
+	 * Creates a parser that only keeps the given config keys, or every property if null
+	 * @param configKeys
+	 */
+	public HadoopJobConfigStreamParser(Set<String> configKeys) {
+		this.configKeys = configKeys;
+	}
+
+	/**
+	 * Parse the config file and add its properties to the HadoopJob
+	 * @param confFile
+	 * @param hj
+	 * @throws FileNotFoundException
+	 * @throws HadoopJobParseException
+	 */
+	public void addJobConfToHadoopJob(File confFile, HadoopJob hj) throws FileNotFoundException, HadoopJobParseException {
+		InputStream in;
+		try {
+			//decompresses the file, or reads it from its archive
+			in = HadoopJobHistoryFileParser.jobHistoryFileSystem.open(confFile);
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException(String.format("Parser: config file %s does not exist.", confFile));
+		} catch (IOException e) {
+			throw new HadoopJobParseException(String.format("File: %s cannot be opened. %s", confFile, e.getMessage()), e);
+		}
+		try {
+			addJobConfToHadoopJob(in, hj);
+		} catch (HadoopJobParseException e) {
+			throw new HadoopJobParseException(String.format("File: %s cannot be parsed. %s", confFile, e.getMessage()), e.getCause());
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOGGER.warn(String.format("Could not close %s", confFile), e);
+			}
+		}
+	}
+
+	/**
+	 * Parse a config document from the stream and add its properties to the HadoopJob
+	 * @param in
+	 * @param hj
+	 * @throws HadoopJobParseException
+	 */
+	public void addJobConfToHadoopJob(InputStream in, HadoopJob hj) throws HadoopJobParseException {
+		XMLStreamReader reader = null;
+		try {
+			reader = xmlInputFactory.get().createXMLStreamReader(in);
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					//properties are the direct children of the root element
+					if (depth == 2 && PROPERTY.equals(reader.getLocalName())) {
+						readProperty(reader, hj);
+						depth--;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new HadoopJobParseException(e.getMessage(), e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					LOGGER.warn("Could not close xml reader", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a property element, leaving the reader on its end element
+	 */
+	private void readProperty(XMLStreamReader reader, HadoopJob hj) throws XMLStreamException, HadoopJobParseException {
+		String name = null;
+		String value = null;
+		boolean hasValue = false;
+		boolean skipped = false;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			String element = reader.getLocalName();
+			if (NAME.equals(element)) {
+				name = reader.getElementText();
+			} else if (VALUE.equals(element)) {
+				hasValue = true;
+				if (name != null && !isWanted(name)) {
+					skipped = true;
+					skipElement(reader);
+				} else {
+					value = reader.getElementText();
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+		if (name == null) {
+			throw new HadoopJobParseException(String.format("<%s> is not set in the config file.", NAME));
+		}
+		if (!hasValue) {
+			throw new HadoopJobParseException(String.format("<%s> is not set in the config file.", VALUE));
+		}
+		if (!skipped && isWanted(name)) {
+			hj.addConfigValue(name, value);
+		}
+	}
+
+	private boolean isWanted(String name) {
+		return configKeys == null || configKeys.contains(name);
+	}
+
+	/**
+	 * Skips the current element and all of its children, leaving the reader on its end element
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+}
@@ -16,24 +16,42 @@
 package com.turn.oxpecker.reader;
 
 import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.instrumentation.JobConfigSharing;
+import com.turn.oxpecker.metrics.Metrics;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -57,29 +75,197 @@ import org.threeten.bp.temporal.ChronoUnit;
  */
 public class HadoopJobHistoryFileParser {
 
-	private static final String dateDirectoryRegex = "/yyyy/MM/dd$";
+	private static final DateTimeFormatter dateDirectoryFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+	private static final Pattern confFilePattern = Pattern.compile("^(.*)_conf.xml");
+	private static final int PARSE_WINDOW_PER_THREAD = 4;
+	private static final JobHistory.Keys[] JOB_INFO_FIELDS = {
+		JobHistory.Keys.JOBID, JobHistory.Keys.JOBNAME,
+		JobHistory.Keys.LAUNCH_TIME, JobHistory.Keys.SUBMIT_TIME,
+		JobHistory.Keys.START_TIME, JobHistory.Keys.FINISH_TIME,
+		JobHistory.Keys.FINISHED_MAPS, JobHistory.Keys.FINISHED_REDUCES,
+		JobHistory.Keys.TOTAL_MAPS, JobHistory.Keys.TOTAL_REDUCES,
+		JobHistory.Keys.FAILED_MAPS, JobHistory.Keys.FAILED_REDUCES,
+
+		JobHistory.Keys.JOB_QUEUE, JobHistory.Keys.JOB_PRIORITY,
+		JobHistory.Keys.JOB_STATUS,
+
+	};
 	static Logger LOGGER = Logger.getLogger(HadoopJobHistoryFileParser.class);
 	public static JobHistoryFileSystem jobHistoryFileSystem = new JobHistoryFileSystem();
+	/**
+	 * Parse statistics files with JobHistory.parseHistoryFromFS instead of JobHistoryStatsFileReader
+	 */
+	public static boolean useHadoopJobHistoryParser = false;
+	/**
+	 * Cache of parsed jobs, jobs are always parsed from their files when null
+	 */
+	public static ParsedJobCache parsedJobCache = null;
+	/**
+	 * Store the config values of the jobs of a directory as a shared base and per job differences
+	 */
+	public static boolean shareJobConfigs = true;
+	/**
+	 * Index of the locations of the jobs, updated with every directory that is indexed when not null
+	 */
+	public static JobLocationIndex jobLocationIndex = null;
 
 	public static ArrayList<HadoopJob> getListOfHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String jobHistDir, String jobTrackerName) throws IOException, URISyntaxException {
-		int count = 0;
-		List<Collection<HadoopJob>> hadoopJobs = HadoopJobHistoryFileParser.getHadoopJobsForDates(start, end, jobHistDir, jobTrackerName);
-		ArrayList<HadoopJob> allJobs = new ArrayList<HadoopJob>();
+		final ArrayList<HadoopJob> allJobs = new ArrayList<HadoopJob>();
+
+		//collect the jobs of all directories into a single list
+		processHadoopJobsForDates(start, end, jobHistDir, jobTrackerName, new HadoopJobSink() {
+			public void accept(HadoopJob hadoopJob) {
+				allJobs.add(hadoopJob);
+			}
+		});
+		LOGGER.info(String.format("size %s", allJobs.size()));
+		return allJobs;
+	}
+
+	/**
+	 * Given a start and end instant, a jobtracker name and the base directory, return an iterator
+	 * that parses the hadoop jobs in the range [start, end) lazily, one job at a time
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @return
+	 * @throws IOException
+	 */
+	public static HadoopJobIterator getHadoopJobIteratorForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName) throws IOException {
+		return getHadoopJobIteratorForDates(start, end, baseJobHistDir, jobTrackerName, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobIteratorForDates but only parses the values of the projection
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param projection
+	 * @return
+	 * @throws IOException
+	 */
+	public static HadoopJobIterator getHadoopJobIteratorForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, JobProjection projection) throws IOException {
+		List<ZonedDateTime> listOfDates = getListOfDatesForRange(start, end);
+		List<File> dateDirectories = getListOfDirectories(baseJobHistDir, listOfDates);
+		return new HadoopJobIterator(FileSystem.getLocal(new Configuration()), dateDirectories, jobTrackerName, projection,
+				new JobTimeRange(start, end));
+	}
+
+	/**
+	 * Given a start and end instant, a jobtracker name and the base directory, parse the hadoop jobs
+	 * in the range [start, end) and hand them one by one to the sink, without keeping them in memory.
+	 * Only the date directories of the range and of the day after it are read, see getListOfDatesForRange,
+	 * and the jobs that cannot be in the range are pruned by the names of their files before any file
+	 * is opened, see JobTimeRange.
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param sink
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, HadoopJobSink sink) throws IOException {
+		return processHadoopJobsForDates(start, end, baseJobHistDir, jobTrackerName, sink, 1);
+	}
+
+	/**
+	 * Same as processHadoopJobsForDates but parses the jobs with a pool of numThreads threads.
+	 * At most a few jobs per thread are in flight at any time, and the sink is always called
+	 * from the calling thread.
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param sink
+	 * @param numThreads
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, HadoopJobSink sink, int numThreads) throws IOException {
+		return processHadoopJobsForDates(start, end, baseJobHistDir, jobTrackerName, sink, numThreads, null);
+	}
 
-		//merge all the lists together
-		for (Collection<HadoopJob> col : hadoopJobs) {
-			count+= col.size();
-			LOGGER.info(String.format("size %s", count));
+	/**
+	 * Same as processHadoopJobsForDates but records its progress in the checkpoint and skips the
+	 * work the checkpoint says is done. The jobs of a directory are then processed in jobId order,
+	 * and a sink that is Flushable is flushed before each checkpoint.
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param sink
+	 * @param numThreads
+	 * @param checkpoint may be null
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, HadoopJobSink sink, int numThreads, BackfillCheckpoint checkpoint) throws IOException {
+		return processHadoopJobsForDates(start, end, baseJobHistDir, jobTrackerName, sink, numThreads, checkpoint, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as processHadoopJobsForDates but only parses the values of the projection
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param sink
+	 * @param numThreads
+	 * @param checkpoint may be null
+	 * @param projection
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, HadoopJobSink sink, int numThreads, BackfillCheckpoint checkpoint, JobProjection projection) throws IOException {
+		List<ZonedDateTime> listOfDates = getListOfDatesForRange(start, end);
+		List<File> dateDirectories = getListOfDirectories(baseJobHistDir, listOfDates);
+		LocalFileSystem localFileSystem = FileSystem.getLocal(new Configuration());
+		JobTimeRange range = new JobTimeRange(start, end);
+		JobTimeRange.FilteringSink rangeSink = range.filter(sink);
+		if (checkpoint != null) {
+			//the directories are only done for this range, the one after the end in particular
+			checkpoint.setRange(range);
 		}
-		for (Collection<HadoopJob> col : hadoopJobs) {
-			allJobs.addAll(col);
+		long startNanos = System.nanoTime();
+		ExecutorService executor = newParserPool(numThreads);
+		try {
+			for (File dateDirectory : dateDirectories) {
+				if (checkpoint != null && checkpoint.isDone(dateDirectory)) {
+					LOGGER.info(String.format("Skipping date directory %s, done before", dateDirectory));
+					continue;
+				}
+				LOGGER.info(String.format("Reading date directory %s", dateDirectory));
+				JobHistoryDirectoryIndex index = buildDirectoryIndex(dateDirectory);
+				Collection<String> jobIds = getJobIdsFromIndex(index, range);
+				if (checkpoint == null) {
+					processHadoopJobsGivenJobIDList(localFileSystem, index, jobTrackerName, jobIds, rangeSink, executor, projection);
+				} else {
+					processHadoopJobsInBatches(localFileSystem, index, jobTrackerName, jobIds, rangeSink, executor, checkpoint, projection);
+				}
+				flushParsedJobCache(dateDirectory);
+				if (checkpoint != null) {
+					flushSink(rangeSink);
+					checkpoint.directoryDone(dateDirectory);
+				}
+			}
+		} finally {
+			shutdownParserPool(executor);
+			flushJobLocationIndex();
 		}
-		return allJobs;
+		int count = rangeSink.getCount();
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		LOGGER.info(String.format("Read %s dir(s) and %s jobs in total, %.1f jobs/s", dateDirectories.size(), count,
+				seconds > 0 ? count / seconds : 0));
+		return count;
 	}
 
 	/**
-	 * Given a start and end date, and a jobtracker name and the base directory
+	 * Given a start and end instant, and a jobtracker name and the base directory
 	 * where all the jobtracker files will be put under, return a list of list of hadoop jobs
+	 * in the range [start, end), one list per date directory
 	 * @param start
 	 * @param end
 	 * @param baseJobHistDir
@@ -89,17 +275,69 @@ public class HadoopJobHistoryFileParser {
 	 * @throws URISyntaxException
 	 */
 	public static List<Collection<HadoopJob>> getHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName) throws IOException, URISyntaxException {
-		List<ZonedDateTime> listOfDates = getListOfDates(start, end);
+		return getHadoopJobsForDates(start, end, baseJobHistDir, jobTrackerName, 1);
+	}
+
+	/**
+	 * Same as getHadoopJobsForDates but parses the jobs of each date directory
+	 * with a pool of numThreads threads
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param numThreads
+	 * @return
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public static List<Collection<HadoopJob>> getHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, int numThreads) throws IOException, URISyntaxException {
+		return getHadoopJobsForDates(start, end, baseJobHistDir, jobTrackerName, numThreads, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobsForDates but only parses the values of the projection
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param numThreads
+	 * @param projection
+	 * @return
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public static List<Collection<HadoopJob>> getHadoopJobsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir, String jobTrackerName, int numThreads, JobProjection projection) throws IOException, URISyntaxException {
+		List<ZonedDateTime> listOfDates = getListOfDatesForRange(start, end);
 		List<File> dateDirectories = getListOfDirectories(baseJobHistDir, listOfDates);
 		List<Collection<HadoopJob>> allHadoopJobs = new LinkedList<Collection<HadoopJob>>();
-		for (File dateDirectory : dateDirectories) {
-			LOGGER.info(String.format("Reading date directory %s", dateDirectory));
-			allHadoopJobs.add(getHadoopJobsFromDirectory(dateDirectory, jobTrackerName));
+		JobTimeRange range = new JobTimeRange(start, end);
+		ExecutorService executor = newParserPool(numThreads);
+		try {
+			for (File dateDirectory : dateDirectories) {
+				LOGGER.info(String.format("Reading date directory %s", dateDirectory));
+				allHadoopJobs.add(getHadoopJobsFromDirectory(dateDirectory, jobTrackerName, executor, projection, range));
+			}
+		} finally {
+			shutdownParserPool(executor);
+			flushJobLocationIndex();
 		}
 		LOGGER.info(String.format("Read %s dir(s) in total", allHadoopJobs.size()));
 		return allHadoopJobs;
 	}
 
+	/**
+	 * Given the range [start, end), return the dates whose directories may hold jobs of the range.
+	 * The files of a job are in the directory of the day it finished, so the jobs that were still
+	 * running at the end are looked for in the directory of the day after the end too, where the jobs
+	 * submitted after the end are pruned by name. Jobs that finished later than that are missed.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static List<ZonedDateTime> getListOfDatesForRange(ZonedDateTime start, ZonedDateTime end) {
+		return getListOfDates(start, end.plusDays(1));
+	}
+
 	/**
 	 * Given a start datetime and an end datetime, generate the list of dates inclusive of start and end datetime
 	 * @param start
@@ -122,27 +360,35 @@ public class HadoopJobHistoryFileParser {
 
 	/**
 	 * Given a list of dates and the base directory, return a list of String paths
-	 * with those date directories under the base directory
+	 * with those date directories under the base directory.
+	 * Only the jobtracker instance directories directly under the base directory are listed,
+	 * the date directories under them are probed directly.
 	 * @param baseDir
 	 * @param listDates
 	 * @return
 	 */
 	public static List<File> getListOfDirectories(String baseDir, List<ZonedDateTime> listDates) {
+		long startNanos = System.nanoTime();
 		ArrayList<File> listOfDir = new ArrayList<File>(listDates.size());
 
-		Collection<File> dirs = jobHistoryFileSystem.getAllSubDirectories(new File(baseDir));
+		List<File> instanceDirs = jobHistoryFileSystem.getJobTrackerInstanceDirectories(new File(baseDir));
 
-		for (File dir : dirs) {
-			LOGGER.debug(dir.getAbsolutePath());
+		for (File instanceDir : instanceDirs) {
+			LOGGER.debug(instanceDir.getAbsolutePath());
 			for (ZonedDateTime zdt : listDates) {
-				Pattern p = Pattern.compile(zdt.format(DateTimeFormatter.ofPattern(dateDirectoryRegex)));
-				Matcher m = p.matcher(dir.getAbsolutePath());
-				boolean found = m.find();
-				if (found) {
-					listOfDir.add(dir);
+				File dateDir = new File(instanceDir, zdt.format(dateDirectoryFormatter));
+				if (jobHistoryFileSystem.isDirectory(dateDir)) {
+					listOfDir.add(dateDir);
+				} else {
+					//the date directory may have been archived as a single tar or zip file
+					File archive = jobHistoryFileSystem.getDateArchive(dateDir);
+					if (archive != null) {
+						listOfDir.add(archive);
+					}
 				}
 			}
 		}
+		Metrics.timer(Metrics.DIRECTORY_PROBE).update(System.nanoTime() - startNanos);
 		return listOfDir;
 	}
 
@@ -155,43 +401,187 @@ public class HadoopJobHistoryFileParser {
 	 * @throws IOException
 	 */
 	public static Collection<HadoopJob> getHadoopJobsFromDirectory(File dateDirectory, String jobtrackerName) throws URISyntaxException, IOException {
+		return getHadoopJobsFromDirectory(dateDirectory, jobtrackerName, null);
+	}
+
+	/**
+	 * Given a jobtrackerName and a dateDirectory, return a Collection of hadoopJobs
+	 * parsed on the given executor, or on the calling thread if the executor is null
+	 * @param dateDirectory
+	 * @param jobtrackerName
+	 * @param executor
+	 * @return
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	public static Collection<HadoopJob> getHadoopJobsFromDirectory(File dateDirectory, String jobtrackerName, ExecutorService executor) throws URISyntaxException, IOException {
+		return getHadoopJobsFromDirectory(dateDirectory, jobtrackerName, executor, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobsFromDirectory but only parses the values of the projection
+	 * @param dateDirectory
+	 * @param jobtrackerName
+	 * @param executor may be null
+	 * @param projection
+	 * @return
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	public static Collection<HadoopJob> getHadoopJobsFromDirectory(File dateDirectory, String jobtrackerName, ExecutorService executor, JobProjection projection) throws URISyntaxException, IOException {
+		return getHadoopJobsFromDirectory(dateDirectory, jobtrackerName, executor, projection, null);
+	}
+
+	/**
+	 * Same as getHadoopJobsFromDirectory but only returns the jobs in the time range
+	 * @param dateDirectory
+	 * @param jobtrackerName
+	 * @param executor may be null
+	 * @param projection
+	 * @param range may be null for every job
+	 * @return
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	public static Collection<HadoopJob> getHadoopJobsFromDirectory(File dateDirectory, String jobtrackerName, ExecutorService executor, JobProjection projection, JobTimeRange range) throws URISyntaxException, IOException {
 		LOGGER.info(String.format("Getting hadoop jobs from %s", dateDirectory));
-		Collection<String> jobIds = getJobIdsFromDirectory(dateDirectory);
+		JobHistoryDirectoryIndex index = buildDirectoryIndex(dateDirectory);
+		Collection<String> jobIds = getJobIdsFromIndex(index, range);
 
 		Configuration conf = new Configuration();
 		LocalFileSystem localFileSystem = FileSystem.getLocal(conf);
 
-		Collection<HadoopJob> hadoopJobs = getHadoopJobsGivenJobIDList(localFileSystem, dateDirectory, jobtrackerName, jobIds);
+		Collection<HadoopJob> hadoopJobs;
+		if (executor == null) {
+			hadoopJobs = getHadoopJobsGivenJobIDList(localFileSystem, index, jobtrackerName, jobIds, projection);
+		} else {
+			hadoopJobs = getHadoopJobsGivenJobIDList(localFileSystem, index, jobtrackerName, jobIds, executor, projection);
+		}
+		if (range != null) {
+			range.retain(hadoopJobs);
+		}
+		flushParsedJobCache(dateDirectory);
 		LOGGER.info(String.format("Size from %s : %s", dateDirectory, hadoopJobs.size()));
 		return hadoopJobs;
 	}
 
+	/**
+	 * Index the files of a date directory, adding its jobs to the job location index if there is one
+	 * @param dateDirectory
+	 * @return
+	 */
+	public static JobHistoryDirectoryIndex buildDirectoryIndex(File dateDirectory) {
+		JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(jobHistoryFileSystem, dateDirectory);
+		if (jobLocationIndex != null) {
+			try {
+				jobLocationIndex.add(index);
+			} catch (IOException e) {
+				LOGGER.warn(String.format("Could not add %s to the job location index", dateDirectory), e);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Write the pending jobs of the job location index to disk, if there is an index
+	 */
+	public static void flushJobLocationIndex() {
+		if (jobLocationIndex == null) {
+			return;
+		}
+		try {
+			jobLocationIndex.flush();
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the job location index", e);
+		}
+	}
+
+	/**
+	 * Given a jobId, return its HadoopJob from anywhere under the base directory using the job location
+	 * index. When the job is not in the index, the date directories the index has not seen yet and
+	 * those of the last days are indexed first, so only the first lookup walks the whole tree. When the
+	 * files of the job are no longer where the index says, every date directory is indexed again.
+	 * @param baseJobHistDir
+	 * @param jobTrackerName
+	 * @param jobId
+	 * @return the job, or null if it is not under the base directory or cannot be read
+	 * @throws IOException
+	 */
+	public static HadoopJob getHadoopJobFromLocationIndex(String baseJobHistDir, String jobTrackerName, String jobId) throws IOException {
+		if (jobLocationIndex == null) {
+			throw new IllegalStateException("No job location index");
+		}
+		File baseDir = new File(baseJobHistDir);
+		JobHistoryDirectoryIndex.JobFiles jobFiles = jobLocationIndex.lookup(jobId);
+		if (jobFiles == null || !JobLocationIndex.exists(jobHistoryFileSystem, jobFiles)) {
+			jobLocationIndex.refresh(jobHistoryFileSystem, baseDir);
+			jobFiles = jobLocationIndex.lookup(jobId);
+		}
+		if (jobFiles != null && !JobLocationIndex.exists(jobHistoryFileSystem, jobFiles)) {
+			//the files were moved to a directory that was already indexed
+			LOGGER.info(String.format("Job %s is no longer at %s, indexing %s again", jobId, jobFiles.getStatsFile(), baseJobHistDir));
+			jobLocationIndex.rebuild(jobHistoryFileSystem, baseDir);
+			jobFiles = jobLocationIndex.lookup(jobId);
+		}
+		if (jobFiles == null || !JobLocationIndex.exists(jobHistoryFileSystem, jobFiles)) {
+			LOGGER.warn(String.format("Job %s is not under %s", jobId, baseJobHistDir));
+			return null;
+		}
+		return getHadoopJobFromFiles(FileSystem.getLocal(new Configuration()), jobFiles, jobTrackerName);
+	}
+
 	/**
 	 * Given a directory, return the list of all jobIds under this directory
 	 * @param dir
 	 * @return
 	 */
 	public static HashSet<String> getJobIdsFromDirectory(File dir) {
+		return getJobIdsFromIndex(buildDirectoryIndex(dir));
+	}
 
-		Collection<File> statsFiles = jobHistoryFileSystem.getStatsFileInDirectory(dir);
+	/**
+	 * Given an index of a directory, return the jobIds that have a config file in this directory
+	 * @param index
+	 * @return
+	 */
+	public static HashSet<String> getJobIdsFromIndex(JobHistoryDirectoryIndex index) {
+		return getJobIdsFromIndex(index, null);
+	}
 
-		Collection<File> confFiles =  jobHistoryFileSystem.getConfFileInDirectory(dir);
+	/**
+	 * Given an index of a directory, return the jobIds that have a config file in this directory
+	 * and may be in the time range, judging by the names and modification times of their files
+	 * @param index
+	 * @param range may be null for every job
+	 * @return
+	 */
+	public static HashSet<String> getJobIdsFromIndex(JobHistoryDirectoryIndex index, JobTimeRange range) {
+		int statsFiles = index.getStatsFileCount();
+		int confFiles = index.getConfFileCount();
 
-		LOGGER.info(String.format("statsFiles %s, confFiles %s, sameLength=%s", statsFiles.size(), confFiles.size(),
-				statsFiles.size() == confFiles.size()));
+		LOGGER.info(String.format("statsFiles %s, confFiles %s, sameLength=%s", statsFiles, confFiles,
+				statsFiles == confFiles));
 
 		HashSet<String> confFileStrings = new HashSet<String>();
-		Pattern p = Pattern.compile("^(.*)_conf.xml");
-
-		for (File f : confFiles) {
-			Matcher m = p.matcher(f.getName());
-			m.find();
-			String jobIdString = m.group(1);
-			confFileStrings.add(jobIdString);
+		int pruned = 0;
+		for (String jobId : index.getJobIds()) {
+			JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+			if (jobFiles.getConfFile() == null) {
+				continue;
+			}
+			if (range != null && !range.mayContain(jobFiles, jobHistoryFileSystem)) {
+				pruned++;
+				continue;
+			}
+			confFileStrings.add(jobId);
+		}
+		if (range != null) {
+			Metrics.counter(Metrics.JOBS_PRUNED).add(pruned);
+			LOGGER.info(String.format("Pruned %s jobs out of %s", pruned, range));
 		}
 
-		LOGGER.info(String.format("confFileDedup %s, confFiles %s, sameLength=%s", confFileStrings.size(), confFiles.size(),
-				confFileStrings.size() == confFiles.size()));
+		LOGGER.info(String.format("confFileDedup %s, confFiles %s, sameLength=%s", confFileStrings.size() + pruned, confFiles,
+				confFileStrings.size() + pruned == confFiles));
 
 		return confFileStrings;
 	}
@@ -202,8 +592,7 @@ public class HadoopJobHistoryFileParser {
 	 * @return
 	 */
 	public static String getJobIdFromConfFileName(String confFileString) {
-		Pattern p = Pattern.compile("^(.*)_conf.xml");
-		Matcher m = p.matcher(confFileString);
+		Matcher m = confFilePattern.matcher(confFileString);
 		m.find();
 		String jobIdString = m.group(1);
 		return jobIdString;
@@ -228,6 +617,34 @@ public class HadoopJobHistoryFileParser {
 	 * @return
 	 */
 	public static Collection<HadoopJob> getHadoopJobsGivenJobIDList(FileSystem fs, File jobHistoryDir, String jobTrackerName, Collection<String> jobIds) {
+		JobHistoryDirectoryIndex index = buildDirectoryIndex(jobHistoryDir);
+		Collection<HadoopJob> hadoopJobs = getHadoopJobsGivenJobIDList(fs, index, jobTrackerName, jobIds);
+		flushParsedJobCache(jobHistoryDir);
+		return hadoopJobs;
+	}
+
+	/**
+	 * Given an index of a directory and a list of JobIds, return a list of HadoopJob objects corresponding to that list
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @return
+	 */
+	public static Collection<HadoopJob> getHadoopJobsGivenJobIDList(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> jobIds) {
+		return getHadoopJobsGivenJobIDList(fs, index, jobTrackerName, jobIds, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobsGivenJobIDList but only parses the values of the projection
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param projection
+	 * @return
+	 */
+	public static Collection<HadoopJob> getHadoopJobsGivenJobIDList(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> jobIds, JobProjection projection) {
 		ArrayList<HadoopJob> lOfHadoopJobs = new ArrayList<HadoopJob>(jobIds.size());
 		int count = 1;
 		for (String jobId : jobIds) {
@@ -235,7 +652,79 @@ public class HadoopJobHistoryFileParser {
 			if (count % 100 == 0) {
 				LOGGER.info(String.format("Read %s jobs", count));
 			}
-			HadoopJob hj = getHadoopJobGivenJobID(fs, jobHistoryDir, jobTrackerName, jobId);
+			HadoopJob hj = getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, projection);
+			if (hj == null) {
+				LOGGER.error(String.format("Skipping job %s",jobId));
+				continue;
+			}
+			lOfHadoopJobs.add(hj);
+			count++;
+		}
+		LOGGER.info(String.format("Read in total %s jobs", count));
+		if (shareJobConfigs) {
+			JobConfigSharing.shareAll(lOfHadoopJobs);
+		}
+		return lOfHadoopJobs;
+	}
+
+	/**
+	 * Given an index of a directory and a list of JobIds, parse the jobs on the given executor
+	 * and return them in the order of the list. Jobs that cannot be read are skipped.
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param executor
+	 * @return
+	 */
+	public static Collection<HadoopJob> getHadoopJobsGivenJobIDList(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> jobIds, ExecutorService executor) {
+		return getHadoopJobsGivenJobIDList(fs, index, jobTrackerName, jobIds, executor, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobsGivenJobIDList but only parses the values of the projection
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param executor
+	 * @param projection
+	 * @return
+	 */
+	public static Collection<HadoopJob> getHadoopJobsGivenJobIDList(final FileSystem fs, final JobHistoryDirectoryIndex index, final String jobTrackerName, Collection<String> jobIds, ExecutorService executor, final JobProjection projection) {
+		List<Future<HadoopJob>> futures = new ArrayList<Future<HadoopJob>>(jobIds.size());
+		for (final String jobId : jobIds) {
+			futures.add(executor.submit(new Callable<HadoopJob>() {
+				public HadoopJob call() {
+					return getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, projection);
+				}
+			}));
+		}
+
+		ArrayList<HadoopJob> lOfHadoopJobs = new ArrayList<HadoopJob>(jobIds.size());
+		int count = 1;
+		Iterator<String> jobIdIterator = jobIds.iterator();
+		for (Future<HadoopJob> future : futures) {
+			String jobId = jobIdIterator.next();
+
+			if (count % 100 == 0) {
+				LOGGER.info(String.format("Read %s jobs", count));
+			}
+			HadoopJob hj;
+			try {
+				hj = future.get();
+			} catch (InterruptedException e) {
+				LOGGER.error(String.format("Interrupted while reading job %s", jobId), e);
+				Thread.currentThread().interrupt();
+				cancelAll(futures);
+				break;
+			} catch (ExecutionException e) {
+				cancelAll(futures);
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
 			if (hj == null) {
 				LOGGER.error(String.format("Skipping job %s",jobId));
 				continue;
@@ -244,9 +733,192 @@ public class HadoopJobHistoryFileParser {
 			count++;
 		}
 		LOGGER.info(String.format("Read in total %s jobs", count));
+		if (shareJobConfigs) {
+			JobConfigSharing.shareAll(lOfHadoopJobs);
+		}
 		return lOfHadoopJobs;
 	}
 
+	/**
+	 * Given an index of a directory and a list of JobIds, parse the jobs and hand them to the sink
+	 * in the order of the list. With an executor, at most PARSE_WINDOW_PER_THREAD jobs per thread
+	 * are parsed ahead of the sink.
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param sink
+	 * @param executor may be null to parse on the calling thread
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsGivenJobIDList(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> jobIds, HadoopJobSink sink, ExecutorService executor) throws IOException {
+		return processHadoopJobsGivenJobIDList(fs, index, jobTrackerName, jobIds, sink, executor, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as processHadoopJobsGivenJobIDList but only parses the values of the projection
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param sink
+	 * @param executor may be null to parse on the calling thread
+	 * @param projection
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsGivenJobIDList(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> jobIds, HadoopJobSink sink, ExecutorService executor, JobProjection projection) throws IOException {
+		JobConfigSharing sharing = shareJobConfigs ? new JobConfigSharing() : null;
+		return processHadoopJobsGivenJobIDList(fs, index, jobTrackerName, jobIds, sink, executor, projection, sharing);
+	}
+
+	/**
+	 * Same as processHadoopJobsGivenJobIDList but shares the configs of the jobs with the given
+	 * sharing, so that several lists of jobs of the same directory share the same bases
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobIds
+	 * @param sink
+	 * @param executor may be null to parse on the calling thread
+	 * @param projection
+	 * @param sharing may be null to keep the configs of the jobs as they are
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public static int processHadoopJobsGivenJobIDList(final FileSystem fs, final JobHistoryDirectoryIndex index, final String jobTrackerName, Collection<String> jobIds, HadoopJobSink sink, ExecutorService executor, final JobProjection projection, JobConfigSharing sharing) throws IOException {
+		int count = 0;
+		if (executor == null) {
+			for (String jobId : jobIds) {
+				HadoopJob hj = getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, projection);
+				count += acceptJob(sink, sharing, jobId, hj, count);
+			}
+			return count;
+		}
+
+		int threads = executor instanceof ThreadPoolExecutor ?
+				((ThreadPoolExecutor) executor).getMaximumPoolSize() : Runtime.getRuntime().availableProcessors();
+		int window = PARSE_WINDOW_PER_THREAD * threads;
+		LinkedList<Future<HadoopJob>> inFlight = new LinkedList<Future<HadoopJob>>();
+		LinkedList<String> inFlightIds = new LinkedList<String>();
+		Iterator<String> jobIdIterator = jobIds.iterator();
+		try {
+			while (jobIdIterator.hasNext() || !inFlight.isEmpty()) {
+				while (jobIdIterator.hasNext() && inFlight.size() < window) {
+					final String jobId = jobIdIterator.next();
+					inFlightIds.add(jobId);
+					inFlight.add(executor.submit(new Callable<HadoopJob>() {
+						public HadoopJob call() {
+							return getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, projection);
+						}
+					}));
+				}
+				String jobId = inFlightIds.removeFirst();
+				HadoopJob hj;
+				try {
+					hj = inFlight.removeFirst().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(String.format("Interrupted while reading job %s", jobId));
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+				count += acceptJob(sink, sharing, jobId, hj, count);
+			}
+		} finally {
+			cancelAll(inFlight);
+		}
+		return count;
+	}
+
+	/**
+	 * Processes the jobs of a directory in jobId order, after the last jobId of the checkpoint,
+	 * and checkpoints after every batch
+	 */
+	private static int processHadoopJobsInBatches(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, Collection<String> directoryJobIds, HadoopJobSink sink, ExecutorService executor, BackfillCheckpoint checkpoint, JobProjection projection) throws IOException {
+		List<String> jobIds = new ArrayList<String>(directoryJobIds);
+		Collections.sort(jobIds);
+		String lastJobId = checkpoint.getLastJobId(index.getDirectory());
+		int first = 0;
+		if (lastJobId != null) {
+			while (first < jobIds.size() && jobIds.get(first).compareTo(lastJobId) <= 0) {
+				first++;
+			}
+			LOGGER.info(String.format("Resuming %s after %s, skipping %s jobs", index.getDirectory(), lastJobId, first));
+		}
+		int count = 0;
+		//one sharing for the whole directory, the jobs of later batches share the bases of the first ones
+		JobConfigSharing sharing = shareJobConfigs ? new JobConfigSharing() : null;
+		for (int from = first; from < jobIds.size(); from += checkpoint.getBatchSize()) {
+			List<String> batch = jobIds.subList(from, Math.min(jobIds.size(), from + checkpoint.getBatchSize()));
+			count += processHadoopJobsGivenJobIDList(fs, index, jobTrackerName, batch, sink, executor, projection, sharing);
+			flushSink(sink);
+			checkpoint.batchDone(index.getDirectory(), batch.get(batch.size() - 1));
+		}
+		return count;
+	}
+
+	private static void flushSink(HadoopJobSink sink) throws IOException {
+		if (sink instanceof Flushable) {
+			((Flushable) sink).flush();
+		}
+	}
+
+	private static int acceptJob(HadoopJobSink sink, JobConfigSharing sharing, String jobId, HadoopJob hj, int count) throws IOException {
+		if (hj == null) {
+			LOGGER.error(String.format("Skipping job %s",jobId));
+			return 0;
+		}
+		if (sharing != null) {
+			sharing.share(hj);
+		}
+		sink.accept(hj);
+		if ((count + 1) % 100 == 0) {
+			LOGGER.info(String.format("Read %s jobs", count + 1));
+		}
+		return 1;
+	}
+
+	private static void cancelAll(List<Future<HadoopJob>> futures) {
+		for (Future<HadoopJob> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Creates the pool of parser threads, or returns null when the jobs should be parsed
+	 * on the calling thread
+	 * @param numThreads
+	 * @return
+	 */
+	public static ExecutorService newParserPool(int numThreads) {
+		if (numThreads <= 1) {
+			return null;
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("oxpecker-parser-%s", threadCount.incrementAndGet()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Shuts down a pool created by newParserPool
+	 * @param executor
+	 */
+	public static void shutdownParserPool(ExecutorService executor) {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Given a directory and a JobId, return a HadoopJob object corresponding to that jobId
 	 * with counters, config, fields populated
@@ -257,66 +929,164 @@ public class HadoopJobHistoryFileParser {
 	 * @return
 	 */
 	public static HadoopJob getHadoopJobGivenJobID(FileSystem fs, File jobHistoryDir, String jobTrackerName, String jobId) {
-		Collection<File> jobIdFiles = jobHistoryFileSystem.getFilesForGivenJobId(jobHistoryDir, jobId);
+		JobHistoryDirectoryIndex index = buildDirectoryIndex(jobHistoryDir);
+		HadoopJob hj = getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId);
+		flushParsedJobCache(jobHistoryDir);
+		return hj;
+	}
+
+	/**
+	 * Write the cached jobs of a directory to disk, if there is a cache
+	 * @param dateDirectory
+	 */
+	public static void flushParsedJobCache(File dateDirectory) {
+		if (parsedJobCache == null) {
+			return;
+		}
+		try {
+			parsedJobCache.flush(dateDirectory);
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Could not write the job cache of %s", dateDirectory), e);
+		}
+	}
+
+	/**
+	 * Given an index of a directory and a JobId, return a HadoopJob object corresponding to that jobId
+	 * with counters, config, fields populated
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobId
+	 * @return
+	 */
+	public static HadoopJob getHadoopJobGivenJobID(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, String jobId) {
+		return getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, JobProjection.ALL);
+	}
 
-		if (jobIdFiles.size() != 2) {
+	/**
+	 * Same as getHadoopJobGivenJobID but only parses the values of the projection.
+	 * Cached jobs are projected, jobs parsed with a projection that leaves values out are not cached.
+	 * @param fs
+	 * @param index
+	 * @param jobTrackerName
+	 * @param jobId
+	 * @param projection
+	 * @return
+	 */
+	public static HadoopJob getHadoopJobGivenJobID(FileSystem fs, JobHistoryDirectoryIndex index, String jobTrackerName, String jobId, JobProjection projection) {
+		JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+
+		if (jobFiles == null || !jobFiles.isComplete()) {
 			LOGGER.warn(String.format("One of conf file or statistics file is missing, skipping file : %s", jobId));
+			Metrics.skipped(Metrics.SKIPPED_MISSING_FILE);
 			return null;
 		}
 
-		boolean hasConfFile = false;
-		File confFile = null;
-		boolean hasStatsFile = false;
-		File statsFile = null;
-		for (File f : jobIdFiles) {
-			if (f.getName().endsWith("_conf.xml")) {
-				hasConfFile= true;
-				confFile = f;
-			} else {
-				hasStatsFile = true;
-				statsFile = f;
+		//the cache does not keep task attempts
+		boolean useCache = parsedJobCache != null && !projection.includesTaskAttempts();
+		if (useCache) {
+			HadoopJob cached = parsedJobCache.get(index.getDirectory(), jobFiles);
+			if (cached != null) {
+				Metrics.counter(Metrics.JOBS_CACHED).inc();
+				cached.addField(Constant.JOB_TRACKER, jobTrackerName);
+				return projection.project(cached);
 			}
 		}
-		if (!hasConfFile && !hasStatsFile) {
-			LOGGER.warn(String.format("One of conf file or statistics file is missing, skipping file : %s", jobId));
-			return null;
+		HadoopJob hj = getHadoopJobFromFiles(fs, jobFiles, jobTrackerName, projection);
+		if (hj != null && useCache && projection.isAll()) {
+			parsedJobCache.put(index.getDirectory(), jobFiles, hj);
 		}
-		TaskAttemptFilter hadoopJobKeyValueMapWrapper = new TaskAttemptFilter();
+		return hj;
+	}
+
+	/**
+	 * Parse the stats file and the conf file of a job and return a HadoopJob object
+	 * with counters, config, fields populated, or null if one of the files cannot be parsed
+	 * @param fs
+	 * @param jobFiles
+	 * @param jobTrackerName
+	 * @return
+	 */
+	public static HadoopJob getHadoopJobFromFiles(FileSystem fs, JobHistoryDirectoryIndex.JobFiles jobFiles, String jobTrackerName) {
+		return getHadoopJobFromFiles(fs, jobFiles, jobTrackerName, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobFromFiles but only decodes the values of the projection
+	 * @param fs
+	 * @param jobFiles
+	 * @param jobTrackerName
+	 * @param projection
+	 * @return
+	 */
+	public static HadoopJob getHadoopJobFromFiles(FileSystem fs, JobHistoryDirectoryIndex.JobFiles jobFiles, String jobTrackerName, JobProjection projection) {
+		String jobId = jobFiles.getJobId();
+		File confFile = jobFiles.getConfFile();
+		File statsFile = jobFiles.getStatsFile();
+		TaskAttemptCollector attempts = projection.includesTaskAttempts() ? new TaskAttemptCollector() : null;
+		TaskAttemptFilter hadoopJobKeyValueMapWrapper = new TaskAttemptFilter(attempts);
+		long startNanos = System.nanoTime();
 		try {
-			getHadoopJobFromStatsFile(fs, statsFile.getAbsolutePath(), hadoopJobKeyValueMapWrapper);
+			getHadoopJobFromStatsFile(fs, statsFile.getAbsolutePath(), hadoopJobKeyValueMapWrapper, projection);
 		} catch (IOException e) {
 			LOGGER.error(String.format("Error for jobid : %s",jobId),e);
+			Metrics.skipped(Metrics.SKIPPED_STATS_IO);
 			return null;
 		}
+		long statsNanos = System.nanoTime();
+		Metrics.timer(Metrics.STATS_PARSE).update(statsNanos - startNanos);
+		Metrics.counter(Metrics.STATS_BYTES_READ).add(jobHistoryFileSystem.length(statsFile));
 		HadoopJob hj = new HadoopJob();
+		if (attempts != null) {
+			hj.setTaskAttemptStats(attempts.getStats());
+		}
 
 		try {
-			populateFieldsFromJobInfo(hadoopJobKeyValueMapWrapper,hj);
+			populateFieldsFromJobInfo(hadoopJobKeyValueMapWrapper, hj, projection);
 			hj.addField(Constant.JOB_TRACKER, jobTrackerName);
-			populateCountersFromJobInfo(hadoopJobKeyValueMapWrapper, hj);
-			populateConfigsFromFile(hj, confFile);
+			populateCountersFromJobInfo(hadoopJobKeyValueMapWrapper, hj, projection);
+			long confStartNanos = System.nanoTime();
+			populateConfigsFromFile(hj, confFile, projection.getConfigKeys());
+			Metrics.timer(Metrics.CONF_PARSE).update(System.nanoTime() - confStartNanos);
+			Metrics.counter(Metrics.CONF_BYTES_READ).add(jobHistoryFileSystem.length(confFile));
 		} catch (FileNotFoundException e) {
 			LOGGER.error(String.format("Error for jobid : %s",jobId),e);
+			Metrics.skipped(Metrics.SKIPPED_FILE_NOT_FOUND);
 			return null;
 		} catch (DocumentException e) {
 			LOGGER.error(String.format("Error for jobid : %s",jobId),e);
+			Metrics.skipped(Metrics.SKIPPED_DOCUMENT);
 			return null;
 		} catch (HadoopJobParseException e) {
 			LOGGER.error(String.format("Error for jobid : %s",jobId),e);
+			Metrics.skipped(Metrics.SKIPPED_HADOOP_JOB_PARSE);
 			return null;
 		} catch (ParseException e) {
 			LOGGER.error(String.format("Error for jobid : %s",jobId),e);
+			Metrics.skipped(Metrics.SKIPPED_PARSE);
 			return null;
 		}
+		hj.compact();
+		Metrics.timer(Metrics.JOB_PARSE).update(System.nanoTime() - startNanos);
 		return hj;
 	}
 
 	/**
-	 * A static class that ignores the mapAttempt and reduceAttempt since those fields are unnecessary
+	 * A static class that ignores the mapAttempt and reduceAttempt since those fields are unnecessary,
+	 * unless it is given a collector for them
 	 */
 	static class TaskAttemptFilter implements JobHistory.Listener {
 		private Map<JobHistory.Keys, String> maps =
 				new HashMap<JobHistory.Keys, String>();
+		private final TaskAttemptCollector attempts;
+
+		TaskAttemptFilter() {
+			this(null);
+		}
+
+		TaskAttemptFilter(TaskAttemptCollector attempts) {
+			this.attempts = attempts;
+		}
 
 		Map<JobHistory.Keys, String> getValues(){
 			return maps;
@@ -329,19 +1099,58 @@ public class HadoopJobHistoryFileParser {
 				for (Map.Entry<JobHistory.Keys, String> e : values.entrySet()) {
 					maps.put(e.getKey(), e.getValue());
 				}
+			} else if (attempts != null) {
+				attempts.handle(recType, values);
 			}
 		}
 	}
 
 	/**
-	 * Using Hadoop API to parse a job stats file and populating the TaskAttemptFilter object
+	 * Parse a job stats file and populate the TaskAttemptFilter object, either with the Hadoop API
+	 * or with JobHistoryStatsFileReader which only decodes the keys oxpecker keeps.
+	 * Compressed files and archive entries are always read with JobHistoryStatsFileReader.
 	 * @param localFileSystem
 	 * @param statsFile
 	 * @param l
 	 * @throws IOException
 	 */
 	public static void getHadoopJobFromStatsFile(FileSystem localFileSystem,  String statsFile, TaskAttemptFilter l) throws IOException {
-		JobHistory.parseHistoryFromFS(statsFile, l, localFileSystem);
+		getHadoopJobFromStatsFile(localFileSystem, statsFile, l, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as getHadoopJobFromStatsFile but JobHistoryStatsFileReader only decodes the keys of the projection
+	 * @param localFileSystem
+	 * @param statsFile
+	 * @param l
+	 * @param projection
+	 * @throws IOException
+	 */
+	public static void getHadoopJobFromStatsFile(FileSystem localFileSystem,  String statsFile, TaskAttemptFilter l, JobProjection projection) throws IOException {
+		File file = new File(statsFile);
+		if (jobHistoryFileSystem.isEncoded(file)) {
+			//the hadoop parser can only read plain files
+			InputStream in = jobHistoryFileSystem.open(file);
+			try {
+				projection.getStatsFileReader().parse(in, l);
+			} finally {
+				in.close();
+			}
+		} else if (useHadoopJobHistoryParser) {
+			JobHistory.parseHistoryFromFS(statsFile, l, localFileSystem);
+		} else {
+			projection.getStatsFileReader().parse(localFileSystem, statsFile, l);
+		}
+	}
+
+	/**
+	 * Returns the keys of the statistics file that populateFieldsFromJobInfo and populateCountersFromJobInfo read
+	 * @return
+	 */
+	public static Set<JobHistory.Keys> getJobInfoKeys() {
+		Set<JobHistory.Keys> keys = EnumSet.of(JobHistory.Keys.COUNTERS);
+		keys.addAll(Arrays.asList(JOB_INFO_FIELDS));
+		return keys;
 	}
 
 	/**
@@ -353,12 +1162,30 @@ public class HadoopJobHistoryFileParser {
 	 * @throws HadoopJobParseException
 	 */
 	public static void populateConfigsFromFile(HadoopJob hj, File confFile) throws FileNotFoundException, DocumentException, HadoopJobParseException {
-		String confFilePath = confFile.getAbsolutePath();
-		if (confFilePath == null) {
-			throw new FileNotFoundException("Samburu : getAboslutePath() returned null");
+		populateConfigsFromFile(hj, confFile, null);
+	}
+
+	/**
+	 * Parse config files and add the config values of the given keys to HadoopJob objects.
+	 * The values of all other keys are never materialized.
+	 * @param hj
+	 * @param confFile
+	 * @param configKeys the keys to keep, or null to keep every key
+	 * @throws FileNotFoundException
+	 * @throws DocumentException if the config file is not well formed XML
+	 * @throws HadoopJobParseException if a property is incomplete or the file cannot be read
+	 */
+	public static void populateConfigsFromFile(HadoopJob hj, File confFile, Set<String> configKeys) throws FileNotFoundException, DocumentException, HadoopJobParseException {
+		HadoopJobConfigStreamParser configParser = new HadoopJobConfigStreamParser(configKeys);
+		try {
+			configParser.addJobConfToHadoopJob(confFile, hj);
+		} catch (HadoopJobParseException e) {
+			//malformed XML, as the dom4j parser reported it
+			if (e.getCause() instanceof XMLStreamException) {
+				throw new DocumentException(e.getMessage(), e.getCause());
+			}
+			throw e;
 		}
-		HadoopJobConfigFileParser configParser = new HadoopJobConfigFileParser(confFilePath);
-		configParser.addJobConfToHadoopJob(hj);
 	}
 
 	/**
@@ -369,21 +1196,19 @@ public class HadoopJobHistoryFileParser {
 	 * @param hadoopJob
 	 */
 	public static void populateFieldsFromJobInfo(TaskAttemptFilter hadoopJobKeyValueMapWrapper, HadoopJob hadoopJob) {
+		populateFieldsFromJobInfo(hadoopJobKeyValueMapWrapper, hadoopJob, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as populateFieldsFromJobInfo but only adds the fields of the projection
+	 * @param hadoopJobKeyValueMapWrapper
+	 * @param hadoopJob
+	 * @param projection
+	 */
+	public static void populateFieldsFromJobInfo(TaskAttemptFilter hadoopJobKeyValueMapWrapper, HadoopJob hadoopJob, JobProjection projection) {
 		Map<JobHistory.Keys, String> maps = hadoopJobKeyValueMapWrapper.getValues();
-		JobHistory.Keys[] keys = {
-			JobHistory.Keys.JOBID, JobHistory.Keys.JOBNAME,
-			JobHistory.Keys.LAUNCH_TIME, JobHistory.Keys.SUBMIT_TIME,
-			JobHistory.Keys.START_TIME, JobHistory.Keys.FINISH_TIME,
-			JobHistory.Keys.FINISHED_MAPS, JobHistory.Keys.FINISHED_REDUCES,
-			JobHistory.Keys.TOTAL_MAPS, JobHistory.Keys.TOTAL_REDUCES,
-			JobHistory.Keys.FAILED_MAPS, JobHistory.Keys.FAILED_REDUCES,
-
-			JobHistory.Keys.JOB_QUEUE, JobHistory.Keys.JOB_PRIORITY,
-			JobHistory.Keys.JOB_STATUS,
-
-		};
-		for (JobHistory.Keys key : keys) {
-			if (maps.containsKey(key)){
+		for (JobHistory.Keys key : JOB_INFO_FIELDS) {
+			if (maps.containsKey(key) && projection.includesField(key.name())){
 				hadoopJob.addField(key.name(), maps.get(key));
 			}
 		}
@@ -398,7 +1223,22 @@ public class HadoopJobHistoryFileParser {
 	 * @throws ParseException
 	 */
 	public static void populateCountersFromJobInfo(TaskAttemptFilter hadoopJobKeyValueMapWrapper, HadoopJob hadoopJob) throws ParseException {
+		populateCountersFromJobInfo(hadoopJobKeyValueMapWrapper, hadoopJob, JobProjection.ALL);
+	}
+
+	/**
+	 * Same as populateCountersFromJobInfo but only decodes the counters of the projection
+	 * @param hadoopJobKeyValueMapWrapper
+	 * @param hadoopJob
+	 * @param projection
+	 * @throws ParseException
+	 */
+	public static void populateCountersFromJobInfo(TaskAttemptFilter hadoopJobKeyValueMapWrapper, HadoopJob hadoopJob, JobProjection projection) throws ParseException {
 		Map<JobHistory.Keys, String> maps = hadoopJobKeyValueMapWrapper.getValues();
+		if (projection.getCounterNames() != null) {
+			CompactCounters.addCounters(maps.get(JobHistory.Keys.COUNTERS), projection.getCounterNames(), hadoopJob);
+			return;
+		}
 
 		Counters totalCounters =
 				Counters.fromEscapedCompactString(maps.get(JobHistory.Keys.COUNTERS));
@@ -411,13 +1251,23 @@ public class HadoopJobHistoryFileParser {
 		}
 	}
 
+	/**
+	 * Given a start and end instant and the base directory, return the jobIds that may be in the range
+	 * [start, end), one collection per date directory, pruned by the names of their files like the
+	 * jobs of getHadoopJobsForDates
+	 * @param start
+	 * @param end
+	 * @param baseJobHistDir
+	 * @return
+	 */
 	public static List<Collection<String>> getHadoopJobIdsForDates(ZonedDateTime start, ZonedDateTime end, String baseJobHistDir) {
-		List<ZonedDateTime> listOfDates = getListOfDates(start, end);
+		List<ZonedDateTime> listOfDates = getListOfDatesForRange(start, end);
 		List<File> dateDirectories = getListOfDirectories(baseJobHistDir, listOfDates);
+		JobTimeRange range = new JobTimeRange(start, end);
 		List<Collection<String>> allJobIds = new LinkedList<Collection<String>>();
 		for (File dateDirectory : dateDirectories) {
 			LOGGER.info(String.format("Reading date directory %s", dateDirectory));
-			allJobIds.add(getJobIdsFromDirectory(dateDirectory));
+			allJobIds.add(getJobIdsFromIndex(buildDirectoryIndex(dateDirectory), range));
 		}
 		LOGGER.info(String.format("Read %s dir(s) in total", allJobIds.size()));
 		return allJobIds;
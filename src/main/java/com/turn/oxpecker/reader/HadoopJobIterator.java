@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.instrumentation.JobConfigSharing;
+import com.turn.oxpecker.metrics.Metrics;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.Logger;
+
+/**
+ * Iterates over the hadoop jobs of a list of date directories, parsing each job only
+ * when it is requested. Only the directory index of the current directory is kept in memory.
+ */
+public class HadoopJobIterator implements Iterator<HadoopJob> {
+
+	static Logger LOGGER = Logger.getLogger(HadoopJobIterator.class);
+
+	private final FileSystem fs;
+	private final String jobTrackerName;
+	private final Iterator<File> dateDirectories;
+	private final JobProjection projection;
+	private final JobTimeRange range;
+
+	private JobHistoryDirectoryIndex index;
+	private JobConfigSharing sharing;
+	private Iterator<String> jobIds = Collections.<String>emptyList().iterator();
+	private HadoopJob next;
+	private int count;
+
+	public HadoopJobIterator(FileSystem fs, List<File> dateDirectories, String jobTrackerName) {
+		this(fs, dateDirectories, jobTrackerName, JobProjection.ALL);
+	}
+
+	public HadoopJobIterator(FileSystem fs, List<File> dateDirectories, String jobTrackerName, JobProjection projection) {
+		this(fs, dateDirectories, jobTrackerName, projection, null);
+	}
+
+	/**
+	 * @param fs
+	 * @param dateDirectories
+	 * @param jobTrackerName
+	 * @param projection
+	 * @param range the jobs out of the range are skipped, may be null for every job
+	 */
+	public HadoopJobIterator(FileSystem fs, List<File> dateDirectories, String jobTrackerName, JobProjection projection, JobTimeRange range) {
+		this.fs = fs;
+		this.jobTrackerName = jobTrackerName;
+		this.dateDirectories = dateDirectories.iterator();
+		this.projection = projection;
+		this.range = range;
+	}
+
+	public boolean hasNext() {
+		while (next == null) {
+			if (!jobIds.hasNext()) {
+				if (index != null) {
+					HadoopJobHistoryFileParser.flushParsedJobCache(index.getDirectory());
+					index = null;
+				}
+				if (!dateDirectories.hasNext()) {
+					HadoopJobHistoryFileParser.flushJobLocationIndex();
+					return false;
+				}
+				File dateDirectory = dateDirectories.next();
+				LOGGER.info(String.format("Reading date directory %s", dateDirectory));
+				index = HadoopJobHistoryFileParser.buildDirectoryIndex(dateDirectory);
+				jobIds = HadoopJobHistoryFileParser.getJobIdsFromIndex(index, range).iterator();
+				sharing = HadoopJobHistoryFileParser.shareJobConfigs ? new JobConfigSharing() : null;
+				continue;
+			}
+			String jobId = jobIds.next();
+			next = HadoopJobHistoryFileParser.getHadoopJobGivenJobID(fs, index, jobTrackerName, jobId, projection);
+			if (next == null) {
+				LOGGER.error(String.format("Skipping job %s", jobId));
+				continue;
+			}
+			if (range != null && !range.contains(next)) {
+				Metrics.counter(Metrics.JOBS_OUT_OF_RANGE).inc();
+				next = null;
+				continue;
+			}
+			if (sharing != null) {
+				sharing.share(next);
+			}
+			if (++count % 100 == 0) {
+				LOGGER.info(String.format("Read %s jobs", count));
+			}
+		}
+		return true;
+	}
+
+	public HadoopJob next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		HadoopJob hj = next;
+		next = null;
+		return hj;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("HadoopJobIterator is read only");
+	}
+
+	/**
+	 * Returns the number of jobs returned so far
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+}
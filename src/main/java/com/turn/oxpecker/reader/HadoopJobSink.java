@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.IOException;
+
+/**
+ * Receives hadoop jobs one at a time as they are parsed
+ */
+public interface HadoopJobSink {
+
+	/**
+	 * Called once for every job that was parsed successfully
+	 * @param hadoopJob
+	 * @throws IOException
+	 */
+	void accept(HadoopJob hadoopJob) throws IOException;
+}
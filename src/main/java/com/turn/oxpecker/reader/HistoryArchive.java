@@ -0,0 +1,707 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A date directory archived as a single tar or zip file, such as 2015/06/01.tar next to where
+ * 2015/06/01 would be, whose jobs are read without extracting them.
+ *
+ * The entries of an archive are addressed as files under the archive, 2015/06/01.tar/000000/job_..._conf.xml,
+ * so that they can be indexed and paired like the files of a directory. Only the headers are read
+ * to list an archive, each entry is then read in place from its offset. A compressed tar, such as
+ * 2015/06/01.tar.gz, .tgz or .tar.bz2, cannot be seeked into, so it is decompressed once through
+ * HistoryFileCodec to a temporary tar when it is listed, and its entries are read from there.
+ * The entries themselves may be compressed too. zip archives may store or deflate their entries,
+ * zip64 archives are not supported. Listings are cached for the last few archives used and reread
+ * when an archive changes. A listing is only evicted once none of its entries is being read and it
+ * was not used for a while, so that parsers working on more archives than the cache holds do not
+ * decompress them again and again. The temporary tar of an archive is deleted with its listing, or
+ * when its last entry stream is closed if it was evicted or replaced while entries were being read.
+ */
+public class HistoryArchive {
+
+	static Logger LOGGER = Logger.getLogger(HistoryArchive.class);
+
+	public static final String TAR_EXTENSION = ".tar";
+	public static final String ZIP_EXTENSION = ".zip";
+	public static final String TGZ_EXTENSION = ".tgz";
+
+	//the longer extensions first, 01.tar.gz is not 01.tar with a .gz extension
+	private static final String[] EXTENSIONS = {
+			TAR_EXTENSION + HistoryFileCodec.Codec.GZIP.getExtension(),
+			TAR_EXTENSION + HistoryFileCodec.Codec.BZIP2.getExtension(),
+			TAR_EXTENSION + HistoryFileCodec.Codec.ZSTD.getExtension(),
+			TGZ_EXTENSION,
+			TAR_EXTENSION,
+			ZIP_EXTENSION,
+	};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int TAR_BLOCK = 512;
+	private static final int ZIP_STORED = 0;
+	private static final int ZIP_DEFLATED = 8;
+	private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+	private static final int ZIP_CENTRAL_HEADER = 0x02014b50;
+	private static final int ZIP_END_HEADER = 0x06054b50;
+	private static final int ZIP_END_LENGTH = 22;
+	private static final int MAX_CACHED_ARCHIVES = 16;
+	//how long a listing is kept after it was last used, even when there are more than MAX_CACHED_ARCHIVES
+	static long minIdleMillis = 60 * 1000;
+
+	private static final Map<String, HistoryArchive> archives = new LinkedHashMap<String, HistoryArchive>(MAX_CACHED_ARCHIVES, 0.75f, true);
+
+	static {
+		//the temporary tars of the listings still cached, the evicted ones are deleted as they go
+		Runtime.getRuntime().addShutdownHook(new Thread("oxpecker-archive-cleanup") {
+			@Override
+			public void run() {
+				clear();
+			}
+		});
+	}
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	private final boolean zip;
+	//the file the entries are read from, a temporary tar for a compressed tar
+	private final File data;
+	private final long dataLength;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	//the entry streams open on the data, guarded by this
+	private int readers;
+	private boolean evicted;
+	private boolean deleted;
+	private long lastUsedMillis = System.currentTimeMillis();
+
+	private HistoryArchive(File file, File data) {
+		this.file = file;
+		this.length = file.length();
+		this.lastModified = file.lastModified();
+		this.zip = file.getName().endsWith(ZIP_EXTENSION);
+		this.data = data;
+		this.dataLength = data.length();
+	}
+
+	private static String getExtension(String name) {
+		for (String extension : EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return extension;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether a file name is the name of an archive
+	 * @param name
+	 * @return
+	 */
+	public static boolean isArchiveName(String name) {
+		return getExtension(name) != null;
+	}
+
+	/**
+	 * Whether an archive is a compressed tar that has to be decompressed before its entries can be read
+	 * @param name
+	 * @return
+	 */
+	public static boolean isCompressedArchiveName(String name) {
+		String extension = getExtension(name);
+		return extension != null && !extension.equals(TAR_EXTENSION) && !extension.equals(ZIP_EXTENSION);
+	}
+
+	/**
+	 * Returns the name of an archived directory, 01 for 01.tar or 01.tar.gz
+	 * @param name
+	 * @return
+	 */
+	public static String stripExtension(String name) {
+		String extension = getExtension(name);
+		return extension == null ? name : name.substring(0, name.length() - extension.length());
+	}
+
+	/**
+	 * Returns the archive of a date directory, such as 2015/06/01.tar, 2015/06/01.tar.gz or 2015/06/01.zip for 2015/06/01
+	 * @param dateDirectory
+	 * @return null if there is none
+	 */
+	public static File getArchive(File dateDirectory) {
+		for (String extension : EXTENSIONS) {
+			File archive = new File(dateDirectory.getParentFile(), dateDirectory.getName() + extension);
+			if (archive.isFile()) {
+				return archive;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the archive that a path is an entry of
+	 * @param path
+	 * @return null if the path is not under an archive
+	 */
+	public static File getArchiveOf(File path) {
+		for (File parent = path.getParentFile(); parent != null; parent = parent.getParentFile()) {
+			if (isArchiveName(parent.getName()) && parent.isFile()) {
+				return parent;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the listing of an archive
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static HistoryArchive get(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		synchronized (archives) {
+			HistoryArchive archive = archives.get(path);
+			if (archive != null && archive.length == file.length() && archive.lastModified == file.lastModified()) {
+				archive.touch();
+				return archive;
+			}
+		}
+		if (!file.isFile()) {
+			throw new FileNotFoundException(String.format("Archive %s does not exist", file));
+		}
+		File data = isCompressedArchiveName(file.getName()) ? decompress(file) : file;
+		HistoryArchive archive = new HistoryArchive(file, data);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(data, "r");
+			try {
+				if (archive.zip) {
+					archive.listZip(raf);
+				} else {
+					archive.listTar(raf);
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			archive.evict();
+			throw e;
+		}
+		LOGGER.info(String.format("Listed %s entries of %s", archive.entries.size(), file));
+		synchronized (archives) {
+			//another thread may have listed the same archive meanwhile
+			HistoryArchive listed = archives.get(path);
+			if (listed != null && listed.length == archive.length && listed.lastModified == archive.lastModified) {
+				archive.evict();
+				return listed;
+			}
+			archives.put(path, archive);
+			if (listed != null) {
+				listed.evict();
+			}
+			trim();
+		}
+		return archive;
+	}
+
+	/**
+	 * Evicts the least recently used listings over MAX_CACHED_ARCHIVES that are idle, must hold the archives lock
+	 */
+	private static void trim() {
+		long now = System.currentTimeMillis();
+		Iterator<HistoryArchive> it = archives.values().iterator();
+		while (archives.size() > MAX_CACHED_ARCHIVES && it.hasNext()) {
+			HistoryArchive archive = it.next();
+			if (archive.isIdle(now)) {
+				it.remove();
+				archive.evict();
+			}
+		}
+	}
+
+	/**
+	 * Evicts every listing, deleting the temporary tars that are not being read
+	 */
+	public static void clear() {
+		synchronized (archives) {
+			for (HistoryArchive archive : archives.values()) {
+				archive.evict();
+			}
+			archives.clear();
+		}
+	}
+
+	/**
+	 * Decompresses a compressed tar to a temporary tar
+	 */
+	private static File decompress(File file) throws IOException {
+		File tmpFile = File.createTempFile("oxpecker-archive", TAR_EXTENSION);
+		long startNanos = System.nanoTime();
+		try {
+			//a .tgz has no extension HistoryFileCodec knows, the codec is detected from the data
+			InputStream in = HistoryFileCodec.decompress(new FileInputStream(file), file.getName());
+			try {
+				OutputStream out = new FileOutputStream(tmpFile);
+				try {
+					byte[] buffer = new byte[64 * 1024];
+					int n;
+					while ((n = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, n);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+		LOGGER.info(String.format("Decompressed %s to %s, %s bytes in %.1fs", file, tmpFile, tmpFile.length(),
+				(System.nanoTime() - startNanos) / 1e9));
+		return tmpFile;
+	}
+
+	private synchronized void touch() {
+		lastUsedMillis = System.currentTimeMillis();
+	}
+
+	private synchronized boolean isIdle(long now) {
+		return readers == 0 && now - lastUsedMillis >= minIdleMillis;
+	}
+
+	/**
+	 * Counts an entry stream open on the data
+	 * @return false if the listing was evicted and its temporary tar deleted
+	 */
+	private synchronized boolean acquire() {
+		if (deleted) {
+			return false;
+		}
+		readers++;
+		lastUsedMillis = System.currentTimeMillis();
+		return true;
+	}
+
+	private synchronized void closeReader() {
+		readers--;
+		lastUsedMillis = System.currentTimeMillis();
+		if (evicted && readers == 0) {
+			delete();
+		}
+	}
+
+	/**
+	 * Drops the listing, its temporary tar is deleted once no entry is being read
+	 */
+	private synchronized void evict() {
+		evicted = true;
+		if (readers == 0) {
+			delete();
+		}
+	}
+
+	private void delete() {
+		//a plain tar or zip is read in place and stays readable
+		if (deleted || data == file) {
+			return;
+		}
+		if (!data.delete()) {
+			LOGGER.warn(String.format("Could not delete %s", data));
+		}
+		deleted = true;
+	}
+
+	/**
+	 * Whether the entries are read from a temporary tar that is still there
+	 * @return
+	 */
+	boolean hasData() {
+		return data.isFile();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the entries of the archive as files under it
+	 * @return
+	 */
+	public Collection<File> getFiles() {
+		List<File> files = new ArrayList<File>(entries.size());
+		for (String name : entries.keySet()) {
+			files.add(new File(file, name));
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the entry of a file under the archive
+	 * @param path
+	 * @return null if the archive does not have it
+	 */
+	public Entry getEntry(File path) {
+		String archivePath = file.getAbsolutePath();
+		String entryPath = path.getAbsolutePath();
+		if (!entryPath.startsWith(archivePath + File.separator)) {
+			return null;
+		}
+		return entries.get(entryPath.substring(archivePath.length() + 1).replace(File.separatorChar, '/'));
+	}
+
+	/**
+	 * Opens an entry, the data is read from the archive as the stream is read
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream open(Entry entry) throws IOException {
+		if (!acquire()) {
+			//evicted since it was listed, the current listing has the same entries unless the archive changed
+			HistoryArchive current = get(file);
+			Entry currentEntry = current.entries.get(entry.name);
+			if (current == this || currentEntry == null) {
+				throw new FileNotFoundException(String.format("%s is no longer in %s", entry.name, file));
+			}
+			return current.open(currentEntry);
+		}
+		RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(data, "r");
+		} catch (IOException e) {
+			closeReader();
+			throw e;
+		}
+		try {
+			long offset = entry.offset;
+			if (zip) {
+				//the local header repeats the name and may have its own extra field
+				raf.seek(offset);
+				if (Integer.reverseBytes(raf.readInt()) != ZIP_LOCAL_HEADER) {
+					throw new IOException(String.format("Bad local header of %s in %s", entry.name, file));
+				}
+				raf.seek(offset + 26);
+				int nameLength = Short.reverseBytes(raf.readShort()) & 0xffff;
+				int extraLength = Short.reverseBytes(raf.readShort()) & 0xffff;
+				offset += 30 + nameLength + extraLength;
+			}
+			raf.seek(offset);
+			InputStream in = new EntryInputStream(this, raf, entry.compressedSize, entry.method == ZIP_DEFLATED);
+			if (entry.method == ZIP_DEFLATED) {
+				final Inflater inflater = new Inflater(true);
+				return new InflaterInputStream(in, inflater, 8192) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						inflater.end();
+					}
+				};
+			}
+			return in;
+		} catch (IOException e) {
+			raf.close();
+			closeReader();
+			throw e;
+		}
+	}
+
+	private void listTar(RandomAccessFile raf) throws IOException {
+		byte[] header = new byte[TAR_BLOCK];
+		long pos = 0;
+		String longName = null;
+		while (pos + TAR_BLOCK <= dataLength) {
+			raf.seek(pos);
+			raf.readFully(header);
+			if (isZero(header)) {
+				break;
+			}
+			String name = cString(header, 0, 100);
+			long size = tarNumber(header, 124, 12);
+			long mtime = tarNumber(header, 136, 12) * 1000;
+			byte type = header[156];
+			if (cString(header, 257, 5).equals("ustar")) {
+				String prefix = cString(header, 345, 155);
+				if (!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+			}
+			long data = pos + TAR_BLOCK;
+			if (type == 'L' || type == 'x') {
+				//the long name of the next entry, as a GNU long name or a pax path record
+				byte[] extended = new byte[(int) size];
+				raf.readFully(extended);
+				longName = type == 'L' ? cString(extended, 0, extended.length) : paxPath(extended);
+			} else {
+				if (longName != null) {
+					name = longName;
+					longName = null;
+				}
+				if ((type == '0' || type == 0) && !name.endsWith("/")) {
+					addEntry(new Entry(name, data, size, -1, mtime));
+				}
+			}
+			pos = data + (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+		}
+	}
+
+	private void listZip(RandomAccessFile raf) throws IOException {
+		//the end of central directory record is followed by a comment of at most 64k
+		int tail = (int) Math.min(dataLength, ZIP_END_LENGTH + 0xffff);
+		byte[] end = new byte[tail];
+		raf.seek(dataLength - tail);
+		raf.readFully(end);
+		int endPos = -1;
+		for (int i = tail - ZIP_END_LENGTH; i >= 0; i--) {
+			if (int32(end, i) == ZIP_END_HEADER) {
+				endPos = i;
+				break;
+			}
+		}
+		if (endPos < 0) {
+			throw new IOException(String.format("%s is not a zip archive", file));
+		}
+		int count = int16(end, endPos + 10);
+		long directoryLength = int32(end, endPos + 12) & 0xffffffffL;
+		long directoryOffset = int32(end, endPos + 16) & 0xffffffffL;
+		if (count == 0xffff || directoryOffset == 0xffffffffL) {
+			throw new IOException(String.format("zip64 archive %s is not supported", file));
+		}
+		byte[] directory = new byte[(int) directoryLength];
+		raf.seek(directoryOffset);
+		raf.readFully(directory);
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (pos + 46 > directory.length || int32(directory, pos) != ZIP_CENTRAL_HEADER) {
+				throw new IOException(String.format("Bad central directory in %s", file));
+			}
+			int method = int16(directory, pos + 10);
+			long mtime = dosTime(int16(directory, pos + 14), int16(directory, pos + 12));
+			long compressedSize = int32(directory, pos + 20) & 0xffffffffL;
+			int nameLength = int16(directory, pos + 28);
+			int extraLength = int16(directory, pos + 30);
+			int commentLength = int16(directory, pos + 32);
+			long localOffset = int32(directory, pos + 42) & 0xffffffffL;
+			String name = new String(directory, pos + 46, nameLength, UTF8);
+			if (!name.endsWith("/")) {
+				if (method != ZIP_STORED && method != ZIP_DEFLATED) {
+					LOGGER.warn(String.format("Skipping %s in %s compressed with unsupported method %s", name, file, method));
+				} else {
+					addEntry(new Entry(name, localOffset, compressedSize, method, mtime));
+				}
+			}
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private void addEntry(Entry entry) {
+		entries.put(entry.name.startsWith("./") ? entry.name.substring(2) : entry.name, entry);
+	}
+
+	private static boolean isZero(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String cString(byte[] b, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && b[end] != 0) {
+			end++;
+		}
+		return new String(b, offset, end - offset, UTF8);
+	}
+
+	/**
+	 * Parses an octal number of a tar header, or a base-256 one for sizes above 8GB
+	 */
+	private static long tarNumber(byte[] b, int offset, int length) {
+		long value = 0;
+		if ((b[offset] & 0x80) != 0) {
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (b[i] & 0xff);
+			}
+			return value;
+		}
+		for (int i = offset; i < offset + length; i++) {
+			if (b[i] >= '0' && b[i] <= '7') {
+				value = value * 8 + (b[i] - '0');
+			} else if (value > 0 || (b[i] != ' ' && b[i] != 0)) {
+				break;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the path of pax extended header records, "length path=value\n", or null
+	 */
+	private static String paxPath(byte[] records) {
+		String s = new String(records, UTF8);
+		int pos = 0;
+		while (pos < s.length()) {
+			int space = s.indexOf(' ', pos);
+			if (space < 0) {
+				break;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(s.substring(pos, space));
+			} catch (NumberFormatException e) {
+				break;
+			}
+			String record = s.substring(space + 1, Math.min(s.length(), pos + length - 1));
+			if (record.startsWith("path=")) {
+				return record.substring(5);
+			}
+			pos += length;
+		}
+		return null;
+	}
+
+	private static int int16(byte[] b, int offset) {
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+	}
+
+	private static int int32(byte[] b, int offset) {
+		return int16(b, offset) | int16(b, offset + 2) << 16;
+	}
+
+	private static long dosTime(int date, int time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0x0f) - 1, date & 0x1f,
+				(time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) * 2);
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * An entry of an archive, at the offset of its data in a tar or of its local header in a zip
+	 */
+	public static class Entry {
+		private final String name;
+		private final long offset;
+		private final long compressedSize;
+		private final int method;
+		private final long lastModified;
+
+		Entry(String name, long offset, long compressedSize, int method, long lastModified) {
+			this.name = name;
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.method = method;
+			this.lastModified = lastModified;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of bytes of the entry in the archive
+		 * @return
+		 */
+		public long getLength() {
+			return compressedSize;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * Reads the bytes of one entry and closes the archive when closed
+	 */
+	private static class EntryInputStream extends InputStream {
+		private final HistoryArchive archive;
+		private final RandomAccessFile raf;
+		private boolean closed;
+		private long remaining;
+		//the inflater may need a byte past the end of the deflated data
+		private boolean pad;
+
+		EntryInputStream(HistoryArchive archive, RandomAccessFile raf, long length, boolean pad) {
+			this.archive = archive;
+			this.raf = raf;
+			this.remaining = length;
+			this.pad = pad;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining <= 0) {
+				if (pad) {
+					pad = false;
+					b[off] = 0;
+					return 1;
+				}
+				return -1;
+			}
+			int n = raf.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new IOException("Unexpected end of archive");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				raf.close();
+			} finally {
+				archive.closeReader();
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.io.compress.BZip2Codec;
+
+/**
+ * Decompresses history files while they are read, so that compressed statistics and conf files
+ * do not have to be expanded back to disk.
+ *
+ * The codec is detected from the magic bytes of the file, the extension is only used to strip it
+ * from the name and to report a file that does not match it. gzip uses java.util.zip and bzip2 the
+ * hadoop codec. zstd needs com.github.luben:zstd-jni on the classpath, it is loaded on first use.
+ */
+public class HistoryFileCodec {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String ZSTD_INPUT_STREAM = "com.github.luben.zstd.ZstdInputStream";
+
+	public enum Codec {
+		GZIP(".gz", new byte[] {0x1f, (byte) 0x8b}),
+		BZIP2(".bz2", new byte[] {'B', 'Z', 'h'}),
+		ZSTD(".zst", new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+		private final String extension;
+		private final byte[] magic;
+
+		Codec(String extension, byte[] magic) {
+			this.extension = extension;
+			this.magic = magic;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+	}
+
+	private HistoryFileCodec() {
+	}
+
+	/**
+	 * Returns the codec of a file name from its extension, or null
+	 * @param name
+	 * @return
+	 */
+	public static Codec getCodec(String name) {
+		for (Codec codec : Codec.values()) {
+			if (name.endsWith(codec.extension)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a file name without its compression extension, job_..._conf.xml.gz is job_..._conf.xml
+	 * @param name
+	 * @return
+	 */
+	public static String stripExtension(String name) {
+		Codec codec = getCodec(name);
+		return codec == null ? name : name.substring(0, name.length() - codec.extension.length());
+	}
+
+	/**
+	 * Wraps a stream in the decompressor of its codec, or returns it buffered if it is not compressed
+	 * @param in closed with the returned stream
+	 * @param name used in error messages and to check the extension
+	 * @return
+	 * @throws IOException if the extension names a codec the data does not match, or the codec is unavailable
+	 */
+	public static InputStream decompress(InputStream in, String name) throws IOException {
+		BufferedInputStream buffered = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in, BUFFER_SIZE);
+		Codec codec = detect(buffered);
+		Codec named = getCodec(name);
+		if (codec == null) {
+			if (named != null) {
+				throw new IOException(String.format("%s is not %s compressed", name, named));
+			}
+			return buffered;
+		}
+		switch (codec) {
+			case GZIP:
+				return new GZIPInputStream(buffered, BUFFER_SIZE);
+			case BZIP2:
+				return new BZip2Codec().createInputStream(buffered);
+			case ZSTD:
+				return openZstd(buffered, name);
+			default:
+				throw new IOException(String.format("Unsupported codec %s of %s", codec, name));
+		}
+	}
+
+	private static Codec detect(BufferedInputStream in) throws IOException {
+		byte[] head = new byte[4];
+		in.mark(head.length);
+		int read = 0;
+		while (read < head.length) {
+			int n = in.read(head, read, head.length - read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		in.reset();
+		for (Codec codec : Codec.values()) {
+			if (startsWith(head, read, codec.magic)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	private static boolean startsWith(byte[] head, int length, byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (head[i] != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static InputStream openZstd(InputStream in, String name) throws IOException {
+		Constructor<?> constructor;
+		try {
+			constructor = Class.forName(ZSTD_INPUT_STREAM).getConstructor(InputStream.class);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(String.format("%s is zstd compressed, add com.github.luben:zstd-jni to the classpath to read it", name));
+		} catch (NoSuchMethodException e) {
+			throw new IOException(String.format("Unsupported version of %s to read %s", ZSTD_INPUT_STREAM, name));
+		}
+		try {
+			return new BufferedInputStream((InputStream) constructor.newInstance(in), BUFFER_SIZE);
+		} catch (Exception e) {
+			IOException ioe = new IOException(String.format("Could not open %s", name));
+			ioe.initCause(e instanceof InvocationTargetException ? e.getCause() : e);
+			throw ioe;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.metrics.Metrics;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Index of a job history directory built from a single walk of the tree,
+ * pairing every jobId with its statistics file and its configuration file
+ */
+public class JobHistoryDirectoryIndex {
+
+	private static final String CONF_FILE_SUFFIX = "_conf.xml";
+
+	private final File directory;
+	private final Map<String, JobFiles> jobFiles;
+	private int statsFileCount;
+	private int confFileCount;
+
+	private JobHistoryDirectoryIndex(File directory) {
+		this.directory = directory;
+		this.jobFiles = new LinkedHashMap<String, JobFiles>();
+	}
+
+	/**
+	 * Walk the given directory once and index every stats and conf file found under it
+	 * @param fileSystem
+	 * @param dir
+	 * @return
+	 */
+	public static JobHistoryDirectoryIndex build(JobHistoryFileSystem fileSystem, File dir) {
+		long startNanos = System.nanoTime();
+		Collection<File> files = fileSystem.getAllFilesInDirectory(dir);
+		Metrics.timer(Metrics.DIRECTORY_LISTING).update(System.nanoTime() - startNanos);
+		return build(dir, files);
+	}
+
+	/**
+	 * Index an already listed collection of files belonging to the given directory
+	 * @param dir
+	 * @param files
+	 * @return
+	 */
+	public static JobHistoryDirectoryIndex build(File dir, Collection<File> files) {
+		JobHistoryDirectoryIndex index = new JobHistoryDirectoryIndex(dir);
+		for (File f : files) {
+			index.add(f);
+		}
+		return index;
+	}
+
+	private void add(File f) {
+		//compressed files are indexed under the name they had before compression
+		String name = HistoryFileCodec.stripExtension(f.getName());
+		//skip hidden files such as checksums left behind by the local file system
+		if (name.startsWith(".")) {
+			return;
+		}
+		if (name.endsWith(CONF_FILE_SUFFIX)) {
+			getOrCreate(name.substring(0, name.length() - CONF_FILE_SUFFIX.length())).confFile = f;
+			confFileCount++;
+			return;
+		}
+		//stats file names look like job_<jobtracker start>_<seq>_<submit time>_<user>_<job name>
+		int jobIdEnd = StringUtils.ordinalIndexOf(name, "_", 3);
+		if (jobIdEnd < 0) {
+			return;
+		}
+		JobFiles files = getOrCreate(name.substring(0, jobIdEnd));
+		files.statsFile = f;
+		files.submitTimeMillis = parseSubmitTimeMillis(name, jobIdEnd + 1);
+		statsFileCount++;
+	}
+
+	private static long parseSubmitTimeMillis(String statsFileName, int start) {
+		int end = statsFileName.indexOf('_', start);
+		if (end < 0) {
+			end = statsFileName.length();
+		}
+		if (end == start) {
+			return -1;
+		}
+		long millis = 0;
+		for (int i = start; i < end; i++) {
+			char c = statsFileName.charAt(i);
+			if (c < '0' || c > '9' || millis > Long.MAX_VALUE / 10) {
+				return -1;
+			}
+			millis = millis * 10 + (c - '0');
+		}
+		return millis;
+	}
+
+	private JobFiles getOrCreate(String jobId) {
+		JobFiles files = jobFiles.get(jobId);
+		if (files == null) {
+			files = new JobFiles(jobId);
+			jobFiles.put(jobId, files);
+		}
+		return files;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns every jobId that has at least one of its files in the directory
+	 * @return
+	 */
+	public Set<String> getJobIds() {
+		return jobFiles.keySet();
+	}
+
+	/**
+	 * Returns the files of the given jobId, or null if the jobId is unknown
+	 * @param jobId
+	 * @return
+	 */
+	public JobFiles getJobFiles(String jobId) {
+		return jobFiles.get(jobId);
+	}
+
+	public int size() {
+		return jobFiles.size();
+	}
+
+	public int getStatsFileCount() {
+		return statsFileCount;
+	}
+
+	public int getConfFileCount() {
+		return confFileCount;
+	}
+
+	/**
+	 * The statistics file and configuration file of a single job, either may be null
+	 */
+	public static class JobFiles {
+		private final String jobId;
+		private File statsFile;
+		private File confFile;
+		private long submitTimeMillis = -1;
+
+		JobFiles(String jobId) {
+			this.jobId = jobId;
+		}
+
+		JobFiles(String jobId, File statsFile, File confFile) {
+			this.jobId = jobId;
+			this.statsFile = statsFile;
+			this.confFile = confFile;
+			if (statsFile != null) {
+				this.submitTimeMillis = parseSubmitTimeMillis(HistoryFileCodec.stripExtension(statsFile.getName()), jobId.length() + 1);
+			}
+		}
+
+		public String getJobId() {
+			return jobId;
+		}
+
+		public File getStatsFile() {
+			return statsFile;
+		}
+
+		public File getConfFile() {
+			return confFile;
+		}
+
+		/**
+		 * Returns the submit time in the name of the statistics file, or -1 if unknown
+		 * @return
+		 */
+		public long getSubmitTimeMillis() {
+			return submitTimeMillis;
+		}
+
+		public boolean isComplete() {
+			return statsFile != null && confFile != null;
+		}
+	}
+}
@@ -16,18 +16,32 @@
 package com.turn.oxpecker.reader;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.log4j.Logger;
 
 /**
  * @author jshum
  */
 public class JobHistoryFileSystem {
 
+	static Logger LOGGER = Logger.getLogger(JobHistoryFileSystem.class);
+
+	private static final Pattern instanceDirectoryPattern = Pattern.compile("^.+_\\d+_$");
+
 	/**
 	 * Returns all the files that start with the input jobId string
 	 * @param jobHistoryDir
@@ -62,6 +76,176 @@ public class JobHistoryFileSystem {
 		return statsFiles;
 	}
 
+	/**
+	 * Returns every file under the given directory, recursively, or every entry of an archive
+	 * @param dir
+	 * @return
+	 */
+	public Collection<File> getAllFilesInDirectory(File dir) {
+		if (dir.isFile() && HistoryArchive.isArchiveName(dir.getName())) {
+			try {
+				return HistoryArchive.get(dir).getFiles();
+			} catch (IOException e) {
+				LOGGER.error(String.format("Could not list archive %s", dir), e);
+				return Collections.emptyList();
+			}
+		}
+		return FileUtils.listFiles(dir, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE);
+	}
+
+	/**
+	 * Returns the tar or zip archive of a date directory, 2015/06/01.tar for 2015/06/01
+	 * @param dateDir
+	 * @return null if the date directory was not archived
+	 */
+	public File getDateArchive(File dateDir) {
+		return HistoryArchive.getArchive(dateDir);
+	}
+
+	/**
+	 * Opens a history file, or an entry of an archive, decompressing it if it is compressed
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream open(File file) throws IOException {
+		if (file.isFile()) {
+			return HistoryFileCodec.decompress(new FileInputStream(file), file.getName());
+		}
+		HistoryArchive archive = getArchive(file);
+		HistoryArchive.Entry entry = archive == null ? null : archive.getEntry(file);
+		if (entry == null) {
+			throw new FileNotFoundException(String.format("%s does not exist", file));
+		}
+		return HistoryFileCodec.decompress(archive.open(entry), file.getName());
+	}
+
+	/**
+	 * Whether a file has to be opened with open, because it is compressed or in an archive
+	 * @param file
+	 * @return
+	 */
+	public boolean isEncoded(File file) {
+		return HistoryFileCodec.getCodec(file.getName()) != null || !file.exists();
+	}
+
+	private static HistoryArchive getArchive(File file) throws IOException {
+		File archiveFile = HistoryArchive.getArchiveOf(file);
+		return archiveFile == null ? null : HistoryArchive.get(archiveFile);
+	}
+
+	/**
+	 * Returns the size of a file, or of an archive entry as stored in the archive, or 0 if it does not exist
+	 * @param file
+	 * @return
+	 */
+	public long length(File file) {
+		if (file.exists()) {
+			return file.length();
+		}
+		HistoryArchive.Entry entry = getEntry(file);
+		return entry == null ? 0 : entry.getLength();
+	}
+
+	private static HistoryArchive.Entry getEntry(File file) {
+		try {
+			HistoryArchive archive = getArchive(file);
+			return archive == null ? null : archive.getEntry(file);
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Could not list the archive of %s", file), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the jobtracker instance directories, named &lt;jobtracker&gt;_&lt;start timestamp&gt;_,
+	 * directly under the base directory sorted by name. If the base directory is itself an
+	 * instance directory, only the base directory is returned.
+	 * @param baseDir
+	 * @return
+	 */
+	public List<File> getJobTrackerInstanceDirectories(File baseDir) {
+		List<File> instanceDirs = new ArrayList<File>();
+		if (instanceDirectoryPattern.matcher(baseDir.getName()).matches()) {
+			instanceDirs.add(baseDir);
+			return instanceDirs;
+		}
+		File[] children = baseDir.listFiles();
+		if (children == null) {
+			return instanceDirs;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isDirectory() && instanceDirectoryPattern.matcher(child.getName()).matches()) {
+				instanceDirs.add(child);
+			}
+		}
+		return instanceDirs;
+	}
+
+	/**
+	 * Returns true if the given path exists and is a directory
+	 * @param dir
+	 * @return
+	 */
+	public boolean isDirectory(File dir) {
+		return dir.isDirectory();
+	}
+
+	/**
+	 * Returns the directories directly under the given directory sorted by name
+	 * @param dir
+	 * @return
+	 */
+	public List<File> getSubdirectories(File dir) {
+		List<File> dirs = new ArrayList<File>();
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return dirs;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isDirectory()) {
+				dirs.add(child);
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Returns the date directories and the archived date directories directly under a month directory sorted by name
+	 * @param monthDir
+	 * @return
+	 */
+	public List<File> getDateDirectories(File monthDir) {
+		List<File> dirs = new ArrayList<File>();
+		File[] children = monthDir.listFiles();
+		if (children == null) {
+			return dirs;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isDirectory() || (child.isFile() && HistoryArchive.isArchiveName(child.getName()))) {
+				dirs.add(child);
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Returns the time the given file or archive entry was last modified in millis, or 0 if it does not exist
+	 * @param file
+	 * @return
+	 */
+	public long lastModified(File file) {
+		long lastModified = file.lastModified();
+		if (lastModified != 0 || file.exists()) {
+			return lastModified;
+		}
+		HistoryArchive.Entry entry = getEntry(file);
+		return entry == null ? 0 : entry.getLastModified();
+	}
+
 	/**
 	 * Returns all subdirectories of a given base directory
 	 * @param baseDir
@@ -0,0 +1,422 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobHistory;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads MR1 job history (statistics) files, producing the same records as
+ * JobHistory.parseHistoryFromFS for everything but task attempts.
+ *
+ * MapAttempt and ReduceAttempt records are recognized from their first bytes and skipped
+ * without being decoded. Of the other records only the requested keys are unescaped and
+ * passed to the listener. Unlike the hadoop parser, unknown keys are ignored and badly
+ * escaped values are reported as an IOException instead of an IllegalArgumentException.
+ */
+public class JobHistoryStatsFileReader {
+
+	static Logger LOGGER = Logger.getLogger(JobHistoryStatsFileReader.class);
+
+	private static final char ESCAPE_CHAR = '\\';
+	private static final char LINE_DELIMITER_CHAR = '.';
+	private static final char[] CHARS_TO_ESCAPE = {'"', '=', LINE_DELIMITER_CHAR};
+	private static final byte[] MAP_ATTEMPT_PREFIX = bytes(JobHistory.RecordTypes.MapAttempt.name() + " ");
+	private static final byte[] REDUCE_ATTEMPT_PREFIX = bytes(JobHistory.RecordTypes.ReduceAttempt.name() + " ");
+	private static final Map<String, JobHistory.Keys> KEYS_BY_NAME = new HashMap<String, JobHistory.Keys>();
+	private static final Map<String, JobHistory.RecordTypes> RECORD_TYPES_BY_NAME = new HashMap<String, JobHistory.RecordTypes>();
+
+	static {
+		for (JobHistory.Keys key : JobHistory.Keys.values()) {
+			KEYS_BY_NAME.put(key.name(), key);
+		}
+		for (JobHistory.RecordTypes recordType : JobHistory.RecordTypes.values()) {
+			RECORD_TYPES_BY_NAME.put(recordType.name(), recordType);
+		}
+	}
+
+	private final Set<JobHistory.Keys> keys;
+	private final boolean skipTaskAttempts;
+
+	/**
+	 * Creates a reader that passes every key of every non attempt record to the listener
+	 */
+	public JobHistoryStatsFileReader() {
+		this(null);
+	}
+
+	/**
+	 * Creates a reader that only passes the given keys to the listener, or every key if null
+	 * @param keys
+	 */
+	public JobHistoryStatsFileReader(Set<JobHistory.Keys> keys) {
+		this(keys, true);
+	}
+
+	/**
+	 * Creates a reader that only passes the given keys to the listener, or every key if null
+	 * @param keys
+	 * @param skipTaskAttempts whether MapAttempt and ReduceAttempt records are skipped
+	 */
+	public JobHistoryStatsFileReader(Set<JobHistory.Keys> keys, boolean skipTaskAttempts) {
+		if (keys == null) {
+			this.keys = null;
+		} else {
+			this.keys = EnumSet.noneOf(JobHistory.Keys.class);
+			this.keys.addAll(keys);
+		}
+		this.skipTaskAttempts = skipTaskAttempts;
+	}
+
+	/**
+	 * Parse a statistics file, decompressing it if needed, and hand every record to the listener
+	 * @param fs
+	 * @param statsFile
+	 * @param l
+	 * @throws IOException
+	 */
+	public void parse(FileSystem fs, String statsFile, JobHistory.Listener l) throws IOException {
+		InputStream in = HistoryFileCodec.decompress(fs.open(new Path(statsFile)), statsFile);
+		try {
+			parse(in, l);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOGGER.warn(String.format("Could not close %s", statsFile), e);
+			}
+		}
+	}
+
+	/**
+	 * Parse a statistics file from the stream and hand every record to the listener.
+	 * The stream is not closed.
+	 * @param in
+	 * @param l
+	 * @throws IOException
+	 */
+	public void parse(InputStream in, JobHistory.Listener l) throws IOException {
+		LineReader reader = new LineReader(in);
+		if (!reader.readLine()) {
+			return;
+		}
+
+		//the first line tells which version of the format the file was written with
+		long version = getVersion(reader.decode());
+		boolean isEscaped = version >= 1;
+		char lineDelim = version == 0 ? '"' : LINE_DELIMITER_CHAR;
+
+		Map<JobHistory.Keys, String> values = new EnumMap<JobHistory.Keys, String>(JobHistory.Keys.class);
+		StringBuilder record = new StringBuilder();
+		boolean newRecord = true;
+		boolean skipping = false;
+		do {
+			if (newRecord) {
+				skipping = skipTaskAttempts && (reader.startsWith(MAP_ATTEMPT_PREFIX) || reader.startsWith(REDUCE_ATTEMPT_PREFIX));
+				record.setLength(0);
+			}
+			if (!skipping) {
+				record.append(reader.decode());
+			}
+			//a record continues on the next line unless the line ends with an unescaped delimiter
+			newRecord = reader.endsWithDelimiter(lineDelim);
+			if (!newRecord) {
+				if (!skipping) {
+					record.append('\n');
+				}
+				continue;
+			}
+			if (!skipping) {
+				parseRecord(record, l, isEscaped, values);
+			}
+		} while (reader.readLine());
+	}
+
+	private static long getVersion(String firstLine) {
+		if (!firstLine.startsWith(JobHistory.RecordTypes.Meta.name() + " ")) {
+			return 0;
+		}
+		String versionKey = JobHistory.Keys.VERSION.name() + "=\"";
+		int start = firstLine.indexOf(versionKey);
+		if (start < 0) {
+			return 0;
+		}
+		start += versionKey.length();
+		int end = firstLine.indexOf('"', start);
+		try {
+			return Long.parseLong(firstLine.substring(start, end));
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	private void parseRecord(CharSequence line, JobHistory.Listener l, boolean isEscaped, Map<JobHistory.Keys, String> values) throws IOException {
+		int idx = indexOf(line, ' ', 0);
+		if (idx < 0) {
+			LOGGER.warn(String.format("Skipping job history line without record type : %s", line));
+			return;
+		}
+		String recTypeName = line.subSequence(0, idx).toString();
+		JobHistory.RecordTypes recType = RECORD_TYPES_BY_NAME.get(recTypeName);
+		if (recType == null) {
+			LOGGER.warn(String.format("Skipping job history line of unknown record type %s", recTypeName));
+			return;
+		}
+
+		int pos = idx + 1;
+		int length = line.length();
+		while (pos < length) {
+			int end = matchTuple(line, pos);
+			if (end < 0) {
+				pos++;
+				continue;
+			}
+			int eq = indexOf(line, '=', pos);
+			JobHistory.Keys key = KEYS_BY_NAME.get(line.subSequence(pos, eq).toString());
+			if (key != null && (keys == null || keys.contains(key))) {
+				values.put(key, getValue(line, eq + 1, end, isEscaped));
+			}
+			pos = end;
+		}
+
+		try {
+			l.handle(recType, values);
+		} finally {
+			values.clear();
+		}
+	}
+
+	/**
+	 * Matches KEY="VALUE" at the given position the same way the hadoop parser's regex does,
+	 * returning the position after the closing quote or -1
+	 */
+	private static int matchTuple(CharSequence line, int start) {
+		int length = line.length();
+		int i = start;
+		while (i < length && isWordChar(line.charAt(i))) {
+			i++;
+		}
+		if (i == start || i + 1 >= length || line.charAt(i) != '=' || line.charAt(i + 1) != '"') {
+			return -1;
+		}
+		i += 2;
+		while (i < length) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				return i + 1;
+			}
+			if (c == ESCAPE_CHAR) {
+				//the escaped character may not be a line terminator
+				if (i + 1 >= length || isLineTerminator(line.charAt(i + 1))) {
+					return -1;
+				}
+				i += 2;
+			} else {
+				i++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Extracts the value of a tuple whose quoted value starts at the given position,
+	 * stopping at the first unescaped '=' like the hadoop parser does
+	 */
+	private static String getValue(CharSequence line, int start, int end, boolean isEscaped) throws IOException {
+		int numPreEscapes = 0;
+		int partEnd = end;
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (numPreEscapes == 0 && c == '=') {
+				partEnd = i;
+				break;
+			}
+			numPreEscapes = c == ESCAPE_CHAR ? (numPreEscapes + 1) % 2 : 0;
+		}
+		if (partEnd - start < 2) {
+			return "";
+		}
+		String value = line.subSequence(start + 1, partEnd - 1).toString();
+		return isEscaped ? unEscape(value) : value;
+	}
+
+	private static String unEscape(String value) throws IOException {
+		if (value.indexOf(ESCAPE_CHAR) < 0 && !hasCharToEscape(value)) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		boolean hasPreEscape = false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (hasPreEscape) {
+				if (c != ESCAPE_CHAR && !isCharToEscape(c)) {
+					throw new IOException(String.format("Illegal escaped string %s unescaped %s at %s", value, ESCAPE_CHAR, i - 1));
+				}
+				result.append(c);
+				hasPreEscape = false;
+			} else if (isCharToEscape(c)) {
+				throw new IOException(String.format("Illegal escaped string %s unescaped %s at %s", value, c, i));
+			} else if (c == ESCAPE_CHAR) {
+				hasPreEscape = true;
+			} else {
+				result.append(c);
+			}
+		}
+		if (hasPreEscape) {
+			throw new IOException(String.format("Illegal escaped string %s, not expecting %s in the end.", value, ESCAPE_CHAR));
+		}
+		return result.toString();
+	}
+
+	private static boolean hasCharToEscape(String value) {
+		for (char c : CHARS_TO_ESCAPE) {
+			if (value.indexOf(c) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isCharToEscape(char c) {
+		for (char e : CHARS_TO_ESCAPE) {
+			if (c == e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static int indexOf(CharSequence s, char c, int from) {
+		for (int i = from; i < s.length(); i++) {
+			if (s.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * Splits a stream into lines like BufferedReader.readLine, keeping the current line
+	 * as bytes in a reused buffer so that lines can be inspected without decoding them
+	 */
+	private static final class LineReader {
+		private final InputStream in;
+		private final Charset charset = Charset.defaultCharset();
+		private final byte[] buffer = new byte[64 * 1024];
+		private int pos;
+		private int limit;
+		private boolean skipLineFeed;
+		private byte[] line = new byte[1024];
+		private int length;
+
+		LineReader(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Reads the next line into the line buffer, returning false at the end of the stream
+		 */
+		boolean readLine() throws IOException {
+			length = 0;
+			boolean read = false;
+			while (true) {
+				if (pos >= limit) {
+					limit = in.read(buffer, 0, buffer.length);
+					pos = 0;
+					if (limit <= 0) {
+						limit = 0;
+						return read;
+					}
+				}
+				byte b = buffer[pos++];
+				if (skipLineFeed) {
+					skipLineFeed = false;
+					if (b == '\n') {
+						continue;
+					}
+				}
+				read = true;
+				if (b == '\n') {
+					return true;
+				}
+				if (b == '\r') {
+					skipLineFeed = true;
+					return true;
+				}
+				if (length == line.length) {
+					byte[] grown = new byte[line.length * 2];
+					System.arraycopy(line, 0, grown, 0, length);
+					line = grown;
+				}
+				line[length++] = b;
+			}
+		}
+
+		boolean startsWith(byte[] prefix) {
+			if (length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (line[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Same as line.trim().endsWith(delim) &amp;&amp; !line.trim().endsWith(escape + delim)
+		 */
+		boolean endsWithDelimiter(char delim) {
+			int last = length - 1;
+			//bytes of multi byte characters are negative and are never trimmed
+			while (last >= 0 && line[last] >= 0 && line[last] <= ' ') {
+				last--;
+			}
+			if (last < 0 || line[last] != delim) {
+				return false;
+			}
+			return last == 0 || line[last - 1] != ESCAPE_CHAR;
+		}
+
+		String decode() {
+			return new String(line, 0, length, charset);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.JobHistory;
+import org.apache.log4j.Logger;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * Watches the active date directories of a jobtracker and hands every job to the sink once,
+ * as soon as both its statistics file and its conf file are there
+ *
+ * The active date directories are the ones of today and yesterday, so that jobs finishing
+ * around midnight are not missed. Every poll lists those directories and only parses the jobs
+ * that were not handed out before. The ids of those jobs are the high-water mark of a directory,
+ * they are written to the state file after every poll so that a restarted watcher continues
+ * where the previous one stopped. Directories that are no longer active are dropped from it.
+ * A job that cannot be parsed is tried again on the next polls, up to maxAttempts times, before
+ * it is given up and counted as handed out.
+ */
+public class JobHistoryWatcher {
+
+	static Logger LOGGER = Logger.getLogger(JobHistoryWatcher.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String baseJobHistDir;
+	private final String jobTrackerName;
+	private final HadoopJobSink sink;
+	private final File stateFile;
+	private ZoneId zone = ZoneId.systemDefault();
+	private long minFileAgeMillis = 5000;
+	private int maxAttempts = 3;
+	private ExecutorService executor;
+	private volatile boolean stopped;
+	private final Map<String, Set<String>> emittedJobIds = new LinkedHashMap<String, Set<String>>();
+	private final Map<String, Map<String, Integer>> failedAttempts = new HashMap<String, Map<String, Integer>>();
+
+	/**
+	 * @param baseJobHistDir the directory containing the jobtracker instance directories
+	 * @param jobTrackerName
+	 * @param sink receives the new jobs
+	 * @param stateFile where the ids of the jobs handed out are kept
+	 * @throws IOException if the state file exists but cannot be read
+	 */
+	public JobHistoryWatcher(String baseJobHistDir, String jobTrackerName, HadoopJobSink sink, File stateFile) throws IOException {
+		this.baseJobHistDir = baseJobHistDir;
+		this.jobTrackerName = jobTrackerName;
+		this.sink = sink;
+		this.stateFile = stateFile;
+		readState();
+	}
+
+	public void setZone(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * Jobs with a file modified less than this ago are left for the next poll, in case the file
+	 * is still being written
+	 * @param minFileAgeMillis
+	 */
+	public void setMinFileAgeMillis(long minFileAgeMillis) {
+		this.minFileAgeMillis = minFileAgeMillis;
+	}
+
+	/**
+	 * Number of polls a job that cannot be parsed is tried in before it is given up
+	 * @param maxAttempts
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Parses the new jobs of a poll on the given executor instead of the calling thread
+	 * @param executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Polls until stop() is called or the thread is interrupted
+	 * @param pollIntervalMillis
+	 * @throws IOException
+	 */
+	public void watch(long pollIntervalMillis) throws IOException {
+		LOGGER.info(String.format("Watching %s every %s ms", baseJobHistDir, pollIntervalMillis));
+		while (!stopped) {
+			poll();
+			try {
+				Thread.sleep(pollIntervalMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Hands the jobs that completed since the last poll to the sink
+	 * @return the number of jobs handed to the sink
+	 * @throws IOException
+	 */
+	public int poll() throws IOException {
+		ZonedDateTime today = ZonedDateTime.now(zone);
+		return poll(Arrays.asList(today.minusDays(1), today));
+	}
+
+	int poll(List<ZonedDateTime> activeDates) throws IOException {
+		List<File> dateDirectories = HadoopJobHistoryFileParser.getListOfDirectories(baseJobHistDir, activeDates);
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		JobHistoryFileSystem fileSystem = HadoopJobHistoryFileParser.jobHistoryFileSystem;
+		long newestAllowed = System.currentTimeMillis() - minFileAgeMillis;
+
+		Map<String, Set<String>> active = new HashMap<String, Set<String>>();
+		Map<String, Map<String, Integer>> activeFailures = new HashMap<String, Map<String, Integer>>();
+		int count = 0;
+		for (File dateDirectory : dateDirectories) {
+			String key = dateDirectory.getAbsolutePath();
+			Set<String> emitted = emittedJobIds.get(key);
+			if (emitted == null) {
+				emitted = new HashSet<String>();
+			}
+			active.put(key, emitted);
+			Map<String, Integer> failures = failedAttempts.get(key);
+			if (failures == null) {
+				failures = new HashMap<String, Integer>();
+			}
+			activeFailures.put(key, failures);
+
+			JobHistoryDirectoryIndex index = HadoopJobHistoryFileParser.buildDirectoryIndex(dateDirectory);
+			List<String> newJobIds = new ArrayList<String>();
+			for (String jobId : index.getJobIds()) {
+				JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+				if (emitted.contains(jobId) || !jobFiles.isComplete()) {
+					continue;
+				}
+				if (fileSystem.lastModified(jobFiles.getStatsFile()) > newestAllowed || fileSystem.lastModified(jobFiles.getConfFile()) > newestAllowed) {
+					continue;
+				}
+				newJobIds.add(jobId);
+			}
+			if (newJobIds.isEmpty()) {
+				continue;
+			}
+			LOGGER.info(String.format("%s new job(s) in %s", newJobIds.size(), dateDirectory));
+			EmittingSink emittingSink = new EmittingSink(sink);
+			count += HadoopJobHistoryFileParser.processHadoopJobsGivenJobIDList(fs, index, jobTrackerName, newJobIds, emittingSink, executor);
+			for (String jobId : newJobIds) {
+				if (emittingSink.jobIds.contains(jobId)) {
+					emitted.add(jobId);
+					failures.remove(jobId);
+					continue;
+				}
+				Integer attempts = failures.get(jobId);
+				attempts = attempts == null ? 1 : attempts + 1;
+				if (attempts < maxAttempts) {
+					LOGGER.warn(String.format("Could not read job %s in %s attempt(s), retrying on the next poll", jobId, attempts));
+					failures.put(jobId, attempts);
+				} else {
+					LOGGER.error(String.format("Could not read job %s in %s attempt(s), giving up", jobId, attempts));
+					emitted.add(jobId);
+					failures.remove(jobId);
+				}
+			}
+			HadoopJobHistoryFileParser.flushParsedJobCache(dateDirectory);
+		}
+
+		if (sink instanceof Flushable) {
+			((Flushable) sink).flush();
+		}
+		emittedJobIds.clear();
+		emittedJobIds.putAll(active);
+		failedAttempts.clear();
+		failedAttempts.putAll(activeFailures);
+		writeState();
+		return count;
+	}
+
+	/**
+	 * Passes the jobs on to the sink and keeps their ids, so that the jobs that could not be
+	 * parsed are known
+	 */
+	private static class EmittingSink implements HadoopJobSink {
+		private final HadoopJobSink sink;
+		private final Set<String> jobIds = new HashSet<String>();
+
+		EmittingSink(HadoopJobSink sink) {
+			this.sink = sink;
+		}
+
+		public void accept(HadoopJob hadoopJob) throws IOException {
+			sink.accept(hadoopJob);
+			jobIds.add(String.valueOf(hadoopJob.getFields().get(JobHistory.Keys.JOBID.name())));
+		}
+	}
+
+	private void readState() throws IOException {
+		if (!stateFile.exists()) {
+			return;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), UTF8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.lastIndexOf('\t');
+				if (tab < 0) {
+					continue;
+				}
+				String directory = line.substring(0, tab);
+				Set<String> jobIds = emittedJobIds.get(directory);
+				if (jobIds == null) {
+					jobIds = new HashSet<String>();
+					emittedJobIds.put(directory, jobIds);
+				}
+				jobIds.add(line.substring(tab + 1));
+			}
+		} finally {
+			in.close();
+		}
+		LOGGER.info(String.format("Read the jobs of %s directories from %s", emittedJobIds.size(), stateFile));
+	}
+
+	private void writeState() throws IOException {
+		File tmpFile = new File(stateFile.getAbsolutePath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), UTF8));
+		try {
+			for (Map.Entry<String, Set<String>> e : emittedJobIds.entrySet()) {
+				for (String jobId : e.getValue()) {
+					out.write(e.getKey());
+					out.write('\t');
+					out.write(jobId);
+					out.write('\n');
+				}
+			}
+		} finally {
+			out.close();
+		}
+		//renaming over the old state replaces it atomically, there is never a moment without a state file.
+		//Only where rename does not replace files (Windows) the old state is deleted first.
+		if (!tmpFile.renameTo(stateFile) && !(stateFile.delete() && tmpFile.renameTo(stateFile))) {
+			throw new IOException(String.format("Could not rename %s to %s", tmpFile, stateFile));
+		}
+	}
+}
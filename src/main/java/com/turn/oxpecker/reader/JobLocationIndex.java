@@ -0,0 +1,467 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+
+/**
+ * Persistent index from jobId to the files of the job, so that a single job can be read
+ * from a job history tree without walking it.
+ *
+ * The index is a directory of sorted segment files with one line per job,
+ * jobId\tstats file\tconf file, looked up with a binary search over the bytes of each segment.
+ * Jobs are added a date directory at a time and kept in memory until the next flush, which
+ * writes them as a new segment. When there are more than MAX_SEGMENTS segments they are merged
+ * into one, the newest location of a job wins. The date directories whose day is over are
+ * listed in a file so that refresh only indexes the directories it has not seen and the
+ * directories of the last days, which may still get new jobs. The files of a job may be moved or
+ * archived after its directory was indexed, so a location is checked with exists before it is used
+ * and rebuild indexes every directory again to find where the job went.
+ */
+public class JobLocationIndex implements Closeable {
+
+	static Logger LOGGER = Logger.getLogger(JobLocationIndex.class);
+
+	public static final int DEFAULT_MAX_PENDING = 100000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".idx";
+	private static final String DIRECTORIES_FILE = "directories";
+	private static final int MAX_SEGMENTS = 8;
+	//below this many bytes a segment range is scanned instead of bisected
+	private static final int SCAN_BYTES = 8 * 1024;
+	private static final int READ_CHUNK = 256;
+
+	private final File indexDirectory;
+	//newest first
+	private final List<File> segments = new ArrayList<File>();
+	private final TreeMap<String, String> pending = new TreeMap<String, String>();
+	private final Set<String> finalDirectories = new HashSet<String>();
+	private final List<String> pendingDirectories = new ArrayList<String>();
+	//the number of jobs last added from the directories that may still get new jobs
+	private final Map<String, Integer> recentDirectories = new HashMap<String, Integer>();
+	private int nextSegment;
+	private int maxPending = DEFAULT_MAX_PENDING;
+	private ZoneId zone = ZoneId.systemDefault();
+
+	/**
+	 * Opens the index in the given directory, creating it if needed
+	 * @param indexDirectory
+	 * @throws IOException
+	 */
+	public JobLocationIndex(File indexDirectory) throws IOException {
+		this.indexDirectory = indexDirectory;
+		if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+			throw new IOException(String.format("Could not create %s", indexDirectory));
+		}
+		List<Integer> numbers = new ArrayList<Integer>();
+		File[] files = indexDirectory.listFiles();
+		for (File f : files == null ? new File[0] : files) {
+			String name = f.getName();
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					LOGGER.warn(String.format("Ignoring %s in the job location index", f));
+				}
+			}
+		}
+		Collections.sort(numbers, Collections.reverseOrder());
+		for (int number : numbers) {
+			segments.add(segmentFile(number));
+		}
+		nextSegment = numbers.isEmpty() ? 0 : numbers.get(0) + 1;
+
+		File directories = new File(indexDirectory, DIRECTORIES_FILE);
+		if (directories.isFile()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(directories), UTF8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						finalDirectories.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets how many jobs are kept in memory before they are written as a segment
+	 * @param maxPending
+	 */
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Sets the zone of the date directories, the system default by default
+	 * @param zone
+	 */
+	public void setZone(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * Adds the jobs of an indexed date directory
+	 * @param index
+	 * @throws IOException
+	 */
+	public synchronized void add(JobHistoryDirectoryIndex index) throws IOException {
+		String directory = index.getDirectory().getAbsolutePath();
+		boolean isFinal = isFinal(index.getDirectory());
+		Integer known = recentDirectories.get(directory);
+		if (!isFinal && known != null && known == index.size()) {
+			return;
+		}
+		for (String jobId : index.getJobIds()) {
+			JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+			pending.put(jobId, String.format("%s\t%s", path(jobFiles.getStatsFile()), path(jobFiles.getConfFile())));
+		}
+		if (!isFinal) {
+			recentDirectories.put(directory, index.size());
+		} else if (!finalDirectories.contains(directory) && !pendingDirectories.contains(directory)) {
+			pendingDirectories.add(directory);
+		}
+		if (pending.size() >= maxPending) {
+			flush();
+		}
+	}
+
+	private static String path(File f) {
+		return f == null ? "" : f.getAbsolutePath();
+	}
+
+	/**
+	 * Whether the day of a date directory is over for long enough that no job will be added to it
+	 */
+	private boolean isFinal(File dateDirectory) {
+		File month = dateDirectory.getParentFile();
+		File year = month == null ? null : month.getParentFile();
+		if (year == null) {
+			return false;
+		}
+		LocalDate day;
+		try {
+			day = LocalDate.of(Integer.parseInt(year.getName()), Integer.parseInt(month.getName()), Integer.parseInt(HistoryArchive.stripExtension(dateDirectory.getName())));
+		} catch (RuntimeException e) {
+			return false;
+		}
+		return day.isBefore(LocalDate.now(zone).minusDays(1));
+	}
+
+	/**
+	 * Whether the jobs of a date directory are in the index and no job will be added to it
+	 * @param dateDirectory
+	 * @return
+	 */
+	public synchronized boolean isIndexed(File dateDirectory) {
+		String directory = dateDirectory.getAbsolutePath();
+		return finalDirectories.contains(directory) || pendingDirectories.contains(directory);
+	}
+
+	/**
+	 * Indexes the date directories and archived date directories under the base directory that are
+	 * not indexed yet, listing only the instance, year and month directories to find them
+	 * @param fileSystem
+	 * @param baseDir
+	 * @return the number of date directories indexed
+	 * @throws IOException
+	 */
+	public int refresh(JobHistoryFileSystem fileSystem, File baseDir) throws IOException {
+		return index(fileSystem, baseDir, false);
+	}
+
+	/**
+	 * Indexes every date directory under the base directory again, so that the jobs whose files
+	 * were moved since their directory was indexed get their new location
+	 * @param fileSystem
+	 * @param baseDir
+	 * @return the number of date directories indexed
+	 * @throws IOException
+	 */
+	public int rebuild(JobHistoryFileSystem fileSystem, File baseDir) throws IOException {
+		return index(fileSystem, baseDir, true);
+	}
+
+	private int index(JobHistoryFileSystem fileSystem, File baseDir, boolean all) throws IOException {
+		int indexed = 0;
+		for (File instanceDir : fileSystem.getJobTrackerInstanceDirectories(baseDir)) {
+			for (File year : fileSystem.getSubdirectories(instanceDir)) {
+				for (File month : fileSystem.getSubdirectories(year)) {
+					for (File day : fileSystem.getDateDirectories(month)) {
+						if (all || !isIndexed(day)) {
+							add(JobHistoryDirectoryIndex.build(fileSystem, day));
+							indexed++;
+						}
+					}
+				}
+			}
+		}
+		flush();
+		LOGGER.info(String.format("Indexed %s date directories under %s", indexed, baseDir));
+		return indexed;
+	}
+
+	/**
+	 * Whether both files of a job found in the index are still there, as files or archive entries
+	 * @param fileSystem
+	 * @param jobFiles
+	 * @return
+	 */
+	public static boolean exists(JobHistoryFileSystem fileSystem, JobHistoryDirectoryIndex.JobFiles jobFiles) {
+		return jobFiles.isComplete()
+				&& fileSystem.lastModified(jobFiles.getStatsFile()) != 0
+				&& fileSystem.lastModified(jobFiles.getConfFile()) != 0;
+	}
+
+	/**
+	 * Returns the files of a job, or null if the job is not in the index
+	 * @param jobId
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized JobHistoryDirectoryIndex.JobFiles lookup(String jobId) throws IOException {
+		String location = pending.get(jobId);
+		for (int i = 0; location == null && i < segments.size(); i++) {
+			location = lookup(segments.get(i), jobId);
+		}
+		if (location == null) {
+			return null;
+		}
+		int tab = location.indexOf('\t');
+		return new JobHistoryDirectoryIndex.JobFiles(jobId, file(location.substring(0, tab)), file(location.substring(tab + 1)));
+	}
+
+	private static File file(String path) {
+		return path.isEmpty() ? null : new File(path);
+	}
+
+	/**
+	 * Binary search of a sorted segment, returning what follows the jobId on its line
+	 */
+	private static String lookup(File segment, String jobId) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(segment, "r");
+		try {
+			//the line of the jobId, if any, starts in [lo, hi) and lo is always the start of a line
+			long lo = 0;
+			long hi = raf.length();
+			while (hi - lo > SCAN_BYTES) {
+				long mid = (lo + hi) >>> 1;
+				long lineStart = nextLineStart(raf, mid);
+				if (lineStart >= hi) {
+					break;
+				}
+				int cmp = new String(readUntil(raf, lineStart, (byte) '\t'), UTF8).compareTo(jobId);
+				if (cmp == 0) {
+					return readLine(raf, lineStart).substring(jobId.length() + 1);
+				}
+				if (cmp < 0) {
+					lo = lineStart;
+				} else {
+					hi = lineStart;
+				}
+			}
+			byte[] bytes = new byte[(int) (hi - lo)];
+			raf.seek(lo);
+			raf.readFully(bytes);
+			String prefix = jobId + '\t';
+			for (String line : new String(bytes, UTF8).split("\n")) {
+				if (line.startsWith(prefix)) {
+					return line.substring(prefix.length());
+				}
+			}
+			return null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long nextLineStart(RandomAccessFile raf, long pos) throws IOException {
+		if (pos == 0) {
+			return 0;
+		}
+		//the line starts right after the first newline at or after pos - 1
+		return pos + readUntil(raf, pos - 1, (byte) '\n').length;
+	}
+
+	private static String readLine(RandomAccessFile raf, long pos) throws IOException {
+		return new String(readUntil(raf, pos, (byte) '\n'), UTF8);
+	}
+
+	/**
+	 * Reads from the given position up to the delimiter or the end of the file
+	 */
+	private static byte[] readUntil(RandomAccessFile raf, long pos, byte delimiter) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(READ_CHUNK);
+		byte[] chunk = new byte[READ_CHUNK];
+		raf.seek(pos);
+		int read;
+		while ((read = raf.read(chunk)) > 0) {
+			for (int i = 0; i < read; i++) {
+				if (chunk[i] == delimiter) {
+					out.write(chunk, 0, i);
+					return out.toByteArray();
+				}
+			}
+			out.write(chunk, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the pending jobs as a new segment and merges the segments if there are too many
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (!pending.isEmpty()) {
+			File segment = segmentFile(nextSegment++);
+			File tmp = new File(indexDirectory, segment.getName() + ".tmp");
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8), 1 << 16);
+			try {
+				for (Map.Entry<String, String> e : pending.entrySet()) {
+					writeLine(out, e.getKey(), e.getValue());
+				}
+			} finally {
+				out.close();
+			}
+			rename(tmp, segment);
+			segments.add(0, segment);
+			pending.clear();
+		}
+		if (segments.size() > MAX_SEGMENTS) {
+			merge();
+		}
+		if (!pendingDirectories.isEmpty()) {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(indexDirectory, DIRECTORIES_FILE), true), UTF8));
+			try {
+				for (String directory : pendingDirectories) {
+					out.write(directory);
+					out.write('\n');
+				}
+			} finally {
+				out.close();
+			}
+			finalDirectories.addAll(pendingDirectories);
+			pendingDirectories.clear();
+		}
+	}
+
+	private static void writeLine(Writer out, String jobId, String location) throws IOException {
+		out.write(jobId);
+		out.write('\t');
+		out.write(location);
+		out.write('\n');
+	}
+
+	/**
+	 * Merges every segment into a single one, keeping the location of the newest segment
+	 */
+	private void merge() throws IOException {
+		File merged = segmentFile(nextSegment++);
+		File tmp = new File(indexDirectory, merged.getName() + ".tmp");
+		List<BufferedReader> readers = new ArrayList<BufferedReader>(segments.size());
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8), 1 << 16);
+		try {
+			String[] lines = new String[segments.size()];
+			for (int i = 0; i < segments.size(); i++) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segments.get(i)), UTF8), 1 << 16);
+				readers.add(reader);
+				lines[i] = reader.readLine();
+			}
+			while (true) {
+				//the newest segment comes first, so the first smallest key wins
+				String min = null;
+				int minSegment = -1;
+				for (int i = 0; i < lines.length; i++) {
+					if (lines[i] != null && (min == null || key(lines[i]).compareTo(min) < 0)) {
+						min = key(lines[i]);
+						minSegment = i;
+					}
+				}
+				if (min == null) {
+					break;
+				}
+				out.write(lines[minSegment]);
+				out.write('\n');
+				for (int i = 0; i < lines.length; i++) {
+					while (lines[i] != null && key(lines[i]).equals(min)) {
+						lines[i] = readers.get(i).readLine();
+					}
+				}
+			}
+		} finally {
+			for (BufferedReader reader : readers) {
+				reader.close();
+			}
+			out.close();
+		}
+		rename(tmp, merged);
+		for (File segment : segments) {
+			if (!segment.delete()) {
+				LOGGER.warn(String.format("Could not delete merged segment %s", segment));
+			}
+		}
+		LOGGER.info(String.format("Merged %s segments into %s", segments.size(), merged));
+		segments.clear();
+		segments.add(merged);
+	}
+
+	private static String key(String line) {
+		return line.substring(0, line.indexOf('\t'));
+	}
+
+	private File segmentFile(int number) {
+		return new File(indexDirectory, String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private static void rename(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			throw new IOException(String.format("Could not rename %s to %s", from, to));
+		}
+	}
+
+	public void close() throws IOException {
+		flush();
+	}
+}
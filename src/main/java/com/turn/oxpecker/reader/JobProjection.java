@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.mapred.JobHistory;
+
+/**
+ * The fields, counters and config keys of the jobs that the parser should produce.
+ *
+ * Values outside of the projection are skipped while the files are decoded: the statistics
+ * file reader only unescapes the requested fields, only the requested counters are extracted
+ * from the counters string and the config parser never materializes other properties.
+ * A null collection means every field, counter or config key. Task attempts are only parsed
+ * into TaskAttemptStats by the projections that ask for them with withTaskAttempts.
+ */
+public class JobProjection {
+
+	/**
+	 * Every field, counter and config key
+	 */
+	public static final JobProjection ALL = new JobProjection(null, null, null);
+
+	private final Set<String> fields;
+	private final Set<String> counters;
+	private final String[] counterNames;
+	private final Set<String> configKeys;
+	private final boolean taskAttempts;
+	private final JobHistoryStatsFileReader statsFileReader;
+
+	/**
+	 * @param fields names of JobHistory.Keys such as JOBID or FINISH_TIME, or null for every field
+	 * @param counters names of the counters such as HDFS_BYTES_READ, or null for every counter
+	 * @param configKeys config keys such as mapred.job.queue.name, or null for every key
+	 */
+	public JobProjection(Collection<String> fields, Collection<String> counters, Collection<String> configKeys) {
+		this(fields, counters, configKeys, false);
+	}
+
+	private JobProjection(Collection<String> fields, Collection<String> counters, Collection<String> configKeys, boolean taskAttempts) {
+		this.taskAttempts = taskAttempts;
+		this.fields = copyOf(fields);
+		this.counters = copyOf(counters);
+		this.counterNames = counters == null ? null : this.counters.toArray(new String[this.counters.size()]);
+		this.configKeys = copyOf(configKeys);
+
+		Set<JobHistory.Keys> keys = HadoopJobHistoryFileParser.getJobInfoKeys();
+		if (fields != null) {
+			Set<JobHistory.Keys> requested = EnumSet.noneOf(JobHistory.Keys.class);
+			for (String field : fields) {
+				JobHistory.Keys key;
+				try {
+					key = JobHistory.Keys.valueOf(field);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(String.format("Unknown job history field %s", field));
+				}
+				if (key == JobHistory.Keys.COUNTERS || !keys.contains(key)) {
+					throw new IllegalArgumentException(String.format("Field %s is not read from the statistics file", field));
+				}
+				requested.add(key);
+			}
+			keys.retainAll(requested);
+		}
+		if (this.counters == null || !this.counters.isEmpty()) {
+			keys.add(JobHistory.Keys.COUNTERS);
+		}
+		if (taskAttempts) {
+			keys.addAll(TaskAttemptCollector.getAttemptKeys());
+		}
+		this.statsFileReader = new JobHistoryStatsFileReader(keys, !taskAttempts);
+	}
+
+	/**
+	 * Returns a copy of this projection that also parses the task attempts of every job
+	 * into its TaskAttemptStats. Those are not kept by the parsed job cache, so such jobs are
+	 * always parsed from their files.
+	 * @return
+	 */
+	public JobProjection withTaskAttempts() {
+		return taskAttempts ? this : new JobProjection(fields, counters, configKeys, true);
+	}
+
+	public boolean includesTaskAttempts() {
+		return taskAttempts;
+	}
+
+	private static Set<String> copyOf(Collection<String> values) {
+		return values == null ? null : Collections.unmodifiableSet(new HashSet<String>(values));
+	}
+
+	/**
+	 * Returns the requested fields, or null for every field
+	 * @return
+	 */
+	public Set<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the requested counters, or null for every counter
+	 * @return
+	 */
+	public Set<String> getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Returns the requested config keys, or null for every key
+	 * @return
+	 */
+	public Set<String> getConfigKeys() {
+		return configKeys;
+	}
+
+	/**
+	 * Whether no field, counter or config key is left out
+	 * @return
+	 */
+	public boolean isAll() {
+		return fields == null && counters == null && configKeys == null;
+	}
+
+	public boolean includesField(String field) {
+		return fields == null || fields.contains(field);
+	}
+
+	public boolean includesCounter(String counter) {
+		return counters == null || counters.contains(counter);
+	}
+
+	public boolean includesConfigKey(String configKey) {
+		return configKeys == null || configKeys.contains(configKey);
+	}
+
+	/**
+	 * Returns a copy of a fully parsed job with only the values of this projection,
+	 * or the job itself if nothing is left out. The jobtracker field is always kept.
+	 * @param hj
+	 * @return
+	 */
+	public HadoopJob project(HadoopJob hj) {
+		if (isAll()) {
+			return hj;
+		}
+		HadoopJob projected = new HadoopJob();
+		for (Map.Entry<String, Object> e : hj.getFields().entrySet()) {
+			if (includesField(e.getKey()) || Constant.JOB_TRACKER.equals(e.getKey())) {
+				projected.addField(e.getKey(), e.getValue());
+			}
+		}
+		for (Map.Entry<String, Long> e : hj.getCounters().entrySet()) {
+			if (includesCounter(e.getKey())) {
+				projected.addCounter(e.getKey(), e.getValue());
+			}
+		}
+		for (Map.Entry<String, String> e : hj.getConfigValues().entrySet()) {
+			if (includesConfigKey(e.getKey())) {
+				projected.addConfigValue(e.getKey(), e.getValue());
+			}
+		}
+		projected.setTaskAttemptStats(hj.getTaskAttemptStats());
+		projected.compact();
+		return projected;
+	}
+
+	String[] getCounterNames() {
+		return counterNames;
+	}
+
+	JobHistoryStatsFileReader getStatsFileReader() {
+		return statsFileReader;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("JobProjection fields=%s counters=%s configKeys=%s taskAttempts=%s",
+				fields == null ? "all" : fields, counters == null ? "all" : counters, configKeys == null ? "all" : configKeys, taskAttempts);
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.metrics.Metrics;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapred.JobHistory;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.LocalDateTime;
+import org.threeten.bp.LocalTime;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+import org.threeten.bp.format.DateTimeFormatter;
+
+/**
+ * The half open range of instants [start, end) a query asks for. A job is in the range
+ * if it was submitted before the end and finished at or after the start. A range is never empty,
+ * the end has to be after the start: one day is [day, next day), not [day, day).
+ *
+ * Jobs are pruned before their files are opened: a job submitted at or after the end, as told
+ * by the submit time in the name of its statistics file, cannot be in the range, and neither can
+ * a job submitted before the start whose statistics file was last written before the start,
+ * since the last record of the file is written when the job finishes. The jobs that are left
+ * are checked against their SUBMIT_TIME and FINISH_TIME fields once parsed.
+ */
+public class JobTimeRange {
+
+	private final long startMillis;
+	private final long endMillis;
+
+	public JobTimeRange(ZonedDateTime start, ZonedDateTime end) {
+		this(start.toInstant().toEpochMilli(), end.toInstant().toEpochMilli());
+	}
+
+	/**
+	 * @param startMillis
+	 * @param endMillis
+	 * @throws IllegalArgumentException if the end is not after the start
+	 */
+	public JobTimeRange(long startMillis, long endMillis) {
+		if (endMillis <= startMillis) {
+			throw new IllegalArgumentException(String.format("End %s is not after start %s", endMillis, startMillis));
+		}
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+	}
+
+	/**
+	 * Parses a date, YYYY-MM-DD, or a date and time, YYYY-MM-DDTHH:MM[:SS], in the default zone.
+	 * A date given as the end of a range stands for the whole day, so it is the midnight after it.
+	 * @param arg
+	 * @param isEnd
+	 * @return
+	 */
+	public static ZonedDateTime parseInstant(String arg, boolean isEnd) {
+		if (arg.indexOf('T') >= 0) {
+			return ZonedDateTime.of(LocalDateTime.parse(arg, DateTimeFormatter.ISO_LOCAL_DATE_TIME), ZoneId.systemDefault());
+		}
+		LocalDate date = LocalDate.parse(arg, DateTimeFormatter.ISO_DATE);
+		return ZonedDateTime.of(isEnd ? date.plusDays(1) : date, LocalTime.of(0, 0), ZoneId.systemDefault());
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getEndMillis() {
+		return endMillis;
+	}
+
+	/**
+	 * Whether the job of the given files may be in the range, without opening them
+	 * @param jobFiles
+	 * @param fileSystem
+	 * @return
+	 */
+	public boolean mayContain(JobHistoryDirectoryIndex.JobFiles jobFiles, JobHistoryFileSystem fileSystem) {
+		long submitTime = jobFiles.getSubmitTimeMillis();
+		if (submitTime < 0 || jobFiles.getStatsFile() == null) {
+			return true;
+		}
+		if (submitTime >= endMillis) {
+			return false;
+		}
+		if (submitTime >= startMillis) {
+			return true;
+		}
+		//the job was submitted before the start, it is in the range if it finished after the start
+		long lastModified = fileSystem.lastModified(jobFiles.getStatsFile());
+		return lastModified == 0 || lastModified >= startMillis;
+	}
+
+	/**
+	 * Whether a parsed job is in the range. Jobs without SUBMIT_TIME or FINISH_TIME,
+	 * for instance because a projection left them out, are only pruned by their file names.
+	 * @param hj
+	 * @return
+	 */
+	public boolean contains(HadoopJob hj) {
+		long submitTime = getTime(hj, JobHistory.Keys.SUBMIT_TIME);
+		if (submitTime >= endMillis) {
+			return false;
+		}
+		long finishTime = getTime(hj, JobHistory.Keys.FINISH_TIME);
+		return finishTime < 0 || finishTime >= startMillis;
+	}
+
+	private static long getTime(HadoopJob hj, JobHistory.Keys key) {
+		Object value = hj.getFields().get(key.name());
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.toString());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Removes the jobs that are not in the range from the collection
+	 * @param hadoopJobs
+	 * @return the number of jobs removed
+	 */
+	public int retain(Collection<HadoopJob> hadoopJobs) {
+		int removed = 0;
+		for (Iterator<HadoopJob> it = hadoopJobs.iterator(); it.hasNext();) {
+			if (!contains(it.next())) {
+				it.remove();
+				removed++;
+			}
+		}
+		Metrics.counter(Metrics.JOBS_OUT_OF_RANGE).add(removed);
+		return removed;
+	}
+
+	/**
+	 * Returns a sink that only hands the jobs in the range to the given sink
+	 * @param sink
+	 * @return
+	 */
+	public FilteringSink filter(HadoopJobSink sink) {
+		return new FilteringSink(sink);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[%s, %s)", startMillis, endMillis);
+	}
+
+	/**
+	 * A sink that drops the jobs out of the range and counts the others
+	 */
+	public class FilteringSink implements HadoopJobSink, Flushable {
+		private final HadoopJobSink sink;
+		private int count;
+
+		FilteringSink(HadoopJobSink sink) {
+			this.sink = sink;
+		}
+
+		public void accept(HadoopJob hadoopJob) throws IOException {
+			if (!contains(hadoopJob)) {
+				Metrics.counter(Metrics.JOBS_OUT_OF_RANGE).inc();
+				return;
+			}
+			sink.accept(hadoopJob);
+			count++;
+		}
+
+		public void flush() throws IOException {
+			if (sink instanceof Flushable) {
+				((Flushable) sink).flush();
+			}
+		}
+
+		/**
+		 * Returns the number of jobs handed to the sink
+		 * @return
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+}
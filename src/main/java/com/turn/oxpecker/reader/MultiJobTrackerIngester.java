@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * Ingests the histories of several jobtrackers that sit side by side under a base directory.
+ *
+ * The jobtracker instance directories, &lt;host&gt;_&lt;start timestamp&gt;_, are grouped by the logical
+ * name of their host, the host itself unless mapped with setTrackerName, so that the instances of a
+ * restarted jobtracker are one tracker. Every tracker is ingested on its own thread with its own pool
+ * of parser threads, so a huge cluster only uses its own budget and cannot starve the others. The jobs
+ * are stamped with the name of their tracker and handed to a single sink, one job at a time. A tracker
+ * that fails does not stop the others, the failures are reported once every tracker is done.
+ */
+public class MultiJobTrackerIngester {
+
+	static Logger LOGGER = Logger.getLogger(MultiJobTrackerIngester.class);
+
+	private final File baseDir;
+	private final Map<String, String> trackerNames = new HashMap<String, String>();
+	private final Map<String, Integer> trackerThreads = new HashMap<String, Integer>();
+	private int defaultThreads = 1;
+	private JobProjection projection = JobProjection.ALL;
+
+	public MultiJobTrackerIngester(File baseDir) {
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Names the tracker of the instance directories of a jobtracker host
+	 * @param host such as jt001.sjc2.turn.com
+	 * @param trackerName
+	 */
+	public void setTrackerName(String host, String trackerName) {
+		trackerNames.put(host, trackerName);
+	}
+
+	/**
+	 * Sets the number of parser threads of a tracker
+	 * @param trackerName
+	 * @param threads
+	 */
+	public void setThreads(String trackerName, int threads) {
+		trackerThreads.put(trackerName, threads);
+	}
+
+	/**
+	 * Sets the number of parser threads of the trackers without their own, 1 by default
+	 * @param defaultThreads
+	 */
+	public void setDefaultThreads(int defaultThreads) {
+		this.defaultThreads = defaultThreads;
+	}
+
+	public void setProjection(JobProjection projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * Returns the host of a jobtracker instance directory
+	 * @param instanceDir
+	 * @return
+	 */
+	public static String getHost(File instanceDir) {
+		String name = instanceDir.getName();
+		//<host>_<start timestamp>_
+		int end = name.lastIndexOf('_', name.length() - 2);
+		return end > 0 ? name.substring(0, end) : name;
+	}
+
+	/**
+	 * Returns the instance directories under the base directory grouped by tracker name
+	 * @return
+	 */
+	public Map<String, List<File>> getTrackers() {
+		Map<String, List<File>> trackers = new LinkedHashMap<String, List<File>>();
+		for (File instanceDir : HadoopJobHistoryFileParser.jobHistoryFileSystem.getJobTrackerInstanceDirectories(baseDir)) {
+			String host = getHost(instanceDir);
+			String trackerName = trackerNames.containsKey(host) ? trackerNames.get(host) : host;
+			List<File> instanceDirs = trackers.get(trackerName);
+			if (instanceDirs == null) {
+				instanceDirs = new ArrayList<File>();
+				trackers.put(trackerName, instanceDirs);
+			}
+			instanceDirs.add(instanceDir);
+		}
+		return trackers;
+	}
+
+	/**
+	 * Ingests the jobs of every tracker in the range [start, end) concurrently
+	 * @param start
+	 * @param end
+	 * @param sink called by one tracker at a time
+	 * @return the number of jobs given to the sink per tracker name
+	 * @throws IOException if a tracker failed, after the others are done
+	 */
+	public Map<String, Integer> ingest(final ZonedDateTime start, final ZonedDateTime end, HadoopJobSink sink) throws IOException {
+		Map<String, List<File>> trackers = getTrackers();
+		LOGGER.info(String.format("Ingesting %s tracker(s) under %s : %s", trackers.size(), baseDir, trackers.keySet()));
+		final HadoopJobSink sharedSink = new SynchronizedSink(sink);
+		ExecutorService trackerPool = Executors.newFixedThreadPool(Math.max(1, trackers.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "oxpecker-tracker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Map<String, Future<Integer>> futures = new LinkedHashMap<String, Future<Integer>>();
+		try {
+			for (Map.Entry<String, List<File>> e : trackers.entrySet()) {
+				final String trackerName = e.getKey();
+				final List<File> instanceDirs = e.getValue();
+				final int threads = trackerThreads.containsKey(trackerName) ? trackerThreads.get(trackerName) : defaultThreads;
+				futures.put(trackerName, trackerPool.submit(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						Thread.currentThread().setName(String.format("oxpecker-tracker-%s", trackerName));
+						int count = 0;
+						for (File instanceDir : instanceDirs) {
+							count += HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, instanceDir.getAbsolutePath(),
+									trackerName, sharedSink, threads, null, projection);
+						}
+						LOGGER.info(String.format("Ingested %s jobs of tracker %s with %s thread(s)", count, trackerName, threads));
+						return count;
+					}
+				}));
+			}
+
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+			List<String> failed = new ArrayList<String>();
+			Throwable firstFailure = null;
+			for (Map.Entry<String, Future<Integer>> e : futures.entrySet()) {
+				try {
+					counts.put(e.getKey(), e.getValue().get());
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException(String.format("Interrupted while ingesting tracker %s", e.getKey()));
+				} catch (ExecutionException ee) {
+					LOGGER.error(String.format("Could not ingest tracker %s", e.getKey()), ee.getCause());
+					failed.add(e.getKey());
+					if (firstFailure == null) {
+						firstFailure = ee.getCause();
+					}
+				}
+			}
+			if (!failed.isEmpty()) {
+				IOException ioe = new IOException(String.format("Could not ingest tracker(s) %s, ingested %s", failed, counts));
+				ioe.initCause(firstFailure);
+				throw ioe;
+			}
+			return counts;
+		} finally {
+			trackerPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Serializes the calls of the tracker threads to the sink
+	 */
+	private static class SynchronizedSink implements HadoopJobSink, Flushable {
+		private final HadoopJobSink sink;
+
+		SynchronizedSink(HadoopJobSink sink) {
+			this.sink = sink;
+		}
+
+		public synchronized void accept(HadoopJob hadoopJob) throws IOException {
+			sink.accept(hadoopJob);
+		}
+
+		public synchronized void flush() throws IOException {
+			if (sink instanceof Flushable) {
+				((Flushable) sink).flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.instrumentation.HadoopJobSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * On disk cache of parsed hadoop jobs.
+ *
+ * There is one cache file per date directory. An entry is only used if the path, length and
+ * modification time of both the stats file and the conf file of the job are unchanged, as seen
+ * by the JobHistoryFileSystem so that the entries of an archive are checked too.
+ * Cache files that were not used for longer than maxAgeMillis are deleted, and the least
+ * recently used cache files are deleted while the cache is larger than maxBytes.
+ * The parser threads share the cache, jobs are serialized and deserialized outside of its lock.
+ */
+public class ParsedJobCache {
+
+	static Logger LOGGER = Logger.getLogger(ParsedJobCache.class);
+
+	private static final int MAGIC = 0x4f585043; //OXPC
+	private static final int VERSION = 1;
+	private static final String CACHE_FILE_SUFFIX = ".cache";
+
+	private final File cacheDir;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+	private final Map<File, DirectoryCache> directoryCaches = new HashMap<File, DirectoryCache>();
+
+	/**
+	 * @param cacheDir the directory the cache files are written to
+	 * @param maxBytes the maximum total size of the cache files
+	 * @param maxAgeMillis cache files not used for longer than this are deleted
+	 */
+	public ParsedJobCache(File cacheDir, long maxBytes, long maxAgeMillis) {
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Returns the cached job for the given files of a date directory, or null if the job
+	 * is not cached or one of its files changed since it was cached
+	 * @param dateDirectory
+	 * @param jobFiles
+	 * @return
+	 */
+	public HadoopJob get(File dateDirectory, JobHistoryDirectoryIndex.JobFiles jobFiles) {
+		Entry current = Entry.of(jobFiles, null);
+		Entry entry;
+		synchronized (this) {
+			DirectoryCache directoryCache = getDirectoryCache(dateDirectory);
+			entry = directoryCache.entries.get(jobFiles.getJobId());
+			if (entry == null) {
+				return null;
+			}
+			if (!entry.sameFiles(current)) {
+				directoryCache.entries.remove(jobFiles.getJobId());
+				directoryCache.dirty = true;
+				return null;
+			}
+		}
+		//the parser threads only share the lock for the lookup, not for decoding the job
+		try {
+			return HadoopJobSerializer.read(new DataInputStream(new ByteArrayInputStream(entry.job)));
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Could not read cached job %s", jobFiles.getJobId()), e);
+			remove(dateDirectory, jobFiles.getJobId(), entry);
+			return null;
+		}
+	}
+
+	private synchronized void remove(File dateDirectory, String jobId, Entry entry) {
+		DirectoryCache directoryCache = getDirectoryCache(dateDirectory);
+		if (directoryCache.entries.get(jobId) == entry) {
+			directoryCache.entries.remove(jobId);
+			directoryCache.dirty = true;
+		}
+	}
+
+	/**
+	 * Adds a parsed job to the cache of its date directory. The entry is written to disk on the next flush.
+	 * @param dateDirectory
+	 * @param jobFiles
+	 * @param hj
+	 */
+	public void put(File dateDirectory, JobHistoryDirectoryIndex.JobFiles jobFiles, HadoopJob hj) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			HadoopJobSerializer.write(new DataOutputStream(bytes), hj);
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Could not cache job %s", jobFiles.getJobId()), e);
+			return;
+		}
+		Entry entry = Entry.of(jobFiles, bytes.toByteArray());
+		synchronized (this) {
+			DirectoryCache directoryCache = getDirectoryCache(dateDirectory);
+			directoryCache.entries.put(jobFiles.getJobId(), entry);
+			directoryCache.dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache of the date directory to disk if it changed, releases it from memory
+	 * and applies the eviction policy
+	 * @param dateDirectory
+	 * @throws IOException
+	 */
+	public synchronized void flush(File dateDirectory) throws IOException {
+		DirectoryCache directoryCache = directoryCaches.remove(dateDirectory);
+		if (directoryCache != null && directoryCache.dirty) {
+			write(directoryCache);
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes the cache files that are too old, then the least recently used ones
+	 * until the cache fits in maxBytes
+	 */
+	public synchronized void evict() {
+		File[] cacheFiles = cacheDir.listFiles();
+		if (cacheFiles == null) {
+			return;
+		}
+		Arrays.sort(cacheFiles, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		long now = System.currentTimeMillis();
+		long totalBytes = 0;
+		List<File> kept = new ArrayList<File>();
+		for (File f : cacheFiles) {
+			if (!f.getName().endsWith(CACHE_FILE_SUFFIX)) {
+				continue;
+			}
+			if (now - f.lastModified() > maxAgeMillis) {
+				delete(f);
+			} else {
+				kept.add(f);
+				totalBytes += f.length();
+			}
+		}
+		for (File f : kept) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+			totalBytes -= f.length();
+			delete(f);
+		}
+	}
+
+	private static void delete(File f) {
+		LOGGER.info(String.format("Evicting cache file %s", f));
+		if (!f.delete()) {
+			LOGGER.warn(String.format("Could not delete cache file %s", f));
+		}
+	}
+
+	private DirectoryCache getDirectoryCache(File dateDirectory) {
+		DirectoryCache directoryCache = directoryCaches.get(dateDirectory);
+		if (directoryCache == null) {
+			directoryCache = read(dateDirectory);
+			directoryCaches.put(dateDirectory, directoryCache);
+		}
+		return directoryCache;
+	}
+
+	File getCacheFile(File dateDirectory) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			byte[] digest = md5.digest(dateDirectory.getAbsolutePath().getBytes(Charset.forName("UTF-8")));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest) {
+				name.append(String.format("%02x", b));
+			}
+			return new File(cacheDir, name.append(CACHE_FILE_SUFFIX).toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private DirectoryCache read(File dateDirectory) {
+		DirectoryCache directoryCache = new DirectoryCache(dateDirectory);
+		File cacheFile = getCacheFile(dateDirectory);
+		if (!cacheFile.exists()) {
+			return directoryCache;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				LOGGER.warn(String.format("Ignoring cache file %s of an unknown version", cacheFile));
+				return directoryCache;
+			}
+			while (true) {
+				String jobId;
+				try {
+					jobId = HadoopJobSerializer.readString(in);
+				} catch (EOFException e) {
+					break;
+				}
+				Entry entry = Entry.read(in);
+				directoryCache.entries.put(jobId, entry);
+			}
+			//the modification time of a cache file is the last time it was used
+			cacheFile.setLastModified(System.currentTimeMillis());
+			LOGGER.info(String.format("Read %s cached jobs of %s", directoryCache.entries.size(), dateDirectory));
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Ignoring unreadable cache file %s", cacheFile), e);
+			directoryCache.entries.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					LOGGER.warn(String.format("Could not close %s", cacheFile), e);
+				}
+			}
+		}
+		return directoryCache;
+	}
+
+	private void write(DirectoryCache directoryCache) throws IOException {
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			throw new IOException(String.format("Could not create cache directory %s", cacheDir));
+		}
+		File cacheFile = getCacheFile(directoryCache.dateDirectory);
+		File tmpFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Entry> e : directoryCache.entries.entrySet()) {
+				HadoopJobSerializer.writeString(out, e.getKey());
+				e.getValue().write(out);
+			}
+		} finally {
+			out.close();
+		}
+		//renaming over the old cache file replaces it atomically, readers never find no cache file.
+		//Only where rename does not replace files (Windows) the old cache file is deleted first.
+		if (!tmpFile.renameTo(cacheFile) && !(cacheFile.delete() && tmpFile.renameTo(cacheFile))) {
+			throw new IOException(String.format("Could not rename %s to %s", tmpFile, cacheFile));
+		}
+		LOGGER.info(String.format("Wrote %s cached jobs of %s", directoryCache.entries.size(), directoryCache.dateDirectory));
+	}
+
+	/**
+	 * Cached jobs of a single date directory
+	 */
+	private static class DirectoryCache {
+		private final File dateDirectory;
+		private final Map<String, Entry> entries = new HashMap<String, Entry>();
+		private boolean dirty;
+
+		DirectoryCache(File dateDirectory) {
+			this.dateDirectory = dateDirectory;
+		}
+	}
+
+	/**
+	 * A serialized job and the state of the files it was parsed from
+	 */
+	private static class Entry {
+		private final String statsPath;
+		private final long statsLength;
+		private final long statsModified;
+		private final String confPath;
+		private final long confLength;
+		private final long confModified;
+		private final byte[] job;
+
+		/**
+		 * The files may be archive entries, which File.length and File.lastModified do not see
+		 */
+		static Entry of(JobHistoryDirectoryIndex.JobFiles jobFiles, byte[] job) {
+			JobHistoryFileSystem fs = HadoopJobHistoryFileParser.jobHistoryFileSystem;
+			File statsFile = jobFiles.getStatsFile();
+			File confFile = jobFiles.getConfFile();
+			return new Entry(statsFile.getAbsolutePath(), fs.length(statsFile), fs.lastModified(statsFile),
+					confFile.getAbsolutePath(), fs.length(confFile), fs.lastModified(confFile), job);
+		}
+
+		Entry(String statsPath, long statsLength, long statsModified, String confPath, long confLength, long confModified, byte[] job) {
+			this.statsPath = statsPath;
+			this.statsLength = statsLength;
+			this.statsModified = statsModified;
+			this.confPath = confPath;
+			this.confLength = confLength;
+			this.confModified = confModified;
+			this.job = job;
+		}
+
+		boolean sameFiles(Entry other) {
+			return statsPath.equals(other.statsPath) && statsLength == other.statsLength
+					&& statsModified == other.statsModified
+					&& confPath.equals(other.confPath) && confLength == other.confLength
+					&& confModified == other.confModified;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			HadoopJobSerializer.writeString(out, statsPath);
+			out.writeLong(statsLength);
+			out.writeLong(statsModified);
+			HadoopJobSerializer.writeString(out, confPath);
+			out.writeLong(confLength);
+			out.writeLong(confModified);
+			out.writeInt(job.length);
+			out.write(job);
+		}
+
+		static Entry read(DataInputStream in) throws IOException {
+			String statsPath = HadoopJobSerializer.readString(in);
+			long statsLength = in.readLong();
+			long statsModified = in.readLong();
+			String confPath = HadoopJobSerializer.readString(in);
+			long confLength = in.readLong();
+			long confModified = in.readLong();
+			byte[] job = new byte[in.readInt()];
+			in.readFully(job);
+			return new Entry(statsPath, statsLength, statsModified, confPath, confLength, confModified, job);
+		}
+	}
+}
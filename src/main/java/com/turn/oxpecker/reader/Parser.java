@@ -17,6 +17,8 @@ package com.turn.oxpecker.reader;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
@@ -46,13 +48,26 @@ public abstract class Parser {
 		try {
 			SAXReader xmlReader = new SAXReader();
 			File url = new File(xmlFile);
-			/* check if the XML file exists */
-			if ( !url.exists() ) {
+			/* open the XML file, decompressing it or reading it from its archive */
+			InputStream in;
+			try {
+				in = HadoopJobHistoryFileParser.jobHistoryFileSystem.open(url);
+			} catch (FileNotFoundException e) {
 				throw new FileNotFoundException(String.format("Parser: config file %s does not exist.", xmlFile));
+			} catch (IOException e) {
+				throw new DocumentException(String.format("Parser: config file %s cannot be opened.", xmlFile), e);
 			}
 			/* parse XML file to get the root element */
-			Document doc = xmlReader.read( url );
-			return doc.getRootElement();
+			try {
+				Document doc = xmlReader.read( in, url.toURI().toString() );
+				return doc.getRootElement();
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.warn("File: "+xmlFile+" could not be closed.", e);
+				}
+			}
 
 		} catch (FileNotFoundException e) {
 			logger.error("File: "+xmlFile+" not found.", e);
@@ -15,22 +15,30 @@
  */
 package com.turn.oxpecker.reader;
 
+import com.turn.oxpecker.export.ColumnarExportSink;
 import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.instrumentation.HadoopJobFootprint;
+import com.turn.oxpecker.metrics.JmxReporter;
+import com.turn.oxpecker.metrics.Metrics;
+import com.turn.oxpecker.server.JobServer;
+import com.turn.oxpecker.server.JobStore;
+import com.turn.oxpecker.snapshot.HadoopJobSnapshotWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 import org.apache.log4j.Logger;
-import org.threeten.bp.LocalDate;
 import org.threeten.bp.LocalTime;
-import org.threeten.bp.ZoneId;
 import org.threeten.bp.ZonedDateTime;
-import org.threeten.bp.format.DateTimeFormatter;
 
 /**
  * @author jshum
@@ -38,14 +46,79 @@ import org.threeten.bp.format.DateTimeFormatter;
 public class Starter {
 
 	static Logger LOGGER = Logger.getLogger(Starter.class);
+
+	private static final long DEFAULT_CACHE_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+	private static final int DEFAULT_CACHE_MAX_AGE_DAYS = 30;
+
+	/**
+	 * Enables the parsed job cache when -Doxpecker.cache.dir is set, its limits are read from
+	 * -Doxpecker.cache.maxBytes and -Doxpecker.cache.maxAgeDays
+	 */
+	static void configureParsedJobCache() {
+		String cacheDir = System.getProperty("oxpecker.cache.dir");
+		if (cacheDir == null) {
+			return;
+		}
+		long maxBytes = Long.getLong("oxpecker.cache.maxBytes", DEFAULT_CACHE_MAX_BYTES);
+		long maxAgeMillis = TimeUnit.DAYS.toMillis(Integer.getInteger("oxpecker.cache.maxAgeDays", DEFAULT_CACHE_MAX_AGE_DAYS));
+		LOGGER.info(String.format("Caching parsed jobs in %s, maxBytes %s, maxAgeMillis %s", cacheDir, maxBytes, maxAgeMillis));
+		HadoopJobHistoryFileParser.parsedJobCache = new ParsedJobCache(new File(cacheDir), maxBytes, maxAgeMillis);
+	}
+
+	/**
+	 * Opens the job location index in -Doxpecker.index.dir if it is set
+	 * @throws IOException
+	 */
+	static void configureJobLocationIndex() throws IOException {
+		String indexDir = System.getProperty("oxpecker.index.dir");
+		if (indexDir == null) {
+			return;
+		}
+		LOGGER.info(String.format("Indexing job locations in %s", indexDir));
+		HadoopJobHistoryFileParser.jobLocationIndex = new JobLocationIndex(new File(indexDir));
+	}
+
+	/**
+	 * Returns a sink that exports the jobs to -Doxpecker.export.dir if it is set, with the counters
+	 * listed in -Doxpecker.export.counters, comma separated
+	 * @return null when the jobs are not exported
+	 */
+	static ColumnarExportSink createExportSink() {
+		String exportDir = System.getProperty("oxpecker.export.dir");
+		if (exportDir == null) {
+			return null;
+		}
+		String counters = System.getProperty("oxpecker.export.counters");
+		LOGGER.info(String.format("Exporting jobs to %s", exportDir));
+		if (counters == null) {
+			return new ColumnarExportSink(new File(exportDir));
+		}
+		return new ColumnarExportSink(new File(exportDir), ColumnarExportSink.DEFAULT_FIELDS, Arrays.asList(counters.split(",")));
+	}
+
+	/**
+	 * Exposes the metrics of the run over JMX
+	 */
+	static void configureMetrics() {
+		try {
+			JmxReporter.register(Metrics.registry);
+		} catch (JMException e) {
+			LOGGER.warn("Could not register the metrics MBean", e);
+		}
+	}
+
 	public static void main(String[] args) throws IOException, URISyntaxException {
 
 		if (args.length < 0) {
 			System.out.println("usage : HadoopJobHistoryFileParser " +
-					"<mode: jobid/date>");
+					"<mode: jobid/date/snapshot/trackers/footprint/watch/serve>");
 			return;
 		}
 
+		configureParsedJobCache();
+		configureJobLocationIndex();
+		configureMetrics();
+
 		if (args[0].equals("jobid")) {
 			if (args.length != 3) {
 				System.out.println("usage : HadoopJobHistoryFileParser " +
@@ -55,40 +128,202 @@ public class Starter {
 				return;
 			}
 
-			HadoopJob hj = HadoopJobHistoryFileParser.getHadoopJobFromDirectoryGivenJobID(
-					new File(args[2]), "local", args[1]);
-			HashMap<String, Object> fields = hj.getFields();
+			HadoopJob hj;
+			if (HadoopJobHistoryFileParser.jobLocationIndex != null) {
+				//the directory can be the base directory of the whole history
+				hj = HadoopJobHistoryFileParser.getHadoopJobFromLocationIndex(args[2], "local", args[1]);
+			} else {
+				hj = HadoopJobHistoryFileParser.getHadoopJobFromDirectoryGivenJobID(new File(args[2]), "local", args[1]);
+			}
+			if (hj == null) {
+				System.out.println(String.format("Job %s not found under %s", args[1], args[2]));
+				return;
+			}
+			Map<String, Object> fields = hj.getFields();
 			for (Map.Entry<String, Object> s : fields.entrySet()) {
 				System.out.println(String.format("%s : %s",s.getKey(),s.getValue()));
 			}
 		}
 
 		if (args[0].equals("date")) {
-			if (args.length != 5) {
+			if (args.length < 5 || args.length > 7) {
 				System.out.println("usage : HadoopJobHistoryFileParser " +
 						"<mode: date>" +
-						"<start date YYYY-MM-DD> <end date YYYY-MM-DD> "+
-						"<jobtrackerName> <path to top level directory containing files>");
+						"<start YYYY-MM-DD[THH:MM]> <end YYYY-MM-DD[THH:MM]> "+
+						"<jobtrackerName> <path to top level directory containing files> [number of parser threads] [checkpoint file]");
+				System.out.println("jobs running at the end are found if they finished by the end of the next day");
+				return;
+			}
+
+			ZonedDateTime start = JobTimeRange.parseInstant(args[1], false);
+			ZonedDateTime end = JobTimeRange.parseInstant(args[2], true);
+
+			String jobTrackerName = args[3];
+			String jobHistDir = args[4];
+			int numThreads = args.length >= 6 ? Integer.parseInt(args[5]) : 1;
+
+			LOGGER.info(String.format("Parsed %s %s %s %s with %s thread(s)", start, end, jobHistDir, jobTrackerName, numThreads));
+
+			ColumnarExportSink exportSink = createExportSink();
+			if (args.length == 7 || exportSink != null) {
+				//a checkpointed backfill or an export streams the jobs instead of keeping them all in memory
+				BackfillCheckpoint checkpoint = args.length == 7 ? new BackfillCheckpoint(new File(args[6])) : null;
+				HadoopJobSink sink = exportSink != null ? exportSink : new HadoopJobSink() {
+					public void accept(HadoopJob hadoopJob) {
+					}
+				};
+				try {
+					HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, jobHistDir, jobTrackerName, sink, numThreads, checkpoint);
+				} finally {
+					if (exportSink != null) {
+						exportSink.close();
+					}
+				}
+				LOGGER.info(String.format("Metrics%n%s", Metrics.summary()));
+				return;
+			}
+
+			List<Collection<HadoopJob>> l = HadoopJobHistoryFileParser.getHadoopJobsForDates(start, end, jobHistDir, jobTrackerName, numThreads);
+			LOGGER.info(String.format("Metrics%n%s", Metrics.summary()));
+
+			return;
+		}
+
+		if (args[0].equals("snapshot")) {
+			if (args.length != 6 && args.length != 7) {
+				System.out.println("usage : HadoopJobHistoryFileParser " +
+						"<mode: snapshot>" +
+						"<start YYYY-MM-DD[THH:MM]> <end YYYY-MM-DD[THH:MM]> "+
+						"<jobtrackerName> <path to top level directory containing files> <snapshot file> [number of parser threads]");
 				return;
 			}
 
-			DateTimeFormatter df = DateTimeFormatter.ISO_DATE;
-			LocalTime midnight = LocalTime.of(0, 0); //midnight
+			ZonedDateTime start = JobTimeRange.parseInstant(args[1], false);
+			ZonedDateTime end = JobTimeRange.parseInstant(args[2], true);
+
+			String jobTrackerName = args[3];
+			String jobHistDir = args[4];
+			File snapshotFile = new File(args[5]);
+			int numThreads = args.length == 7 ? Integer.parseInt(args[6]) : 1;
+
+			HadoopJobSnapshotWriter writer = new HadoopJobSnapshotWriter(snapshotFile);
+			try {
+				HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, jobHistDir, jobTrackerName, writer, numThreads);
+			} finally {
+				writer.close();
+			}
+			LOGGER.info(String.format("Wrote %d jobs to snapshot %s", writer.getJobCount(), snapshotFile));
+			LOGGER.info(String.format("Metrics%n%s", Metrics.summary()));
+			return;
+		}
+
+		if (args[0].equals("trackers")) {
+			if (args.length < 4 || args.length > 6) {
+				System.out.println("usage : HadoopJobHistoryFileParser " +
+						"<mode: trackers> " +
+						"<start YYYY-MM-DD[THH:MM]> <end YYYY-MM-DD[THH:MM]> " +
+						"<path to the directory of the jobtracker instance directories> [number of parser threads per tracker] " +
+						"[host=trackerName[:threads],...]");
+				return;
+			}
 
-			ZonedDateTime start = ZonedDateTime.of(LocalDate.parse(args[0], df), midnight, ZoneId.systemDefault());
-			ZonedDateTime end = ZonedDateTime.of(LocalDate.parse(args[1], df), midnight, ZoneId.systemDefault());
+			ZonedDateTime start = JobTimeRange.parseInstant(args[1], false);
+			ZonedDateTime end = JobTimeRange.parseInstant(args[2], true);
+			MultiJobTrackerIngester ingester = new MultiJobTrackerIngester(new File(args[3]));
+			if (args.length >= 5) {
+				ingester.setDefaultThreads(Integer.parseInt(args[4]));
+			}
+			if (args.length == 6) {
+				for (String mapping : args[5].split(",")) {
+					String[] hostAndTracker = mapping.split("=", 2);
+					String[] trackerAndThreads = hostAndTracker[1].split(":", 2);
+					ingester.setTrackerName(hostAndTracker[0], trackerAndThreads[0]);
+					if (trackerAndThreads.length == 2) {
+						ingester.setThreads(trackerAndThreads[0], Integer.parseInt(trackerAndThreads[1]));
+					}
+				}
+			}
+			Map<String, Integer> counts = ingester.ingest(start, end, new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+				}
+			});
+			LOGGER.info(String.format("Jobs per tracker %s", counts));
+			LOGGER.info(String.format("Metrics%n%s", Metrics.summary()));
+			return;
+		}
 
-			String jobTrackerName = args[2];
-			String jobHistDir = args[3];
+		if (args[0].equals("watch")) {
+			if (args.length != 4 && args.length != 5) {
+				System.out.println("usage : HadoopJobHistoryFileParser " +
+						"<mode: watch> " +
+						"<jobtrackerName> <path to top level directory containing files> <state file> [poll interval in seconds]");
+				return;
+			}
+			long pollIntervalMillis = TimeUnit.SECONDS.toMillis(args.length == 5 ? Integer.parseInt(args[4]) : 10);
+			HadoopJobSink sink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					LOGGER.info(String.format("New job %s %s", hadoopJob.getFields().get("JOBID"), hadoopJob.getFields().get("JOB_STATUS")));
+				}
+			};
+			new JobHistoryWatcher(args[2], args[1], sink, new File(args[3])).watch(pollIntervalMillis);
+			return;
+		}
 
-			LOGGER.info(String.format("Parsed %s %s %s %s", start, end, jobHistDir, jobTrackerName));
+		if (args[0].equals("serve")) {
+			if (args.length < 4 || args.length > 7) {
+				System.out.println("usage : HadoopJobHistoryFileParser " +
+						"<mode: serve> " +
+						"<jobtrackerName> <path to top level directory containing files> <port> " +
+						"[number of days to load] [poll interval in seconds] [state file]");
+				return;
+			}
+			String jobTrackerName = args[1];
+			String jobHistDir = args[2];
+			int port = Integer.parseInt(args[3]);
+			int days = args.length >= 5 ? Integer.parseInt(args[4]) : 7;
+			long pollIntervalMillis = TimeUnit.SECONDS.toMillis(args.length >= 6 ? Integer.parseInt(args[5]) : 10);
+			File stateFile;
+			if (args.length == 7) {
+				stateFile = new File(args[6]);
+			} else {
+				//without a state file the first poll hands out the active days again, the store replaces those jobs
+				stateFile = File.createTempFile("oxpecker-serve", ".state");
+				stateFile.delete();
+				stateFile.deleteOnExit();
+			}
 
-			List<Collection<HadoopJob>> l = HadoopJobHistoryFileParser.getHadoopJobsForDates(start, end, jobHistDir, jobTrackerName);
+			JobStore store = new JobStore();
+			store.setRetentionMillis(TimeUnit.DAYS.toMillis(days));
+			ZonedDateTime end = ZonedDateTime.now();
+			ZonedDateTime start = ZonedDateTime.of(end.toLocalDate().minusDays(Math.max(0, days - 1)), LocalTime.of(0, 0), end.getZone());
+			HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, jobHistDir, jobTrackerName, store,
+					Runtime.getRuntime().availableProcessors());
+			LOGGER.info(String.format("Loaded %s jobs since %s", store.size(), start));
 
+			JobServer server = new JobServer(store);
+			server.start(new InetSocketAddress("127.0.0.1", port), 4);
+			new JobHistoryWatcher(jobHistDir, jobTrackerName, store, stateFile).watch(pollIntervalMillis);
 			return;
 		}
 
+		if (args[0].equals("footprint")) {
+			if (args.length != 3) {
+				System.out.println("usage : HadoopJobHistoryFileParser " +
+						"<mode: footprint> " +
+						"<path to a date directory> <jobtrackerName>");
+				return;
+			}
 
+			long before = HadoopJobFootprint.usedHeapAfterGc();
+			Collection<HadoopJob> hadoopJobs = HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(new File(args[1]), args[2]);
+			long afterJobs = HadoopJobFootprint.usedHeapAfterGc();
+			List<Object> copies = HadoopJobFootprint.copyToHashMaps(hadoopJobs);
+			long afterCopies = HadoopJobFootprint.usedHeapAfterGc();
 
+			int n = Math.max(1, hadoopJobs.size());
+			System.out.println(String.format("%d jobs, %d bytes/job, %d bytes/job as HashMaps",
+					hadoopJobs.size(), (afterJobs - before) / n, (afterCopies - afterJobs) / Math.max(1, copies.size())));
+			return;
+		}
 	}
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.TaskAttemptStats;
+
+import java.text.ParseException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.mapred.JobHistory;
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the MapAttempt and ReduceAttempt records of a statistics file into TaskAttemptStats.
+ *
+ * Only the start times of the attempts that have not finished yet are kept, every finished
+ * attempt goes into the sketches and is forgotten.
+ */
+class TaskAttemptCollector {
+
+	static Logger LOGGER = Logger.getLogger(TaskAttemptCollector.class);
+
+	private static final String[] MAP_COUNTERS = {"HDFS_BYTES_READ"};
+	private static final String[] REDUCE_COUNTERS = {"REDUCE_INPUT_RECORDS"};
+
+	private final TaskAttemptStats stats = new TaskAttemptStats();
+	private final Map<String, Long> startTimes = new HashMap<String, Long>();
+	private final long[] counterValues = new long[1];
+
+	/**
+	 * Returns the keys of the attempt records that the collector reads
+	 * @return
+	 */
+	static Set<JobHistory.Keys> getAttemptKeys() {
+		return EnumSet.of(JobHistory.Keys.TASK_ATTEMPT_ID, JobHistory.Keys.TASK_STATUS,
+				JobHistory.Keys.START_TIME, JobHistory.Keys.FINISH_TIME,
+				JobHistory.Keys.SHUFFLE_FINISHED, JobHistory.Keys.SORT_FINISHED, JobHistory.Keys.COUNTERS);
+	}
+
+	TaskAttemptStats getStats() {
+		return stats;
+	}
+
+	void handle(JobHistory.RecordTypes recType, Map<JobHistory.Keys, String> values) {
+		String attemptId = values.get(JobHistory.Keys.TASK_ATTEMPT_ID);
+		if (attemptId == null) {
+			return;
+		}
+		String status = values.get(JobHistory.Keys.TASK_STATUS);
+		if (status == null) {
+			long startTime = parseTime(values.get(JobHistory.Keys.START_TIME));
+			if (startTime >= 0) {
+				startTimes.put(attemptId, startTime);
+			}
+			return;
+		}
+
+		Long startTime = startTimes.remove(attemptId);
+		if (JobHistory.Values.FAILED.name().equals(status)) {
+			stats.addFailedAttempt();
+			return;
+		}
+		if (JobHistory.Values.KILLED.name().equals(status)) {
+			stats.addKilledAttempt();
+			return;
+		}
+		if (!JobHistory.Values.SUCCESS.name().equals(status)) {
+			return;
+		}
+		boolean isMap = recType == JobHistory.RecordTypes.MapAttempt;
+		long finishTime = parseTime(values.get(JobHistory.Keys.FINISH_TIME));
+		if (startTime != null && finishTime >= startTime) {
+			(isMap ? stats.getMapDuration() : stats.getReduceDuration()).add(finishTime - startTime);
+		}
+		if (!isMap && startTime != null) {
+			long shuffleFinished = parseTime(values.get(JobHistory.Keys.SHUFFLE_FINISHED));
+			long sortFinished = parseTime(values.get(JobHistory.Keys.SORT_FINISHED));
+			if (shuffleFinished >= startTime) {
+				stats.getShuffleTime().add(shuffleFinished - startTime);
+				if (sortFinished >= shuffleFinished) {
+					stats.getSortTime().add(sortFinished - shuffleFinished);
+				}
+			}
+		}
+		long input = getCounter(values.get(JobHistory.Keys.COUNTERS), isMap ? MAP_COUNTERS : REDUCE_COUNTERS, attemptId);
+		if (input >= 0) {
+			(isMap ? stats.getMapInputBytes() : stats.getReduceInputRecords()).add(input);
+		}
+	}
+
+	private long getCounter(String counters, String[] names, String attemptId) {
+		counterValues[0] = -1;
+		try {
+			CompactCounters.getCounters(counters, names, counterValues);
+		} catch (ParseException e) {
+			LOGGER.warn(String.format("Could not read the counters of attempt %s", attemptId), e);
+		}
+		return counterValues[0];
+	}
+
+	private static long parseTime(String value) {
+		if (value == null || value.isEmpty()) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,544 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobSink;
+import com.turn.oxpecker.reader.JobTimeRange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jobs with secondary indexes, so that a query only looks at the jobs its indexed conditions allow
+ *
+ * Every job gets a document number, its position in the order the jobs were added. The indexed fields,
+ * such as JOB_QUEUE or JOB_STATUS, map each value to the sorted document numbers of its jobs, a
+ * posting list that turns into a bitmap once it holds more than 64 documents and more than one document
+ * in 32. SUBMIT_TIME and FINISH_TIME are indexed by time, sorted, so that the jobs submitted before the
+ * end of a range, or finished after its start, are a slice of the index.
+ *
+ * A query starts with the smallest of the posting lists and time slices of its conditions and
+ * intersects it with the other posting lists. The jobs left are checked against the whole query, so
+ * the conditions on fields that are not indexed hold as well. A job added with the JOBID of a job in
+ * the collection replaces it and keeps its document number. Removing jobs numbers the documents
+ * that are left again, so it rebuilds the indexes.
+ *
+ * The collection is not thread safe.
+ */
+public class IndexedJobCollection {
+
+	public static final List<String> DEFAULT_INDEXED_FIELDS = Collections.unmodifiableList(Arrays.asList(
+			"JOB_QUEUE", "JOBNAME", "JOB_STATUS", "USER", "JOB_PRIORITY", "JOB_TRACKER"));
+
+	private static final Comparator<Postings> BY_SIZE = new Comparator<Postings>() {
+		public int compare(Postings a, Postings b) {
+			return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0 : 1);
+		}
+	};
+
+	private final List<HadoopJob> jobs = new ArrayList<HadoopJob>();
+	private final Map<String, Integer> documents = new HashMap<String, Integer>();
+	private final Map<String, Map<String, Postings>> fieldIndexes = new LinkedHashMap<String, Map<String, Postings>>();
+	private TimeIndex submitTimes = new TimeIndex("SUBMIT_TIME");
+	private TimeIndex finishTimes = new TimeIndex("FINISH_TIME");
+
+	public IndexedJobCollection() {
+		this(DEFAULT_INDEXED_FIELDS);
+	}
+
+	/**
+	 * @param indexedFields the fields with few distinct values that queries filter on
+	 */
+	public IndexedJobCollection(Collection<String> indexedFields) {
+		for (String field : indexedFields) {
+			fieldIndexes.put(field, new HashMap<String, Postings>());
+		}
+	}
+
+	/**
+	 * Adds a job, or replaces the job with the same JOBID
+	 * @param hj
+	 */
+	public void add(HadoopJob hj) {
+		Object jobId = hj.getFields().get("JOBID");
+		Integer document = jobId == null ? null : documents.get(jobId.toString());
+		if (document == null) {
+			document = jobs.size();
+			jobs.add(hj);
+			if (jobId != null) {
+				documents.put(jobId.toString(), document);
+			}
+		} else {
+			unindex(document, jobs.get(document));
+			jobs.set(document, hj);
+		}
+		index(document, hj);
+	}
+
+	/**
+	 * Returns the job with the given id
+	 * @param jobId
+	 * @return null when the collection does not have it
+	 */
+	public HadoopJob get(String jobId) {
+		Integer document = documents.get(jobId);
+		return document == null ? null : jobs.get(document);
+	}
+
+	public int size() {
+		return jobs.size();
+	}
+
+	/**
+	 * Removes the jobs that finished before the given time, and the jobs without a FINISH_TIME, such as
+	 * jobs whose history file lacks its last record, that were submitted before it. Jobs without either
+	 * time are kept.
+	 * @param millis
+	 * @return the number of jobs removed
+	 */
+	public int removeBefore(long millis) {
+		int removed = finishTimes.countTimedBefore(millis);
+		BitSet unfinished = new BitSet();
+		finishTimes.addMissingTo(unfinished);
+		for (int document = unfinished.nextSetBit(0); document >= 0; document = unfinished.nextSetBit(document + 1)) {
+			long submitTime = submitTimes.getTime(jobs.get(document));
+			if (submitTime >= 0 && submitTime < millis) {
+				removed++;
+			}
+		}
+		if (removed == 0) {
+			return 0;
+		}
+		List<HadoopJob> kept = new ArrayList<HadoopJob>(jobs.size() - removed);
+		for (HadoopJob hj : jobs) {
+			long time = finishTimes.getTime(hj);
+			if (time < 0) {
+				time = submitTimes.getTime(hj);
+			}
+			if (time < 0 || time >= millis) {
+				kept.add(hj);
+			}
+		}
+		jobs.clear();
+		documents.clear();
+		for (Map<String, Postings> index : fieldIndexes.values()) {
+			index.clear();
+		}
+		submitTimes = new TimeIndex("SUBMIT_TIME");
+		finishTimes = new TimeIndex("FINISH_TIME");
+		for (HadoopJob hj : kept) {
+			add(hj);
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the jobs that match the query, in the order they were first added
+	 * @param query
+	 * @return
+	 */
+	public List<HadoopJob> find(JobQuery query) {
+		final List<HadoopJob> found = new ArrayList<HadoopJob>();
+		try {
+			visit(query, new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					found.add(hadoopJob);
+				}
+			}, query.getLimit());
+		} catch (IOException e) {
+			//the sink does not throw
+			throw new IllegalStateException(e);
+		}
+		return found;
+	}
+
+	/**
+	 * Hands the jobs that match the query, regardless of its limit, to a sink
+	 * @param query
+	 * @param sink
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public int forEach(JobQuery query, HadoopJobSink sink) throws IOException {
+		return visit(query, sink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the number of jobs the indexes leave for a query to check, the size of the collection
+	 * when the query has no indexed condition
+	 * @param query
+	 * @return
+	 */
+	public int countCandidates(JobQuery query) {
+		BitSet candidates = candidates(query);
+		return candidates == null ? jobs.size() : candidates.cardinality();
+	}
+
+	private int visit(JobQuery query, HadoopJobSink sink, int limit) throws IOException {
+		int count = 0;
+		BitSet candidates = candidates(query);
+		if (candidates == null) {
+			for (int document = 0; document < jobs.size() && count < limit; document++) {
+				HadoopJob hj = jobs.get(document);
+				if (query.matches(hj)) {
+					sink.accept(hj);
+					count++;
+				}
+			}
+			return count;
+		}
+		for (int document = candidates.nextSetBit(0); document >= 0 && count < limit; document = candidates.nextSetBit(document + 1)) {
+			HadoopJob hj = jobs.get(document);
+			if (query.matches(hj)) {
+				sink.accept(hj);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Intersects the posting lists and the time slice of the query
+	 * @param query
+	 * @return the documents that may match, null when the query has no indexed condition
+	 */
+	private BitSet candidates(JobQuery query) {
+		List<Postings> postings = new ArrayList<Postings>();
+		for (Map.Entry<String, String> e : query.getFieldValues().entrySet()) {
+			Map<String, Postings> index = fieldIndexes.get(e.getKey());
+			if (index == null) {
+				continue;
+			}
+			Postings p = index.get(e.getValue());
+			if (p == null || p.size() == 0) {
+				return new BitSet();
+			}
+			postings.add(p);
+		}
+		Collections.sort(postings, BY_SIZE);
+
+		BitSet candidates = null;
+		int next = 0;
+		JobTimeRange range = query.getRange();
+		if (range != null) {
+			//jobs are in the range if submitted before the end and finished at or after the start
+			int submittedBefore = submitTimes.countBefore(range.getEndMillis());
+			int finishedAfter = finishTimes.countAtOrAfter(range.getStartMillis());
+			if (postings.isEmpty() || Math.min(submittedBefore, finishedAfter) < postings.get(0).size()) {
+				candidates = new BitSet(jobs.size());
+				if (submittedBefore <= finishedAfter) {
+					submitTimes.addBefore(range.getEndMillis(), candidates);
+				} else {
+					finishTimes.addAtOrAfter(range.getStartMillis(), candidates);
+				}
+			}
+		}
+		if (candidates == null) {
+			if (postings.isEmpty()) {
+				return null;
+			}
+			candidates = new BitSet(jobs.size());
+			postings.get(0).addTo(candidates);
+			next = 1;
+		}
+		for (int i = next; i < postings.size() && !candidates.isEmpty(); i++) {
+			postings.get(i).retain(candidates);
+		}
+		return candidates;
+	}
+
+	private void index(int document, HadoopJob hj) {
+		for (Map.Entry<String, Map<String, Postings>> e : fieldIndexes.entrySet()) {
+			Object value = hj.getFields().get(e.getKey());
+			if (value == null) {
+				continue;
+			}
+			Postings p = e.getValue().get(value.toString());
+			if (p == null) {
+				p = new Postings();
+				e.getValue().put(value.toString(), p);
+			}
+			p.add(document, jobs.size());
+		}
+		submitTimes.add(document, hj, jobs.size());
+		finishTimes.add(document, hj, jobs.size());
+	}
+
+	private void unindex(int document, HadoopJob hj) {
+		for (Map.Entry<String, Map<String, Postings>> e : fieldIndexes.entrySet()) {
+			Object value = hj.getFields().get(e.getKey());
+			if (value == null) {
+				continue;
+			}
+			Postings p = e.getValue().get(value.toString());
+			p.remove(document);
+			if (p.size() == 0) {
+				e.getValue().remove(value.toString());
+			}
+		}
+		submitTimes.remove(document, hj);
+		finishTimes.remove(document, hj);
+	}
+
+	/**
+	 * The sorted documents of one value, as an array while there are few and as a bitmap once
+	 * the bitmap is smaller
+	 */
+	static class Postings {
+		private int[] documents = new int[2];
+		private BitSet bits;
+		private int size;
+
+		void add(int document, int documentCount) {
+			if (bits != null) {
+				if (!bits.get(document)) {
+					bits.set(document);
+					size++;
+				}
+				return;
+			}
+			int pos = size > 0 && documents[size - 1] < document ? -size - 1 : Arrays.binarySearch(documents, 0, size, document);
+			if (pos >= 0) {
+				return;
+			}
+			pos = -pos - 1;
+			if (size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+			}
+			System.arraycopy(documents, pos, documents, pos + 1, size - pos);
+			documents[pos] = document;
+			size++;
+			//an int per document against a bit per document in the collection
+			if (size > 64 && size * 32L > documentCount) {
+				bits = new BitSet(documentCount);
+				for (int i = 0; i < size; i++) {
+					bits.set(documents[i]);
+				}
+				documents = null;
+			}
+		}
+
+		void remove(int document) {
+			if (bits != null) {
+				if (bits.get(document)) {
+					bits.clear(document);
+					size--;
+				}
+				return;
+			}
+			int pos = Arrays.binarySearch(documents, 0, size, document);
+			if (pos >= 0) {
+				System.arraycopy(documents, pos + 1, documents, pos, size - pos - 1);
+				size--;
+			}
+		}
+
+		boolean contains(int document) {
+			return bits != null ? bits.get(document) : Arrays.binarySearch(documents, 0, size, document) >= 0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isBitmap() {
+			return bits != null;
+		}
+
+		void addTo(BitSet target) {
+			if (bits != null) {
+				target.or(bits);
+				return;
+			}
+			for (int i = 0; i < size; i++) {
+				target.set(documents[i]);
+			}
+		}
+
+		/**
+		 * Clears the documents of the target that are not in the postings
+		 * @param target
+		 */
+		void retain(BitSet target) {
+			if (bits != null) {
+				target.and(bits);
+				return;
+			}
+			for (int document = target.nextSetBit(0); document >= 0; document = target.nextSetBit(document + 1)) {
+				if (!contains(document)) {
+					target.clear(document);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The documents sorted by a millisecond timestamp field, with the documents without it on the side
+	 *
+	 * Jobs are mostly added in time order, so a new entry is usually inserted near the end.
+	 */
+	static class TimeIndex {
+		private final String field;
+		private long[] times = new long[16];
+		private int[] documents = new int[16];
+		private int size;
+		private final Postings missing = new Postings();
+
+		TimeIndex(String field) {
+			this.field = field;
+		}
+
+		void add(int document, HadoopJob hj, int documentCount) {
+			long time = getTime(hj);
+			if (time < 0) {
+				missing.add(document, documentCount);
+				return;
+			}
+			int pos = upperBound(time);
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				documents = Arrays.copyOf(documents, size * 2);
+			}
+			System.arraycopy(times, pos, times, pos + 1, size - pos);
+			System.arraycopy(documents, pos, documents, pos + 1, size - pos);
+			times[pos] = time;
+			documents[pos] = document;
+			size++;
+		}
+
+		void remove(int document, HadoopJob hj) {
+			long time = getTime(hj);
+			if (time < 0) {
+				missing.remove(document);
+				return;
+			}
+			for (int pos = lowerBound(time); pos < size && times[pos] == time; pos++) {
+				if (documents[pos] == document) {
+					System.arraycopy(times, pos + 1, times, pos, size - pos - 1);
+					System.arraycopy(documents, pos + 1, documents, pos, size - pos - 1);
+					size--;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of documents before the given time or without a time
+		 * @param millis
+		 * @return
+		 */
+		int countBefore(long millis) {
+			return lowerBound(millis) + missing.size();
+		}
+
+		/**
+		 * Returns the number of documents with a time before the given time
+		 * @param millis
+		 * @return
+		 */
+		int countTimedBefore(long millis) {
+			return lowerBound(millis);
+		}
+
+		void addMissingTo(BitSet target) {
+			missing.addTo(target);
+		}
+
+		void addBefore(long millis, BitSet target) {
+			for (int pos = 0, end = lowerBound(millis); pos < end; pos++) {
+				target.set(documents[pos]);
+			}
+			missing.addTo(target);
+		}
+
+		/**
+		 * Returns the number of documents at or after the given time or without a time
+		 * @param millis
+		 * @return
+		 */
+		int countAtOrAfter(long millis) {
+			return size - lowerBound(millis) + missing.size();
+		}
+
+		void addAtOrAfter(long millis, BitSet target) {
+			for (int pos = lowerBound(millis); pos < size; pos++) {
+				target.set(documents[pos]);
+			}
+			missing.addTo(target);
+		}
+
+		/**
+		 * @param millis
+		 * @return the first position whose time is at or after the given time
+		 */
+		private int lowerBound(long millis) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (times[mid] < millis) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @param millis
+		 * @return the first position whose time is after the given time
+		 */
+		private int upperBound(long millis) {
+			if (size == 0 || times[size - 1] <= millis) {
+				return size;
+			}
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (times[mid] <= millis) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private long getTime(HadoopJob hj) {
+			Object value = hj.getFields().get(field);
+			if (value == null) {
+				return -1;
+			}
+			try {
+				return Long.parseLong(value.toString());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.JobTimeRange;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The jobs a query asks for: the jobs in a time range whose fields have the given values,
+ * all of the conditions have to hold
+ */
+public class JobQuery {
+
+	private JobTimeRange range;
+	private final Map<String, String> fieldValues = new LinkedHashMap<String, String>();
+	private int limit = Integer.MAX_VALUE;
+
+	/**
+	 * Only matches the jobs in the range, any job when the range is null
+	 * @param range
+	 * @return
+	 */
+	public JobQuery setRange(JobTimeRange range) {
+		this.range = range;
+		return this;
+	}
+
+	/**
+	 * Only matches the jobs whose field, such as JOB_QUEUE, has the value
+	 * @param field
+	 * @param value
+	 * @return
+	 */
+	public JobQuery addFieldValue(String field, String value) {
+		fieldValues.put(field, value);
+		return this;
+	}
+
+	/**
+	 * Returns at most the given number of jobs
+	 * @param limit
+	 * @return
+	 */
+	public JobQuery setLimit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException(String.format("Negative limit %s", limit));
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	public JobTimeRange getRange() {
+		return range;
+	}
+
+	public Map<String, String> getFieldValues() {
+		return Collections.unmodifiableMap(fieldValues);
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public boolean matches(HadoopJob hj) {
+		if (range != null && !range.contains(hj)) {
+			return false;
+		}
+		for (Map.Entry<String, String> e : fieldValues.entrySet()) {
+			Object value = hj.getFields().get(e.getKey());
+			if (value == null || !value.toString().equals(e.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("JobQuery[range=%s, fields=%s, limit=%s]", range, fieldValues, limit);
+	}
+}
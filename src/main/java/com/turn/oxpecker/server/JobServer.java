@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.turn.oxpecker.aggregation.Aggregate;
+import com.turn.oxpecker.aggregation.Dimension;
+import com.turn.oxpecker.aggregation.JobAggregation;
+import com.turn.oxpecker.aggregation.Measure;
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.JobTimeRange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Answers queries over the jobs of a JobStore as JSON over HTTP
+ *
+ * GET /jobs/&lt;job id&gt;[?config=true] returns a job, with its config when asked for.
+ * GET /jobs?start=..&amp;end=..&amp;JOB_QUEUE=..&amp;JOBNAME=..&amp;limit=..[&amp;config=true] returns the jobs
+ * in a time range whose fields have the given values, every upper case parameter is a field. At most
+ * DEFAULT_LIMIT jobs are returned without a limit, and the limit cannot be over MAX_LIMIT.
+ * GET /aggregate?groupBy=JOB_QUEUE,hour:SUBMIT_TIME&amp;sum=HDFS_BYTES_READ&amp;max=duration&amp;.. rolls the
+ * matching jobs up with a JobAggregation, the groups are fields, hour:FIELD, day:FIELD or config:key
+ * and the measures are counters, field:FIELD or duration, from SUBMIT_TIME to FINISH_TIME.
+ * GET /status returns the number of jobs in the store.
+ *
+ * Times are epoch milliseconds, YYYY-MM-DD or YYYY-MM-DDTHH:MM[:SS] in the default zone. The server
+ * binds to the address it is given, a loopback address keeps it local.
+ */
+public class JobServer {
+
+	static Logger LOGGER = Logger.getLogger(JobServer.class);
+
+	public static final int DEFAULT_LIMIT = 1000;
+	public static final int MAX_LIMIT = 10000;
+
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final Set<String> PARAMETERS = new HashSet<String>(Arrays.asList(
+			"start", "end", "limit", "config", "groupBy", "sum", "min", "max"));
+	private static final Pattern FIELD_NAME = Pattern.compile("[A-Z][A-Z0-9_]*");
+	private static final Pattern DIGITS = Pattern.compile("-?[0-9]+");
+
+	private final JobStore store;
+	private HttpServer server;
+	private ExecutorService executor;
+	private long startMillis;
+
+	public JobServer(JobStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Starts answering queries
+	 * @param address such as 127.0.0.1:8080, port 0 picks a free port
+	 * @param threads the number of queries answered at the same time
+	 * @throws IOException
+	 */
+	public void start(InetSocketAddress address, int threads) throws IOException {
+		server = HttpServer.create(address, 0);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "oxpecker-server");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/", new QueryHandler());
+		server.start();
+		startMillis = System.currentTimeMillis();
+		LOGGER.info(String.format("Answering queries on %s", server.getAddress()));
+	}
+
+	/**
+	 * Returns the port the server listens on
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	private class QueryHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			int status = HttpURLConnection.HTTP_OK;
+			String body;
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					status = HttpURLConnection.HTTP_BAD_METHOD;
+					body = error(String.format("Unsupported method %s", exchange.getRequestMethod()));
+				} else {
+					body = answer(exchange.getRequestURI().getPath(), parseQueryString(exchange.getRequestURI().getRawQuery()));
+					if (body == null) {
+						status = HttpURLConnection.HTTP_NOT_FOUND;
+						body = error(String.format("Not found %s", exchange.getRequestURI()));
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				status = HttpURLConnection.HTTP_BAD_REQUEST;
+				body = error(e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error(String.format("Could not answer %s", exchange.getRequestURI()), e);
+				status = HttpURLConnection.HTTP_INTERNAL_ERROR;
+				body = error(e.toString());
+			}
+			byte[] bytes = body.getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug(String.format("%s %s in %s us", status, exchange.getRequestURI(), (System.nanoTime() - start) / 1000));
+			}
+		}
+	}
+
+	/**
+	 * Answers a query
+	 * @param path
+	 * @param parameters
+	 * @return null when there is nothing at the path
+	 * @throws IOException
+	 */
+	String answer(String path, Map<String, String> parameters) throws IOException {
+		if (path.equals("/status")) {
+			return new JsonWriter().beginObject()
+					.name("jobs").value(store.size())
+					.name("lastUpdate").value(store.getLastUpdateMillis())
+					.name("upMillis").value(System.currentTimeMillis() - startMillis)
+					.endObject().toString();
+		}
+		if (path.equals("/jobs") || path.equals("/jobs/")) {
+			JobQuery query = toQuery(parameters);
+			int limit = parameters.containsKey("limit") ? query.getLimit() : DEFAULT_LIMIT;
+			if (limit > MAX_LIMIT) {
+				throw new IllegalArgumentException(String.format("Limit %s is over %s", limit, MAX_LIMIT));
+			}
+			query.setLimit(limit);
+			boolean config = Boolean.parseBoolean(parameters.get("config"));
+			JsonWriter json = new JsonWriter().beginObject().name("jobs").beginArray();
+			for (HadoopJob hj : store.find(query)) {
+				writeJob(json, hj, config);
+			}
+			return json.endArray().endObject().toString();
+		}
+		if (path.startsWith("/jobs/")) {
+			HadoopJob hj = store.get(path.substring("/jobs/".length()));
+			if (hj == null) {
+				return null;
+			}
+			JsonWriter json = new JsonWriter();
+			writeJob(json, hj, Boolean.parseBoolean(parameters.get("config")));
+			return json.toString();
+		}
+		if (path.equals("/aggregate")) {
+			return aggregate(parameters);
+		}
+		return null;
+	}
+
+	private String aggregate(Map<String, String> parameters) throws IOException {
+		String groupBy = parameters.get("groupBy");
+		List<String> dimensionNames = groupBy == null ? new ArrayList<String>() : split(groupBy);
+		Dimension[] dimensions = new Dimension[dimensionNames.size()];
+		for (int d = 0; d < dimensions.length; d++) {
+			dimensions[d] = toDimension(dimensionNames.get(d));
+		}
+		JobAggregation aggregation = new JobAggregation(dimensions);
+		List<String> columnNames = new ArrayList<String>();
+		aggregation.count();
+		columnNames.add("count");
+		for (Aggregate aggregate : new Aggregate[] {Aggregate.SUM, Aggregate.MIN, Aggregate.MAX}) {
+			String measures = parameters.get(aggregate.name().toLowerCase());
+			if (measures == null) {
+				continue;
+			}
+			for (String measure : split(measures)) {
+				aggregation.add(aggregate, toMeasure(measure));
+				columnNames.add(String.format("%s(%s)", aggregate.name().toLowerCase(), measure));
+			}
+		}
+
+		JobQuery query = toQuery(parameters);
+		int jobs = store.aggregate(query, aggregation);
+
+		JsonWriter json = new JsonWriter().beginObject()
+				.name("jobs").value(jobs)
+				.name("groups").beginArray();
+		for (int group = 0; group < aggregation.getGroupCount(); group++) {
+			json.beginObject().name("key").beginObject();
+			for (int d = 0; d < dimensions.length; d++) {
+				json.name(dimensionNames.get(d)).value(aggregation.getKey(group, d));
+			}
+			json.endObject();
+			for (int c = 0; c < columnNames.size(); c++) {
+				json.name(columnNames.get(c));
+				//a min or max of no value is not 0
+				if (aggregation.getCount(group, c) == 0 && aggregation.getAggregate(c) != Aggregate.SUM) {
+					json.value((String) null);
+				} else {
+					json.value(aggregation.getValue(group, c));
+				}
+			}
+			json.endObject();
+		}
+		return json.endArray().endObject().toString();
+	}
+
+	private static void writeJob(JsonWriter json, HadoopJob hj, boolean config) {
+		json.beginObject().name("fields").beginObject();
+		for (Map.Entry<String, Object> e : hj.getFields().entrySet()) {
+			json.name(e.getKey()).value(e.getValue());
+		}
+		json.endObject().name("counters").beginObject();
+		for (Map.Entry<String, Long> e : hj.getCounters().entrySet()) {
+			json.name(e.getKey()).value(e.getValue().longValue());
+		}
+		json.endObject();
+		if (config) {
+			json.name("config").beginObject();
+			for (Map.Entry<String, String> e : hj.getConfigValues().entrySet()) {
+				json.name(e.getKey()).value(e.getValue());
+			}
+			json.endObject();
+		}
+		json.endObject();
+	}
+
+	/**
+	 * Builds the query of the range, field and limit parameters
+	 * @param parameters
+	 * @return
+	 */
+	static JobQuery toQuery(Map<String, String> parameters) {
+		JobQuery query = new JobQuery();
+		String start = parameters.get("start");
+		String end = parameters.get("end");
+		if (start != null || end != null) {
+			query.setRange(new JobTimeRange(start == null ? 0 : parseTime(start, false),
+					end == null ? Long.MAX_VALUE : parseTime(end, true)));
+		}
+		if (parameters.containsKey("limit")) {
+			query.setLimit(parseInt("limit", parameters.get("limit")));
+		}
+		for (Map.Entry<String, String> e : parameters.entrySet()) {
+			if (PARAMETERS.contains(e.getKey())) {
+				continue;
+			}
+			if (!FIELD_NAME.matcher(e.getKey()).matches()) {
+				throw new IllegalArgumentException(String.format("Unknown parameter %s", e.getKey()));
+			}
+			query.addFieldValue(e.getKey(), e.getValue());
+		}
+		return query;
+	}
+
+	static long parseTime(String value, boolean isEnd) {
+		if (DIGITS.matcher(value).matches()) {
+			return Long.parseLong(value);
+		}
+		try {
+			return JobTimeRange.parseInstant(value, isEnd).toInstant().toEpochMilli();
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(String.format("Invalid time %s", value));
+		}
+	}
+
+	private static int parseInt(String name, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid %s %s", name, value));
+		}
+	}
+
+	static Dimension toDimension(String name) {
+		if (name.startsWith("hour:")) {
+			return Dimension.hourOf(name.substring("hour:".length()));
+		}
+		if (name.startsWith("day:")) {
+			return Dimension.dayOf(name.substring("day:".length()));
+		}
+		if (name.startsWith("config:")) {
+			return Dimension.config(name.substring("config:".length()));
+		}
+		return Dimension.field(name);
+	}
+
+	static Measure toMeasure(String name) {
+		if (name.equals("duration")) {
+			return Measure.duration("SUBMIT_TIME", "FINISH_TIME");
+		}
+		if (name.startsWith("field:")) {
+			return Measure.field(name.substring("field:".length()));
+		}
+		return Measure.counter(name);
+	}
+
+	private static List<String> split(String list) {
+		List<String> names = new ArrayList<String>();
+		for (String name : list.split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Decodes the parameters of a query string, the last value of a repeated parameter wins
+	 * @param rawQuery
+	 * @return
+	 */
+	static Map<String, String> parseQueryString(String rawQuery) {
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		try {
+			for (String pair : rawQuery.split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int eq = pair.indexOf('=');
+				String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+				String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+				parameters.put(name, value);
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return parameters;
+	}
+
+	private static String error(String message) {
+		return new JsonWriter().beginObject().name("error").value(message).endObject().toString();
+	}
+}
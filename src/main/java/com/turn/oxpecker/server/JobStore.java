@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobSink;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The jobs a server answers queries from, by job id
+ *
+ * The store is the sink of the initial load and of the watcher that picks up new jobs. The watcher
+ * hands every job out once, but a job can be accepted again when the initial load and the watcher
+ * overlap, for instance after a restart without a state file; it then replaces the one with the same
+ * id. The jobs are kept in an IndexedJobCollection, queries share a read lock so that they run
+ * concurrently with each other but not with an update. With a retention, flush drops the jobs that
+ * finished longer than the retention ago, and the jobs without a FINISH_TIME that were submitted
+ * longer ago; the watcher flushes its sink after every poll, so the store keeps a sliding window.
+ */
+public class JobStore implements HadoopJobSink, Flushable {
+
+	static Logger LOGGER = Logger.getLogger(JobStore.class);
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final IndexedJobCollection jobs;
+	private long lastUpdateMillis;
+	private long retentionMillis = Long.MAX_VALUE;
+
+	public JobStore() {
+		this(new IndexedJobCollection());
+	}
+
+	public JobStore(IndexedJobCollection jobs) {
+		this.jobs = jobs;
+	}
+
+	/**
+	 * Keeps the jobs that finished less than this ago, or that were submitted less than this ago
+	 * when they have no FINISH_TIME
+	 * @param retentionMillis
+	 */
+	public void setRetentionMillis(long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+	}
+
+	public void accept(HadoopJob hadoopJob) {
+		Object jobId = hadoopJob.getFields().get("JOBID");
+		if (jobId == null) {
+			LOGGER.warn(String.format("Ignoring a job without JOBID : %s", hadoopJob.getFields()));
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			jobs.add(hadoopJob);
+			lastUpdateMillis = System.currentTimeMillis();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops the jobs out of the retention
+	 */
+	public void flush() {
+		if (retentionMillis == Long.MAX_VALUE) {
+			return;
+		}
+		removeBefore(System.currentTimeMillis() - retentionMillis);
+	}
+
+	/**
+	 * Drops the jobs that finished before the given time, and the jobs without a FINISH_TIME
+	 * that were submitted before it
+	 * @param millis
+	 * @return the number of jobs dropped
+	 */
+	public int removeBefore(long millis) {
+		int removed;
+		lock.writeLock().lock();
+		try {
+			removed = jobs.removeBefore(millis);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (removed > 0) {
+			LOGGER.info(String.format("Dropped %s jobs finished, or submitted if not finished, before %s", removed, millis));
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the job with the given id
+	 * @param jobId
+	 * @return null when the store does not have it
+	 */
+	public HadoopJob get(String jobId) {
+		lock.readLock().lock();
+		try {
+			return jobs.get(jobId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the jobs that match the query, in the order they were first accepted
+	 * @param query
+	 * @return
+	 */
+	public List<HadoopJob> find(JobQuery query) {
+		lock.readLock().lock();
+		try {
+			return jobs.find(query);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Hands the jobs that match the query, regardless of its limit, to a sink such as a JobAggregation
+	 * @param query
+	 * @param sink
+	 * @return the number of jobs given to the sink
+	 * @throws IOException
+	 */
+	public int aggregate(JobQuery query, HadoopJobSink sink) throws IOException {
+		lock.readLock().lock();
+		try {
+			return jobs.forEach(query, sink);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return jobs.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns when a job was last accepted
+	 * @return epoch milliseconds, 0 before the first job
+	 */
+	public long getLastUpdateMillis() {
+		lock.readLock().lock();
+		try {
+			return lastUpdateMillis;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
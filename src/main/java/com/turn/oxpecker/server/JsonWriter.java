@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a JSON document into a string, the separators between values are added as they are needed
+ */
+class JsonWriter {
+
+	private final StringBuilder out = new StringBuilder();
+	//whether the object or array being written already has a value, one entry per level
+	private final List<Boolean> hasValue = new ArrayList<Boolean>();
+	private boolean afterName;
+
+	JsonWriter beginObject() {
+		separate();
+		out.append('{');
+		hasValue.add(false);
+		return this;
+	}
+
+	JsonWriter endObject() {
+		hasValue.remove(hasValue.size() - 1);
+		out.append('}');
+		return this;
+	}
+
+	JsonWriter beginArray() {
+		separate();
+		out.append('[');
+		hasValue.add(false);
+		return this;
+	}
+
+	JsonWriter endArray() {
+		hasValue.remove(hasValue.size() - 1);
+		out.append(']');
+		return this;
+	}
+
+	JsonWriter name(String name) {
+		separate();
+		quote(name);
+		out.append(':');
+		afterName = true;
+		return this;
+	}
+
+	JsonWriter value(String value) {
+		separate();
+		if (value == null) {
+			out.append("null");
+		} else {
+			quote(value);
+		}
+		return this;
+	}
+
+	JsonWriter value(long value) {
+		separate();
+		out.append(value);
+		return this;
+	}
+
+	JsonWriter value(double value) {
+		separate();
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append("null");
+		} else {
+			out.append(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes numbers as numbers and anything else as its string
+	 * @param value
+	 * @return
+	 */
+	JsonWriter value(Object value) {
+		if (value instanceof Long || value instanceof Integer) {
+			return value(((Number) value).longValue());
+		}
+		if (value instanceof Double) {
+			return value(((Double) value).doubleValue());
+		}
+		return value(value == null ? null : value.toString());
+	}
+
+	private void separate() {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		int level = hasValue.size() - 1;
+		if (level < 0) {
+			return;
+		}
+		if (hasValue.get(level)) {
+			out.append(',');
+		} else {
+			hasValue.set(level, true);
+		}
+	}
+
+	private void quote(String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return out.toString();
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.snapshot;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import static com.turn.oxpecker.snapshot.SnapshotFormat.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads hadoop jobs back from a snapshot file written by HadoopJobSnapshotWriter
+ *
+ * The file is memory mapped in windows of up to MAP_WINDOW_SIZE bytes so that snapshots larger
+ * than 2GB can be read. A window always starts at a record boundary and is moved forward when
+ * the next record does not fit in it. Keys are read once from the key records and shared by
+ * all jobs read from the snapshot.
+ *
+ * Java has no way to unmap a buffer, a window stays mapped until it is garbage collected, also
+ * after close. Reading a large snapshot may thus keep a few windows of address space mapped for a
+ * while, and on Windows the snapshot file cannot be deleted or replaced until they are collected.
+ */
+public class HadoopJobSnapshotReader implements Iterator<HadoopJob>, Closeable {
+
+	static Logger LOGGER = Logger.getLogger(HadoopJobSnapshotReader.class);
+
+	static final long MAP_WINDOW_SIZE = 256L << 20;
+
+	private final File snapshotFile;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final long windowSize;
+	private final List<String> keys = new ArrayList<String>();
+	private byte[] scratch = new byte[1024];
+
+	private ByteBuffer window;
+	private long windowStart;
+	private HadoopJob nextJob;
+	private boolean nullableConfigValues;
+
+	public HadoopJobSnapshotReader(File snapshotFile) throws IOException {
+		this(snapshotFile, MAP_WINDOW_SIZE);
+	}
+
+	HadoopJobSnapshotReader(File snapshotFile, long windowSize) throws IOException {
+		this.snapshotFile = snapshotFile;
+		this.file = new RandomAccessFile(snapshotFile, "r");
+		this.channel = file.getChannel();
+		this.fileLength = channel.size();
+		this.windowSize = windowSize;
+		try {
+			if (fileLength < FILE_HEADER_LENGTH) {
+				throw new IOException(String.format("%s is too short to be a snapshot", snapshotFile));
+			}
+			map(0, FILE_HEADER_LENGTH);
+			int magic = window.getInt();
+			int version = window.getInt();
+			if (magic != MAGIC || (version != VERSION && version != PLAIN_CONFIG_VALUES_VERSION)) {
+				throw new IOException(String.format("%s is not a version %d snapshot", snapshotFile, VERSION));
+			}
+			nullableConfigValues = version != PLAIN_CONFIG_VALUES_VERSION;
+			windowStart = FILE_HEADER_LENGTH;
+			window = null;
+			nextJob = readNextJob();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads all jobs from a snapshot file
+	 * @param snapshotFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<HadoopJob> readAll(File snapshotFile) throws IOException {
+		List<HadoopJob> hadoopJobs = new ArrayList<HadoopJob>();
+		HadoopJobSnapshotReader reader = new HadoopJobSnapshotReader(snapshotFile);
+		try {
+			while (reader.hasNext()) {
+				hadoopJobs.add(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		LOGGER.info(String.format("Read %d jobs from snapshot %s", hadoopJobs.size(), snapshotFile));
+		return hadoopJobs;
+	}
+
+	public boolean hasNext() {
+		return nextJob != null;
+	}
+
+	public HadoopJob next() {
+		if (nextJob == null) {
+			throw new NoSuchElementException();
+		}
+		HadoopJob hadoopJob = nextJob;
+		try {
+			nextJob = readNextJob();
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed reading snapshot %s", snapshotFile), e);
+		}
+		return hadoopJob;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Closes the file, the current window is only unmapped once it is garbage collected
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	private HadoopJob readNextJob() throws IOException {
+		while (true) {
+			long recordStart = position();
+			if (recordStart >= fileLength) {
+				return null;
+			}
+			if (recordStart + RECORD_HEADER_LENGTH > fileLength) {
+				throw new IOException(String.format("Truncated record at offset %d in %s", recordStart, snapshotFile));
+			}
+			ensureMapped(recordStart, RECORD_HEADER_LENGTH);
+			byte type = window.get();
+			int length = window.getInt();
+			if (length < 0 || recordStart + RECORD_HEADER_LENGTH + length > fileLength) {
+				throw new IOException(String.format("Truncated record at offset %d in %s", recordStart, snapshotFile));
+			}
+			ensureMapped(recordStart, RECORD_HEADER_LENGTH + length);
+			window.position((int) (recordStart - windowStart) + RECORD_HEADER_LENGTH);
+			int payloadEnd = window.position() + length;
+			try {
+				if (type == KEY_RECORD) {
+					keys.add(readString(window, scratch).intern());
+				} else if (type == JOB_RECORD) {
+					HadoopJob hadoopJob = readJob();
+					if (window.position() != payloadEnd) {
+						throw new IOException(String.format("Corrupt job record at offset %d in %s", recordStart, snapshotFile));
+					}
+					return hadoopJob;
+				} else {
+					throw new IOException(String.format("Unknown record type %d at offset %d in %s", type, recordStart, snapshotFile));
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IOException(String.format("Corrupt record at offset %d in %s", recordStart, snapshotFile));
+			}
+			window.position(payloadEnd);
+		}
+	}
+
+	private HadoopJob readJob() throws IOException {
+		HadoopJob hadoopJob = new HadoopJob();
+		int fields = readVarInt(window);
+		for (int i = 0; i < fields; i++) {
+			String key = getKey(readVarInt(window));
+			hadoopJob.addField(key, readFieldValue());
+		}
+		int counters = readVarInt(window);
+		for (int i = 0; i < counters; i++) {
+			String key = getKey(readVarInt(window));
+			hadoopJob.addCounter(key, readZigZagLong(window));
+		}
+		int configValues = readVarInt(window);
+		for (int i = 0; i < configValues; i++) {
+			String key = getKey(readVarInt(window));
+			hadoopJob.addConfigValue(key, nullableConfigValues ? readNullableString(window, scratch) : readString(window, scratch));
+		}
+		hadoopJob.compact();
+		return hadoopJob;
+	}
+
+	private Object readFieldValue() throws IOException {
+		byte type = window.get();
+		switch (type) {
+			case NULL_VALUE:
+				return null;
+			case STRING_VALUE:
+				return readString(window, scratch);
+			case LONG_VALUE:
+				return readZigZagLong(window);
+			case INTEGER_VALUE:
+				return (int) readZigZagLong(window);
+			case DOUBLE_VALUE:
+				return Double.longBitsToDouble(readVarLong(window));
+			case BOOLEAN_VALUE:
+				return window.get() != 0;
+			default:
+				throw new IOException(String.format("Unknown field type %s", type));
+		}
+	}
+
+	private String getKey(int id) throws IOException {
+		if (id < 0 || id >= keys.size()) {
+			throw new IOException(String.format("Unknown key id %d in %s", id, snapshotFile));
+		}
+		return keys.get(id);
+	}
+
+	private long position() {
+		return window == null ? windowStart : windowStart + window.position();
+	}
+
+	/**
+	 * Makes sure length bytes starting at offset are in the current window, offset has to be a
+	 * record boundary
+	 */
+	private void ensureMapped(long offset, int length) throws IOException {
+		if (window != null && offset >= windowStart && offset + length <= windowStart + window.limit()) {
+			window.position((int) (offset - windowStart));
+			return;
+		}
+		map(offset, Math.max(length, Math.min(windowSize, fileLength - offset)));
+	}
+
+	private void map(long offset, long length) throws IOException {
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		windowStart = offset;
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.snapshot;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobSink;
+import static com.turn.oxpecker.snapshot.SnapshotFormat.*;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes hadoop jobs to a snapshot file, see SnapshotFormat for the layout
+ */
+public class HadoopJobSnapshotWriter implements HadoopJobSink, Flushable, Closeable {
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+	private final PayloadBuffer payload = new PayloadBuffer();
+	private long jobCount;
+
+	public HadoopJobSnapshotWriter(File snapshotFile) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	public synchronized void accept(HadoopJob hadoopJob) throws IOException {
+		//key records have to be written before the job that refers to them
+		Map<String, Object> fields = hadoopJob.getFields();
+		Map<String, Long> counters = hadoopJob.getCounters();
+		Map<String, String> configValues = hadoopJob.getConfigValues();
+
+		payload.reset();
+		payload.writeVarInt(fields.size());
+		for (Map.Entry<String, Object> e : fields.entrySet()) {
+			payload.writeVarInt(getKeyId(e.getKey()));
+			writeFieldValue(e.getValue());
+		}
+		payload.writeVarInt(counters.size());
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			payload.writeVarInt(getKeyId(e.getKey()));
+			payload.writeZigZagLong(e.getValue());
+		}
+		payload.writeVarInt(configValues.size());
+		for (Map.Entry<String, String> e : configValues.entrySet()) {
+			payload.writeVarInt(getKeyId(e.getKey()));
+			payload.writeNullableString(e.getValue());
+		}
+
+		out.writeByte(JOB_RECORD);
+		out.writeInt(payload.length);
+		out.write(payload.bytes, 0, payload.length);
+		jobCount++;
+	}
+
+	private void writeFieldValue(Object value) {
+		if (value == null) {
+			payload.writeByte(NULL_VALUE);
+		} else if (value instanceof Long) {
+			payload.writeByte(LONG_VALUE);
+			payload.writeZigZagLong((Long) value);
+		} else if (value instanceof Integer) {
+			payload.writeByte(INTEGER_VALUE);
+			payload.writeZigZagLong((Integer) value);
+		} else if (value instanceof Double) {
+			payload.writeByte(DOUBLE_VALUE);
+			payload.writeVarLong(Double.doubleToLongBits((Double) value));
+		} else if (value instanceof Boolean) {
+			payload.writeByte(BOOLEAN_VALUE);
+			payload.writeByte((Boolean) value ? 1 : 0);
+		} else {
+			payload.writeByte(STRING_VALUE);
+			payload.writeString(value.toString());
+		}
+	}
+
+	private int getKeyId(String key) throws IOException {
+		Integer id = keyIds.get(key);
+		if (id == null) {
+			id = keyIds.size();
+			keyIds.put(key, id);
+			byte[] bytes = key.getBytes(UTF8);
+			PayloadBuffer keyPayload = new PayloadBuffer();
+			keyPayload.writeVarInt(bytes.length);
+			keyPayload.write(bytes);
+			out.writeByte(KEY_RECORD);
+			out.writeInt(keyPayload.length);
+			out.write(keyPayload.bytes, 0, keyPayload.length);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the number of jobs written so far
+	 * @return
+	 */
+	public synchronized long getJobCount() {
+		return jobCount;
+	}
+
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Growable byte buffer with varint encoding
+	 */
+	private static final class PayloadBuffer {
+		private byte[] bytes = new byte[4096];
+		private int length;
+
+		void reset() {
+			length = 0;
+		}
+
+		void writeByte(int b) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) b;
+		}
+
+		void write(byte[] b) {
+			ensureCapacity(b.length);
+			System.arraycopy(b, 0, bytes, length, b.length);
+			length += b.length;
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeZigZagLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeString(String s) {
+			byte[] b = s.getBytes(UTF8);
+			writeVarInt(b.length);
+			write(b);
+		}
+
+		void writeNullableString(String s) {
+			if (s == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] b = s.getBytes(UTF8);
+			writeVarInt(b.length + 1);
+			write(b);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra > bytes.length) {
+				byte[] grown = new byte[Math.max(bytes.length * 2, length + extra)];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of oxpecker snapshot files.
+ *
+ * A snapshot starts with MAGIC and VERSION as two ints, followed by records. Every record is
+ * a record type byte, the length of its payload as an int and the payload:
+ * <ul>
+ * <li>KEY_RECORD: a string that gets the next key id, starting at 0. Field names, counter names
+ * and config keys are written once as key records and referred to by id afterwards.</li>
+ * <li>JOB_RECORD: the fields as a count and (key id, value type, value) entries, the counters
+ * as a count and (key id, value) entries, the config values as a count and (key id, nullable string) entries.</li>
+ * </ul>
+ * Counts, key ids and lengths inside payloads are unsigned varints, counter values are zigzag
+ * varints and strings are a varint length followed by UTF-8 bytes. A nullable string is a varint
+ * of its length plus one followed by UTF-8 bytes, 0 for null. Version 1 snapshots wrote config
+ * values as strings, with null written as an empty string, they are still read.
+ */
+final class SnapshotFormat {
+
+	static final int MAGIC = 0x4f585053; //OXPS
+	static final int VERSION = 2;
+	static final int PLAIN_CONFIG_VALUES_VERSION = 1;
+
+	static final byte KEY_RECORD = 'K';
+	static final byte JOB_RECORD = 'J';
+
+	static final byte NULL_VALUE = 0;
+	static final byte STRING_VALUE = 1;
+	static final byte LONG_VALUE = 2;
+	static final byte INTEGER_VALUE = 3;
+	static final byte DOUBLE_VALUE = 4;
+	static final byte BOOLEAN_VALUE = 5;
+
+	/** record type byte and payload length */
+	static final int RECORD_HEADER_LENGTH = 5;
+	static final int FILE_HEADER_LENGTH = 8;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private SnapshotFormat() {
+	}
+
+	static int readVarInt(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in snapshot");
+	}
+
+	static long readVarLong(ByteBuffer in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in snapshot");
+	}
+
+	static long readZigZagLong(ByteBuffer in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static String readString(ByteBuffer in, byte[] scratch) throws IOException {
+		return readString(in, scratch, readVarInt(in));
+	}
+
+	static String readNullableString(ByteBuffer in, byte[] scratch) throws IOException {
+		int lengthPlusOne = readVarInt(in);
+		return lengthPlusOne == 0 ? null : readString(in, scratch, lengthPlusOne - 1);
+	}
+
+	private static String readString(ByteBuffer in, byte[] scratch, int length) {
+		byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+		in.get(bytes, 0, length);
+		return new String(bytes, 0, length, UTF8);
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.testing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.threeten.bp.Instant;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.format.DateTimeFormatter;
+
+/**
+ * Writes a jobtracker history tree of made up jobs for benchmarks and scale tests
+ *
+ * The layout is the one of a MR1 jobtracker, &lt;host&gt;_&lt;start millis&gt;_/yyyy/MM/dd/&lt;bucket&gt;/ with a
+ * statistics file and a _conf.xml file per job and 1000 jobs per bucket. Statistics files have
+ * the Task, MapAttempt and ReduceAttempt lines of every task, one map in ten fails its first
+ * attempt. A few config properties and counters differ per job, the others are the same for
+ * every job like in a real cluster. The output is the same for the same seed.
+ */
+public class SyntheticJobHistoryGenerator {
+
+	static Logger LOGGER = Logger.getLogger(SyntheticJobHistoryGenerator.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final DateTimeFormatter dateDirectoryFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+	private static final DateTimeFormatter jobTrackerIdFormatter = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	private static final int JOBS_PER_BUCKET = 1000;
+	private static final int COUNTERS_PER_GROUP = 10;
+	private static final String[] USERS = {"jshum", "jzhang", "etl", "reporting"};
+	private static final String[] QUEUES = {"default", "etl", "adhoc"};
+
+	private final File baseDir;
+	private String jobTrackerHost = "jt001.synthetic.turn.com";
+	private long jobTrackerStartMillis = 1430000000000L;
+	private ZoneId zone = ZoneId.systemDefault();
+	private int jobsPerDay = 1000;
+	private int mapsPerJob = 20;
+	private int reducesPerJob = 5;
+	private int countersPerJob = 40;
+	private int propertiesPerConf = 300;
+	private Random random = new Random(42);
+	private int nextJobSequence = 1;
+
+	public SyntheticJobHistoryGenerator(File baseDir) {
+		this.baseDir = baseDir;
+	}
+
+	public void setJobTrackerHost(String jobTrackerHost) {
+		this.jobTrackerHost = jobTrackerHost;
+	}
+
+	public void setJobTrackerStartMillis(long jobTrackerStartMillis) {
+		this.jobTrackerStartMillis = jobTrackerStartMillis;
+	}
+
+	public void setZone(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	public void setJobsPerDay(int jobsPerDay) {
+		this.jobsPerDay = jobsPerDay;
+	}
+
+	public void setMapsPerJob(int mapsPerJob) {
+		this.mapsPerJob = mapsPerJob;
+	}
+
+	public void setReducesPerJob(int reducesPerJob) {
+		this.reducesPerJob = reducesPerJob;
+	}
+
+	public void setCountersPerJob(int countersPerJob) {
+		this.countersPerJob = countersPerJob;
+	}
+
+	public void setPropertiesPerConf(int propertiesPerConf) {
+		this.propertiesPerConf = propertiesPerConf;
+	}
+
+	public void setSeed(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Returns the jobtracker instance directory the files are written to
+	 * @return
+	 */
+	public File getInstanceDirectory() {
+		return new File(baseDir, String.format("%s_%s_", jobTrackerHost, jobTrackerStartMillis));
+	}
+
+	/**
+	 * Writes the jobs of consecutive days
+	 * @param firstDay
+	 * @param days
+	 * @return the date directories
+	 * @throws IOException
+	 */
+	public List<File> generate(LocalDate firstDay, int days) throws IOException {
+		List<File> dateDirectories = new ArrayList<File>(days);
+		for (int i = 0; i < days; i++) {
+			dateDirectories.add(generate(firstDay.plusDays(i)));
+		}
+		return dateDirectories;
+	}
+
+	/**
+	 * Writes the jobs of one day, submit times are spread evenly over the day
+	 * @param day
+	 * @return the date directory
+	 * @throws IOException
+	 */
+	public File generate(LocalDate day) throws IOException {
+		File dateDirectory = new File(getInstanceDirectory(), day.format(dateDirectoryFormatter));
+		long dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+		String jobTrackerId = Instant.ofEpochMilli(jobTrackerStartMillis).atZone(zone).format(jobTrackerIdFormatter);
+		for (int i = 0; i < jobsPerDay; i++) {
+			int sequence = nextJobSequence++;
+			File bucket = new File(dateDirectory, String.format("%06d", sequence / JOBS_PER_BUCKET));
+			if (!bucket.isDirectory() && !bucket.mkdirs()) {
+				throw new IOException(String.format("Could not create %s", bucket));
+			}
+			String jobId = String.format("job_%s_%04d", jobTrackerId, sequence);
+			long submitTime = dayStart + i * (DAY_MILLIS / jobsPerDay);
+			writeJob(bucket, jobId, sequence, submitTime);
+		}
+		LOGGER.info(String.format("Wrote %s jobs to %s", jobsPerDay, dateDirectory));
+		return dateDirectory;
+	}
+
+	private void writeJob(File bucket, String jobId, int sequence, long submitTime) throws IOException {
+		String user = USERS[sequence % USERS.length];
+		String queue = QUEUES[sequence % QUEUES.length];
+		String jobName = String.format("synthetic-%s", sequence % 50);
+		File statsFile = new File(bucket, String.format("%s_%s_%s_%s", jobId, submitTime, user, jobName));
+		File confFile = new File(bucket, String.format("%s_conf.xml", jobId));
+
+		Writer out = open(confFile);
+		try {
+			writeConf(out, jobId, user, queue, jobName);
+		} finally {
+			out.close();
+		}
+		out = open(statsFile);
+		long finishTime;
+		try {
+			finishTime = writeStats(out, jobId, user, queue, jobName, submitTime);
+		} finally {
+			out.close();
+		}
+		//a jobtracker writes the last record of the statistics file when the job finishes
+		statsFile.setLastModified(finishTime);
+	}
+
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), 1 << 16);
+	}
+
+	private void writeConf(Writer out, String jobId, String user, String queue, String jobName) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><configuration>\n");
+		writeProperty(out, "mapred.job.name", jobName);
+		writeProperty(out, "user.name", user);
+		writeProperty(out, "mapred.job.queue.name", queue);
+		writeProperty(out, "mapred.map.tasks", String.valueOf(mapsPerJob));
+		writeProperty(out, "mapred.reduce.tasks", String.valueOf(reducesPerJob));
+		writeProperty(out, "mapred.input.dir", String.format("hdfs://nn001.synthetic.turn.com:8020/data/%s/input", jobId));
+		writeProperty(out, "mapred.output.dir", String.format("hdfs://nn001.synthetic.turn.com:8020/data/%s/output", jobId));
+		for (int i = 7; i < propertiesPerConf; i++) {
+			//one property in twenty differs per job
+			String value = i % 20 == 0 ? String.format("%s-%s", i, random.nextInt(1000)) : String.format("default-%s & <%s>", i, i % 7);
+			writeProperty(out, String.format("synthetic.property.%s", i), value);
+		}
+		out.write("</configuration>\n");
+	}
+
+	private static void writeProperty(Writer out, String name, String value) throws IOException {
+		out.write("<property><!--Loaded from job.xml--><name>");
+		out.write(escapeXml(name));
+		out.write("</name><value>");
+		out.write(escapeXml(value));
+		out.write("</value><source>job.xml</source></property>\n");
+	}
+
+	private long writeStats(Writer out, String jobId, String user, String queue, String jobName, long submitTime) throws IOException {
+		String taskPrefix = jobId.replace("job_", "task_");
+		String attemptPrefix = jobId.replace("job_", "attempt_");
+		long launchTime = submitTime + 1000;
+		long time = launchTime;
+
+		out.write("Meta VERSION=\"1\" .\n");
+		writeRecord(out, "Job", "JOBID", jobId, "JOBNAME", jobName, "USER", user, "SUBMIT_TIME", String.valueOf(submitTime),
+				"JOBCONF", String.format("hdfs://nn001.synthetic.turn.com:8020/user/%s/.staging/%s/job.xml", user, jobId),
+				"JOB_QUEUE", queue);
+		writeRecord(out, "Job", "JOBID", jobId, "JOB_PRIORITY", "NORMAL");
+		writeRecord(out, "Job", "JOBID", jobId, "LAUNCH_TIME", String.valueOf(launchTime),
+				"TOTAL_MAPS", String.valueOf(mapsPerJob), "TOTAL_REDUCES", String.valueOf(reducesPerJob), "JOB_STATUS", "PREP");
+
+		int failedMaps = 0;
+		for (int m = 0; m < mapsPerJob; m++) {
+			String taskId = String.format("%s_m_%06d", taskPrefix, m);
+			int attempt = 0;
+			long start = time + random.nextInt(1000);
+			writeRecord(out, "Task", "TASKID", taskId, "TASK_TYPE", "MAP", "START_TIME", String.valueOf(start),
+					"SPLITS", String.format("/default-rack/dn%03d.synthetic.turn.com", m % 100));
+			if (m % 10 == 9) {
+				String attemptId = String.format("%s_m_%06d_%s", attemptPrefix, m, attempt++);
+				writeAttemptStart(out, "MapAttempt", "MAP", taskId, attemptId, start, m);
+				start += 2000 + random.nextInt(3000);
+				writeRecord(out, "MapAttempt", "TASK_TYPE", "MAP", "TASKID", taskId, "TASK_ATTEMPT_ID", attemptId,
+						"TASK_STATUS", "FAILED", "FINISH_TIME", String.valueOf(start), "HOSTNAME", host(m),
+						"ERROR", "java.lang.RuntimeException: synthetic failure\n\tat com.turn.Synthetic.map(Synthetic.java:42)\n");
+				failedMaps++;
+			}
+			String attemptId = String.format("%s_m_%06d_%s", attemptPrefix, m, attempt);
+			writeAttemptStart(out, "MapAttempt", "MAP", taskId, attemptId, start, m + 1);
+			long finish = start + 5000 + random.nextInt(60000);
+			String counters = taskCounters("MAP");
+			writeRecord(out, "MapAttempt", "TASK_TYPE", "MAP", "TASKID", taskId, "TASK_ATTEMPT_ID", attemptId,
+					"TASK_STATUS", "SUCCESS", "FINISH_TIME", String.valueOf(finish), "HOSTNAME", "/default-rack/" + host(m + 1),
+					"STATE_STRING", "", "COUNTERS", counters);
+			writeRecord(out, "Task", "TASKID", taskId, "TASK_TYPE", "MAP", "TASK_STATUS", "SUCCESS",
+					"FINISH_TIME", String.valueOf(finish + 500), "COUNTERS", counters);
+			time = Math.max(time, finish);
+		}
+		for (int r = 0; r < reducesPerJob; r++) {
+			String taskId = String.format("%s_r_%06d", taskPrefix, r);
+			String attemptId = String.format("%s_r_%06d_0", attemptPrefix, r);
+			long start = time + random.nextInt(1000);
+			writeRecord(out, "Task", "TASKID", taskId, "TASK_TYPE", "REDUCE", "START_TIME", String.valueOf(start), "SPLITS", "");
+			writeAttemptStart(out, "ReduceAttempt", "REDUCE", taskId, attemptId, start, r);
+			long shuffle = start + 5000 + random.nextInt(30000);
+			long sort = shuffle + 1000 + random.nextInt(5000);
+			long finish = sort + 5000 + random.nextInt(60000);
+			String counters = taskCounters("REDUCE");
+			writeRecord(out, "ReduceAttempt", "TASK_TYPE", "REDUCE", "TASKID", taskId, "TASK_ATTEMPT_ID", attemptId,
+					"TASK_STATUS", "SUCCESS", "SHUFFLE_FINISHED", String.valueOf(shuffle), "SORT_FINISHED", String.valueOf(sort),
+					"FINISH_TIME", String.valueOf(finish), "HOSTNAME", "/default-rack/" + host(r),
+					"STATE_STRING", "reduce > reduce", "COUNTERS", counters);
+			writeRecord(out, "Task", "TASKID", taskId, "TASK_TYPE", "REDUCE", "TASK_STATUS", "SUCCESS",
+					"FINISH_TIME", String.valueOf(finish + 500), "COUNTERS", counters);
+			time = Math.max(time, finish);
+		}
+
+		writeRecord(out, "Job", "JOBID", jobId, "FINISH_TIME", String.valueOf(time + 1000), "JOB_STATUS", "SUCCESS",
+				"FINISHED_MAPS", String.valueOf(mapsPerJob), "FINISHED_REDUCES", String.valueOf(reducesPerJob),
+				"FAILED_MAPS", String.valueOf(failedMaps), "FAILED_REDUCES", "0",
+				"MAP_COUNTERS", taskCounters("MAP"), "REDUCE_COUNTERS", taskCounters("REDUCE"),
+				"COUNTERS", jobCounters(failedMaps));
+		return time + 1000;
+	}
+
+	private void writeAttemptStart(Writer out, String recordType, String taskType, String taskId, String attemptId, long start, int hostIndex) throws IOException {
+		writeRecord(out, recordType, "TASK_TYPE", taskType, "TASKID", taskId, "TASK_ATTEMPT_ID", attemptId,
+				"START_TIME", String.valueOf(start),
+				"TRACKER_NAME", String.format("tracker_%s:localhost/127.0.0.1:%s", host(hostIndex), 40000 + hostIndex % 100),
+				"HTTP_PORT", "50060");
+	}
+
+	private static String host(int index) {
+		return String.format("dn%03d.synthetic.turn.com", index % 100);
+	}
+
+	private String taskCounters(String taskType) {
+		StringBuilder sb = new StringBuilder();
+		appendGroup(sb, "FileSystemCounters", "FileSystemCounters",
+				new String[] {"HDFS_BYTES_READ", "FILE_BYTES_WRITTEN"}, 2);
+		appendGroup(sb, "org.apache.hadoop.mapred.Task", "Map-Reduce Framework",
+				new String[] {taskType + "_INPUT_RECORDS", taskType + "_OUTPUT_RECORDS", "SPILLED_RECORDS"}, 3);
+		return sb.toString();
+	}
+
+	private String jobCounters(int failedMaps) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{(org.apache.hadoop.mapred.JobInProgress)(Job Counters )");
+		appendCounter(sb, "TOTAL_LAUNCHED_MAPS", "Launched map tasks", mapsPerJob + failedMaps);
+		appendCounter(sb, "TOTAL_LAUNCHED_REDUCES", "Launched reduce tasks", reducesPerJob);
+		appendCounter(sb, "NUM_FAILED_MAPS", "Failed map tasks", failedMaps);
+		sb.append('}');
+		for (int group = 0; group * COUNTERS_PER_GROUP < countersPerJob; group++) {
+			sb.append(String.format("{(com.turn.synthetic.Group%s)(Synthetic group %s)", group, group));
+			for (int c = group * COUNTERS_PER_GROUP; c < Math.min(countersPerJob, (group + 1) * COUNTERS_PER_GROUP); c++) {
+				appendCounter(sb, String.format("COUNTER_%s", c), String.format("Counter %s", c), random.nextInt(1 << 20));
+			}
+			sb.append('}');
+		}
+		return sb.toString();
+	}
+
+	private void appendGroup(StringBuilder sb, String group, String displayName, String[] names, int count) {
+		sb.append('{').append('(').append(group).append(")(").append(displayName).append(')');
+		for (int i = 0; i < count; i++) {
+			appendCounter(sb, names[i], names[i], random.nextInt(1 << 24));
+		}
+		sb.append('}');
+	}
+
+	private static void appendCounter(StringBuilder sb, String name, String displayName, long value) {
+		sb.append("[(").append(name).append(")(").append(displayName).append(")(").append(value).append(")]");
+	}
+
+	/**
+	 * Writes a history record, keysAndValues holds key value pairs
+	 */
+	private static void writeRecord(Writer out, String recordType, String... keysAndValues) throws IOException {
+		out.write(recordType);
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			out.write(' ');
+			out.write(keysAndValues[i]);
+			out.write("=\"");
+			out.write(escapeHistoryValue(keysAndValues[i + 1]));
+			out.write('"');
+		}
+		out.write(" .\n");
+	}
+
+	/**
+	 * Escapes the characters JobHistory escapes in values
+	 */
+	static String escapeHistoryValue(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 16);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '.' || c == '"' || c == '=') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	static String escapeXml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4 || args.length > 8) {
+			System.out.println("usage : SyntheticJobHistoryGenerator " +
+					"<output directory> <first date YYYY-MM-DD> <days> <jobs per day> " +
+					"[maps per job] [reduces per job] [counters per job] [properties per conf]");
+			return;
+		}
+		SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(new File(args[0]));
+		generator.setJobsPerDay(Integer.parseInt(args[3]));
+		if (args.length > 4) {
+			generator.setMapsPerJob(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5) {
+			generator.setReducesPerJob(Integer.parseInt(args[5]));
+		}
+		if (args.length > 6) {
+			generator.setCountersPerJob(Integer.parseInt(args[6]));
+		}
+		if (args.length > 7) {
+			generator.setPropertiesPerConf(Integer.parseInt(args[7]));
+		}
+		generator.generate(LocalDate.parse(args[1]), Integer.parseInt(args[2]));
+	}
+}
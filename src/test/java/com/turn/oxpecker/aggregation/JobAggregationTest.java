@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.aggregation;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobHistoryFileParser;
+import com.turn.oxpecker.reader.HadoopJobSink;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+public class JobAggregationTest {
+
+	@Test
+	public static void testRollsUpJobsAsTheyAreParsed() throws IOException {
+		File baseDir = File.createTempFile("oxpecker", "aggregation");
+		baseDir.delete();
+		try {
+			SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(baseDir);
+			generator.setJobsPerDay(48);
+			generator.setMapsPerJob(2);
+			generator.setReducesPerJob(1);
+			generator.setPropertiesPerConf(10);
+			generator.setCountersPerJob(5);
+			LocalDate day = LocalDate.of(2015, 6, 1);
+			File instanceDir = generator.getInstanceDirectory();
+			generator.generate(day);
+
+			final JobAggregation byQueueAndHour = new JobAggregation(Dimension.field("JOB_QUEUE"), Dimension.hourOf("SUBMIT_TIME"));
+			final int jobs = byQueueAndHour.count();
+			final int counterSum = byQueueAndHour.add(Aggregate.SUM, Measure.counter("COUNTER_0"));
+			final int minMaps = byQueueAndHour.add(Aggregate.MIN, Measure.field("TOTAL_MAPS"));
+			final int maxDuration = byQueueAndHour.add(Aggregate.MAX, Measure.duration("SUBMIT_TIME", "FINISH_TIME"));
+			final int missing = byQueueAndHour.add(Aggregate.MAX, Measure.counter("NO_SUCH_COUNTER"));
+			final JobAggregation failedByName = new JobAggregation(Dimension.field("JOBNAME"));
+			failedByName.setFilter(JobFilter.fieldEquals("JOB_STATUS", "FAILED"));
+			failedByName.count();
+			final List<HadoopJob> parsed = new ArrayList<HadoopJob>();
+
+			ZonedDateTime start = day.atStartOfDay(ZoneId.systemDefault());
+			HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(1), instanceDir.getAbsolutePath(), "jt", new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) throws IOException {
+					byQueueAndHour.accept(hadoopJob);
+					failedByName.accept(hadoopJob);
+					parsed.add(hadoopJob);
+				}
+			});
+			Assert.assertEquals(parsed.size(), 48);
+			Assert.assertEquals(failedByName.getGroupCount(), 0);
+
+			//3 queues, jobs every half hour
+			Assert.assertEquals(byQueueAndHour.getGroupCount(), 48);
+			long totalJobs = 0;
+			long totalCounterSum = 0;
+			for (int group = 0; group < byQueueAndHour.getGroupCount(); group++) {
+				totalJobs += byQueueAndHour.getValue(group, jobs);
+				totalCounterSum += byQueueAndHour.getValue(group, counterSum);
+				Assert.assertEquals(byQueueAndHour.getValue(group, minMaps), 2);
+				Assert.assertEquals(byQueueAndHour.getCount(group, missing), 0);
+				Assert.assertEquals(byQueueAndHour.getGroup(byQueueAndHour.getKey(group).toArray()), group);
+			}
+			Assert.assertEquals(totalJobs, 48);
+
+			long expectedCounterSum = 0;
+			for (HadoopJob hj : parsed) {
+				expectedCounterSum += hj.getCounter("COUNTER_0", 0);
+				long submitTime = Long.parseLong(hj.getFields().get("SUBMIT_TIME").toString());
+				long finishTime = Long.parseLong(hj.getFields().get("FINISH_TIME").toString());
+				int group = byQueueAndHour.getGroup(hj.getFields().get("JOB_QUEUE"), submitTime - submitTime % Dimension.HOUR_MILLIS);
+				Assert.assertTrue(group >= 0);
+				Assert.assertTrue(byQueueAndHour.getValue(group, maxDuration) >= finishTime - submitTime);
+			}
+			Assert.assertEquals(totalCounterSum, expectedCounterSum);
+			Assert.assertTrue(expectedCounterSum > 0);
+			Assert.assertEquals(byQueueAndHour.getGroup("no-such-queue", 0L), -1);
+			Assert.assertEquals(byQueueAndHour.getResults().size(), 48);
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.export;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZoneId;
+
+public class ColumnarExportSinkTest {
+
+	private static final long JUNE_1 = 1433116800000L;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private static HadoopJob job(int i, String jobTracker, long submitTime) {
+		HadoopJob hj = new HadoopJob();
+		hj.addField("JOBID", String.format("job_201506010000_%04d", i));
+		hj.addField("JOBNAME", "wordcount é " + i);
+		hj.addField("JOB_TRACKER", jobTracker);
+		hj.addField("SUBMIT_TIME", String.valueOf(submitTime));
+		if (i % 3 != 0) {
+			hj.addField("TOTAL_MAPS", String.valueOf(i));
+		}
+		hj.addCounter("HDFS_BYTES_READ", 1000L * i);
+		if (i % 2 == 0) {
+			hj.addCounter("SPILLED_RECORDS", -i);
+		}
+		if (i % 5 != 0) {
+			hj.addConfigValue("mapred.job.name", "wordcount " + i);
+			hj.addConfigValue("mapred.reduce.tasks", String.valueOf(i));
+		}
+		return hj;
+	}
+
+	@Test
+	public static void testWritesPartitionedParquetFiles() throws IOException {
+		File exportDir = File.createTempFile("oxpecker", "export");
+		exportDir.delete();
+		try {
+			Map<String, ColumnType> fields = new LinkedHashMap<String, ColumnType>();
+			fields.put("JOBID", ColumnType.STRING);
+			fields.put("JOBNAME", ColumnType.STRING);
+			fields.put("SUBMIT_TIME", ColumnType.TIMESTAMP);
+			fields.put("TOTAL_MAPS", ColumnType.LONG);
+			ColumnarExportSink sink = new ColumnarExportSink(exportDir, fields, Arrays.asList("HDFS_BYTES_READ", "SPILLED_RECORDS"));
+			sink.setZone(ZoneId.of("UTC"));
+			sink.setCompressed(false);
+			for (int i = 0; i < 40; i++) {
+				sink.accept(job(i, i < 30 ? "jt1" : "jt/2", JUNE_1 + (i % 2) * DAY + i));
+			}
+			//the jobs after a flush go to new part files
+			sink.flush();
+			sink.accept(job(40, "jt1", JUNE_1));
+			sink.close();
+			Assert.assertEquals(sink.getJobCount(), 41);
+
+			File june1 = new File(exportDir, "date=2015-06-01/jobtracker=jt1/part-00000.parquet");
+			File june2 = new File(exportDir, "date=2015-06-02/jobtracker=jt1/part-00000.parquet");
+			File june1jt2 = new File(exportDir, "date=2015-06-01/jobtracker=jt_2/part-00000.parquet");
+			File afterFlush = new File(exportDir, "date=2015-06-01/jobtracker=jt1/part-00001.parquet");
+			Assert.assertEquals(sink.getWrittenFiles().size(), 5);
+			Assert.assertTrue(sink.getWrittenFiles().containsAll(Arrays.asList(june1, june2, june1jt2, afterFlush)));
+			Assert.assertEquals(june1.getParentFile().list().length, 2);
+
+			Map<Integer, Object> footer = readFooter(june1);
+			Assert.assertEquals(footer.get(3), 15L);
+			List<String> names = new ArrayList<String>();
+			for (Object element : (List<?>) footer.get(2)) {
+				names.add((String) ((Map<?, ?>) element).get(4));
+			}
+			Assert.assertEquals(names, Arrays.asList("schema", "JOBID", "JOBNAME", "SUBMIT_TIME", "TOTAL_MAPS",
+					"HDFS_BYTES_READ", "SPILLED_RECORDS", "config", "key_value", "key", "value"));
+
+			//the even jobs of jt1
+			List<Object> jobIds = readValues(june1, 0, 0);
+			Assert.assertEquals(jobIds.size(), 15);
+			Assert.assertEquals(jobIds.get(0), "job_201506010000_0000");
+			Assert.assertEquals(jobIds.get(14), "job_201506010000_0028");
+			Assert.assertEquals(readValues(june1, 0, 1).get(1), "wordcount é 2");
+			Assert.assertEquals(readValues(june1, 0, 2).get(1), JUNE_1 + 2);
+			Assert.assertEquals(readValues(june1, 0, 3).subList(0, 3), Arrays.asList(null, 2L, 4L));
+			Assert.assertEquals(readValues(june1, 0, 5).subList(0, 2), Arrays.asList(0L, -2L));
+			Assert.assertEquals(readValues(june2, 0, 5).subList(0, 2), Arrays.asList(null, null));
+
+			//a job without config values has an empty map rather than a null one
+			List<Map<String, String>> configs = readConfig(june1, 0, 6);
+			Assert.assertEquals(configs.size(), 15);
+			Assert.assertEquals(configs.get(0), Collections.emptyMap());
+			Map<String, String> config = new LinkedHashMap<String, String>();
+			config.put("mapred.job.name", "wordcount 2");
+			config.put("mapred.reduce.tasks", "2");
+			Assert.assertEquals(configs.get(1), config);
+		} finally {
+			FileUtils.deleteDirectory(exportDir);
+		}
+	}
+
+	@Test
+	public static void testWritesGzipPages() throws IOException {
+		File exportDir = File.createTempFile("oxpecker", "export");
+		exportDir.delete();
+		try {
+			ColumnarExportSink sink = new ColumnarExportSink(exportDir);
+			sink.setZone(ZoneId.of("UTC"));
+			List<HadoopJob> jobs = new ArrayList<HadoopJob>();
+			for (int i = 0; i < 100; i++) {
+				HadoopJob hj = job(i, "jt", JUNE_1 + i);
+				if (i == 7) {
+					hj.addConfigValue("mapred.queue.acl", null);
+				}
+				jobs.add(hj);
+				sink.accept(hj);
+			}
+			sink.close();
+			File file = sink.getWrittenFiles().get(0);
+			Map<?, ?> rowGroup = (Map<?, ?>) ((List<?>) readFooter(file).get(4)).get(0);
+			List<?> columns = (List<?>) rowGroup.get(1);
+			Assert.assertEquals(((Map<?, ?>) ((Map<?, ?>) columns.get(0)).get(3)).get(4), ParquetFormat.GZIP);
+
+			List<Object> jobIds = readValues(file, 0, 0);
+			List<Map<String, String>> configs = readConfig(file, 0, columns.size() - 2);
+			Assert.assertEquals(jobIds.size(), 100);
+			Assert.assertEquals(configs.size(), 100);
+			for (int i = 0; i < 100; i++) {
+				Assert.assertEquals(jobIds.get(i), jobs.get(i).getFields().get("JOBID"));
+				Assert.assertEquals(configs.get(i), jobs.get(i).getConfigValues());
+			}
+			Assert.assertTrue(configs.get(7).containsKey("mapred.queue.acl"));
+			Assert.assertNull(configs.get(7).get("mapred.queue.acl"));
+		} finally {
+			FileUtils.deleteDirectory(exportDir);
+		}
+	}
+
+	@Test
+	public static void testSplitsRowGroups() throws IOException {
+		File exportDir = File.createTempFile("oxpecker", "export");
+		exportDir.delete();
+		try {
+			ColumnarExportSink sink = new ColumnarExportSink(exportDir);
+			sink.setZone(ZoneId.of("UTC"));
+			sink.setRowGroupBytes(4096);
+			for (int i = 0; i < 500; i++) {
+				sink.accept(job(i, "jt", JUNE_1 + i));
+			}
+			sink.close();
+			Assert.assertEquals(sink.getWrittenFiles().size(), 1);
+			Map<Integer, Object> footer = readFooter(sink.getWrittenFiles().get(0));
+			Assert.assertEquals(footer.get(3), 500L);
+			List<?> rowGroups = (List<?>) footer.get(4);
+			Assert.assertTrue(rowGroups.size() > 1);
+			long rows = 0;
+			for (Object rowGroup : rowGroups) {
+				rows += (Long) ((Map<?, ?>) rowGroup).get(3);
+			}
+			Assert.assertEquals(rows, 500L);
+			Assert.assertEquals(footer.get(6), "oxpecker");
+		} finally {
+			FileUtils.deleteDirectory(exportDir);
+		}
+	}
+
+	@Test
+	public static void testRejectsDuplicateColumns() {
+		try {
+			new ColumnarExportSink(new File("."), ColumnarExportSink.DEFAULT_FIELDS, Arrays.asList("JOBID"));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	private static Map<Integer, Object> readFooter(File file) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(FileUtils.readFileToByteArray(file)).order(ByteOrder.LITTLE_ENDIAN);
+		Assert.assertEquals(new String(Arrays.copyOfRange(in.array(), 0, 4), "US-ASCII"), "PAR1");
+		Assert.assertEquals(new String(Arrays.copyOfRange(in.array(), in.limit() - 4, in.limit()), "US-ASCII"), "PAR1");
+		int length = in.getInt(in.limit() - 8);
+		in.position(in.limit() - 8 - length);
+		return readStruct(in);
+	}
+
+	/**
+	 * The levels and values of a column chunk, with a null value where a level is not fully defined
+	 */
+	private static class Column {
+		final List<Integer> repetitionLevels = new ArrayList<Integer>();
+		final List<Integer> definitionLevels = new ArrayList<Integer>();
+		final List<Object> values = new ArrayList<Object>();
+	}
+
+	private static List<Object> readValues(File file, int rowGroup, int column) throws IOException {
+		return readColumn(file, rowGroup, column).values;
+	}
+
+	/**
+	 * Reads a column chunk the way a Parquet reader does: the max levels of the column come from the
+	 * schema, the pages are gunzipped when the chunk is gzip compressed and the levels are decoded as
+	 * RLE or bit packed runs
+	 */
+	private static Column readColumn(File file, int rowGroup, int column) throws IOException {
+		Map<Integer, Object> footer = readFooter(file);
+		Map<?, ?> rowGroupMeta = (Map<?, ?>) ((List<?>) footer.get(4)).get(rowGroup);
+		Map<?, ?> columnMeta = (Map<?, ?>) ((Map<?, ?>) ((List<?>) rowGroupMeta.get(1)).get(column)).get(3);
+		int[] maxLevels = getMaxLevels((List<?>) footer.get(2), (List<?>) columnMeta.get(3));
+		int codec = (Integer) columnMeta.get(4);
+		Assert.assertTrue(codec == ParquetFormat.UNCOMPRESSED || codec == ParquetFormat.GZIP);
+
+		ByteBuffer in = ByteBuffer.wrap(FileUtils.readFileToByteArray(file)).order(ByteOrder.LITTLE_ENDIAN);
+		int chunkStart = (int) (long) (Long) columnMeta.get(9);
+		in.position(chunkStart);
+		Column read = new Column();
+		long uncompressedBytes = 0;
+		while (read.values.size() < (Long) columnMeta.get(5)) {
+			int headerStart = in.position();
+			Map<?, ?> pageHeader = readStruct(in);
+			Assert.assertEquals(pageHeader.get(1), ParquetFormat.DATA_PAGE);
+			byte[] stored = new byte[(Integer) pageHeader.get(3)];
+			in.get(stored);
+			byte[] body = codec == ParquetFormat.GZIP ? gunzip(stored) : stored;
+			Assert.assertEquals(body.length, pageHeader.get(2));
+			uncompressedBytes += in.position() - headerStart - stored.length + body.length;
+
+			ByteBuffer page = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+			int count = (Integer) ((Map<?, ?>) pageHeader.get(5)).get(1);
+			List<Integer> repetitionLevels = maxLevels[0] > 0 ? readLevels(page, count, maxLevels[0]) : zeros(count);
+			List<Integer> definitionLevels = maxLevels[1] > 0 ? readLevels(page, count, maxLevels[1]) : zeros(count);
+			for (int i = 0; i < count; i++) {
+				if (definitionLevels.get(i) < maxLevels[1]) {
+					read.values.add(null);
+				} else if ((Integer) columnMeta.get(1) == ParquetFormat.INT64) {
+					read.values.add(page.getLong());
+				} else {
+					byte[] bytes = new byte[page.getInt()];
+					page.get(bytes);
+					read.values.add(new String(bytes, "UTF-8"));
+				}
+			}
+			Assert.assertFalse(page.hasRemaining());
+			read.repetitionLevels.addAll(repetitionLevels);
+			read.definitionLevels.addAll(definitionLevels);
+		}
+		Assert.assertEquals((long) (in.position() - chunkStart), columnMeta.get(7));
+		Assert.assertEquals(uncompressedBytes, columnMeta.get(6));
+		return read;
+	}
+
+	/**
+	 * Reads the config map of every row from its key and value columns
+	 */
+	private static List<Map<String, String>> readConfig(File file, int rowGroup, int keyColumn) throws IOException {
+		Column keys = readColumn(file, rowGroup, keyColumn);
+		Column values = readColumn(file, rowGroup, keyColumn + 1);
+		Assert.assertEquals(values.repetitionLevels, keys.repetitionLevels);
+		List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+		Map<String, String> row = null;
+		for (int i = 0; i < keys.values.size(); i++) {
+			int definitionLevel = keys.definitionLevels.get(i);
+			if (keys.repetitionLevels.get(i) == 0) {
+				row = definitionLevel == 0 ? null : new LinkedHashMap<String, String>();
+				rows.add(row);
+			}
+			//the key is required, so a defined key_value has a key and maybe a value
+			if (definitionLevel == 2) {
+				Assert.assertTrue(values.definitionLevels.get(i) >= 2);
+				row.put((String) keys.values.get(i), (String) values.values.get(i));
+			} else {
+				Assert.assertEquals(values.definitionLevels.get(i).intValue(), definitionLevel);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the max repetition and definition levels of a column from the flattened schema
+	 */
+	private static int[] getMaxLevels(List<?> schema, List<?> path) {
+		int[] maxLevels = new int[2];
+		//skip the root, then the children of each element on the path until the next one is found
+		int element = 1;
+		for (Object name : path) {
+			while (!name.equals(((Map<?, ?>) schema.get(element)).get(4))) {
+				element = skip(schema, element);
+			}
+			int repetition = (Integer) ((Map<?, ?>) schema.get(element)).get(3);
+			if (repetition == ParquetFormat.REPEATED) {
+				maxLevels[0]++;
+			}
+			if (repetition != ParquetFormat.REQUIRED) {
+				maxLevels[1]++;
+			}
+			element++;
+		}
+		return maxLevels;
+	}
+
+	/**
+	 * Returns the position of the element after the given one and all of its descendants
+	 */
+	private static int skip(List<?> schema, int element) {
+		Object children = ((Map<?, ?>) schema.get(element)).get(5);
+		int next = element + 1;
+		for (int i = 0; children != null && i < (Integer) children; i++) {
+			next = skip(schema, next);
+		}
+		return next;
+	}
+
+	/**
+	 * Reads levels in the RLE/bit packing hybrid encoding, prefixed with their length
+	 */
+	private static List<Integer> readLevels(ByteBuffer in, int count, int maxLevel) {
+		int bitWidth = 32 - Integer.numberOfLeadingZeros(maxLevel);
+		int end = in.getInt() + in.position();
+		List<Integer> levels = new ArrayList<Integer>(count);
+		while (in.position() < end) {
+			long header = readVarLong(in);
+			if ((header & 1) == 0) {
+				int value = 0;
+				for (int b = 0; b < (bitWidth + 7) / 8; b++) {
+					value |= (in.get() & 0xff) << (8 * b);
+				}
+				for (long i = 0; i < header >>> 1; i++) {
+					levels.add(value);
+				}
+			} else {
+				//groups of eight values packed from the least significant bit
+				byte[] packed = new byte[(int) (header >>> 1) * bitWidth];
+				in.get(packed);
+				for (int i = 0; i < packed.length * 8 / bitWidth; i++) {
+					int value = 0;
+					for (int bit = 0; bit < bitWidth; bit++) {
+						int pos = i * bitWidth + bit;
+						value |= ((packed[pos / 8] >>> (pos % 8)) & 1) << bit;
+					}
+					levels.add(value);
+				}
+			}
+		}
+		Assert.assertEquals(in.position(), end);
+		Assert.assertTrue(levels.size() >= count);
+		//the last bit packed group may be padded
+		return levels.subList(0, count);
+	}
+
+	private static List<Integer> zeros(int count) {
+		return new ArrayList<Integer>(Collections.nCopies(count, 0));
+	}
+
+	private static byte[] gunzip(byte[] bytes) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static Map<Integer, Object> readStruct(ByteBuffer in) {
+		Map<Integer, Object> struct = new LinkedHashMap<Integer, Object>();
+		int lastId = 0;
+		while (true) {
+			int header = in.get() & 0xff;
+			if (header == 0) {
+				return struct;
+			}
+			int delta = header >>> 4;
+			int id = delta == 0 ? (int) zigzag(readVarLong(in)) : lastId + delta;
+			struct.put(id, readValue(in, header & 0x0f));
+			lastId = id;
+		}
+	}
+
+	private static Object readValue(ByteBuffer in, int type) {
+		switch (type) {
+			case ThriftCompactWriter.I32:
+				return (int) zigzag(readVarLong(in));
+			case ThriftCompactWriter.I64:
+				return zigzag(readVarLong(in));
+			case ThriftCompactWriter.BINARY:
+				byte[] bytes = new byte[(int) readVarLong(in)];
+				in.get(bytes);
+				return new String(bytes, ParquetFormat.UTF8_CHARSET);
+			case ThriftCompactWriter.LIST:
+				int header = in.get() & 0xff;
+				int size = header >>> 4 == 15 ? (int) readVarLong(in) : header >>> 4;
+				List<Object> list = new ArrayList<Object>();
+				for (int i = 0; i < size; i++) {
+					list.add(readValue(in, header & 0x0f));
+				}
+				return list;
+			case ThriftCompactWriter.STRUCT:
+				return readStruct(in);
+			default:
+				throw new IllegalStateException("Unexpected type " + type);
+		}
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static long zigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+}
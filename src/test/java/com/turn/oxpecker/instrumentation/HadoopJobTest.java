@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HadoopJobTest {
+
+	@Test
+	public static void testViewsBehaveLikeHashMaps() {
+		HadoopJob hj = new HadoopJob();
+		Map<String, Long> expectedCounters = new HashMap<String, Long>();
+		Map<String, String> expectedConfig = new HashMap<String, String>();
+		for (int i = 20; i > 0; i--) {
+			hj.addCounter("counter" + i, i);
+			expectedCounters.put("counter" + i, (long) i);
+			hj.addConfigValue("key" + (i % 7), "value" + i);
+			expectedConfig.put("key" + (i % 7), "value" + i);
+		}
+		hj.addField("JOBID", "job_201505132037_0001");
+		hj.addField("JOB_QUEUE", null);
+
+		Assert.assertEquals(hj.getCounters(), expectedCounters);
+		Assert.assertEquals(hj.getConfigValues(), expectedConfig);
+		Assert.assertEquals(hj.getCounter("counter3", -1), 3);
+		Assert.assertEquals(hj.getCounter("no.such.counter", -1), -1);
+		Assert.assertTrue(hj.getFields().containsKey("JOB_QUEUE"));
+		Assert.assertNull(hj.getFields().get("JOB_QUEUE"));
+		Assert.assertFalse(hj.getFields().containsKey("JOBNAME"));
+		Assert.assertNull(hj.getFields().get(null));
+		Assert.assertFalse(hj.getConfigValues().containsKey(null));
+		Assert.assertEquals(hj.getCounter(null, -1), -1);
+
+		//later values replace earlier ones, also after the storage has been sorted
+		hj.compact();
+		Assert.assertEquals(hj.getConfigValues().put("key1", "replaced"), "value1");
+		hj.addConfigValue("key0", "replaced too");
+		Assert.assertEquals(hj.getConfigValues().get("key1"), "replaced");
+		Assert.assertEquals(hj.getConfigValues().get("key0"), "replaced too");
+		Assert.assertEquals(hj.getConfigValues().size(), 7);
+
+		Assert.assertEquals(hj.getAllJobLevelPropertiesHashmap().size(), 20 + 2 + 7);
+	}
+
+	@Test
+	public static void testValuesAreShared() {
+		HadoopJob a = new HadoopJob();
+		HadoopJob b = new HadoopJob();
+		a.addConfigValue("mapred.output.compress", new String("false"));
+		b.addConfigValue("mapred.output.compress", new String("false"));
+		Assert.assertSame(a.getConfigValues().get("mapred.output.compress"), b.getConfigValues().get("mapred.output.compress"));
+	}
+
+	@Test
+	public static void testSharedConfigValues() {
+		List<HadoopJob> hadoopJobs = new ArrayList<HadoopJob>();
+		List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < 40; i++) {
+			HadoopJob hj = new HadoopJob();
+			for (int k = 0; k < 50; k++) {
+				//every fifth job lacks a common key, every job has its own job name
+				if (k != i % 5 || i % 5 != 0) {
+					hj.addConfigValue("mapred.key." + k, k == 7 && i % 3 == 0 ? "custom" : "default" + k);
+				}
+			}
+			hj.addConfigValue("mapred.job.name", "job" + i);
+			hadoopJobs.add(hj);
+			expected.add(new HashMap<String, String>(hj.getConfigValues()));
+		}
+
+		JobConfigSharing sharing = new JobConfigSharing();
+		for (HadoopJob hj : hadoopJobs) {
+			sharing.share(hj);
+		}
+		Assert.assertEquals(sharing.getBase().size(), 50);
+		for (int i = 0; i < hadoopJobs.size(); i++) {
+			Assert.assertEquals(hadoopJobs.get(i).getConfigValues(), expected.get(i));
+			Assert.assertEquals(hadoopJobs.get(i).getConfigValues().size(), expected.get(i).size());
+		}
+
+		HadoopJob last = hadoopJobs.get(hadoopJobs.size() - 5);
+		Assert.assertFalse(last.getConfigValues().containsKey("mapred.key.0"));
+		last.addConfigValue("mapred.key.0", "back");
+		last.addConfigValue("mapred.key.1", "changed");
+		Assert.assertEquals(last.getConfigValues().get("mapred.key.0"), "back");
+		Assert.assertEquals(last.getConfigValues().get("mapred.key.1"), "changed");
+		Assert.assertEquals(last.getConfigValues().size(), 51);
+		Assert.assertEquals(last.getAllJobLevelPropertiesHashmap().size(), 51);
+	}
+
+	@Test
+	public static void testViewsTakeRemovesAndNulls() {
+		HadoopJob hj = new HadoopJob();
+		for (int i = 0; i < 10; i++) {
+			hj.addField("FIELD" + i, "value" + i);
+			hj.addCounter("counter" + i, i);
+			hj.addConfigValue("key" + i, "value" + i);
+		}
+		hj.compact();
+		checkRemovesAndNulls(hj.getFields(), "value");
+		checkRemovesAndNulls(hj.getCounters(), 7L);
+
+		Map<String, Long> counters = hj.getCounters();
+		counters.put("counter1", null);
+		counters.put("counter.null", null);
+		Assert.assertEquals(hj.getCounter("counter1", -1), -1);
+		Assert.assertEquals(hj.getCounter("counter.null", -1), -1);
+		Assert.assertTrue(counters.containsKey("counter.null"));
+		hj.compact();
+		Assert.assertNull(counters.get("counter1"));
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			Assert.assertEquals(hj.getCounter(e.getKey(), -1), e.getValue() == null ? -1 : e.getValue().longValue());
+		}
+
+		//removes from config values rebased on a base shared with other jobs
+		HadoopJob other = new HadoopJob();
+		other.setConfigValues(hj.getConfigValues());
+		JobConfigSharing sharing = new JobConfigSharing();
+		sharing.share(hj);
+		sharing.share(other);
+		hj.addConfigValue("key3", "changed");
+		checkRemovesAndNulls(hj.getConfigValues(), "value");
+		Assert.assertEquals(other.getConfigValues().size(), 10);
+		Assert.assertEquals(other.getConfigValues().get("key3"), "value3");
+	}
+
+	/**
+	 * Applies the same removes and null puts to a view and to a HashMap copy of it
+	 */
+	private static <V> void checkRemovesAndNulls(Map<String, V> view, V value) {
+		Map<String, V> expected = new HashMap<String, V>(view);
+		int size = view.size();
+		String first = view.keySet().iterator().next();
+
+		Assert.assertEquals(view.remove(first), expected.remove(first));
+		Assert.assertNull(view.remove("no.such.key"));
+		Assert.assertTrue(view.keySet().remove(view.keySet().iterator().next()));
+		expected.keySet().retainAll(view.keySet());
+		for (Iterator<Map.Entry<String, V>> it = view.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, V> e = it.next();
+			if (e.getKey().endsWith("3") || e.getKey().endsWith("4")) {
+				it.remove();
+				expected.remove(e.getKey());
+			}
+		}
+		Assert.assertEquals(view.size(), size - 4);
+
+		Assert.assertNull(view.put(null, value));
+		expected.put(null, value);
+		Assert.assertEquals(view.get(null), value);
+		Assert.assertNull(view.put("null.value", null));
+		expected.put("null.value", null);
+		Assert.assertTrue(view.containsKey("null.value"));
+		Assert.assertEquals(view, expected);
+		Assert.assertEquals(view.remove(null), value);
+		expected.remove(null);
+		Assert.assertEquals(view, expected);
+	}
+}
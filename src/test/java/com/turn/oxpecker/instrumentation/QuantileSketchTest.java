@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.instrumentation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class QuantileSketchTest {
+
+	@Test
+	public static void testQuantilesAndMerge() {
+		Random random = new Random(42);
+		long[] values = new long[10000];
+		QuantileSketch first = new QuantileSketch();
+		QuantileSketch second = new QuantileSketch();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 1000 + random.nextInt(100000);
+			(i % 2 == 0 ? first : second).add(values[i]);
+		}
+		first.merge(second);
+		Arrays.sort(values);
+		Assert.assertEquals(first.getCount(), values.length);
+		Assert.assertEquals(first.getMin(), values[0]);
+		Assert.assertEquals(first.getMax(), values[values.length - 1]);
+		for (double q : new double[] {0.01, 0.5, 0.9, 0.99}) {
+			long exact = values[(int) Math.ceil(q * values.length) - 1];
+			long estimate = first.getQuantile(q);
+			Assert.assertTrue(Math.abs(estimate - exact) <= exact / 16 + 1, String.format("%s : %s vs %s", q, estimate, exact));
+		}
+
+		QuantileSketch small = new QuantileSketch();
+		Assert.assertEquals(small.getQuantile(0.5), 0);
+		for (long v = 0; v < 8; v++) {
+			small.add(v);
+		}
+		small.add(-5);
+		Assert.assertEquals(small.getQuantile(0.5), 3);
+		Assert.assertEquals(small.getMin(), 0);
+		Assert.assertEquals(small.countAbove(5), 2);
+		Assert.assertEquals(QuantileSketch.bucketOf(Long.MAX_VALUE), QuantileSketch.BUCKETS - 1);
+		for (int bucket = 0; bucket < QuantileSketch.BUCKETS; bucket++) {
+			Assert.assertEquals(QuantileSketch.bucketOf(QuantileSketch.lowerBound(bucket)), bucket);
+			Assert.assertEquals(QuantileSketch.bucketOf(QuantileSketch.upperBound(bucket)), bucket);
+		}
+	}
+}
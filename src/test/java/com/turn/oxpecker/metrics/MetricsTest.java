@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MetricsTest {
+
+	@Test
+	public static void testHistogramQuantiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.update(i);
+		}
+		Assert.assertEquals(histogram.getCount(), 1000);
+		Assert.assertEquals(histogram.getMin(), 1);
+		Assert.assertEquals(histogram.getMax(), 1000);
+		Assert.assertEquals(histogram.getMean(), 500.5, 0.001);
+		//quantiles are bucket upper bounds, within a factor of two
+		Assert.assertEquals(histogram.getQuantile(0.5), 511);
+		Assert.assertEquals(histogram.getQuantile(0.99), 1000);
+		Assert.assertEquals(new Histogram().getQuantile(0.5), 0);
+	}
+
+	@Test
+	public static void testJmxReporter() throws JMException {
+		MetricRegistry registry = new DefaultMetricRegistry();
+		registry.counter("jobs.skipped.missingFile").add(3);
+		registry.timer("stats.parse").update(2000000);
+		Assert.assertSame(registry.counter("jobs.skipped.missingFile"), registry.counter("jobs.skipped.missingFile"));
+
+		ObjectName name = JmxReporter.register(registry);
+		try {
+			Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "jobs.skipped.missingFile.count"), 3L);
+			Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "stats.parse.count"), 1L);
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class BackfillCheckpointTest {
+
+	@Test
+	public static void testResumesAfterFailure() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("backfill", 10);
+		try {
+			history.generate(3);
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+			ZonedDateTime end = start.plusDays(3);
+			String path = history.getPath();
+			File checkpointFile = new File(history.getBaseDir(), "backfill.checkpoint");
+
+			final List<String> jobIds = new ArrayList<String>();
+			HadoopJobSink failingSink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) throws IOException {
+					if (jobIds.size() == 17) {
+						throw new IOException("host went away");
+					}
+					jobIds.add((String) hadoopJob.getFields().get("JOBID"));
+				}
+			};
+			BackfillCheckpoint checkpoint = new BackfillCheckpoint(checkpointFile);
+			checkpoint.setBatchSize(4);
+			try {
+				HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, path, "synthetic", failingSink, 1, checkpoint);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertEquals(e.getMessage(), "host went away");
+			}
+
+			HadoopJobSink sink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					jobIds.add((String) hadoopJob.getFields().get("JOBID"));
+				}
+			};
+			checkpoint = new BackfillCheckpoint(checkpointFile);
+			checkpoint.setBatchSize(4);
+			int resumed = HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, path, "synthetic", sink, 1, checkpoint);
+
+			//the first day and one batch of the second day were checkpointed, the failed batch comes again
+			Assert.assertEquals(resumed, 30 - 14);
+			Assert.assertEquals(new HashSet<String>(jobIds).size(), 30);
+			Assert.assertEquals(jobIds.size(), 17 + resumed);
+
+			checkpoint = new BackfillCheckpoint(checkpointFile);
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsForDates(start, end, path, "synthetic", sink, 1, checkpoint), 0);
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testConsecutiveRangesNeedTheirOwnCheckpoint() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("chunks", 10);
+		try {
+			history.generate(3);
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+			String path = history.getPath();
+			File checkpointFile = new File(history.getBaseDir(), "chunks.checkpoint");
+			final List<String> jobIds = new ArrayList<String>();
+			HadoopJobSink sink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					jobIds.add((String) hadoopJob.getFields().get("JOBID"));
+				}
+			};
+
+			//the first chunk also reads the directory of the second day, for the jobs running at its end
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(1), path, "synthetic", sink, 1,
+					new BackfillCheckpoint(checkpointFile)), 10);
+			BackfillCheckpoint checkpoint = new BackfillCheckpoint(checkpointFile);
+			Assert.assertEquals(checkpoint.getRange().getEndMillis(), start.plusDays(1).toInstant().toEpochMilli());
+			try {
+				HadoopJobHistoryFileParser.processHadoopJobsForDates(start.plusDays(1), start.plusDays(2), path, "synthetic", sink, 1, checkpoint);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage().contains(checkpointFile.getPath()), e.getMessage());
+			}
+			Assert.assertEquals(jobIds.size(), 10);
+
+			//the second chunk with its own checkpoint gets every job of the second day
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsForDates(start.plusDays(1), start.plusDays(2), path, "synthetic", sink, 1,
+					new BackfillCheckpoint(new File(history.getBaseDir(), "chunk2.checkpoint"))), 10);
+			Assert.assertEquals(new HashSet<String>(jobIds).size(), 20);
+		} finally {
+			history.delete();
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.metrics.Counter;
+import com.turn.oxpecker.metrics.Metrics;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+public class CompressedHistoryTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	@Test
+	public static void testReadsCompressedAndArchivedDays() throws IOException {
+		File baseDir = File.createTempFile("oxpecker", "compressed");
+		baseDir.delete();
+		try {
+			SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(baseDir);
+			generator.setJobsPerDay(6);
+			generator.setMapsPerJob(2);
+			generator.setReducesPerJob(1);
+			generator.setPropertiesPerConf(30);
+			LocalDate day = LocalDate.of(2015, 6, 1);
+			List<File> dateDirs = generator.generate(day, 3);
+			String instanceDir = generator.getInstanceDirectory().getAbsolutePath();
+			ZonedDateTime start = day.atStartOfDay(ZoneId.systemDefault());
+			Map<Object, HadoopJob> expected = parse(start, instanceDir);
+			Assert.assertEquals(expected.size(), 18);
+
+			//gzip the files of the first day in place, zip the second day and tar the third one
+			for (File f : FileUtils.listFiles(dateDirs.get(0), null, true)) {
+				File gz = new File(f.getParentFile(), f.getName() + ".gz");
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+				try {
+					out.write(FileUtils.readFileToByteArray(f));
+				} finally {
+					out.close();
+				}
+				gz.setLastModified(f.lastModified());
+				f.delete();
+			}
+			zip(dateDirs.get(1), new File(dateDirs.get(1).getPath() + HistoryArchive.ZIP_EXTENSION));
+			tar(dateDirs.get(2), new File(dateDirs.get(2).getPath() + HistoryArchive.TAR_EXTENSION));
+
+			Map<Object, HadoopJob> actual = parse(start, instanceDir);
+			Assert.assertEquals(actual.size(), expected.size());
+			for (Map.Entry<Object, HadoopJob> e : expected.entrySet()) {
+				HadoopJob hj = actual.get(e.getKey());
+				Assert.assertNotNull(hj, e.getKey().toString());
+				Assert.assertEquals(hj.getFields(), e.getValue().getFields());
+				Assert.assertEquals(hj.getCounters(), e.getValue().getCounters());
+				Assert.assertEquals(hj.getConfigValues(), e.getValue().getConfigValues());
+			}
+
+			//the entries of an archive keep their modification time for time range pruning
+			File archive = new File(dateDirs.get(2).getPath() + HistoryArchive.TAR_EXTENSION);
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(new JobHistoryFileSystem(), archive);
+			Assert.assertEquals(index.size(), 6);
+			JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(index.getJobIds().iterator().next());
+			Assert.assertTrue(jobFiles.getSubmitTimeMillis() > 0);
+			Assert.assertTrue(new JobHistoryFileSystem().lastModified(jobFiles.getStatsFile()) / 1000 > jobFiles.getSubmitTimeMillis() / 1000);
+
+			File notGzip = new File(baseDir, "plain.gz");
+			FileUtils.writeStringToFile(notGzip, "plain");
+			try {
+				new JobHistoryFileSystem().open(notGzip).close();
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("is not GZIP compressed"), e.getMessage());
+			}
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	@Test
+	public static void testReadsCompressedTars() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("compressedtar", 6);
+		try {
+			List<File> dateDirs = history.generate(3);
+			String instanceDir = history.getGenerator().getInstanceDirectory().getAbsolutePath();
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+			Map<Object, HadoopJob> expected = parse(start, instanceDir);
+			Assert.assertEquals(expected.size(), 18);
+
+			tar(dateDirs.get(0), new GZIPOutputStream(new FileOutputStream(dateDirs.get(0).getPath() + ".tar.gz")));
+			tar(dateDirs.get(1), new GZIPOutputStream(new FileOutputStream(dateDirs.get(1).getPath() + HistoryArchive.TGZ_EXTENSION)));
+			tar(dateDirs.get(2), new BZip2Codec().createOutputStream(new FileOutputStream(dateDirs.get(2).getPath() + ".tar.bz2")));
+			for (File dateDir : dateDirs) {
+				Assert.assertNotNull(HistoryArchive.getArchive(dateDir));
+				Assert.assertFalse(dateDir.exists());
+			}
+			Assert.assertEquals(HistoryArchive.stripExtension("01.tar.bz2"), "01");
+
+			Map<Object, HadoopJob> actual = parse(start, instanceDir);
+			Assert.assertEquals(actual.size(), expected.size());
+			for (Map.Entry<Object, HadoopJob> e : expected.entrySet()) {
+				HadoopJob hj = actual.get(e.getKey());
+				Assert.assertNotNull(hj, e.getKey().toString());
+				Assert.assertEquals(hj.getFields(), e.getValue().getFields());
+				Assert.assertEquals(hj.getCounters(), e.getValue().getCounters());
+				Assert.assertEquals(hj.getConfigValues(), e.getValue().getConfigValues());
+			}
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testCacheMissesReplacedArchive() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("cachedtar", 6);
+		ParsedJobCache parsedJobCache = HadoopJobHistoryFileParser.parsedJobCache;
+		try {
+			File dateDir = history.generate();
+			File copy = new File(history.getBaseDir(), "copy");
+			FileUtils.copyDirectory(dateDir, copy, true);
+			File archive = new File(dateDir.getPath() + HistoryArchive.TAR_EXTENSION);
+			tar(dateDir, archive);
+			String instanceDir = history.getGenerator().getInstanceDirectory().getAbsolutePath();
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+
+			HadoopJobHistoryFileParser.parsedJobCache = new ParsedJobCache(new File(history.getBaseDir(), "cache"), Long.MAX_VALUE, Long.MAX_VALUE);
+			Counter cached = Metrics.counter(Metrics.JOBS_CACHED);
+			long hits = cached.getCount();
+			Assert.assertEquals(parse(start, instanceDir).size(), 6);
+			Assert.assertEquals(cached.getCount(), hits);
+			Map<Object, HadoopJob> expected = parse(start, instanceDir);
+			Assert.assertEquals(cached.getCount(), hits + 6);
+
+			//the archive is replaced by one where a conf file is newer
+			File confFile = FileUtils.listFiles(copy, new String[] {"xml"}, true).iterator().next();
+			Assert.assertTrue(confFile.setLastModified(confFile.lastModified() + 60 * 1000));
+			long archiveModified = archive.lastModified();
+			tar(copy, archive);
+			Assert.assertTrue(archive.setLastModified(archiveModified + 1000));
+			hits = cached.getCount();
+			Map<Object, HadoopJob> actual = parse(start, instanceDir);
+			Assert.assertEquals(cached.getCount(), hits + 5);
+			Assert.assertEquals(actual.keySet(), expected.keySet());
+		} finally {
+			HadoopJobHistoryFileParser.parsedJobCache = parsedJobCache;
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testKeepsTheTarOfAnArchiveBeingRead() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("evictedtar", 2);
+		long minIdleMillis = HistoryArchive.minIdleMillis;
+		try {
+			List<File> dateDirs = history.generate(18);
+			List<File> archives = new ArrayList<File>();
+			for (File dateDir : dateDirs) {
+				File archive = new File(dateDir.getPath() + HistoryArchive.TGZ_EXTENSION);
+				tar(dateDir, new GZIPOutputStream(new FileOutputStream(archive)));
+				archives.add(archive);
+			}
+			HistoryArchive.clear();
+			HistoryArchive.minIdleMillis = 0;
+			JobHistoryFileSystem fileSystem = new JobHistoryFileSystem();
+			File entry = fileSystem.getAllFilesInDirectory(archives.get(0)).iterator().next();
+			HistoryArchive first = HistoryArchive.get(archives.get(0));
+			InputStream in = first.open(first.getEntry(entry));
+
+			//more archives than the cache holds, the first one is not evicted while its entry is read
+			for (File archive : archives.subList(1, archives.size())) {
+				fileSystem.getAllFilesInDirectory(archive);
+			}
+			Assert.assertSame(HistoryArchive.get(archives.get(0)), first);
+
+			//evicted while its entry is read, the temporary tar goes when the entry is closed
+			HistoryArchive.clear();
+			Assert.assertTrue(first.hasData());
+			byte[] read = readFully(in);
+			Assert.assertTrue(read.length > 0);
+			in.close();
+			Assert.assertFalse(first.hasData());
+
+			//a reader holding the evicted listing opens the entry from a new one
+			InputStream again = first.open(first.getEntry(entry));
+			try {
+				Assert.assertTrue(Arrays.equals(readFully(again), read));
+			} finally {
+				again.close();
+			}
+		} finally {
+			HistoryArchive.minIdleMillis = minIdleMillis;
+			HistoryArchive.clear();
+			history.delete();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static Map<Object, HadoopJob> parse(ZonedDateTime start, String instanceDir) throws IOException {
+		final Map<Object, HadoopJob> jobs = new HashMap<Object, HadoopJob>();
+		HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(3), instanceDir, "jt", new HadoopJobSink() {
+			public void accept(HadoopJob hadoopJob) {
+				jobs.put(hadoopJob.getFields().get("JOBID"), hadoopJob);
+			}
+		});
+		return jobs;
+	}
+
+	private static void zip(File dir, File archive) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			int i = 0;
+			for (File f : FileUtils.listFiles(dir, null, true)) {
+				ZipEntry entry = new ZipEntry(relativePath(dir, f));
+				entry.setTime(f.lastModified());
+				//store some entries and deflate the others
+				out.setLevel(i++ % 2 == 0 ? 0 : 6);
+				out.putNextEntry(entry);
+				out.write(FileUtils.readFileToByteArray(f));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Writes a ustar archive of the directory, with gzipped conf files
+	 */
+	private static void tar(File dir, File archive) throws IOException {
+		tar(dir, new FileOutputStream(archive));
+	}
+
+	private static void tar(File dir, OutputStream out) throws IOException {
+		try {
+			for (File f : FileUtils.listFiles(dir, null, true)) {
+				String name = relativePath(dir, f);
+				byte[] data = FileUtils.readFileToByteArray(f);
+				if (name.endsWith("_conf.xml")) {
+					ByteArrayOutputStream gz = new ByteArrayOutputStream();
+					GZIPOutputStream gzOut = new GZIPOutputStream(gz);
+					gzOut.write(data);
+					gzOut.close();
+					data = gz.toByteArray();
+					name += ".gz";
+				}
+				byte[] header = new byte[512];
+				put(header, 0, name);
+				put(header, 100, "0000644");
+				put(header, 124, String.format("%011o", data.length));
+				put(header, 136, String.format("%011o", f.lastModified() / 1000));
+				header[156] = '0';
+				put(header, 257, "ustar");
+				put(header, 263, "00");
+				for (int i = 148; i < 156; i++) {
+					header[i] = ' ';
+				}
+				int checksum = 0;
+				for (byte b : header) {
+					checksum += b & 0xff;
+				}
+				put(header, 148, String.format("%06o", checksum));
+				header[155] = ' ';
+				out.write(header);
+				out.write(data);
+				out.write(new byte[(512 - data.length % 512) % 512]);
+			}
+			out.write(new byte[1024]);
+		} finally {
+			out.close();
+		}
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private static void put(byte[] header, int offset, String value) {
+		byte[] bytes = value.getBytes(ASCII);
+		System.arraycopy(bytes, 0, header, offset, bytes.length);
+	}
+
+	private static String relativePath(File dir, File f) {
+		return f.getAbsolutePath().substring(dir.getAbsolutePath().length() + 1).replace(File.separatorChar, '/');
+	}
+}
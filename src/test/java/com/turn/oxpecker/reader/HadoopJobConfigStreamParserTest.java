@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.metrics.Counter;
+import com.turn.oxpecker.metrics.Metrics;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.dom4j.DocumentException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HadoopJobConfigStreamParserTest {
+
+	static File getConfFile() throws Exception {
+		return new File(HadoopJobConfigStreamParserTest.class.getResource("/job_201505132037_0001_conf.xml").toURI());
+	}
+
+	@Test
+	public static void testReadsAllProperties() throws Exception {
+		HadoopJob hj = new HadoopJob();
+		new HadoopJobConfigStreamParser().addJobConfToHadoopJob(getConfFile(), hj);
+
+		Assert.assertEquals(hj.getConfigValues().size(), 6);
+		Assert.assertEquals(hj.getConfigValues().get("mapred.job.queue.name"), "default");
+		Assert.assertEquals(hj.getConfigValues().get("mapred.job.name"), "word & count");
+		Assert.assertEquals(hj.getConfigValues().get("mapred.output.compress"), "");
+	}
+
+	@Test
+	public static void testKeepsOnlyRequestedKeys() throws Exception {
+		HadoopJob hj = new HadoopJob();
+		HashSet<String> keys = new HashSet<String>(Arrays.asList("mapred.reduce.tasks", "user.name", "not.in.file"));
+		new HadoopJobConfigStreamParser(keys).addJobConfToHadoopJob(getConfFile(), hj);
+
+		Assert.assertEquals(hj.getConfigValues().size(), 2);
+		Assert.assertEquals(hj.getConfigValues().get("mapred.reduce.tasks"), "4");
+		Assert.assertEquals(hj.getConfigValues().get("user.name"), "jshum");
+	}
+
+	@Test(expectedExceptions = HadoopJobParseException.class)
+	public static void testPropertyWithoutValue() throws Exception {
+		String xml = "<configuration><property><name>mapred.reduce.tasks</name></property></configuration>";
+		new HadoopJobConfigStreamParser().addJobConfToHadoopJob(new ByteArrayInputStream(xml.getBytes("UTF-8")), new HadoopJob());
+	}
+
+	@Test
+	public static void testMalformedConfFileIsCounted() throws Exception {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("malformed", 2);
+		try {
+			File dateDirectory = history.generate();
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(index.getJobIds().iterator().next());
+			//cut off in the middle of a property
+			String xml = FileUtils.readFileToString(jobFiles.getConfFile(), "UTF-8");
+			FileUtils.writeStringToFile(jobFiles.getConfFile(), xml.substring(0, xml.length() / 2), "UTF-8");
+			try {
+				HadoopJobHistoryFileParser.populateConfigsFromFile(new HadoopJob(), jobFiles.getConfFile());
+				Assert.fail();
+			} catch (DocumentException e) {
+				//expected
+			}
+
+			Counter skipped = Metrics.counter(Metrics.JOBS_SKIPPED + Metrics.SKIPPED_DOCUMENT);
+			long count = skipped.getCount();
+			Assert.assertNull(HadoopJobHistoryFileParser.getHadoopJobFromFiles(FileSystem.getLocal(new Configuration()), jobFiles, "synthetic"));
+			Assert.assertEquals(skipped.getCount(), count + 1);
+		} finally {
+			history.delete();
+		}
+	}
+}
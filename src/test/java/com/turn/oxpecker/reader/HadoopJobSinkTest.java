@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class HadoopJobSinkTest {
+
+	@Test
+	public static void testParallelParseKeepsOrder() throws IOException, InterruptedException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("parallel", 30);
+		ExecutorService executor = HadoopJobHistoryFileParser.newParserPool(4);
+		try {
+			File dateDirectory = history.generate();
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			List<String> jobIds = new ArrayList<String>(index.getJobIds());
+			//not the order of the directory listing
+			Collections.sort(jobIds, Collections.reverseOrder());
+
+			List<String> accepted = new ArrayList<String>();
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsGivenJobIDList(fs, index, "synthetic", jobIds, collect(accepted), executor), 30);
+			Assert.assertEquals(accepted, jobIds);
+			Assert.assertEquals(jobIds(HadoopJobHistoryFileParser.getHadoopJobsGivenJobIDList(fs, index, "synthetic", jobIds, executor)), jobIds);
+
+			//the calling thread parses the jobs without a pool
+			Assert.assertNull(HadoopJobHistoryFileParser.newParserPool(1));
+			accepted.clear();
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsGivenJobIDList(fs, index, "synthetic", jobIds, collect(accepted), null), 30);
+			Assert.assertEquals(accepted, jobIds);
+		} finally {
+			HadoopJobHistoryFileParser.shutdownParserPool(executor);
+			history.delete();
+		}
+		Assert.assertTrue(executor.isShutdown());
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public static void testFailingJobIsSkipped() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("skip", 20);
+		ExecutorService executor = HadoopJobHistoryFileParser.newParserPool(3);
+		try {
+			File dateDirectory = history.generate();
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			List<String> jobIds = new ArrayList<String>(index.getJobIds());
+			Collections.sort(jobIds);
+			//the stats file goes away after the directory was indexed
+			String failing = jobIds.get(7);
+			Assert.assertTrue(index.getJobFiles(failing).getStatsFile().delete());
+
+			List<String> accepted = new ArrayList<String>();
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsGivenJobIDList(fs, index, "synthetic", jobIds, collect(accepted), executor), 19);
+			List<String> expected = new ArrayList<String>(jobIds);
+			expected.remove(failing);
+			Assert.assertEquals(accepted, expected);
+			Assert.assertEquals(jobIds(HadoopJobHistoryFileParser.getHadoopJobsGivenJobIDList(fs, index, "synthetic", jobIds, executor)), expected);
+		} finally {
+			HadoopJobHistoryFileParser.shutdownParserPool(executor);
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testSinkFailureStopsTheParse() throws IOException, URISyntaxException, InterruptedException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("sinkfailure", 40);
+		try {
+			history.generate();
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+			final List<String> accepted = new ArrayList<String>();
+			try {
+				HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(1), history.getPath(), "synthetic", new HadoopJobSink() {
+					public void accept(HadoopJob hadoopJob) throws IOException {
+						if (accepted.size() == 5) {
+							throw new IOException("sink is full");
+						}
+						accepted.add((String) hadoopJob.getFields().get("JOBID"));
+					}
+				}, 4);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertEquals(e.getMessage(), "sink is full");
+			}
+			Assert.assertEquals(accepted.size(), 5);
+			//the pool was shut down on the way out
+			Assert.assertTrue(waitForParserThreads(10000), "parser threads still running");
+
+			List<String> all = new ArrayList<String>();
+			Assert.assertEquals(HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(1), history.getPath(), "synthetic", collect(all), 4), 40);
+			Assert.assertEquals(HadoopJobHistoryFileParser.getListOfHadoopJobsForDates(start, start.plusDays(1), history.getPath(), "synthetic").size(), 40);
+			Assert.assertTrue(waitForParserThreads(10000), "parser threads still running");
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testIteratorReadsEveryDirectory() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("iterator", 8);
+		try {
+			List<File> dateDirectories = history.generate(3);
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			List<String> expected = new ArrayList<String>();
+			for (File dateDirectory : dateDirectories) {
+				JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+				expected.addAll(HadoopJobHistoryFileParser.getJobIdsFromIndex(index));
+			}
+
+			HadoopJobIterator it = new HadoopJobIterator(fs, dateDirectories, "synthetic");
+			List<String> iterated = new ArrayList<String>();
+			while (it.hasNext()) {
+				Assert.assertTrue(it.hasNext());
+				HadoopJob hj = it.next();
+				Assert.assertEquals(hj.getFields().get(Constant.JOB_TRACKER), "synthetic");
+				iterated.add((String) hj.getFields().get("JOBID"));
+			}
+			Assert.assertEquals(iterated, expected);
+			Assert.assertEquals(it.getCount(), 24);
+			try {
+				it.next();
+				Assert.fail();
+			} catch (NoSuchElementException e) {
+				//expected
+			}
+			try {
+				it.remove();
+				Assert.fail();
+			} catch (UnsupportedOperationException e) {
+				//expected
+			}
+
+			//a projection is applied to every job
+			JobProjection projection = new JobProjection(Arrays.asList("JOBID"), Collections.<String>emptySet(), Collections.<String>emptySet());
+			it = new HadoopJobIterator(fs, dateDirectories.subList(1, 2), "synthetic", projection);
+			Assert.assertTrue(it.hasNext());
+			HadoopJob hj = it.next();
+			//the jobtracker name is always added
+			Assert.assertEquals(hj.getFields().keySet(), new HashSet<String>(Arrays.asList("JOBID", Constant.JOB_TRACKER)));
+			Assert.assertTrue(hj.getCounters().isEmpty());
+			Assert.assertTrue(hj.getConfigValues().isEmpty());
+		} finally {
+			history.delete();
+		}
+	}
+
+	private static HadoopJobSink collect(final List<String> jobIds) {
+		return new HadoopJobSink() {
+			public void accept(HadoopJob hadoopJob) {
+				jobIds.add((String) hadoopJob.getFields().get("JOBID"));
+			}
+		};
+	}
+
+	private static List<String> jobIds(Iterable<HadoopJob> hadoopJobs) {
+		List<String> jobIds = new ArrayList<String>();
+		for (HadoopJob hj : hadoopJobs) {
+			jobIds.add((String) hj.getFields().get("JOBID"));
+		}
+		return jobIds;
+	}
+
+	private static boolean waitForParserThreads(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (System.currentTimeMillis() < deadline) {
+			boolean running = false;
+			for (Thread t : Thread.getAllStackTraces().keySet()) {
+				running |= t.isAlive() && t.getName().startsWith("oxpecker-parser-");
+			}
+			if (!running) {
+				return true;
+			}
+			Thread.sleep(50);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedList;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobHistoryDirectoryIndexTest {
+
+	@Test
+	public static void testPairsStatsAndConfFiles() {
+		String dir = "/jtk_job_history_files/jt001.sjc2.turn.com_1431571050810_/2015/06/01";
+		String[] filePaths = {
+				dir + "/000039/job_201505132037_0001_1433142000000_jshum_wordcount",
+				dir + "/000039/job_201505132037_0001_conf.xml",
+				dir + "/000039/job_201505132037_00010_1433142100000_jshum_wordcount",
+				dir + "/000040/job_201505132037_00010_conf.xml",
+				dir + "/000040/job_201505132037_0002_1433142200000_jshum_grep",
+				dir + "/000040/job_201505132037_0003_conf.xml",
+				dir + "/000040/.job_201505132037_0003_conf.xml.crc",
+		};
+		Collection<File> files = new LinkedList<File>();
+		for (String s : filePaths) {
+			files.add(new File(s));
+		}
+
+		JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(new File(dir), files);
+		Assert.assertEquals(index.size(), 4);
+		Assert.assertEquals(index.getStatsFileCount(), 3);
+		Assert.assertEquals(index.getConfFileCount(), 3);
+
+		JobHistoryDirectoryIndex.JobFiles first = index.getJobFiles("job_201505132037_0001");
+		Assert.assertTrue(first.isComplete());
+		Assert.assertEquals(first.getStatsFile().getName(), "job_201505132037_0001_1433142000000_jshum_wordcount");
+		Assert.assertEquals(first.getConfFile().getName(), "job_201505132037_0001_conf.xml");
+
+		//a jobId that is a prefix of another must not pick up the other's files
+		JobHistoryDirectoryIndex.JobFiles tenth = index.getJobFiles("job_201505132037_00010");
+		Assert.assertTrue(tenth.isComplete());
+		Assert.assertEquals(tenth.getConfFile().getParentFile().getName(), "000040");
+
+		Assert.assertFalse(index.getJobFiles("job_201505132037_0002").isComplete());
+		Assert.assertNull(index.getJobFiles("job_201505132037_0003").getStatsFile());
+		Assert.assertNull(index.getJobFiles("job_201505132037_0004"));
+
+		Collection<String> jobIdsWithConf = HadoopJobHistoryFileParser.getJobIdsFromIndex(index);
+		Assert.assertEquals(jobIdsWithConf.size(), 3);
+		Assert.assertFalse(jobIdsWithConf.contains("job_201505132037_0002"));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.JobHistory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobHistoryStatsFileReaderTest {
+
+	static String getStatsFile() throws Exception {
+		return new File(JobHistoryStatsFileReaderTest.class.getResource(
+				"/job_201505132037_0001_1433142000000_jshum_wordcount").toURI()).getAbsolutePath();
+	}
+
+	@Test
+	public static void testSameJobInfoAsHadoopParser() throws Exception {
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+
+		HadoopJobHistoryFileParser.TaskAttemptFilter hadoop = new HadoopJobHistoryFileParser.TaskAttemptFilter();
+		JobHistory.parseHistoryFromFS(getStatsFile(), hadoop, fs);
+
+		HadoopJobHistoryFileParser.TaskAttemptFilter oxpecker = new HadoopJobHistoryFileParser.TaskAttemptFilter();
+		new JobHistoryStatsFileReader(HadoopJobHistoryFileParser.getJobInfoKeys()).parse(fs, getStatsFile(), oxpecker);
+
+		for (JobHistory.Keys key : HadoopJobHistoryFileParser.getJobInfoKeys()) {
+			Assert.assertEquals(oxpecker.getValues().get(key), hadoop.getValues().get(key), key.name());
+		}
+
+		HadoopJob hj = new HadoopJob();
+		HadoopJobHistoryFileParser.populateFieldsFromJobInfo(oxpecker, hj);
+		HadoopJobHistoryFileParser.populateCountersFromJobInfo(oxpecker, hj);
+		Assert.assertEquals(hj.getFields().get("JOBNAME"), "word count");
+		Assert.assertEquals(hj.getFields().get("JOB_STATUS"), "SUCCESS");
+		//there is no START_TIME in job records, the last task's start time is kept as in the hadoop parser
+		Assert.assertEquals(hj.getFields().get("START_TIME"), "1433142013000");
+		Assert.assertEquals(hj.getCounters().get("HDFS_BYTES_READ"), Long.valueOf(2000));
+		Assert.assertEquals(hj.getCounters().get("TOTAL_LAUNCHED_MAPS"), Long.valueOf(3));
+	}
+
+	@Test
+	public static void testSkipsTaskAttempts() throws Exception {
+		final Set<JobHistory.RecordTypes> recordTypes = EnumSet.noneOf(JobHistory.RecordTypes.class);
+		final StringBuilder errors = new StringBuilder();
+		new JobHistoryStatsFileReader().parse(FileSystem.getLocal(new Configuration()), getStatsFile(), new JobHistory.Listener() {
+			public void handle(JobHistory.RecordTypes recType, Map<JobHistory.Keys, String> values) throws IOException {
+				recordTypes.add(recType);
+				if (values.containsKey(JobHistory.Keys.ERROR)) {
+					errors.append(values.get(JobHistory.Keys.ERROR));
+				}
+				Assert.assertFalse("not a job record".equals(values.get(JobHistory.Keys.JOBNAME)));
+			}
+		});
+		Assert.assertEquals(recordTypes, EnumSet.of(JobHistory.RecordTypes.Meta, JobHistory.RecordTypes.Job, JobHistory.RecordTypes.Task));
+		Assert.assertEquals(errors.toString(), "slow\nshuffle");
+	}
+}
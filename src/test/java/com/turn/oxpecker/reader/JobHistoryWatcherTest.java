@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class JobHistoryWatcherTest {
+
+	@Test
+	public static void testEmitsEachJobOnce() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("watch", 5);
+		try {
+			history.generate();
+
+			final List<HadoopJob> emitted = new ArrayList<HadoopJob>();
+			HadoopJobSink sink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					emitted.add(hadoopJob);
+				}
+			};
+			File stateFile = new File(history.getBaseDir(), "watch.state");
+			List<ZonedDateTime> dates = Arrays.asList(SyntheticHistoryFixture.start());
+
+			JobHistoryWatcher watcher = new JobHistoryWatcher(history.getPath(), "synthetic", sink, stateFile);
+			watcher.setMinFileAgeMillis(0);
+			Assert.assertEquals(watcher.poll(dates), 5);
+			Assert.assertEquals(watcher.poll(dates), 0);
+
+			//jobs completing later in the same day
+			history.generate();
+			Assert.assertEquals(watcher.poll(dates), 5);
+			Assert.assertEquals(emitted.size(), 10);
+
+			//a new watcher continues from the state file
+			JobHistoryWatcher restarted = new JobHistoryWatcher(history.getPath(), "synthetic", sink, stateFile);
+			restarted.setMinFileAgeMillis(0);
+			Assert.assertEquals(restarted.poll(dates), 0);
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testRetriesJobsThatCannotBeRead() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("retry", 5);
+		try {
+			File dateDirectory = history.generate();
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			File confFile = index.getJobFiles(index.getJobIds().iterator().next()).getConfFile();
+			String xml = FileUtils.readFileToString(confFile, "UTF-8");
+			//cut off in the middle of a property, as if the conf file were still being written
+			FileUtils.writeStringToFile(confFile, xml.substring(0, xml.length() / 2), "UTF-8");
+
+			HadoopJobSink sink = new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+				}
+			};
+			File stateFile = new File(history.getBaseDir(), "retry.state");
+			List<ZonedDateTime> dates = Arrays.asList(SyntheticHistoryFixture.start());
+			JobHistoryWatcher watcher = new JobHistoryWatcher(history.getPath(), "synthetic", sink, stateFile);
+			watcher.setMinFileAgeMillis(0);
+			watcher.setMaxAttempts(3);
+			Assert.assertEquals(watcher.poll(dates), 4);
+			Assert.assertEquals(watcher.poll(dates), 0);
+
+			//the job is read once its conf file is complete
+			FileUtils.writeStringToFile(confFile, xml, "UTF-8");
+			Assert.assertEquals(watcher.poll(dates), 1);
+			Assert.assertEquals(watcher.poll(dates), 0);
+
+			//and given up after maxAttempts polls
+			history.generate();
+			FileUtils.writeStringToFile(confFile, xml.substring(0, xml.length() / 2), "UTF-8");
+			JobHistoryWatcher failing = new JobHistoryWatcher(history.getPath(), "synthetic", sink, new File(history.getBaseDir(), "failing.state"));
+			failing.setMinFileAgeMillis(0);
+			failing.setMaxAttempts(2);
+			Assert.assertEquals(failing.poll(dates), 9);
+			Assert.assertEquals(failing.poll(dates), 0);
+			FileUtils.writeStringToFile(confFile, xml, "UTF-8");
+			Assert.assertEquals(failing.poll(dates), 0);
+		} finally {
+			history.delete();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobLocationIndexTest {
+
+	@Test
+	public static void testLooksUpEveryJob() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("locations", 12);
+		File indexDir = new File(history.getBaseDir(), "index");
+		try {
+			SyntheticJobHistoryGenerator generator = history.getGenerator();
+			List<File> dateDirectories = history.generate(10);
+
+			//a segment per directory, merged once there are more than eight
+			JobLocationIndex index = new JobLocationIndex(indexDir);
+			index.setMaxPending(10);
+			Assert.assertEquals(index.refresh(HadoopJobHistoryFileParser.jobHistoryFileSystem, generator.getInstanceDirectory()), 10);
+			Assert.assertEquals(index.refresh(HadoopJobHistoryFileParser.jobHistoryFileSystem, generator.getInstanceDirectory()), 0);
+			index.close();
+
+			index = new JobLocationIndex(indexDir);
+			Assert.assertTrue(index.isIndexed(dateDirectories.get(2)));
+			List<String> jobIds = new ArrayList<String>();
+			for (File dateDirectory : dateDirectories) {
+				JobHistoryDirectoryIndex directoryIndex = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+				for (String jobId : directoryIndex.getJobIds()) {
+					JobHistoryDirectoryIndex.JobFiles jobFiles = index.lookup(jobId);
+					Assert.assertEquals(jobFiles.getStatsFile(), directoryIndex.getJobFiles(jobId).getStatsFile().getAbsoluteFile());
+					Assert.assertEquals(jobFiles.getConfFile(), directoryIndex.getJobFiles(jobId).getConfFile().getAbsoluteFile());
+					Assert.assertEquals(jobFiles.getSubmitTimeMillis(), directoryIndex.getJobFiles(jobId).getSubmitTimeMillis());
+					jobIds.add(jobId);
+				}
+			}
+			Assert.assertEquals(jobIds.size(), 120);
+			Assert.assertNull(index.lookup("job_201504260333_9999"));
+			Assert.assertNull(index.lookup("a"));
+			Assert.assertNull(index.lookup("zzz"));
+
+			HadoopJobHistoryFileParser.jobLocationIndex = index;
+			HadoopJob hj = HadoopJobHistoryFileParser.getHadoopJobFromLocationIndex(history.getPath(), "synthetic", jobIds.get(77));
+			Assert.assertEquals(hj.getFields().get("JOBID"), jobIds.get(77));
+		} finally {
+			HadoopJobHistoryFileParser.jobLocationIndex = null;
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testFindsMovedJobs() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("moved", 4);
+		try {
+			List<File> dateDirectories = history.generate(3);
+			JobLocationIndex index = new JobLocationIndex(new File(history.getBaseDir(), "index"));
+			index.refresh(HadoopJobHistoryFileParser.jobHistoryFileSystem, history.getGenerator().getInstanceDirectory());
+			HadoopJobHistoryFileParser.jobLocationIndex = index;
+
+			//the files of a job are moved to another date directory, which is already indexed
+			JobHistoryDirectoryIndex directoryIndex = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectories.get(0));
+			List<String> jobIds = new ArrayList<String>(directoryIndex.getJobIds());
+			JobHistoryDirectoryIndex.JobFiles moved = directoryIndex.getJobFiles(jobIds.get(0));
+			File statsFile = move(moved.getStatsFile(), dateDirectories.get(2));
+			move(moved.getConfFile(), dateDirectories.get(2));
+			Assert.assertFalse(JobLocationIndex.exists(HadoopJobHistoryFileParser.jobHistoryFileSystem, index.lookup(moved.getJobId())));
+
+			HadoopJob hj = HadoopJobHistoryFileParser.getHadoopJobFromLocationIndex(history.getPath(), "synthetic", moved.getJobId());
+			Assert.assertEquals(hj.getFields().get("JOBID"), moved.getJobId());
+			Assert.assertEquals(index.lookup(moved.getJobId()).getStatsFile(), statsFile.getAbsoluteFile());
+
+			//the files of a job are deleted
+			JobHistoryDirectoryIndex.JobFiles deleted = directoryIndex.getJobFiles(jobIds.get(1));
+			Assert.assertTrue(deleted.getStatsFile().delete());
+			Assert.assertNull(HadoopJobHistoryFileParser.getHadoopJobFromLocationIndex(history.getPath(), "synthetic", deleted.getJobId()));
+			index.close();
+		} finally {
+			HadoopJobHistoryFileParser.jobLocationIndex = null;
+			history.delete();
+		}
+	}
+
+	private static File move(File file, File dateDirectory) throws IOException {
+		File target = new File(new File(dateDirectory, file.getParentFile().getName()), file.getName());
+		if (!file.renameTo(target)) {
+			throw new IOException(String.format("Could not move %s to %s", file, target));
+		}
+		return target;
+	}
+}
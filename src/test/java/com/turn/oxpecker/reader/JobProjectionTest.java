@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobProjectionTest {
+
+	@Test
+	public static void testProjectedJobsMatchFullJobs() throws IOException, URISyntaxException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("projection", 10);
+		try {
+			history.getGenerator().setPropertiesPerConf(40);
+			File dateDirectory = history.generate();
+
+			JobProjection projection = new JobProjection(Arrays.asList("JOBID", "FINISH_TIME"),
+					Arrays.asList("TOTAL_LAUNCHED_MAPS", "COUNTER_3", "NO_SUCH_COUNTER"),
+					Arrays.asList("synthetic.property.8", "mapred.job.name"));
+			List<HadoopJob> full = new ArrayList<HadoopJob>(HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectory, "synthetic"));
+			List<HadoopJob> projected = new ArrayList<HadoopJob>(HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectory, "synthetic", null, projection));
+			Assert.assertEquals(projected.size(), full.size());
+			for (int i = 0; i < full.size(); i++) {
+				HadoopJob expected = projection.project(full.get(i));
+				HadoopJob hj = projected.get(i);
+				Assert.assertEquals(hj.getFields(), expected.getFields());
+				Assert.assertEquals(hj.getFields().size(), 3);
+				Assert.assertEquals(hj.getCounters(), expected.getCounters());
+				Assert.assertEquals(hj.getCounters().size(), 2);
+				Assert.assertEquals(hj.getConfigValues(), expected.getConfigValues());
+				Assert.assertEquals(hj.getConfigValues().get("synthetic.property.8"), "default-8 & <1>");
+			}
+
+			//no counters at all, the counters string is not even unescaped
+			projection = new JobProjection(null, new ArrayList<String>(), null);
+			Collection<HadoopJob> withoutCounters = HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectory, "synthetic", null, projection);
+			for (HadoopJob hj : withoutCounters) {
+				Assert.assertEquals(hj.getCounters().size(), 0);
+				Assert.assertEquals(hj.getConfigValues().size(), 40);
+			}
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testCompactCounters() throws ParseException {
+		String counters = "{(FileSystemCounters)(FileSystemCounters)[(HDFS_BYTES_READ)(HDFS_BYTES_READ)(1024)]}" +
+				"{(my\\(group\\))(My group)[(A\\[1\\])(a)(7)][(B)(b \\) c)(-3)]}";
+		HadoopJob hj = new HadoopJob();
+		Assert.assertEquals(CompactCounters.addCounters(counters, new String[] {"HDFS_BYTES_READ", "A[1]", "B"}, hj), 3);
+		Assert.assertEquals(hj.getCounter("HDFS_BYTES_READ", 0), 1024);
+		Assert.assertEquals(hj.getCounter("A[1]", 0), 7);
+		Assert.assertEquals(hj.getCounter("B", 0), -3);
+
+		try {
+			CompactCounters.addCounters("{(group)(group)[(A)(a)(7)}", new String[] {"A"}, new HadoopJob());
+			Assert.fail();
+		} catch (ParseException e) {
+			//expected
+		}
+	}
+}
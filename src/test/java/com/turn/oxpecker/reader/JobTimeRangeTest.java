@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class JobTimeRangeTest {
+
+	@Test
+	public static void testPrunesJobsOutOfRange() throws IOException, URISyntaxException {
+		//one job an hour, each running a few minutes
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("range", 24);
+		try {
+			File dateDirectory = history.generate();
+			ZonedDateTime midnight = SyntheticHistoryFixture.start();
+
+			//the job submitted at 10:00 is still running at 10:00:05, the one of 9:00 is not
+			ZonedDateTime start = midnight.plusHours(10).plusSeconds(5);
+			ZonedDateTime end = midnight.plusHours(14);
+			JobTimeRange range = new JobTimeRange(start, end);
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			Assert.assertEquals(HadoopJobHistoryFileParser.getJobIdsFromIndex(index, range).size(), 4);
+
+			Set<Object> expected = new HashSet<Object>();
+			for (HadoopJob hj : HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectory, "synthetic")) {
+				long submitTime = Long.parseLong((String) hj.getFields().get("SUBMIT_TIME"));
+				long finishTime = Long.parseLong((String) hj.getFields().get("FINISH_TIME"));
+				if (submitTime < range.getEndMillis() && finishTime >= range.getStartMillis()) {
+					expected.add(hj.getFields().get("JOBID"));
+				}
+			}
+			Assert.assertEquals(expected.size(), 4);
+
+			List<Collection<HadoopJob>> jobs = HadoopJobHistoryFileParser.getHadoopJobsForDates(start, end, history.getPath(), "synthetic");
+			Assert.assertEquals(jobIds(jobs.get(0)), expected);
+
+			List<HadoopJob> iterated = new ArrayList<HadoopJob>();
+			HadoopJobIterator it = HadoopJobHistoryFileParser.getHadoopJobIteratorForDates(start, end, history.getPath(), "synthetic");
+			while (it.hasNext()) {
+				iterated.add(it.next());
+			}
+			Assert.assertEquals(jobIds(iterated), expected);
+
+			//the job ids of the range are the ones of the jobs
+			Set<Object> ids = new HashSet<Object>();
+			for (Collection<String> directoryIds : HadoopJobHistoryFileParser.getHadoopJobIdsForDates(start, end, history.getPath())) {
+				ids.addAll(directoryIds);
+			}
+			Assert.assertEquals(ids, expected);
+
+			//a range is never empty
+			try {
+				HadoopJobHistoryFileParser.getHadoopJobsForDates(midnight, midnight, history.getPath(), "synthetic");
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+
+			//submitted at the end is out of the half open range
+			JobTimeRange empty = new JobTimeRange(midnight.plusHours(14).plusMinutes(30), midnight.plusHours(15));
+			Assert.assertEquals(HadoopJobHistoryFileParser.getJobIdsFromIndex(index, empty).size(), 0);
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testFindsJobsFinishedTheNextDay() throws IOException, URISyntaxException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("nextday", 24);
+		try {
+			List<File> dateDirectories = history.generate(2);
+			ZonedDateTime midnight = SyntheticHistoryFixture.start();
+
+			//the job submitted at 23:00 finished after midnight, so its files are in the next date directory
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectories.get(0));
+			String lateJobId = null;
+			for (String jobId : index.getJobIds()) {
+				JobHistoryDirectoryIndex.JobFiles jobFiles = index.getJobFiles(jobId);
+				if (jobFiles.getSubmitTimeMillis() == midnight.plusHours(23).toInstant().toEpochMilli()) {
+					lateJobId = jobId;
+					moveToNextDay(jobFiles.getStatsFile(), dateDirectories);
+					moveToNextDay(jobFiles.getConfFile(), dateDirectories);
+				}
+			}
+			Assert.assertNotNull(lateJobId);
+
+			ZonedDateTime start = midnight.plusHours(22).plusMinutes(30);
+			ZonedDateTime end = midnight.plusDays(1);
+			List<HadoopJob> found = new ArrayList<HadoopJob>();
+			for (Collection<HadoopJob> hadoopJobs : HadoopJobHistoryFileParser.getHadoopJobsForDates(start, end, history.getPath(), "synthetic")) {
+				found.addAll(hadoopJobs);
+			}
+			Assert.assertEquals(jobIds(found), new HashSet<Object>(Arrays.asList(lateJobId)));
+
+			List<HadoopJob> iterated = new ArrayList<HadoopJob>();
+			HadoopJobIterator it = HadoopJobHistoryFileParser.getHadoopJobIteratorForDates(start, end, history.getPath(), "synthetic");
+			while (it.hasNext()) {
+				iterated.add(it.next());
+			}
+			Assert.assertEquals(jobIds(iterated), jobIds(found));
+		} finally {
+			history.delete();
+		}
+	}
+
+	private static void moveToNextDay(File file, List<File> dateDirectories) throws IOException {
+		String relativePath = file.getAbsolutePath().substring(dateDirectories.get(0).getAbsolutePath().length());
+		File target = new File(dateDirectories.get(1).getAbsolutePath() + relativePath);
+		target.getParentFile().mkdirs();
+		if (!file.renameTo(target)) {
+			throw new IOException(String.format("Could not move %s to %s", file, target));
+		}
+	}
+
+	private static Set<Object> jobIds(Collection<HadoopJob> hadoopJobs) {
+		Set<Object> jobIds = new HashSet<Object>();
+		for (HadoopJob hj : hadoopJobs) {
+			jobIds.add(hj.getFields().get("JOBID"));
+		}
+		return jobIds;
+	}
+}
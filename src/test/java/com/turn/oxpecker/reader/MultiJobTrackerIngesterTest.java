@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class MultiJobTrackerIngesterTest {
+
+	@Test
+	public static void testIngestsEveryTracker() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("trackers", 20);
+		try {
+			//a jobtracker restarted during the day, and another one
+			generate(history.getBaseDir(), "jt001.sjc2.turn.com", 1430000000000L, 20);
+			generate(history.getBaseDir(), "jt001.sjc2.turn.com", 1430100000000L, 5);
+			generate(history.getBaseDir(), "jt002.ams1.turn.com", 1430000000000L, 10);
+
+			MultiJobTrackerIngester ingester = new MultiJobTrackerIngester(history.getBaseDir());
+			ingester.setTrackerName("jt001.sjc2.turn.com", "sjc2");
+			ingester.setThreads("sjc2", 3);
+			Assert.assertEquals(ingester.getTrackers().get("sjc2").size(), 2);
+			Assert.assertEquals(ingester.getTrackers().get("jt002.ams1.turn.com").size(), 1);
+
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+			final Map<Object, Integer> jobsPerTracker = new HashMap<Object, Integer>();
+			Map<String, Integer> counts = ingester.ingest(start, start.plusDays(1), new HadoopJobSink() {
+				public void accept(HadoopJob hadoopJob) {
+					Object trackerName = hadoopJob.getFields().get(Constant.JOB_TRACKER);
+					Integer count = jobsPerTracker.get(trackerName);
+					jobsPerTracker.put(trackerName, count == null ? 1 : count + 1);
+				}
+			});
+			Assert.assertEquals(counts.get("sjc2").intValue(), 25);
+			Assert.assertEquals(counts.get("jt002.ams1.turn.com").intValue(), 10);
+			Assert.assertEquals(jobsPerTracker.get("sjc2").intValue(), 25);
+			Assert.assertEquals(jobsPerTracker.get("jt002.ams1.turn.com").intValue(), 10);
+
+			//a tracker that fails does not stop the other one
+			jobsPerTracker.clear();
+			try {
+				ingester.ingest(start, start.plusDays(1), new HadoopJobSink() {
+					public void accept(HadoopJob hadoopJob) throws IOException {
+						Object trackerName = hadoopJob.getFields().get(Constant.JOB_TRACKER);
+						if (trackerName.equals("jt002.ams1.turn.com")) {
+							throw new IOException("ams1 is down");
+						}
+						Integer count = jobsPerTracker.get(trackerName);
+						jobsPerTracker.put(trackerName, count == null ? 1 : count + 1);
+					}
+				});
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("[jt002.ams1.turn.com]"), e.getMessage());
+			}
+			Assert.assertEquals(jobsPerTracker.get("sjc2").intValue(), 25);
+		} finally {
+			history.delete();
+		}
+	}
+
+	private static void generate(File baseDir, String host, long startMillis, int jobs) throws IOException {
+		SyntheticJobHistoryGenerator generator = SyntheticHistoryFixture.newGenerator(baseDir, jobs);
+		generator.setJobTrackerHost(host);
+		generator.setJobTrackerStartMillis(startMillis);
+		generator.generate(SyntheticHistoryFixture.DAY);
+	}
+}
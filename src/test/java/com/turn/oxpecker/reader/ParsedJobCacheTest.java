@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ParsedJobCacheTest {
+
+	private static final long HOUR = 3600 * 1000L;
+
+	@Test
+	public static void testHitsUntilTheFilesChange() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("cache", 5);
+		File cacheDir = new File(history.getBaseDir(), "cache");
+		try {
+			File dateDirectory = history.generate();
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+			List<String> jobIds = new ArrayList<String>(index.getJobIds());
+			Collections.sort(jobIds);
+
+			ParsedJobCache cache = new ParsedJobCache(cacheDir, Long.MAX_VALUE, Long.MAX_VALUE);
+			for (String jobId : jobIds) {
+				Assert.assertNull(cache.get(dateDirectory, index.getJobFiles(jobId)));
+				cache.put(dateDirectory, index.getJobFiles(jobId), HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, index.getJobFiles(jobId), "synthetic"));
+			}
+			assertSameJob(cache.get(dateDirectory, index.getJobFiles(jobIds.get(0))),
+					HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, index.getJobFiles(jobIds.get(0)), "synthetic"));
+			cache.flush(dateDirectory);
+			Assert.assertTrue(cache.getCacheFile(dateDirectory).isFile());
+
+			//a new cache reads the entries back from disk
+			cache = new ParsedJobCache(cacheDir, Long.MAX_VALUE, Long.MAX_VALUE);
+			for (String jobId : jobIds) {
+				assertSameJob(cache.get(dateDirectory, index.getJobFiles(jobId)),
+						HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, index.getJobFiles(jobId), "synthetic"));
+			}
+
+			//a conf file that grew and a stats file that was touched
+			JobHistoryDirectoryIndex.JobFiles grown = index.getJobFiles(jobIds.get(1));
+			FileWriter writer = new FileWriter(grown.getConfFile(), true);
+			try {
+				writer.write("\n");
+			} finally {
+				writer.close();
+			}
+			JobHistoryDirectoryIndex.JobFiles touched = index.getJobFiles(jobIds.get(2));
+			Assert.assertTrue(touched.getStatsFile().setLastModified(touched.getStatsFile().lastModified() - HOUR));
+			Assert.assertNull(cache.get(dateDirectory, grown));
+			Assert.assertNull(cache.get(dateDirectory, touched));
+			Assert.assertNotNull(cache.get(dateDirectory, index.getJobFiles(jobIds.get(3))));
+
+			//the stale entries are dropped from disk too
+			cache.flush(dateDirectory);
+			cache = new ParsedJobCache(cacheDir, Long.MAX_VALUE, Long.MAX_VALUE);
+			Assert.assertNull(cache.get(dateDirectory, grown));
+			Assert.assertNotNull(cache.get(dateDirectory, index.getJobFiles(jobIds.get(0))));
+		} finally {
+			history.delete();
+		}
+	}
+
+	@Test
+	public static void testEvictsOldAndLeastRecentlyUsedFiles() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("eviction", 3);
+		File cacheDir = new File(history.getBaseDir(), "cache");
+		try {
+			List<File> dateDirectories = history.generate(3);
+			FileSystem fs = FileSystem.getLocal(new Configuration());
+			ParsedJobCache cache = new ParsedJobCache(cacheDir, Long.MAX_VALUE, Long.MAX_VALUE);
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < dateDirectories.size(); i++) {
+				File dateDirectory = dateDirectories.get(i);
+				JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectory);
+				for (String jobId : index.getJobIds()) {
+					cache.put(dateDirectory, index.getJobFiles(jobId), HadoopJobHistoryFileParser.getHadoopJobFromFiles(fs, index.getJobFiles(jobId), "synthetic"));
+				}
+				cache.flush(dateDirectory);
+				//the first directory was used three hours ago, the last one an hour ago
+				Assert.assertTrue(cache.getCacheFile(dateDirectory).setLastModified(now - (3 - i) * HOUR));
+			}
+			File oldest = cache.getCacheFile(dateDirectories.get(0));
+			File middle = cache.getCacheFile(dateDirectories.get(1));
+			File newest = cache.getCacheFile(dateDirectories.get(2));
+
+			//too old
+			new ParsedJobCache(cacheDir, Long.MAX_VALUE, 150 * 60 * 1000L).evict();
+			Assert.assertFalse(oldest.exists());
+			Assert.assertTrue(middle.exists());
+			Assert.assertTrue(newest.exists());
+
+			//too large, the least recently used file goes first
+			new ParsedJobCache(cacheDir, newest.length() + middle.length() - 1, Long.MAX_VALUE).evict();
+			Assert.assertFalse(middle.exists());
+			Assert.assertTrue(newest.exists());
+
+			//reading a cache file counts as using it
+			JobHistoryDirectoryIndex index = JobHistoryDirectoryIndex.build(HadoopJobHistoryFileParser.jobHistoryFileSystem, dateDirectories.get(2));
+			Assert.assertNotNull(cache.get(dateDirectories.get(2), index.getJobFiles(index.getJobIds().iterator().next())));
+			Assert.assertTrue(newest.lastModified() > now - HOUR);
+		} finally {
+			history.delete();
+		}
+	}
+
+	private static void assertSameJob(HadoopJob cached, HadoopJob parsed) {
+		Assert.assertNotNull(cached);
+		Assert.assertEquals(cached.getFields(), parsed.getFields());
+		Assert.assertEquals(cached.getCounters(), parsed.getCounters());
+		Assert.assertEquals(cached.getConfigValues(), parsed.getConfigValues());
+	}
+}
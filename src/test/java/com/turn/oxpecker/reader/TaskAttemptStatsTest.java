@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.reader;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.instrumentation.TaskAttemptStats;
+import com.turn.oxpecker.testing.SyntheticHistoryFixture;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.ZonedDateTime;
+
+public class TaskAttemptStatsTest {
+
+	@Test
+	public static void testParsesTaskAttemptsOnlyWhenAsked() throws IOException {
+		SyntheticHistoryFixture history = new SyntheticHistoryFixture("attempts", 4);
+		boolean useHadoopJobHistoryParser = HadoopJobHistoryFileParser.useHadoopJobHistoryParser;
+		try {
+			SyntheticJobHistoryGenerator generator = history.getGenerator();
+			generator.setMapsPerJob(25);
+			generator.setReducesPerJob(3);
+			history.generate();
+			String instanceDir = generator.getInstanceDirectory().getAbsolutePath();
+			ZonedDateTime start = SyntheticHistoryFixture.start();
+
+			List<HadoopJob> jobs = parse(start, instanceDir, JobProjection.ALL);
+			Assert.assertEquals(jobs.size(), 4);
+			Assert.assertNull(jobs.get(0).getTaskAttemptStats());
+
+			JobProjection projection = new JobProjection(null, Collections.<String>emptySet(), null).withTaskAttempts();
+			for (boolean hadoopParser : new boolean[] {false, true}) {
+				HadoopJobHistoryFileParser.useHadoopJobHistoryParser = hadoopParser;
+				jobs = parse(start, instanceDir, projection);
+				Assert.assertEquals(jobs.size(), 4);
+				TaskAttemptStats total = new TaskAttemptStats();
+				for (HadoopJob hj : jobs) {
+					TaskAttemptStats stats = hj.getTaskAttemptStats();
+					Assert.assertNotNull(stats);
+					Assert.assertTrue(hj.getCounters().isEmpty());
+					Assert.assertEquals(stats.getMapDuration().getCount(), 25);
+					//every tenth map fails once
+					Assert.assertEquals(stats.getFailedAttempts(), 2);
+					Assert.assertEquals(stats.getReduceDuration().getCount(), 3);
+					Assert.assertEquals(stats.getShuffleTime().getCount(), 3);
+					Assert.assertEquals(stats.getSortTime().getCount(), 3);
+					Assert.assertEquals(stats.getMapInputBytes().getCount(), 25);
+					Assert.assertEquals(stats.getReduceInputRecords().getCount(), 3);
+					//synthetic maps run for 5 to 65 seconds
+					Assert.assertTrue(stats.getMapDuration().getMin() >= 5000);
+					Assert.assertTrue(stats.getMapDuration().getMax() < 65000);
+					Assert.assertTrue(stats.getMapDurationSkew() >= 1);
+					Assert.assertTrue(stats.getMapStragglers() < 25);
+					total.merge(stats);
+				}
+				Assert.assertEquals(total.getMapDuration().getCount(), 100);
+				Assert.assertEquals(total.getFailedAttempts(), 8);
+			}
+		} finally {
+			HadoopJobHistoryFileParser.useHadoopJobHistoryParser = useHadoopJobHistoryParser;
+			history.delete();
+		}
+	}
+
+	private static List<HadoopJob> parse(ZonedDateTime start, String instanceDir, JobProjection projection) throws IOException {
+		final List<HadoopJob> jobs = new ArrayList<HadoopJob>();
+		HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(1), instanceDir, "jt", new HadoopJobSink() {
+			public void accept(HadoopJob hadoopJob) {
+				jobs.add(hadoopJob);
+			}
+		}, 1, null, projection);
+		return jobs;
+	}
+}
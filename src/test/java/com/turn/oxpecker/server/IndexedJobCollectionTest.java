@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.JobTimeRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IndexedJobCollectionTest {
+
+	private static final String[] QUEUES = {"default", "etl", "adhoc"};
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	private static HadoopJob job(int i, Random random) {
+		HadoopJob hj = new HadoopJob();
+		hj.addField("JOBID", String.format("job_201506010000_%04d", i));
+		hj.addField("JOB_QUEUE", QUEUES[i % QUEUES.length]);
+		hj.addField("JOBNAME", String.format("name-%s", i % 50));
+		hj.addField("JOB_STATUS", i % 7 == 0 ? "FAILED" : "SUCCESS");
+		hj.addField("USER", String.format("user%s", i % 5));
+		//submitted out of order over three days, some still running
+		long submitTime = random.nextInt(72) * HOUR + random.nextInt(1000);
+		hj.addField("SUBMIT_TIME", String.valueOf(submitTime));
+		if (i % 11 != 0) {
+			hj.addField("FINISH_TIME", String.valueOf(submitTime + random.nextInt(5) * HOUR));
+		}
+		return hj;
+	}
+
+	private static List<HadoopJob> scan(List<HadoopJob> jobs, JobQuery query) {
+		List<HadoopJob> found = new ArrayList<HadoopJob>();
+		for (HadoopJob hj : jobs) {
+			if (found.size() < query.getLimit() && query.matches(hj)) {
+				found.add(hj);
+			}
+		}
+		return found;
+	}
+
+	@Test
+	public static void testAnswersLikeAScan() {
+		Random random = new Random(7);
+		List<HadoopJob> jobs = new ArrayList<HadoopJob>();
+		IndexedJobCollection collection = new IndexedJobCollection();
+		for (int i = 0; i < 3000; i++) {
+			HadoopJob hj = job(i, random);
+			jobs.add(hj);
+			collection.add(hj);
+		}
+		Assert.assertEquals(collection.size(), 3000);
+
+		List<JobQuery> queries = new ArrayList<JobQuery>();
+		queries.add(new JobQuery());
+		queries.add(new JobQuery().addFieldValue("JOB_QUEUE", "etl"));
+		queries.add(new JobQuery().addFieldValue("JOB_STATUS", "FAILED"));
+		queries.add(new JobQuery().addFieldValue("JOBNAME", "name-7"));
+		queries.add(new JobQuery().addFieldValue("JOBNAME", "name-7").addFieldValue("JOB_QUEUE", "adhoc"));
+		queries.add(new JobQuery().addFieldValue("JOB_STATUS", "FAILED").addFieldValue("JOB_QUEUE", "etl").addFieldValue("USER", "user3"));
+		queries.add(new JobQuery().addFieldValue("JOB_QUEUE", "no such queue"));
+		queries.add(new JobQuery().addFieldValue("JOB_QUEUE", "etl").setLimit(10));
+		//not indexed
+		queries.add(new JobQuery().addFieldValue("JOBID", "job_201506010000_0042"));
+		queries.add(new JobQuery().addFieldValue("JOBID", "job_201506010000_0042").addFieldValue("JOB_QUEUE", "default"));
+		for (int hour = 0; hour < 80; hour += 7) {
+			JobTimeRange range = new JobTimeRange(hour * HOUR, (hour + 1) * HOUR);
+			queries.add(new JobQuery().setRange(range));
+			queries.add(new JobQuery().setRange(range).addFieldValue("JOB_STATUS", "FAILED"));
+			queries.add(new JobQuery().setRange(range).addFieldValue("JOBNAME", "name-3").addFieldValue("USER", "user3"));
+		}
+		queries.add(new JobQuery().setRange(new JobTimeRange(0, 72 * HOUR)).addFieldValue("JOB_QUEUE", "etl"));
+		queries.add(new JobQuery().setRange(new JobTimeRange(71 * HOUR, Long.MAX_VALUE)));
+
+		for (JobQuery query : queries) {
+			Assert.assertEquals(collection.find(query), scan(jobs, query), query.toString());
+		}
+
+		//the indexes narrow down the jobs to check
+		JobQuery failedEtl = new JobQuery().addFieldValue("JOB_STATUS", "FAILED").addFieldValue("JOB_QUEUE", "etl");
+		Assert.assertEquals(collection.countCandidates(failedEtl), scan(jobs, failedEtl).size());
+		JobQuery oneHour = new JobQuery().setRange(new JobTimeRange(70 * HOUR, 71 * HOUR));
+		//the jobs finished since the start and the running jobs
+		Assert.assertTrue(collection.countCandidates(oneHour) < 750, String.valueOf(collection.countCandidates(oneHour)));
+		Assert.assertEquals(collection.countCandidates(new JobQuery().addFieldValue("JOBID", "job_201506010000_0042")), 3000);
+	}
+
+	@Test
+	public static void testReplacesJobsWithTheSameId() {
+		Random random = new Random(11);
+		IndexedJobCollection collection = new IndexedJobCollection();
+		for (int i = 0; i < 200; i++) {
+			collection.add(job(i, random));
+		}
+		HadoopJob running = collection.get("job_201506010000_0022");
+		Assert.assertEquals(running.getFields().get("FINISH_TIME"), null);
+
+		HadoopJob finished = new HadoopJob();
+		finished.addField("JOBID", "job_201506010000_0022");
+		finished.addField("JOB_QUEUE", "etl");
+		finished.addField("JOB_STATUS", "KILLED");
+		finished.addField("SUBMIT_TIME", running.getFields().get("SUBMIT_TIME"));
+		finished.addField("FINISH_TIME", String.valueOf(100 * HOUR));
+		collection.add(finished);
+
+		Assert.assertEquals(collection.size(), 200);
+		Assert.assertSame(collection.get("job_201506010000_0022"), finished);
+		List<HadoopJob> killed = collection.find(new JobQuery().addFieldValue("JOB_STATUS", "KILLED"));
+		Assert.assertEquals(killed.size(), 1);
+		Assert.assertSame(killed.get(0), finished);
+		Assert.assertFalse(collection.find(new JobQuery().addFieldValue("JOB_QUEUE", "adhoc")).contains(running));
+		Assert.assertEquals(collection.find(new JobQuery().addFieldValue("USER", running.getFields().get("USER").toString())).contains(running), false);
+		//the other running jobs are in any later range
+		List<HadoopJob> late = collection.find(new JobQuery().setRange(new JobTimeRange(99 * HOUR, 101 * HOUR)));
+		Assert.assertEquals(late.size(), 19);
+		Assert.assertTrue(late.contains(finished));
+		Assert.assertFalse(late.contains(running));
+	}
+
+	@Test
+	public static void testPostings() {
+		IndexedJobCollection.Postings postings = new IndexedJobCollection.Postings();
+		for (int document = 99; document >= 0; document -= 3) {
+			postings.add(document, 100000);
+		}
+		postings.add(42, 100000);
+		Assert.assertEquals(postings.size(), 34);
+		Assert.assertFalse(postings.isBitmap());
+		Assert.assertTrue(postings.contains(42));
+		Assert.assertFalse(postings.contains(43));
+		postings.remove(42);
+		Assert.assertFalse(postings.contains(42));
+		Assert.assertEquals(postings.size(), 33);
+
+		//dense postings turn into a bitmap
+		for (int document = 100; document < 200; document++) {
+			postings.add(document, 200);
+		}
+		Assert.assertTrue(postings.isBitmap());
+		Assert.assertEquals(postings.size(), 133);
+		Assert.assertTrue(postings.contains(0));
+		Assert.assertFalse(postings.contains(42));
+		postings.remove(150);
+		Assert.assertFalse(postings.contains(150));
+		Assert.assertEquals(postings.size(), 132);
+	}
+}
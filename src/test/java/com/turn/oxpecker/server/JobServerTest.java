@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.server;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobHistoryFileParser;
+import com.turn.oxpecker.reader.JobTimeRange;
+import com.turn.oxpecker.testing.SyntheticJobHistoryGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+public class JobServerTest {
+
+	private static final Pattern JOB_ID = Pattern.compile("\"JOBID\":\"([^\"]+)\"");
+
+	@Test
+	public static void testAnswersQueriesOverHttp() throws IOException {
+		File baseDir = File.createTempFile("oxpecker", "server");
+		baseDir.delete();
+		JobServer server = null;
+		try {
+			SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(baseDir);
+			generator.setJobsPerDay(30);
+			generator.setMapsPerJob(2);
+			generator.setReducesPerJob(1);
+			generator.setPropertiesPerConf(10);
+			generator.setCountersPerJob(3);
+			LocalDate day = LocalDate.of(2015, 6, 1);
+			generator.generate(day, 2);
+
+			JobStore store = new JobStore();
+			ZonedDateTime start = day.atStartOfDay(ZoneId.systemDefault());
+			HadoopJobHistoryFileParser.processHadoopJobsForDates(start, start.plusDays(2),
+					generator.getInstanceDirectory().getAbsolutePath(), "jt", store);
+			Assert.assertEquals(store.size(), 60);
+
+			server = new JobServer(store);
+			server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+			String base = String.format("http://127.0.0.1:%s", server.getPort());
+
+			Assert.assertTrue(get(base + "/status", 200).contains("\"jobs\":60"));
+			Assert.assertEquals(countJobs(get(base + "/jobs", 200)), 60);
+			Assert.assertEquals(countJobs(get(base + "/jobs?limit=5", 200)), 5);
+
+			//one queue in three, two names in fifty
+			Assert.assertEquals(countJobs(get(base + "/jobs?JOB_QUEUE=etl", 200)), 20);
+			Assert.assertEquals(countJobs(get(base + "/jobs?JOBNAME=synthetic-7", 200)), 2);
+			Assert.assertEquals(countJobs(get(base + "/jobs?JOBNAME=synthetic-7&JOB_QUEUE=etl", 200)), 1);
+			Assert.assertEquals(countJobs(get(base + "/jobs?start=2015-06-01&end=2015-06-01", 200)), 30);
+			long secondDay = start.plusDays(1).toInstant().toEpochMilli();
+			Assert.assertEquals(countJobs(get(base + "/jobs?start=" + secondDay, 200)), 30);
+
+			Matcher m = JOB_ID.matcher(get(base + "/jobs?limit=1", 200));
+			Assert.assertTrue(m.find());
+			String jobId = m.group(1);
+			String job = get(base + "/jobs/" + jobId + "?config=true", 200);
+			Assert.assertTrue(job.contains("\"mapred.job.queue.name\""));
+			Assert.assertTrue(job.contains("\"COUNTER_0\""));
+			Assert.assertFalse(get(base + "/jobs/" + jobId, 200).contains("\"config\""));
+			get(base + "/jobs/job_0_0000", 404);
+
+			String aggregate = get(base + "/aggregate?groupBy=JOB_QUEUE&sum=COUNTER_0&max=duration,field:TOTAL_MAPS&min=NO_SUCH_COUNTER", 200);
+			Assert.assertTrue(aggregate.startsWith("{\"jobs\":60,"));
+			Assert.assertTrue(aggregate.contains("{\"key\":{\"JOB_QUEUE\":\"etl\"},\"count\":20,"));
+			Assert.assertTrue(aggregate.contains("\"min(NO_SUCH_COUNTER)\":null,"));
+			Assert.assertTrue(aggregate.contains("\"max(field:TOTAL_MAPS)\":2}"));
+			Assert.assertEquals(get(base + "/aggregate?groupBy=config:mapred.job.queue.name&JOB_QUEUE=adhoc", 200),
+					"{\"jobs\":20,\"groups\":[{\"key\":{\"config:mapred.job.queue.name\":\"adhoc\"},\"count\":20}]}");
+
+			get(base + "/jobs?limit=many", 400);
+			get(base + "/jobs?start=yesterday", 400);
+			get(base + "/jobs?lmit=5", 400);
+			get(base + "/nothing", 404);
+
+			//a job picked up after the server started is answered at once
+			HadoopJob newJob = new HadoopJob();
+			newJob.addField("JOBID", "job_201506030000_0001");
+			newJob.addField("JOB_QUEUE", "etl");
+			store.accept(newJob);
+			Assert.assertTrue(get(base + "/status", 200).contains("\"jobs\":61"));
+			Assert.assertEquals(countJobs(get(base + "/jobs?JOB_QUEUE=etl", 200)), 21);
+			//and replaces the job with the same id
+			store.accept(newJob);
+			Assert.assertEquals(store.size(), 61);
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+
+	@Test
+	public static void testLimitsJobs() throws IOException {
+		JobStore store = new JobStore();
+		for (int i = 0; i < JobServer.DEFAULT_LIMIT + 100; i++) {
+			HadoopJob hj = new HadoopJob();
+			hj.addField("JOBID", String.format("job_201506010000_%04d", i));
+			store.accept(hj);
+		}
+		JobServer server = new JobServer(store);
+		Assert.assertEquals(countJobs(server.answer("/jobs", JobServer.parseQueryString(null))), JobServer.DEFAULT_LIMIT);
+		Assert.assertEquals(countJobs(server.answer("/jobs", JobServer.parseQueryString("limit=1050"))), 1050);
+		try {
+			server.answer("/jobs", JobServer.parseQueryString("limit=" + (JobServer.MAX_LIMIT + 1)));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().contains(String.valueOf(JobServer.MAX_LIMIT)), e.getMessage());
+		}
+	}
+
+	@Test
+	public static void testDropsJobsOutOfTheRetention() {
+		long now = System.currentTimeMillis();
+		long hour = 3600 * 1000L;
+		JobStore store = new JobStore();
+		store.setRetentionMillis(24 * hour);
+		for (int i = 0; i < 48; i++) {
+			HadoopJob hj = new HadoopJob();
+			hj.addField("JOBID", String.format("job_201506010000_%04d", i));
+			hj.addField("JOB_QUEUE", i % 2 == 0 ? "etl" : "adhoc");
+			hj.addField("SUBMIT_TIME", String.valueOf(now - (i + 1) * hour));
+			//the oldest job and one of the last day have no FINISH_TIME
+			if (i != 47 && i != 5) {
+				hj.addField("FINISH_TIME", String.valueOf(now - i * hour - hour / 2));
+			}
+			store.accept(hj);
+		}
+		store.flush();
+		//finished, or submitted if not finished, in the last day
+		Assert.assertEquals(store.size(), 24);
+		Assert.assertNotNull(store.get("job_201506010000_0005"));
+		Assert.assertNotNull(store.get("job_201506010000_0023"));
+		Assert.assertNull(store.get("job_201506010000_0024"));
+		Assert.assertNull(store.get("job_201506010000_0047"));
+		Assert.assertEquals(store.find(new JobQuery().addFieldValue("JOB_QUEUE", "etl")).size(), 12);
+		Assert.assertEquals(store.find(new JobQuery().setRange(new JobTimeRange(now - 2 * hour, now))).size(), 3);
+		Assert.assertEquals(store.removeBefore(now), 24);
+		Assert.assertEquals(store.size(), 0);
+	}
+
+	@Test
+	public static void testWritesJson() {
+		String json = new JsonWriter().beginObject()
+				.name("a").value("quote \" backslash \\ newline \n tab \t bell \u0007")
+				.name("b").beginArray().value(1L).value(2.5).value((String) null).endArray()
+				.name("c").beginObject().endObject()
+				.endObject().toString();
+		Assert.assertEquals(json, "{\"a\":\"quote \\\" backslash \\\\ newline \\n tab \\t bell \\u0007\",\"b\":[1,2.5,null],\"c\":{}}");
+	}
+
+	private static int countJobs(String json) {
+		int count = 0;
+		Matcher m = JOB_ID.matcher(json);
+		while (m.find()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static String get(String url, int expectedStatus) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			Assert.assertEquals(connection.getResponseCode(), expectedStatus, url);
+			Assert.assertEquals(connection.getContentType(), "application/json; charset=utf-8");
+			InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+			in.close();
+			return out.toString("UTF-8");
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.snapshot;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HadoopJobSnapshotTest {
+
+	@Test
+	public static void testRoundTrip() throws IOException {
+		List<HadoopJob> hadoopJobs = new ArrayList<HadoopJob>();
+		for (int i = 0; i < 50; i++) {
+			HadoopJob hj = new HadoopJob();
+			hj.addField("JOBID", "job_201505132037_" + i);
+			hj.addField("JOB_TRACKER", "local");
+			hj.addField("SUBMIT_TIME", 1433142000000L + i);
+			hj.addField("TOTAL_MAPS", i);
+			hj.addField("JOB_QUEUE", null);
+			hj.addCounter("FileSystemCounters.HDFS_BYTES_READ", 1L << i);
+			hj.addCounter("org.apache.hadoop.mapred.Task$Counter.SPILLED_RECORDS", -i);
+			hj.addConfigValue("mapred.job.name", "wordcount " + i);
+			hj.addConfigValue("mapred.reduce.tasks", "é" + i);
+			//null and empty config values stay apart
+			hj.addConfigValue("mapred.job.queue.name", i % 2 == 0 ? null : "");
+			hadoopJobs.add(hj);
+		}
+
+		File snapshotFile = File.createTempFile("oxpecker", ".snapshot");
+		snapshotFile.deleteOnExit();
+		HadoopJobSnapshotWriter writer = new HadoopJobSnapshotWriter(snapshotFile);
+		for (HadoopJob hj : hadoopJobs) {
+			writer.accept(hj);
+		}
+		writer.close();
+		Assert.assertEquals(writer.getJobCount(), 50);
+
+		//a window smaller than a job forces a remap for every record
+		HadoopJobSnapshotReader reader = new HadoopJobSnapshotReader(snapshotFile, 64);
+		List<HadoopJob> read = new ArrayList<HadoopJob>();
+		while (reader.hasNext()) {
+			read.add(reader.next());
+		}
+		reader.close();
+
+		Assert.assertEquals(read.size(), hadoopJobs.size());
+		for (int i = 0; i < read.size(); i++) {
+			Assert.assertEquals(read.get(i).getFields(), hadoopJobs.get(i).getFields());
+			Assert.assertEquals(read.get(i).getCounters(), hadoopJobs.get(i).getCounters());
+			Assert.assertEquals(read.get(i).getConfigValues(), hadoopJobs.get(i).getConfigValues());
+		}
+		Assert.assertNull(read.get(0).getConfigValues().get("mapred.job.queue.name"));
+		Assert.assertTrue(read.get(0).getConfigValues().containsKey("mapred.job.queue.name"));
+		Assert.assertEquals(read.get(1).getConfigValues().get("mapred.job.queue.name"), "");
+		Assert.assertEquals(HadoopJobSnapshotReader.readAll(snapshotFile).size(), 50);
+	}
+
+	@Test
+	public static void testReadsVersion1() throws IOException {
+		File snapshotFile = File.createTempFile("oxpecker", ".snapshot");
+		snapshotFile.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshotFile));
+		try {
+			out.writeInt(SnapshotFormat.MAGIC);
+			out.writeInt(SnapshotFormat.PLAIN_CONFIG_VALUES_VERSION);
+			out.writeByte(SnapshotFormat.KEY_RECORD);
+			out.writeInt(2);
+			out.write(new byte[] {1, 'k'});
+			//no fields, no counters, k=v
+			out.writeByte(SnapshotFormat.JOB_RECORD);
+			out.writeInt(6);
+			out.write(new byte[] {0, 0, 1, 0, 1, 'v'});
+		} finally {
+			out.close();
+		}
+		List<HadoopJob> read = HadoopJobSnapshotReader.readAll(snapshotFile);
+		Assert.assertEquals(read.size(), 1);
+		Assert.assertEquals(read.get(0).getConfigValues().get("k"), "v");
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.threeten.bp.LocalDate;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * A small synthetic job history in a temporary directory, shared by the reader tests
+ */
+public class SyntheticHistoryFixture {
+
+	public static final LocalDate DAY = LocalDate.of(2015, 6, 1);
+
+	private final File baseDir;
+	private final SyntheticJobHistoryGenerator generator;
+
+	/**
+	 * @param name
+	 * @param jobsPerDay
+	 * @throws IOException
+	 */
+	public SyntheticHistoryFixture(String name, int jobsPerDay) throws IOException {
+		baseDir = File.createTempFile("oxpecker", name);
+		baseDir.delete();
+		generator = newGenerator(baseDir, jobsPerDay);
+	}
+
+	/**
+	 * @param baseDir
+	 * @param jobsPerDay
+	 * @return a generator of small jobs, 2 maps, 1 reduce and 20 properties
+	 */
+	public static SyntheticJobHistoryGenerator newGenerator(File baseDir, int jobsPerDay) {
+		SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(baseDir);
+		generator.setJobsPerDay(jobsPerDay);
+		generator.setMapsPerJob(2);
+		generator.setReducesPerJob(1);
+		generator.setPropertiesPerConf(20);
+		return generator;
+	}
+
+	public File getBaseDir() {
+		return baseDir;
+	}
+
+	public String getPath() {
+		return baseDir.getAbsolutePath();
+	}
+
+	public SyntheticJobHistoryGenerator getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * @return the date directory of {@link #DAY}
+	 * @throws IOException
+	 */
+	public File generate() throws IOException {
+		return generator.generate(DAY);
+	}
+
+	/**
+	 * @param days
+	 * @return the date directories starting at {@link #DAY}
+	 * @throws IOException
+	 */
+	public List<File> generate(int days) throws IOException {
+		return generator.generate(DAY, days);
+	}
+
+	/**
+	 * @return the start of {@link #DAY} in the default zone
+	 */
+	public static ZonedDateTime start() {
+		return DAY.atStartOfDay(ZoneId.systemDefault());
+	}
+
+	public void delete() throws IOException {
+		FileUtils.deleteDirectory(baseDir);
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2015 Turn Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.turn.oxpecker.testing;
+
+import com.turn.oxpecker.instrumentation.HadoopJob;
+import com.turn.oxpecker.reader.HadoopJobHistoryFileParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.threeten.bp.LocalDate;
+
+public class SyntheticJobHistoryGeneratorTest {
+
+	@Test
+	public static void testParserReadsGeneratedJobs() throws IOException, URISyntaxException {
+		File baseDir = File.createTempFile("oxpecker", "history");
+		baseDir.delete();
+		try {
+			SyntheticJobHistoryGenerator generator = new SyntheticJobHistoryGenerator(baseDir);
+			generator.setJobsPerDay(25);
+			generator.setMapsPerJob(12);
+			generator.setReducesPerJob(2);
+			generator.setCountersPerJob(25);
+			generator.setPropertiesPerConf(60);
+			List<File> dateDirectories = generator.generate(LocalDate.of(2015, 6, 1), 2);
+			Assert.assertEquals(dateDirectories.get(1).getPath(),
+					new File(generator.getInstanceDirectory(), "2015/06/02").getPath());
+
+			Collection<HadoopJob> hadoopJobs = HadoopJobHistoryFileParser.getHadoopJobsFromDirectory(dateDirectories.get(1), "synthetic");
+			Assert.assertEquals(hadoopJobs.size(), 25);
+			for (HadoopJob hj : hadoopJobs) {
+				Assert.assertEquals(hj.getFields().get("JOB_STATUS"), "SUCCESS");
+				Assert.assertEquals(hj.getFields().get("TOTAL_MAPS"), "12");
+				Assert.assertEquals(hj.getFields().get("FAILED_MAPS"), "1");
+				Assert.assertEquals(hj.getCounter("TOTAL_LAUNCHED_MAPS", -1), 13);
+				Assert.assertTrue(hj.getCounters().containsKey("COUNTER_24"));
+				Assert.assertEquals(hj.getConfigValues().size(), 60);
+				Assert.assertEquals(hj.getConfigValues().get("synthetic.property.8"), "default-8 & <1>");
+			}
+		} finally {
+			FileUtils.deleteDirectory(baseDir);
+		}
+	}
+}